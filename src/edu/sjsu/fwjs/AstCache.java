@@ -0,0 +1,97 @@
+package edu.sjsu.fwjs;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A directory of precompiled scripts.  Each script is stored in the
+ * format of AstSerializer, in a file named after the hash of its source
+ * with a .fwjsc extension.  Files are memory-mapped when loaded.
+ *
+ * A missing, stale or corrupt file is treated as a cache miss: the
+ * format's checksum catches changed bytes, and any other failure to
+ * read a file, even a tree too deep to read, counts as a miss too.
+ */
+public class AstCache {
+    public static final String EXTENSION = ".fwjsc";
+
+    private Path dir;
+    private long hits;
+    private long misses;
+    private long writes;
+
+    public AstCache(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+    }
+
+    public Path pathFor(String hash) {
+        return dir.resolve(hash + EXTENSION);
+    }
+
+    /**
+     * Loads the tree for a source hash, or returns null if it is not cached.
+     */
+    public Expression load(String hash) {
+        Path file = pathFor(hash);
+        if (!Files.isRegularFile(file)) {
+            recordMiss();
+            return null;
+        }
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            Expression prog = AstSerializer.read(buf);
+            recordHit();
+            return prog;
+        } catch (IOException | RuntimeException | StackOverflowError e) {
+            // The reader recurses, so a tree nested deeply enough overflows it
+            recordMiss();
+            return null;
+        }
+    }
+
+    /**
+     * Stores the tree for a source hash.  The file is written under a
+     * temporary name and then renamed, so readers never see half a file.
+     */
+    public void store(String hash, Expression prog) throws IOException {
+        byte[] bytes = AstSerializer.write(prog);
+        Path tmp = Files.createTempFile(dir, hash, ".tmp");
+        try {
+            Files.write(tmp, bytes);
+            Files.move(tmp, pathFor(hash), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        synchronized (this) {
+            writes++;
+        }
+    }
+
+    private synchronized void recordHit() {
+        hits++;
+    }
+
+    private synchronized void recordMiss() {
+        misses++;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized String statsReport() {
+        return String.format("ast-cache dir=%s hits=%d misses=%d writes=%d",
+                dir, hits, misses, writes);
+    }
+}
@@ -0,0 +1,440 @@
+package edu.sjsu.fwjs;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A compact binary format for expression trees.
+ *
+ * The layout is a header (magic number, format version and a CRC-32 of
+ * the rest), a table of every identifier used in the tree, and then the
+ * nodes in prefix order.
+ * Each node is a one-byte tag followed by its fields.  Integers, counts
+ * and identifier indexes are written as variable-length integers, so
+ * most of them take a single byte.
+ *
+ * Reading a tree only needs this class and the expression classes, so a
+ * cached script can be loaded without the ANTLR runtime.
+ */
+public class AstSerializer {
+    static final int MAGIC = 0x46574A43; // "FWJC"
+    static final int VERSION = 3;
+
+    // Node tags
+    private static final byte NONE = 0;
+    private static final byte INT = 1;
+    private static final byte BOOL = 2;
+    private static final byte NULL = 3;
+    private static final byte VAR = 4;
+    private static final byte PRINT = 5;
+    private static final byte BINOP = 6;
+    private static final byte IF = 7;
+    private static final byte WHILE = 8;
+    private static final byte SEQ = 9;
+    private static final byte VAR_DECL = 10;
+    private static final byte ASSIGN = 11;
+    private static final byte FUNCTION_DECL = 12;
+    private static final byte FUNCTION_APP = 13;
+    private static final byte BLOCK = 14;
+
+    private static final Op[] OPS = Op.values();
+
+    /**
+     * Thrown when the bytes are not a tree written by this version.
+     */
+    public static class FormatException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public FormatException(String msg) {
+            super(msg);
+        }
+    }
+
+    /**
+     * Serializes a whole tree.
+     */
+    public static byte[] write(Expression prog) {
+        Writer w = new Writer();
+        w.collectNames(prog);
+        w.out.writeVarInt(w.names.size());
+        for (String name : w.names) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            w.out.writeVarInt(bytes.length);
+            w.out.write(bytes);
+        }
+        w.write(prog);
+        byte[] body = w.out.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        ByteOutput out = new ByteOutput();
+        out.writeInt(MAGIC);
+        out.writeVarInt(VERSION);
+        out.writeInt((int) crc.getValue());
+        out.write(body);
+        return out.toByteArray();
+    }
+
+    /**
+     * Rebuilds a tree from bytes produced by write.  Bytes that were
+     * changed in any way since are rejected with a FormatException.
+     */
+    public static Expression read(ByteBuffer buf) {
+        try {
+            if (buf.getInt() != MAGIC) {
+                throw new FormatException("not a compiled FWJS script");
+            }
+            int version = readVarInt(buf);
+            if (version != VERSION) {
+                throw new FormatException("unsupported format version " + version);
+            }
+            int checksum = buf.getInt();
+            CRC32 crc = new CRC32();
+            crc.update(buf.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                throw new FormatException("checksum mismatch");
+            }
+            String[] names = new String[readCount(buf)];
+            for (int i = 0; i < names.length; i++) {
+                byte[] bytes = new byte[readCount(buf)];
+                buf.get(bytes);
+                names[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            Expression prog = new Reader(buf, names).read();
+            if (buf.hasRemaining()) {
+                throw new FormatException("trailing bytes after tree");
+            }
+            return prog;
+        } catch (BufferUnderflowException e) {
+            throw new FormatException("truncated compiled script");
+        }
+    }
+
+    public static Expression read(byte[] bytes) {
+        return read(ByteBuffer.wrap(bytes));
+    }
+
+    private static class Writer {
+        private ByteOutput out = new ByteOutput();
+        private List<String> names = new ArrayList<String>();
+        private Map<String,Integer> nameIndex = new HashMap<String,Integer>();
+
+        private void addName(String name) {
+            if (!nameIndex.containsKey(name)) {
+                nameIndex.put(name, names.size());
+                names.add(name);
+            }
+        }
+
+        private void collectNames(Expression e) {
+            if (e instanceof VarExpr) {
+                addName(((VarExpr) e).getName());
+            } else if (e instanceof VarDeclExpr) {
+                addName(((VarDeclExpr) e).getName());
+            } else if (e instanceof AssignExpr) {
+                addName(((AssignExpr) e).getName());
+            } else if (e instanceof FunctionDeclExpr) {
+                for (String param : ((FunctionDeclExpr) e).getParams()) {
+                    addName(param);
+                }
+            }
+            for (Expression child : children(e)) {
+                collectNames(child);
+            }
+        }
+
+        private void writeName(String name) {
+            out.writeVarInt(nameIndex.get(name));
+        }
+
+        private void write(Expression e) {
+            if (e == null) {
+                out.write(NONE);
+            } else if (e instanceof ValueExpr) {
+                Value v = ((ValueExpr) e).getValue();
+                if (v instanceof IntVal) {
+                    out.write(INT);
+                    out.writeVarInt(zigZag(((IntVal) v).toInt()));
+                } else if (v instanceof BoolVal) {
+                    out.write(BOOL);
+                    out.write(((BoolVal) v).toBoolean() ? 1 : 0);
+                } else if (v instanceof NullVal) {
+                    out.write(NULL);
+                } else {
+                    throw new IllegalArgumentException("cannot serialize constant " + v);
+                }
+            } else if (e instanceof VarExpr) {
+                out.write(VAR);
+                writeName(((VarExpr) e).getName());
+            } else if (e instanceof PrintExpr) {
+                out.write(PRINT);
+                write(((PrintExpr) e).getExpression());
+            } else if (e instanceof BinOpExpr) {
+                BinOpExpr b = (BinOpExpr) e;
+                out.write(BINOP);
+                out.write(b.getOp().ordinal());
+                write(b.getLeft());
+                write(b.getRight());
+            } else if (e instanceof IfExpr) {
+                IfExpr i = (IfExpr) e;
+                out.write(IF);
+                write(i.getCondition());
+                write(i.getThen());
+                write(i.getElse());
+            } else if (e instanceof WhileExpr) {
+                WhileExpr w = (WhileExpr) e;
+                out.write(WHILE);
+                write(w.getCondition());
+                write(w.getBody());
+            } else if (e instanceof SeqExpr) {
+                SeqExpr s = (SeqExpr) e;
+                out.write(SEQ);
+                write(s.getFirst());
+                write(s.getSecond());
+            } else if (e instanceof BlockExpr) {
+                List<Expression> stmts = ((BlockExpr) e).getStatements();
+                out.write(BLOCK);
+                out.writeVarInt(stmts.size());
+                for (Expression stmt : stmts) {
+                    write(stmt);
+                }
+            } else if (e instanceof VarDeclExpr) {
+                VarDeclExpr d = (VarDeclExpr) e;
+                out.write(VAR_DECL);
+                writeName(d.getName());
+                write(d.getInitializer());
+            } else if (e instanceof AssignExpr) {
+                AssignExpr a = (AssignExpr) e;
+                out.write(ASSIGN);
+                writeName(a.getName());
+                write(a.getExpression());
+            } else if (e instanceof FunctionDeclExpr) {
+                FunctionDeclExpr f = (FunctionDeclExpr) e;
+                out.write(FUNCTION_DECL);
+                out.writeVarInt(f.getParams().size());
+                for (String param : f.getParams()) {
+                    writeName(param);
+                }
+                write(f.getBody());
+            } else if (e instanceof FunctionAppExpr) {
+                FunctionAppExpr app = (FunctionAppExpr) e;
+                out.write(FUNCTION_APP);
+                write(app.getFunction());
+                out.writeVarInt(app.getArgs().size());
+                for (Expression arg : app.getArgs()) {
+                    write(arg);
+                }
+            } else {
+                throw new IllegalArgumentException("cannot serialize " + e.getClass().getSimpleName());
+            }
+        }
+    }
+
+    private static class Reader {
+        private ByteBuffer buf;
+        private String[] names;
+
+        Reader(ByteBuffer buf, String[] names) {
+            this.buf = buf;
+            this.names = names;
+        }
+
+        private String readName() {
+            int i = readVarInt(buf);
+            if (i < 0 || i >= names.length) {
+                throw new FormatException("bad identifier index " + i);
+            }
+            return names[i];
+        }
+
+        private Expression read() {
+            byte tag = buf.get();
+            switch (tag) {
+            case NONE:
+                return null;
+            case INT:
+                return new ValueExpr(IntVal.of(unZigZag(readVarInt(buf))));
+            case BOOL:
+                return new ValueExpr(BoolVal.of(buf.get() != 0));
+            case NULL:
+                return new ValueExpr(NullVal.NULL);
+            case VAR:
+                return new VarExpr(readName());
+            case PRINT:
+                return new PrintExpr(read());
+            case BINOP: {
+                int op = buf.get();
+                if (op < 0 || op >= OPS.length) {
+                    throw new FormatException("bad operator " + op);
+                }
+                Expression e1 = read();
+                Expression e2 = read();
+                return new BinOpExpr(OPS[op], e1, e2);
+            }
+            case IF: {
+                Expression cond = read();
+                Expression thn = read();
+                Expression els = read();
+                return new IfExpr(cond, thn, els);
+            }
+            case WHILE: {
+                Expression cond = read();
+                Expression body = read();
+                return new WhileExpr(cond, body);
+            }
+            case SEQ: {
+                Expression e1 = read();
+                Expression e2 = read();
+                return new SeqExpr(e1, e2);
+            }
+            case BLOCK: {
+                int n = readCount(buf);
+                List<Expression> stmts = new ArrayList<Expression>(n);
+                for (int i = 0; i < n; i++) {
+                    stmts.add(read());
+                }
+                return new BlockExpr(stmts);
+            }
+            case VAR_DECL: {
+                String name = readName();
+                return new VarDeclExpr(name, read());
+            }
+            case ASSIGN: {
+                String name = readName();
+                return new AssignExpr(name, read());
+            }
+            case FUNCTION_DECL: {
+                int n = readCount(buf);
+                List<String> params = new ArrayList<String>(n);
+                for (int i = 0; i < n; i++) {
+                    params.add(readName());
+                }
+                return new FunctionDeclExpr(params, read());
+            }
+            case FUNCTION_APP: {
+                Expression f = read();
+                int n = readCount(buf);
+                List<Expression> args = new ArrayList<Expression>(n);
+                for (int i = 0; i < n; i++) {
+                    args.add(read());
+                }
+                return new FunctionAppExpr(f, args);
+            }
+            default:
+                throw new FormatException("bad node tag " + tag);
+            }
+        }
+    }
+
+    /**
+     * The direct subexpressions of a source-level node.
+     * Missing (null) children are included.
+     */
+    static List<Expression> children(Expression e) {
+        List<Expression> kids = new ArrayList<Expression>();
+        if (e instanceof PrintExpr) {
+            kids.add(((PrintExpr) e).getExpression());
+        } else if (e instanceof BinOpExpr) {
+            kids.add(((BinOpExpr) e).getLeft());
+            kids.add(((BinOpExpr) e).getRight());
+        } else if (e instanceof IfExpr) {
+            kids.add(((IfExpr) e).getCondition());
+            kids.add(((IfExpr) e).getThen());
+            kids.add(((IfExpr) e).getElse());
+        } else if (e instanceof WhileExpr) {
+            kids.add(((WhileExpr) e).getCondition());
+            kids.add(((WhileExpr) e).getBody());
+        } else if (e instanceof SeqExpr) {
+            kids.add(((SeqExpr) e).getFirst());
+            kids.add(((SeqExpr) e).getSecond());
+        } else if (e instanceof BlockExpr) {
+            kids.addAll(((BlockExpr) e).getStatements());
+        } else if (e instanceof VarDeclExpr) {
+            kids.add(((VarDeclExpr) e).getInitializer());
+        } else if (e instanceof AssignExpr) {
+            kids.add(((AssignExpr) e).getExpression());
+        } else if (e instanceof FunctionDeclExpr) {
+            kids.add(((FunctionDeclExpr) e).getBody());
+        } else if (e instanceof FunctionAppExpr) {
+            kids.add(((FunctionAppExpr) e).getFunction());
+            kids.addAll(((FunctionAppExpr) e).getArgs());
+        }
+        return kids;
+    }
+
+    private static int zigZag(int i) {
+        return (i << 1) ^ (i >> 31);
+    }
+
+    private static int unZigZag(int i) {
+        return (i >>> 1) ^ -(i & 1);
+    }
+
+    /**
+     * Reads a count of things that each take at least a byte.
+     */
+    private static int readCount(ByteBuffer buf) {
+        int n = readVarInt(buf);
+        if (n < 0 || n > buf.remaining()) {
+            throw new FormatException("bad count " + n);
+        }
+        return n;
+    }
+
+    private static int readVarInt(ByteBuffer buf) {
+        int result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buf.get();
+            result |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return result;
+        }
+        throw new FormatException("malformed variable-length integer");
+    }
+
+    /**
+     * A growable byte array.
+     */
+    private static class ByteOutput {
+        private byte[] bytes = new byte[256];
+        private int size;
+
+        void write(int b) {
+            if (size == bytes.length) {
+                byte[] bigger = new byte[bytes.length * 2];
+                System.arraycopy(bytes, 0, bigger, 0, size);
+                bytes = bigger;
+            }
+            bytes[size++] = (byte) b;
+        }
+
+        void write(byte[] bs) {
+            for (byte b : bs) write(b);
+        }
+
+        void writeInt(int i) {
+            write(i >>> 24);
+            write(i >>> 16);
+            write(i >>> 8);
+            write(i);
+        }
+
+        void writeVarInt(int i) {
+            while ((i & ~0x7f) != 0) {
+                write((i & 0x7f) | 0x80);
+                i >>>= 7;
+            }
+            write(i);
+        }
+
+        byte[] toByteArray() {
+            byte[] result = new byte[size];
+            System.arraycopy(bytes, 0, result, 0, size);
+            return result;
+        }
+    }
+}
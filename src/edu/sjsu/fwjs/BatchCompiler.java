@@ -0,0 +1,199 @@
+package edu.sjsu.fwjs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Reads, parses and builds many scripts at once on a work-stealing pool.
+ *
+ * All workers go through one ScriptCache, so they share its parser and any
+ * disk cache.  The ANTLR parsers they create share the grammar's DFA cache,
+ * which is static, so a decision that one worker has had to work out with
+ * full prediction is cheap for all the others.
+ */
+public class BatchCompiler {
+    private ScriptCache cache;
+    private ForkJoinPool pool;
+
+    /**
+     * The outcome of compiling one script.
+     */
+    public static class Result {
+        private Path path;
+        private long bytes;
+        private long nanos;
+        private Expression program;
+        private String error;
+
+        Result(Path path) {
+            this.path = path;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        /**
+         * The size of the source in bytes.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Time taken to read and compile the script.
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * The built program, or null if the script had errors
+         * (or no statements).
+         */
+        public Expression getProgram() {
+            return program;
+        }
+
+        /**
+         * Why the script could not be compiled, or null.
+         */
+        public String getError() {
+            return error;
+        }
+    }
+
+    public BatchCompiler(ScriptCache cache, int parallelism) {
+        this.cache = cache;
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * The .fwjs files named, with directories replaced by the .fwjs files
+     * directly inside them, in name order.
+     */
+    public static List<Path> expand(List<String> names) {
+        List<Path> paths = new ArrayList<Path>();
+        for (String name : names) {
+            File f = new File(name);
+            File[] files = f.isDirectory() ? f.listFiles() : null;
+            if (files == null) {
+                paths.add(f.toPath());
+                continue;
+            }
+            Arrays.sort(files);
+            for (File child : files) {
+                if (child.isFile() && child.getName().endsWith(".fwjs")) {
+                    paths.add(child.toPath());
+                }
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Compiles every file, returning the results in the same order.
+     */
+    public List<Result> compileAll(List<Path> paths) {
+        Result[] results = new Result[paths.size()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = new Result(paths.get(i));
+        }
+        pool.invoke(new CompileRange(results, 0, results.length));
+        return Arrays.asList(results);
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Splits the files in half until one is left.  Idle workers steal the
+     * larger halves still waiting, so uneven file sizes balance out.
+     */
+    private class CompileRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private Result[] results;
+        private int lo;
+        private int hi;
+
+        CompileRange(Result[] results, int lo, int hi) {
+            this.results = results;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo == 1) {
+                compile(results[lo]);
+            } else if (hi - lo > 1) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new CompileRange(results, lo, mid), new CompileRange(results, mid, hi));
+            }
+        }
+    }
+
+    private void compile(Result r) {
+        long start = System.nanoTime();
+        try {
+            byte[] bytes = Files.readAllBytes(r.path);
+            r.bytes = bytes.length;
+            SyntaxErrorReporter errors = new SyntaxErrorReporter(r.path.toString());
+            Expression prog = cache.compile(new String(bytes, StandardCharsets.UTF_8), errors);
+            if (errors.getCount() > 0) {
+                r.error = errors.getCount() + " syntax error(s)";
+            } else {
+                r.program = prog;
+            }
+        } catch (IOException e) {
+            r.error = "could not read: " + e;
+        } catch (ParseException e) {
+            r.error = e.getMessage();
+        } catch (RuntimeException e) {
+            r.error = e.toString();
+        }
+        r.nanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Prints per-file and aggregate throughput.  The sum of the per-file
+     * times over the wall-clock time is the effective parallelism.
+     */
+    public static void report(List<Result> results, long wallNanos, PrintStream out) {
+        long totalBytes = 0;
+        long totalNanos = 0;
+        int failed = 0;
+        for (Result r : results) {
+            totalBytes += r.bytes;
+            totalNanos += r.nanos;
+            String status = r.error == null ? "ok" : r.error;
+            out.printf("%-40s %8d B %9.2f ms %9.1f KB/s  %s%n", r.path, r.bytes,
+                    r.nanos / 1e6, kbPerSecond(r.bytes, r.nanos), status);
+            if (r.error != null) failed++;
+        }
+        out.printf("batch files=%d failed=%d bytes=%d wall=%.2fms cpu=%.2fms "
+                + "files/s=%.1f KB/s=%.1f parallelism=%.2f%n",
+                results.size(), failed, totalBytes, wallNanos / 1e6, totalNanos / 1e6,
+                results.size() / (wallNanos / 1e9), kbPerSecond(totalBytes, wallNanos),
+                wallNanos == 0 ? 0.0 : (double) totalNanos / wallNanos);
+    }
+
+    private static double kbPerSecond(long bytes, long nanos) {
+        return nanos == 0 ? 0.0 : bytes / 1024.0 / (nanos / 1e9);
+    }
+}
@@ -0,0 +1,23 @@
+package edu.sjsu.fwjs;
+
+/**
+ * Ways of turning parser output into expression trees.
+ */
+public enum BuildMode {
+    /** Build a full ANTLR parse tree, then walk it with ExpressionBuilderVisitor. */
+    VISITOR,
+    /** Build expressions during the parse with DirectAstBuilder, without a parse tree. */
+    DIRECT;
+
+    /**
+     * Get the mode for a command line name such as "direct".
+     */
+    public static BuildMode fromName(String name) {
+        for (BuildMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(name)) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Unknown build mode: " + name);
+    }
+}
@@ -0,0 +1,122 @@
+package edu.sjsu.fwjs;
+
+/**
+ * A function body, or a whole program, compiled by BytecodeCompiler for
+ * BytecodeVM: an array of instructions, each an opcode followed by its
+ * operands, and a pool of the constants they refer to by index.
+ *
+ * Evaluating an expression leaves its value on the operand stack, and the
+ * compiler works out how deep the stack gets, so that the VM only has to
+ * make room for it on entry.  The
+ * pool holds values, names, and, where an instruction needs what the
+ * tree-walking evaluator knows of a node (such as the operator of a
+ * BinOpExpr), the node itself, so that both evaluators share its code.
+ */
+class Bytecode {
+    /** k: push constant k, a Value. */
+    static final int CONST = 0;
+    /** Push Java null, the value of a loop or an empty block. */
+    static final int NULL = 1;
+    static final int POP = 2;
+    /** k: push the value of the variable named by constant k, as VarExpr. */
+    static final int VAR = 3;
+    /** k: push the value of the VarRef constant k, as ResolvedVarExpr. */
+    static final int REF = 4;
+    /** k: push a closure for the FunctionDeclExpr constant k. */
+    static final int CLOSURE = 5;
+    /** k: pop the right and left operands and push the BinOpExpr constant k applied to them. */
+    static final int BINOP = 6;
+    /** k: print the top of the stack, as the PrintExpr constant k. */
+    static final int PRINT = 7;
+    /** target: jump. */
+    static final int JUMP = 8;
+    /** k target: pop a condition, and jump unless the IfExpr constant k takes its then branch. */
+    static final int IF_FALSE = 9;
+    /** target: pop a condition, and jump unless it is true, as a while loop tests it. */
+    static final int WHILE_FALSE = 10;
+    /** k: declare the value on top of the stack, as the VarDeclExpr constant k. */
+    static final int DECLARE = 11;
+    /** k: assign the value on top of the stack, as the AssignExpr constant k. */
+    static final int ASSIGN = 12;
+    /** k: as DECLARE, for a ResolvedVarDeclExpr. */
+    static final int RESOLVED_DECLARE = 13;
+    /** k: as ASSIGN, for a ResolvedAssignExpr. */
+    static final int RESOLVED_ASSIGN = 14;
+    /** n: pop a closure and the n arguments below it, and call it. */
+    static final int CALL = 15;
+    /** n: as CALL, returning whatever the call returns. */
+    static final int TAIL_CALL = 16;
+    /** k n: pop n arguments and call the DirectCallExpr constant k's function. */
+    static final int DIRECT_CALL = 17;
+    /** k n: as DIRECT_CALL, returning whatever the call returns. */
+    static final int DIRECT_TAIL_CALL = 18;
+    /** k: empty the frame slots in the int[] constant k, for an inlined call. */
+    static final int CLEAR_SLOTS = 19;
+    /** s: pop a value and declare it in slot s of the frame. */
+    static final int DECLARE_SLOT = 20;
+    /** k: run the rest in a new global frame laid out by the FunctionInfo constant k. */
+    static final int ENTER_PROGRAM = 21;
+    /** k: push the value of the Expression constant k, evaluated by the tree walker. */
+    static final int EVAL = 22;
+    /** Fail as evaluating a missing expression, such as an empty block, does. */
+    static final int MISSING = 23;
+    /** Return the top of the stack. */
+    static final int RETURN = 24;
+    // The operators, which pop the right and left operands and push the
+    // result, as BinOpExpr.apply computes it
+    static final int ADD = 25;
+    static final int SUBTRACT = 26;
+    static final int MULTIPLY = 27;
+    static final int DIVIDE = 28;
+    static final int MOD = 29;
+    static final int GT = 30;
+    static final int GE = 31;
+    static final int LT = 32;
+    static final int LE = 33;
+    static final int EQ = 34;
+
+    private static final String[] NAMES = {
+        "const", "null", "pop", "var", "ref", "closure", "binop", "print", "jump",
+        "if-false", "while-false", "declare", "assign", "resolved-declare",
+        "resolved-assign", "call", "tail-call", "direct-call", "direct-tail-call",
+        "clear-slots", "declare-slot", "enter-program", "eval", "missing", "return",
+        "add", "subtract", "multiply", "divide", "mod", "gt", "ge", "lt", "le", "eq",
+    };
+    private static final int[] OPERANDS = {
+        1, 0, 0, 1, 1, 1, 1, 1, 1, 2, 1, 1, 1, 1, 1, 1, 1, 2, 2, 1, 1, 1, 1, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+    };
+
+    final int[] code;
+    final Object[] constants;
+    /** The most values the code has on the operand stack at once. */
+    final int maxStack;
+
+    Bytecode(int[] code, Object[] constants, int maxStack) {
+        this.code = code;
+        this.constants = constants;
+        this.maxStack = maxStack;
+    }
+
+    /**
+     * The instruction for an operator.
+     */
+    static int operator(Op op) {
+        return ADD + op.ordinal();
+    }
+
+    /**
+     * One instruction per line, with its offset and operands.
+     */
+    String disassemble() {
+        StringBuilder sb = new StringBuilder();
+        for (int pc = 0; pc < code.length; pc += 1 + OPERANDS[code[pc]]) {
+            sb.append(pc).append(' ').append(NAMES[code[pc]]);
+            for (int i = 1; i <= OPERANDS[code[pc]]; i++) {
+                sb.append(' ').append(code[pc + i]);
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,226 @@
+package edu.sjsu.fwjs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles an expression tree to Bytecode.  The bodies of the functions
+ * it declares or calls are not compiled with it: BytecodeVM compiles each
+ * one the first time it is called.  Inlined calls are compiled in place.
+ *
+ * The code evaluates everything in the same order as the tree walker.
+ */
+class BytecodeCompiler {
+    private int[] code = new int[64];
+    private int size;
+    private int depth;
+    private int maxDepth;
+    private List<Object> constants = new ArrayList<Object>();
+    private Map<Object,Integer> constantIndex = new IdentityHashMap<Object,Integer>();
+    private Map<String,Integer> nameIndex = new HashMap<String,Integer>();
+
+    static Bytecode compile(Expression e) {
+        BytecodeCompiler c = new BytecodeCompiler();
+        c.emit(e);
+        c.op(Bytecode.RETURN);
+        return new Bytecode(Arrays.copyOf(c.code, c.size), c.constants.toArray(), c.maxDepth);
+    }
+
+    private void emit(Expression e) {
+        if (e == null) {
+            op(Bytecode.MISSING);
+        } else if (e instanceof ValueExpr) {
+            op(Bytecode.CONST, constant(((ValueExpr) e).getValue()));
+        } else if (e instanceof ResolvedVarExpr) {
+            op(Bytecode.REF, constant(((ResolvedVarExpr) e).getRef()));
+        } else if (e instanceof VarExpr) {
+            op(Bytecode.VAR, name(((VarExpr) e).getName()));
+        } else if (e instanceof BinOpExpr) {
+            BinOpExpr b = (BinOpExpr) e;
+            emit(b.getLeft());
+            emit(b.getRight());
+            if (b.getOp() == null) {
+                op(Bytecode.BINOP, constant(b));
+            } else {
+                op(Bytecode.operator(b.getOp()));
+            }
+        } else if (e instanceof IfExpr) {
+            IfExpr i = (IfExpr) e;
+            emit(i.getCondition());
+            int toElse = jump(Bytecode.IF_FALSE, constant(i));
+            int before = depth;
+            emit(i.getThen());
+            int toEnd = jump(Bytecode.JUMP);
+            patch(toElse);
+            depth = before;
+            if (i.getElse() == null) {
+                op(Bytecode.NULL);
+            } else {
+                emit(i.getElse());
+            }
+            patch(toEnd);
+        } else if (e instanceof WhileExpr) {
+            WhileExpr w = (WhileExpr) e;
+            int start = size;
+            emit(w.getCondition());
+            int toEnd = jump(Bytecode.WHILE_FALSE);
+            emit(w.getBody());
+            op(Bytecode.POP);
+            op(Bytecode.JUMP, start);
+            patch(toEnd);
+            op(Bytecode.NULL);
+        } else if (e instanceof SeqExpr) {
+            emit(((SeqExpr) e).getFirst());
+            op(Bytecode.POP);
+            emit(((SeqExpr) e).getSecond());
+        } else if (e instanceof BlockExpr) {
+            BlockExpr block = (BlockExpr) e;
+            if (block.size() == 0) op(Bytecode.NULL);
+            for (int i = 0; i < block.size(); i++) {
+                if (i > 0) op(Bytecode.POP);
+                emit(block.statement(i));
+            }
+        } else if (e instanceof PrintExpr) {
+            emit(((PrintExpr) e).getExpression());
+            op(Bytecode.PRINT, constant(e));
+        } else if (e instanceof VarDeclExpr) {
+            emit(((VarDeclExpr) e).getInitializer());
+            op(Bytecode.DECLARE, constant(e));
+        } else if (e instanceof AssignExpr) {
+            emit(((AssignExpr) e).getExpression());
+            op(Bytecode.ASSIGN, constant(e));
+        } else if (e instanceof ResolvedVarDeclExpr) {
+            emit(((ResolvedVarDeclExpr) e).getInitializer());
+            op(Bytecode.RESOLVED_DECLARE, constant(e));
+        } else if (e instanceof ResolvedAssignExpr) {
+            emit(((ResolvedAssignExpr) e).getExpression());
+            op(Bytecode.RESOLVED_ASSIGN, constant(e));
+        } else if (e instanceof FunctionDeclExpr) {
+            op(Bytecode.CLOSURE, constant(e));
+        } else if (e instanceof FunctionAppExpr) {
+            FunctionAppExpr app = (FunctionAppExpr) e;
+            emitAll(app.getArgs());
+            emit(app.getFunction());
+            op(Bytecode.CALL, app.getArgs().size());
+        } else if (e instanceof TailCallExpr) {
+            TailCallExpr app = (TailCallExpr) e;
+            emitAll(app.getArgs());
+            emit(app.getFunction());
+            op(Bytecode.TAIL_CALL, app.getArgs().size());
+        } else if (e instanceof DirectCallExpr) {
+            DirectCallExpr call = (DirectCallExpr) e;
+            // The new frame cannot be seen from the arguments, so it can
+            // wait until they have all been evaluated
+            emitAll(call.getArgs());
+            op(call.isTail() ? Bytecode.DIRECT_TAIL_CALL : Bytecode.DIRECT_CALL,
+                    constant(call), call.getArgs().size());
+        } else if (e instanceof InlinedCallExpr) {
+            InlinedCallExpr call = (InlinedCallExpr) e;
+            op(Bytecode.CLEAR_SLOTS, constant(call.getSlots()));
+            for (int i = 0; i < call.getArgs().size(); i++) {
+                emit(call.getArgs().get(i));
+                op(Bytecode.DECLARE_SLOT, call.getParamSlots()[i]);
+            }
+            emit(call.getBody());
+        } else if (e instanceof CompiledBodyExpr) {
+            // The VM runs the body itself, keeping calls off the Java stack
+            emit(((CompiledBodyExpr) e).getBody());
+        } else if (e instanceof FusedExpr) {
+            // The VM has its own instructions for the original
+            emit(((FusedExpr) e).getOriginal());
+        } else if (e instanceof ProgramExpr) {
+            op(Bytecode.ENTER_PROGRAM, constant(((ProgramExpr) e).getGlobals()));
+            emit(((ProgramExpr) e).getBody());
+        } else {
+            op(Bytecode.EVAL, constant(e));
+        }
+    }
+
+    private void emitAll(List<Expression> es) {
+        for (Expression e : es) {
+            emit(e);
+        }
+    }
+
+    private int constant(Object c) {
+        Integer k = constantIndex.get(c);
+        if (k == null) {
+            k = constants.size();
+            constants.add(c);
+            constantIndex.put(c, k);
+        }
+        return k;
+    }
+
+    /**
+     * A name is kept once however many nodes use it.
+     */
+    private int name(String name) {
+        Integer k = nameIndex.get(name);
+        if (k == null) {
+            k = constant(name);
+            nameIndex.put(name, k);
+        }
+        return k;
+    }
+
+    private void op(int... words) {
+        depth += stackEffect(words);
+        maxDepth = Math.max(maxDepth, depth);
+        if (size + words.length > code.length) {
+            code = Arrays.copyOf(code, Math.max(code.length * 2, size + words.length));
+        }
+        for (int w : words) {
+            code[size++] = w;
+        }
+    }
+
+    /**
+     * How many values the instruction leaves on the stack, less how many it
+     * takes off.
+     */
+    private static int stackEffect(int[] words) {
+        switch (words[0]) {
+        case Bytecode.CONST:
+        case Bytecode.NULL:
+        case Bytecode.VAR:
+        case Bytecode.REF:
+        case Bytecode.CLOSURE:
+        case Bytecode.EVAL:
+        case Bytecode.MISSING:
+            return 1;
+        case Bytecode.POP:
+        case Bytecode.IF_FALSE:
+        case Bytecode.WHILE_FALSE:
+        case Bytecode.DECLARE_SLOT:
+        case Bytecode.RETURN:
+            return -1;
+        case Bytecode.CALL:
+        case Bytecode.TAIL_CALL:
+            return -words[1];
+        case Bytecode.DIRECT_CALL:
+        case Bytecode.DIRECT_TAIL_CALL:
+            return 1 - words[2];
+        default:
+            return words[0] == Bytecode.BINOP || words[0] >= Bytecode.ADD ? -1 : 0;
+        }
+    }
+
+    /**
+     * Emits a jump whose target is the last operand, to be patched; returns
+     * where the target goes.
+     */
+    private int jump(int... words) {
+        int[] withTarget = Arrays.copyOf(words, words.length + 1);
+        op(withTarget);
+        return size - 1;
+    }
+
+    private void patch(int at) {
+        code[at] = size;
+    }
+}
@@ -0,0 +1,328 @@
+package edu.sjsu.fwjs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Runs Bytecode in one dispatch loop, with an operand stack and a stack
+ * of call frames kept in arrays, so that neither FWJS calls nor the nodes
+ * of an expression recurse in Java.  Tail calls replace the frame of the
+ * caller.
+ *
+ * Closures are ordinary ClosureVals over the function's tree; the VM
+ * compiles the body of each function the first time it is called, and
+ * keeps the code for as long as the VM lives.  Variables live in the same
+ * environments as with the tree walker.
+ *
+ * What this buys is stack depth, not speed: HotSpot compiles and inlines
+ * the evaluate methods of the tree walker's nodes better than this one
+ * dispatch loop, which runs the same scripts at 0.27 to 0.86 times their
+ * speed.
+ *
+ * A VM runs one program at a time.  Interpreter keeps a VM with each
+ * cached program, so the code is dropped when the program is evicted.
+ */
+class BytecodeVM {
+
+    private Map<Expression,Bytecode> compiled = new IdentityHashMap<Expression,Bytecode>();
+
+    private Bytecode[] frameCode;
+    private int[] framePc;
+    private Environment[] frameEnv;
+    private int[] frameBase;
+    private int frames;
+
+    /**
+     * The code for a tree, compiled the first time it is asked for.
+     */
+    Bytecode compiled(Expression e) {
+        Bytecode code = compiled.get(e);
+        if (code == null) {
+            code = BytecodeCompiler.compile(e);
+            compiled.put(e, code);
+        }
+        return code;
+    }
+
+    /**
+     * Evaluates the expression in the environment, as e.evaluate(env).
+     * Its code is kept for the next time.
+     */
+    Value run(Expression e, Environment env) {
+        return execute(compiled(e), env);
+    }
+
+    /**
+     * As run, without keeping the code, for expressions that only run once.
+     */
+    Value runOnce(Expression e, Environment env) {
+        return execute(BytecodeCompiler.compile(e), env);
+    }
+
+    private void pushFrame(Bytecode code, int pc, Environment env, int base) {
+        if (frames == frameCode.length) {
+            int n = frames * 2;
+            frameCode = Arrays.copyOf(frameCode, n);
+            framePc = Arrays.copyOf(framePc, n);
+            frameEnv = Arrays.copyOf(frameEnv, n);
+            frameBase = Arrays.copyOf(frameBase, n);
+        }
+        frameCode[frames] = code;
+        framePc[frames] = pc;
+        frameEnv[frames] = env;
+        frameBase[frames] = base;
+        frames++;
+    }
+
+    /**
+     * The stack, grown if need be to hold the code's values above sp.
+     */
+    private static Value[] room(Value[] stack, int sp, Bytecode code) {
+        if (sp + code.maxStack <= stack.length) return stack;
+        return Arrays.copyOf(stack, Math.max(stack.length * 2, sp + code.maxStack));
+    }
+
+    private Value execute(Bytecode bytecode, Environment env) {
+        frameCode = new Bytecode[16];
+        framePc = new int[16];
+        frameEnv = new Environment[16];
+        frameBase = new int[16];
+        frames = 0;
+        try {
+            return loop(bytecode, env);
+        } finally {
+            frameCode = null;
+            frameEnv = null;
+        }
+    }
+
+    private static Value arithmetic(int op, int left, int right) {
+        switch (op) {
+        case Bytecode.ADD:
+            return IntVal.of(left + right);
+        case Bytecode.SUBTRACT:
+            return IntVal.of(left - right);
+        case Bytecode.MULTIPLY:
+            return IntVal.of(left * right);
+        case Bytecode.DIVIDE:
+            return IntVal.of(left / right);
+        case Bytecode.MOD:
+            return IntVal.of(left % right);
+        case Bytecode.GT:
+            return BoolVal.of(left > right);
+        case Bytecode.GE:
+            return BoolVal.of(left >= right);
+        case Bytecode.LT:
+            return BoolVal.of(left < right);
+        default:
+            return BoolVal.of(left <= right);
+        }
+    }
+
+    private Value loop(Bytecode bytecode, Environment env) {
+        // The stack is kept in locals, where the JIT can keep it in
+        // registers.  Popped slots are not cleared: the stack is dropped
+        // when the run ends.
+        Value[] stack = room(new Value[64], 0, bytecode);
+        int sp = 0;
+        int[] code = bytecode.code;
+        Object[] constants = bytecode.constants;
+        int pc = 0;
+        int base = 0;
+        while (true) {
+            int op = code[pc];
+            switch (op) {
+            case Bytecode.CONST:
+                stack[sp++] = (Value) constants[code[pc + 1]];
+                pc += 2;
+                break;
+            case Bytecode.NULL:
+                stack[sp++] = null;
+                pc += 1;
+                break;
+            case Bytecode.POP:
+                sp--;
+                pc += 1;
+                break;
+            case Bytecode.VAR: {
+                Value v = env.resolveVar((String) constants[code[pc + 1]]);
+                stack[sp++] = v == null ? NullVal.NULL : v;
+                pc += 2;
+                break;
+            }
+            case Bytecode.REF: {
+                Value v = ((VarRef) constants[code[pc + 1]]).get(env);
+                stack[sp++] = v == null ? NullVal.NULL : v;
+                pc += 2;
+                break;
+            }
+            case Bytecode.CLOSURE:
+                stack[sp++] = ((FunctionDeclExpr) constants[code[pc + 1]]).evaluate(env);
+                pc += 2;
+                break;
+            case Bytecode.BINOP:
+                sp--;
+                stack[sp - 1] = ((BinOpExpr) constants[code[pc + 1]]).apply(stack[sp - 1], stack[sp]);
+                pc += 2;
+                break;
+            case Bytecode.ADD:
+            case Bytecode.SUBTRACT:
+            case Bytecode.MULTIPLY:
+            case Bytecode.DIVIDE:
+            case Bytecode.MOD:
+            case Bytecode.GT:
+            case Bytecode.GE:
+            case Bytecode.LT:
+            case Bytecode.LE: {
+                // Casting first, as BinOpExpr.apply does, fails the same way
+                int right = ((IntVal) stack[--sp]).toInt();
+                int left = ((IntVal) stack[sp - 1]).toInt();
+                stack[sp - 1] = arithmetic(op, left, right);
+                pc += 1;
+                break;
+            }
+            case Bytecode.EQ: {
+                Value right = stack[--sp];
+                Value left = stack[sp - 1];
+                stack[sp - 1] = BoolVal.of(left.equals(right) && right.equals(left));
+                pc += 1;
+                break;
+            }
+            case Bytecode.PRINT:
+                stack[sp - 1] = ((PrintExpr) constants[code[pc + 1]]).print(stack[sp - 1]);
+                pc += 2;
+                break;
+            case Bytecode.JUMP:
+                pc = code[pc + 1];
+                break;
+            case Bytecode.IF_FALSE: {
+                Value cond = stack[--sp];
+                boolean then = cond instanceof BoolVal ? ((BoolVal) cond).toBoolean()
+                        : ((IfExpr) constants[code[pc + 1]]).takesThen(cond);
+                if (then) {
+                    pc += 3;
+                } else {
+                    pc = code[pc + 2];
+                }
+                break;
+            }
+            case Bytecode.WHILE_FALSE:
+                if (stack[--sp].equals(BoolVal.TRUE)) {
+                    pc += 2;
+                } else {
+                    pc = code[pc + 1];
+                }
+                break;
+            case Bytecode.DECLARE:
+                stack[sp - 1] = ((VarDeclExpr) constants[code[pc + 1]]).declare(env, stack[sp - 1]);
+                pc += 2;
+                break;
+            case Bytecode.ASSIGN:
+                stack[sp - 1] = ((AssignExpr) constants[code[pc + 1]]).assign(env, stack[sp - 1]);
+                pc += 2;
+                break;
+            case Bytecode.RESOLVED_DECLARE:
+                stack[sp - 1] = ((ResolvedVarDeclExpr) constants[code[pc + 1]])
+                        .declare(env, stack[sp - 1]);
+                pc += 2;
+                break;
+            case Bytecode.RESOLVED_ASSIGN:
+                stack[sp - 1] = ((ResolvedAssignExpr) constants[code[pc + 1]])
+                        .assign(env, stack[sp - 1]);
+                pc += 2;
+                break;
+            case Bytecode.CALL:
+            case Bytecode.TAIL_CALL: {
+                int n = code[pc + 1];
+                ClosureVal closure = (ClosureVal) stack[--sp];
+                ArrayList<Value> args = new ArrayList<Value>(n);
+                for (int i = sp - n; i < sp; i++) {
+                    args.add(stack[i]);
+                }
+                sp -= n;
+                Environment callee = closure.bind(args);
+                if (op == Bytecode.CALL) {
+                    pushFrame(bytecode, pc + 2, env, base);
+                    base = sp;
+                } else {
+                    sp = base;
+                }
+                bytecode = compiled(closure.getBody());
+                stack = room(stack, sp, bytecode);
+                code = bytecode.code;
+                constants = bytecode.constants;
+                env = callee;
+                pc = 0;
+                break;
+            }
+            case Bytecode.DIRECT_CALL:
+            case Bytecode.DIRECT_TAIL_CALL: {
+                DirectCallExpr call = (DirectCallExpr) constants[code[pc + 1]];
+                int n = code[pc + 2];
+                FunctionInfo info = call.getTarget().getInfo();
+                Environment global = call.isFromGlobal() ? env : env.getOuter();
+                FrameEnvironment frame = new FrameEnvironment(global, info,
+                        FrameEnvironment.NO_VALUES, FrameEnvironment.NO_BOXES);
+                for (int i = 0; i < n; i++) {
+                    frame.declare(info.paramSlot(i), stack[sp - n + i]);
+                }
+                sp -= n;
+                if (op == Bytecode.DIRECT_CALL) {
+                    pushFrame(bytecode, pc + 3, env, base);
+                    base = sp;
+                } else {
+                    sp = base;
+                }
+                bytecode = compiled(call.getTarget().getBody());
+                stack = room(stack, sp, bytecode);
+                code = bytecode.code;
+                constants = bytecode.constants;
+                env = frame;
+                pc = 0;
+                break;
+            }
+            case Bytecode.CLEAR_SLOTS: {
+                FrameEnvironment frame = (FrameEnvironment) env;
+                for (int slot : (int[]) constants[code[pc + 1]]) {
+                    frame.slots[slot] = FrameEnvironment.UNDECLARED;
+                }
+                pc += 2;
+                break;
+            }
+            case Bytecode.DECLARE_SLOT:
+                ((FrameEnvironment) env).declare(code[pc + 1], stack[--sp]);
+                pc += 2;
+                break;
+            case Bytecode.ENTER_PROGRAM:
+                env = new FrameEnvironment(env, (FunctionInfo) constants[code[pc + 1]], true);
+                pc += 2;
+                break;
+            case Bytecode.EVAL:
+                stack[sp++] = ((Expression) constants[code[pc + 1]]).evaluate(env);
+                pc += 2;
+                break;
+            case Bytecode.MISSING:
+                throw new NullPointerException("missing expression");
+            case Bytecode.RETURN: {
+                Value v = stack[--sp];
+                if (frames == 0) return v;
+                frames--;
+                bytecode = frameCode[frames];
+                code = bytecode.code;
+                constants = bytecode.constants;
+                pc = framePc[frames];
+                env = frameEnv[frames];
+                frameEnv[frames] = null;
+                sp = base;
+                base = frameBase[frames];
+                stack[sp++] = v;
+                break;
+            }
+            default:
+                throw new IllegalStateException("bad opcode " + op + " at " + pc);
+            }
+        }
+    }
+}
@@ -0,0 +1,439 @@
+package edu.sjsu.fwjs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes just enough of the JVM class file format for JvmCompiler: one
+ * class with instance fields and methods, whose code has forward and
+ * backward jumps but no exception handlers.
+ *
+ * Classes are written as version 49, which the JVM verifies by inferring
+ * types, so no stack map frames are needed.
+ */
+class ClassFileWriter {
+    // The opcodes used
+    static final int ACONST_NULL = 1;
+    static final int ICONST_0 = 3;
+    static final int BIPUSH = 16;
+    static final int SIPUSH = 17;
+    static final int LDC_W = 19;
+    static final int ILOAD = 21;
+    static final int ALOAD = 25;
+    static final int ISTORE = 54;
+    static final int ASTORE = 58;
+    static final int AALOAD = 50;
+    static final int POP = 87;
+    static final int DUP = 89;
+    static final int DUP_X1 = 90;
+    static final int SWAP = 95;
+    static final int IADD = 96;
+    static final int ISUB = 100;
+    static final int IMUL = 104;
+    static final int IDIV = 108;
+    static final int IREM = 112;
+    static final int IFEQ = 153;
+    static final int IFNE = 154;
+    static final int IF_ICMPNE = 160;
+    static final int IF_ICMPLT = 161;
+    static final int IF_ICMPGE = 162;
+    static final int IF_ICMPGT = 163;
+    static final int IF_ICMPLE = 164;
+    static final int GOTO = 167;
+    static final int ARETURN = 176;
+    static final int RETURN = 177;
+    static final int GETFIELD = 180;
+    static final int PUTFIELD = 181;
+    static final int INVOKEVIRTUAL = 182;
+    static final int INVOKESPECIAL = 183;
+    static final int INVOKESTATIC = 184;
+    static final int INVOKEINTERFACE = 185;
+    static final int NEW = 187;
+    static final int CHECKCAST = 192;
+    static final int INSTANCEOF = 193;
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_PRIVATE = 0x0002;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    private ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private DataOutputStream pool = new DataOutputStream(poolBytes);
+    private Map<String,Integer> poolIndex = new HashMap<String,Integer>();
+    private int poolSize = 1;
+
+    private String name;
+    private String superName;
+    private List<String> interfaces = new ArrayList<String>();
+    private List<byte[]> fields = new ArrayList<byte[]>();
+    private List<Code> methods = new ArrayList<Code>();
+
+    /**
+     * A class with the given internal name (such as "a/b/C").
+     */
+    ClassFileWriter(String name, String superName, String... interfaces) {
+        this.name = name;
+        this.superName = superName;
+        for (String i : interfaces) {
+            this.interfaces.add(i);
+        }
+    }
+
+    void field(int access, String name, String descriptor) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        fields.add(bytes.toByteArray());
+    }
+
+    /**
+     * A method, whose code is written to what this returns.  Its arguments
+     * are its first locals, after this.
+     */
+    Code method(int access, String name, String descriptor) {
+        Code code = new Code(access, name, descriptor);
+        methods.add(code);
+        return code;
+    }
+
+    byte[] toByteArray() {
+        try {
+            int thisClass = classRef(name);
+            int superClass = classRef(superName);
+            int[] interfaceRefs = new int[interfaces.size()];
+            for (int i = 0; i < interfaceRefs.length; i++) {
+                interfaceRefs[i] = classRef(interfaces.get(i));
+            }
+            List<byte[]> methodBytes = new ArrayList<byte[]>();
+            for (Code m : methods) {
+                methodBytes.add(m.toByteArray());
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(poolSize);
+            poolBytes.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaceRefs.length);
+            for (int i : interfaceRefs) {
+                out.writeShort(i);
+            }
+            out.writeShort(fields.size());
+            for (byte[] f : fields) {
+                out.write(f);
+            }
+            out.writeShort(methodBytes.size());
+            for (byte[] m : methodBytes) {
+                out.write(m);
+            }
+            out.writeShort(0);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // The constant pool; each entry is added once
+
+    private int utf8(String s) {
+        Integer k = poolIndex.get("U" + s);
+        if (k != null) return k;
+        try {
+            pool.writeByte(1);
+            pool.writeUTF(s);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return added("U" + s, 1);
+    }
+
+    private int classRef(String name) {
+        Integer k = poolIndex.get("C" + name);
+        if (k != null) return k;
+        int n = utf8(name);
+        entry(7, n);
+        return added("C" + name, 1);
+    }
+
+    private int integer(int i) {
+        Integer k = poolIndex.get("I" + i);
+        if (k != null) return k;
+        try {
+            pool.writeByte(3);
+            pool.writeInt(i);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return added("I" + i, 1);
+    }
+
+    private int member(int tag, String owner, String name, String descriptor) {
+        String key = tag + owner + "." + name + ":" + descriptor;
+        Integer k = poolIndex.get(key);
+        if (k != null) return k;
+        int c = classRef(owner);
+        Integer nt = poolIndex.get("N" + name + ":" + descriptor);
+        if (nt == null) {
+            int n = utf8(name);
+            int d = utf8(descriptor);
+            entry(12, n, d);
+            nt = added("N" + name + ":" + descriptor, 1);
+        }
+        entry(tag, c, nt);
+        return added(key, 1);
+    }
+
+    private void entry(int tag, int... refs) {
+        try {
+            pool.writeByte(tag);
+            for (int r : refs) {
+                pool.writeShort(r);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private int added(String key, int slots) {
+        int k = poolSize;
+        poolSize += slots;
+        if (poolSize > 0xFFFF) throw new IllegalStateException("constant pool too large");
+        poolIndex.put(key, k);
+        return k;
+    }
+
+    /**
+     * A place in the code to jump to, which may be marked after the jumps.
+     */
+    static class Label {
+        private int offset = -1;
+        private List<Integer> uses = new ArrayList<Integer>();
+    }
+
+    /**
+     * The code of a method.  It keeps track of how deep the operand stack
+     * is, so each instruction is given what it does to the stack.
+     */
+    class Code {
+        private int access;
+        private String name;
+        private String descriptor;
+        private ByteArrayOutputStream code = new ByteArrayOutputStream();
+        private List<Label> labels = new ArrayList<Label>();
+        private int depth;
+        private int maxStack;
+        private int locals;
+
+        private Code(int access, String name, String descriptor) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.locals = 1 + argSlots(descriptor);
+        }
+
+        /**
+         * A new local variable slot, for a reference or an int.
+         */
+        int newLocal() {
+            return locals++;
+        }
+
+        int getDepth() {
+            return depth;
+        }
+
+        /**
+         * Sets the stack depth, after an unconditional jump, to what it is
+         * where the next instruction is jumped to from.
+         */
+        void setDepth(int depth) {
+            this.depth = depth;
+        }
+
+        /**
+         * An instruction without operands that pops popped values and
+         * pushes pushed values.
+         */
+        void op(int opcode, int popped, int pushed) {
+            stack(popped, pushed);
+            code.write(opcode);
+        }
+
+        void iconst(int i) {
+            stack(0, 1);
+            if (i >= -1 && i <= 5) {
+                code.write(ICONST_0 + i);
+            } else if (i >= Byte.MIN_VALUE && i <= Byte.MAX_VALUE) {
+                code.write(BIPUSH);
+                code.write(i);
+            } else if (i >= Short.MIN_VALUE && i <= Short.MAX_VALUE) {
+                code.write(SIPUSH);
+                u2(i);
+            } else {
+                code.write(LDC_W);
+                u2(integer(i));
+            }
+        }
+
+        void iload(int local) {
+            stack(0, 1);
+            localOp(ILOAD, local);
+        }
+
+        void aload(int local) {
+            stack(0, 1);
+            localOp(ALOAD, local);
+        }
+
+        void istore(int local) {
+            stack(1, 0);
+            localOp(ISTORE, local);
+        }
+
+        void astore(int local) {
+            stack(1, 0);
+            localOp(ASTORE, local);
+        }
+
+        /**
+         * new, checkcast: an instruction naming a class.
+         */
+        void type(int opcode, String className) {
+            if (opcode == NEW) stack(0, 1);
+            code.write(opcode);
+            u2(classRef(className));
+        }
+
+        void field(int opcode, String owner, String name, String descriptor) {
+            if (opcode == GETFIELD) {
+                stack(1, 1);
+            } else {
+                stack(2, 0);
+            }
+            code.write(opcode);
+            u2(member(9, owner, name, descriptor));
+        }
+
+        void invoke(int opcode, String owner, String name, String descriptor) {
+            int args = argSlots(descriptor);
+            int popped = opcode == INVOKESTATIC ? args : args + 1;
+            stack(popped, descriptor.endsWith(")V") ? 0 : 1);
+            code.write(opcode);
+            if (opcode == INVOKEINTERFACE) {
+                u2(member(11, owner, name, descriptor));
+                code.write(args + 1);
+                code.write(0);
+            } else {
+                u2(member(10, owner, name, descriptor));
+            }
+        }
+
+        /**
+         * A goto or a conditional branch, which pops what it compares.
+         */
+        void jump(int opcode, Label target) {
+            if (opcode == GOTO) {
+                stack(0, 0);
+            } else if (opcode >= IFEQ && opcode < IFEQ + 6) {
+                stack(1, 0);
+            } else {
+                stack(2, 0);
+            }
+            int at = code.size();
+            code.write(opcode);
+            target.uses.add(at);
+            u2(0);
+            if (!labels.contains(target)) labels.add(target);
+        }
+
+        void mark(Label label) {
+            label.offset = code.size();
+            if (!labels.contains(label)) labels.add(label);
+        }
+
+        private void stack(int popped, int pushed) {
+            depth -= popped;
+            if (depth < 0) throw new IllegalStateException("stack underflow in " + name);
+            depth += pushed;
+            maxStack = Math.max(maxStack, depth);
+        }
+
+        private void localOp(int opcode, int local) {
+            if (local > 0xFF) throw new IllegalStateException("too many locals in " + name);
+            code.write(opcode);
+            code.write(local);
+        }
+
+        private void u2(int i) {
+            code.write(i >> 8);
+            code.write(i);
+        }
+
+        private byte[] toByteArray() throws IOException {
+            byte[] bytes = code.toByteArray();
+            for (Label label : labels) {
+                if (label.offset < 0) throw new IllegalStateException("unmarked label in " + name);
+                for (int at : label.uses) {
+                    int offset = label.offset - at;
+                    if (offset != (short) offset) {
+                        throw new IllegalStateException("method too large: " + name);
+                    }
+                    bytes[at + 1] = (byte) (offset >> 8);
+                    bytes[at + 2] = (byte) offset;
+                }
+            }
+            if (bytes.length > 0xFFFF) throw new IllegalStateException("method too large: " + name);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeShort(access);
+            data.writeShort(utf8(name));
+            data.writeShort(utf8(descriptor));
+            data.writeShort(1);
+            data.writeShort(utf8("Code"));
+            data.writeInt(12 + bytes.length);
+            data.writeShort(maxStack);
+            data.writeShort(locals);
+            data.writeInt(bytes.length);
+            data.write(bytes);
+            data.writeShort(0);
+            data.writeShort(0);
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * The local variable slots the arguments of a method take, where only
+     * references and ints are used.
+     */
+    private static int argSlots(String descriptor) {
+        int n = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            while (c == '[') {
+                c = descriptor.charAt(++i);
+            }
+            if (c == 'L') i = descriptor.indexOf(';', i);
+            n++;
+            i++;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,388 @@
+package edu.sjsu.fwjs;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles an expression tree, once, into a tree of Java closures that
+ * evaluate it.  Each closure is made for its node: the operator of a
+ * BinOpExpr, the name or slot of a variable, whether a call is in tail
+ * position and the compiled children are all fixed when it is made, so
+ * evaluating does none of the tests the nodes' evaluate methods do.
+ *
+ * The closures are Expressions themselves, so the FWJS closures they
+ * create carry compiled bodies, and calls made by any means run compiled
+ * code.  They are anonymous classes rather than lambdas, as linking a
+ * lambda generates a class the first time; nothing is generated, so
+ * compiling is cheap enough for programs that only run once.
+ */
+class ClosureCompiler {
+    private static final Expression MISSING = new Expression() {
+        public Value evaluate(Environment env) {
+            throw new NullPointerException("missing expression");
+        }
+    };
+
+    /**
+     * The compiled bodies of known functions, filled in once compiled, so
+     * that recursive calls can refer to them before they are.
+     */
+    private Map<KnownFunction,Expression[]> known = new IdentityHashMap<KnownFunction,Expression[]>();
+
+    /**
+     * Returns an expression that evaluates as prog does.
+     */
+    static Expression compile(Expression prog) {
+        return new ClosureCompiler().node(prog);
+    }
+
+    private Expression node(Expression e) {
+        if (e == null) {
+            return MISSING;
+        } else if (e instanceof ValueExpr) {
+            final Value v = ((ValueExpr) e).getValue();
+            return new Expression() {
+                public Value evaluate(Environment env) {
+                    return v;
+                }
+            };
+        } else if (e instanceof VarExpr) {
+            final String name = ((VarExpr) e).getName();
+            return new Expression() {
+                public Value evaluate(Environment env) {
+                    Value v = env.resolveVar(name);
+                    return v == null ? NullVal.NULL : v;
+                }
+            };
+        } else if (e instanceof ResolvedVarExpr) {
+            final VarRef ref = ((ResolvedVarExpr) e).getRef();
+            return new Expression() {
+                public Value evaluate(Environment env) {
+                    Value v = ref.get(env);
+                    return v == null ? NullVal.NULL : v;
+                }
+            };
+        } else if (e instanceof BinOpExpr) {
+            return binOp((BinOpExpr) e);
+        } else if (e instanceof IfExpr) {
+            return ifElse((IfExpr) e);
+        } else if (e instanceof WhileExpr) {
+            final Expression cond = node(((WhileExpr) e).getCondition());
+            final Expression body = node(((WhileExpr) e).getBody());
+            return new Expression() {
+                public Value evaluate(Environment env) {
+                    while (cond.evaluate(env).equals(BoolVal.TRUE)) {
+                        body.evaluate(env);
+                    }
+                    return null;
+                }
+            };
+        } else if (e instanceof SeqExpr) {
+            final Expression first = node(((SeqExpr) e).getFirst());
+            final Expression second = node(((SeqExpr) e).getSecond());
+            return new Expression() {
+                public Value evaluate(Environment env) {
+                    first.evaluate(env);
+                    return second.evaluate(env);
+                }
+            };
+        } else if (e instanceof BlockExpr) {
+            final Expression[] stmts = nodes(((BlockExpr) e).getStatements());
+            if (stmts.length == 1) return stmts[0];
+            return new Expression() {
+                public Value evaluate(Environment env) {
+                    Value v = null;
+                    for (Expression stmt : stmts) {
+                        v = stmt.evaluate(env);
+                    }
+                    return v;
+                }
+            };
+        } else if (e instanceof PrintExpr) {
+            final PrintExpr p = (PrintExpr) e;
+            final Expression exp = node(p.getExpression());
+            return new Expression() {
+                public Value evaluate(Environment env) {
+                    return p.print(exp.evaluate(env));
+                }
+            };
+        } else if (e instanceof VarDeclExpr) {
+            final VarDeclExpr d = (VarDeclExpr) e;
+            final Expression init = node(d.getInitializer());
+            return new Expression() {
+                public Value evaluate(Environment env) {
+                    return d.declare(env, init.evaluate(env));
+                }
+            };
+        } else if (e instanceof AssignExpr) {
+            final AssignExpr a = (AssignExpr) e;
+            final Expression exp = node(a.getExpression());
+            return new Expression() {
+                public Value evaluate(Environment env) {
+                    return a.assign(env, exp.evaluate(env));
+                }
+            };
+        } else if (e instanceof ResolvedVarDeclExpr) {
+            final ResolvedVarDeclExpr d = (ResolvedVarDeclExpr) e;
+            final Expression init = node(d.getInitializer());
+            return new Expression() {
+                public Value evaluate(Environment env) {
+                    return d.declare(env, init.evaluate(env));
+                }
+            };
+        } else if (e instanceof ResolvedAssignExpr) {
+            final ResolvedAssignExpr a = (ResolvedAssignExpr) e;
+            final Expression exp = node(a.getExpression());
+            return new Expression() {
+                public Value evaluate(Environment env) {
+                    return a.assign(env, exp.evaluate(env));
+                }
+            };
+        } else if (e instanceof FunctionDeclExpr) {
+            final FunctionDeclExpr f = (FunctionDeclExpr) e;
+            final List<String> params = f.getParams();
+            final Expression body = node(f.getBody());
+            final FunctionInfo info = f.getInfo();
+            if (info != null) {
+                return new Expression() {
+                    public Value evaluate(Environment env) {
+                        return info.newClosure(params, body, env);
+                    }
+                };
+            }
+            return new Expression() {
+                public Value evaluate(Environment env) {
+                    return new ClosureVal(params, body, env);
+                }
+            };
+        } else if (e instanceof FunctionAppExpr) {
+            final Expression f = node(((FunctionAppExpr) e).getFunction());
+            final Expression[] args = nodes(((FunctionAppExpr) e).getArgs());
+            return new Expression() {
+                public Value evaluate(Environment env) {
+                    List<Value> vals = values(args, env);
+                    return ((ClosureVal) f.evaluate(env)).apply(vals);
+                }
+            };
+        } else if (e instanceof TailCallExpr) {
+            final Expression f = node(((TailCallExpr) e).getFunction());
+            final Expression[] args = nodes(((TailCallExpr) e).getArgs());
+            return new Expression() {
+                public Value evaluate(Environment env) {
+                    List<Value> vals = values(args, env);
+                    return ((ClosureVal) f.evaluate(env)).tailCall(vals);
+                }
+            };
+        } else if (e instanceof DirectCallExpr) {
+            return directCall((DirectCallExpr) e);
+        } else if (e instanceof InlinedCallExpr) {
+            final InlinedCallExpr call = (InlinedCallExpr) e;
+            final int[] paramSlots = call.getParamSlots();
+            final Expression[] args = nodes(call.getArgs());
+            final Expression body = node(call.getBody());
+            return new Expression() {
+                public Value evaluate(Environment env) {
+                    FrameEnvironment frame = (FrameEnvironment) env;
+                    call.clearSlots(frame);
+                    for (int i = 0; i < args.length; i++) {
+                        frame.declare(paramSlots[i], args[i].evaluate(env));
+                    }
+                    return body.evaluate(env);
+                }
+            };
+        } else if (e instanceof ProgramExpr) {
+            final FunctionInfo globals = ((ProgramExpr) e).getGlobals();
+            final Expression body = node(((ProgramExpr) e).getBody());
+            return new Expression() {
+                public Value evaluate(Environment env) {
+                    return body.evaluate(new FrameEnvironment(env, globals, true));
+                }
+            };
+        } else if (e instanceof CompiledBodyExpr) {
+            // Already compiled, to closures rather than a class
+            return node(((CompiledBodyExpr) e).getBody());
+        } else if (e instanceof FusedExpr) {
+            // Compiled closures already do without the nodes in between
+            return node(((FusedExpr) e).getOriginal());
+        }
+        // Anything else is evaluated as it is
+        return e;
+    }
+
+    private Expression[] nodes(List<Expression> es) {
+        Expression[] compiled = new Expression[es.size()];
+        for (int i = 0; i < compiled.length; i++) {
+            compiled[i] = node(es.get(i));
+        }
+        return compiled;
+    }
+
+    private static List<Value> values(Expression[] args, Environment env) {
+        ArrayList<Value> vals = new ArrayList<Value>(args.length);
+        for (Expression arg : args) {
+            vals.add(arg.evaluate(env));
+        }
+        return vals;
+    }
+
+    /**
+     * The operator, chosen here; each operand is cast after both have been
+     * evaluated, as BinOpExpr.apply does.
+     */
+    private Expression binOp(BinOpExpr b) {
+        final Expression l = node(b.getLeft());
+        final Expression r = node(b.getRight());
+        if (b.getOp() == null) {
+            return new Expression() {
+                public Value evaluate(Environment env) {
+                    l.evaluate(env);
+                    r.evaluate(env);
+                    return null;
+                }
+            };
+        }
+        switch (b.getOp()) {
+        case ADD:
+            return new Expression() {
+                public Value evaluate(Environment env) {
+                    Value v1 = l.evaluate(env);
+                    Value v2 = r.evaluate(env);
+                    return IntVal.of(((IntVal) v1).toInt() + ((IntVal) v2).toInt());
+                }
+            };
+        case SUBTRACT:
+            return new Expression() {
+                public Value evaluate(Environment env) {
+                    Value v1 = l.evaluate(env);
+                    Value v2 = r.evaluate(env);
+                    return IntVal.of(((IntVal) v1).toInt() - ((IntVal) v2).toInt());
+                }
+            };
+        case MULTIPLY:
+            return new Expression() {
+                public Value evaluate(Environment env) {
+                    Value v1 = l.evaluate(env);
+                    Value v2 = r.evaluate(env);
+                    return IntVal.of(((IntVal) v1).toInt() * ((IntVal) v2).toInt());
+                }
+            };
+        case DIVIDE:
+            return new Expression() {
+                public Value evaluate(Environment env) {
+                    Value v1 = l.evaluate(env);
+                    Value v2 = r.evaluate(env);
+                    return IntVal.of(((IntVal) v1).toInt() / ((IntVal) v2).toInt());
+                }
+            };
+        case MOD:
+            return new Expression() {
+                public Value evaluate(Environment env) {
+                    Value v1 = l.evaluate(env);
+                    Value v2 = r.evaluate(env);
+                    return IntVal.of(((IntVal) v1).toInt() % ((IntVal) v2).toInt());
+                }
+            };
+        case GT:
+            return new Expression() {
+                public Value evaluate(Environment env) {
+                    Value v1 = l.evaluate(env);
+                    Value v2 = r.evaluate(env);
+                    return BoolVal.of(((IntVal) v1).toInt() > ((IntVal) v2).toInt());
+                }
+            };
+        case GE:
+            return new Expression() {
+                public Value evaluate(Environment env) {
+                    Value v1 = l.evaluate(env);
+                    Value v2 = r.evaluate(env);
+                    return BoolVal.of(((IntVal) v1).toInt() >= ((IntVal) v2).toInt());
+                }
+            };
+        case LT:
+            return new Expression() {
+                public Value evaluate(Environment env) {
+                    Value v1 = l.evaluate(env);
+                    Value v2 = r.evaluate(env);
+                    return BoolVal.of(((IntVal) v1).toInt() < ((IntVal) v2).toInt());
+                }
+            };
+        case LE:
+            return new Expression() {
+                public Value evaluate(Environment env) {
+                    Value v1 = l.evaluate(env);
+                    Value v2 = r.evaluate(env);
+                    return BoolVal.of(((IntVal) v1).toInt() <= ((IntVal) v2).toInt());
+                }
+            };
+        default:
+            return new Expression() {
+                public Value evaluate(Environment env) {
+                    Value v1 = l.evaluate(env);
+                    Value v2 = r.evaluate(env);
+                    return BoolVal.of(v1.equals(v2) && v2.equals(v1));
+                }
+            };
+        }
+    }
+
+    private Expression ifElse(final IfExpr i) {
+        final Expression cond = node(i.getCondition());
+        final Expression thn = node(i.getThen());
+        if (i.getElse() == null) {
+            return new Expression() {
+                public Value evaluate(Environment env) {
+                    Value c = cond.evaluate(env);
+                    boolean taken = c instanceof BoolVal ? ((BoolVal) c).toBoolean() : i.takesThen(c);
+                    return taken ? thn.evaluate(env) : null;
+                }
+            };
+        }
+        final Expression els = node(i.getElse());
+        return new Expression() {
+            public Value evaluate(Environment env) {
+                Value c = cond.evaluate(env);
+                boolean taken = c instanceof BoolVal ? ((BoolVal) c).toBoolean() : i.takesThen(c);
+                return taken ? thn.evaluate(env) : els.evaluate(env);
+            }
+        };
+    }
+
+    private Expression directCall(final DirectCallExpr call) {
+        final KnownFunction f = call.getTarget();
+        Expression[] cell = known.get(f);
+        if (cell == null) {
+            cell = new Expression[1];
+            known.put(f, cell);
+            cell[0] = node(f.getBody());
+        }
+        final Expression[] body = cell;
+        final Expression[] args = nodes(call.getArgs());
+        final int[] paramSlots = new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            paramSlots[i] = f.getInfo().paramSlot(i);
+        }
+        if (call.isTail()) {
+            return new Expression() {
+                public Value evaluate(Environment env) {
+                    return new TailCall(body[0], declare(call, paramSlots, args, env));
+                }
+            };
+        }
+        return new Expression() {
+            public Value evaluate(Environment env) {
+                return TailCall.run(body[0], declare(call, paramSlots, args, env));
+            }
+        };
+    }
+
+    private static FrameEnvironment declare(DirectCallExpr call, int[] paramSlots,
+            Expression[] args, Environment env) {
+        FrameEnvironment frame = call.newFrame(env);
+        for (int i = 0; i < args.length; i++) {
+            frame.declare(paramSlots[i], args[i].evaluate(env));
+        }
+        return frame;
+    }
+}
@@ -0,0 +1,134 @@
+package edu.sjsu.fwjs;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Folds constant expressions before a program is run.
+ *
+ * Binary operators over constants are computed once, and ifs whose
+ * condition is a constant boolean are replaced by the branch taken.
+ * An operation that would fail at run time, such as a division by zero
+ * or adding a boolean, is left in place so that it still fails when
+ * (and only if) it is reached.
+ *
+ * A variable declared with a constant initializer is also replaced by its
+ * value, where that is certainly the value it has:
+ * <ul>
+ * <li>nothing in the program assigns to a variable of that name,</li>
+ * <li>the declaration is a statement of the function (or program) body
+ *     itself, not nested in an if or while, so it runs exactly once, and</li>
+ * <li>the use comes in a later statement of that body, and is not inside
+ *     a function that declares the same name itself.</li>
+ * </ul>
+ * The declaration stays, since code that was not folded may still look
+ * the variable up, and declaring it twice must still fail.
+ */
+class ConstantFolder extends ExpressionRewriter {
+    private Set<String> assigned = new HashSet<String>();
+    private Map<String,Value> constants = new HashMap<String,Value>();
+
+    /**
+     * Returns the folded program.  The input tree is not modified.
+     */
+    static Expression fold(Expression prog) {
+        ConstantFolder folder = new ConstantFolder();
+        folder.collectAssigned(prog);
+        return folder.foldBody(prog);
+    }
+
+    private void collectAssigned(Expression e) {
+        if (e instanceof AssignExpr) {
+            assigned.add(((AssignExpr) e).getName());
+        }
+        for (Expression child : AstSerializer.children(e)) {
+            if (child != null) collectAssigned(child);
+        }
+    }
+
+    /**
+     * Folds the body of a function or program, learning constants from
+     * its top-level declarations as it goes.
+     */
+    private Expression foldBody(Expression body) {
+        if (!(body instanceof BlockExpr)) {
+            return rewrite(body);
+        }
+        List<Expression> stmts = ((BlockExpr) body).getStatements();
+        List<Expression> folded = new ArrayList<Expression>(stmts.size());
+        boolean changed = false;
+        for (Expression stmt : stmts) {
+            Expression f = rewrite(stmt);
+            changed |= f != stmt;
+            folded.add(f);
+            if (f instanceof VarDeclExpr) {
+                VarDeclExpr decl = (VarDeclExpr) f;
+                if (decl.getInitializer() instanceof ValueExpr && !assigned.contains(decl.getName())) {
+                    constants.put(decl.getName(), ((ValueExpr) decl.getInitializer()).getValue());
+                }
+            }
+        }
+        return changed ? new BlockExpr(folded) : body;
+    }
+
+    @Override
+    Expression rewriteVar(VarExpr e) {
+        Value v = constants.get(e.getName());
+        return v == null ? e : new ValueExpr(v);
+    }
+
+    @Override
+    Expression rewriteBinOp(BinOpExpr e) {
+        Expression folded = super.rewriteBinOp(e);
+        if (folded instanceof BinOpExpr) {
+            BinOpExpr b = (BinOpExpr) folded;
+            if (b.getLeft() instanceof ValueExpr && b.getRight() instanceof ValueExpr) {
+                try {
+                    // Applied directly, so that folding neither specializes
+                    // the node nor shows up in the specialization stats
+                    return new ValueExpr(b.apply(((ValueExpr) b.getLeft()).getValue(),
+                            ((ValueExpr) b.getRight()).getValue()));
+                } catch (RuntimeException ex) {
+                    // Keep the operation so it fails at run time instead
+                }
+            }
+        }
+        return folded;
+    }
+
+    @Override
+    Expression rewriteIf(IfExpr e) {
+        Expression folded = super.rewriteIf(e);
+        if (folded instanceof IfExpr) {
+            IfExpr i = (IfExpr) folded;
+            if (i.getCondition() instanceof ValueExpr
+                    && ((ValueExpr) i.getCondition()).getValue() instanceof BoolVal) {
+                boolean cond = ((BoolVal) ((ValueExpr) i.getCondition()).getValue()).toBoolean();
+                Expression taken = cond ? i.getThen() : i.getElse();
+                // A missing branch is kept as an if, which evaluates to nothing
+                if (taken != null) return taken;
+            }
+        }
+        return folded;
+    }
+
+    @Override
+    Expression rewriteFunctionDecl(FunctionDeclExpr e) {
+        Map<String,Value> outer = constants;
+        constants = new HashMap<String,Value>(outer);
+        // Parameters and local variables hide the outer constants, even
+        // before their declarations have run
+        constants.keySet().removeAll(e.getParams());
+        constants.keySet().removeAll(FunctionInfo.declaredNames(e.getBody()));
+        try {
+            Expression body = foldBody(e.getBody());
+            return body == e.getBody() ? e : new FunctionDeclExpr(e.getParams(), body);
+        } finally {
+            constants = outer;
+        }
+    }
+}
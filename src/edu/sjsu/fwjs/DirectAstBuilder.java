@@ -0,0 +1,194 @@
+package edu.sjsu.fwjs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import edu.sjsu.fwjs.parser.FeatherweightJavaScriptParser.*;
+
+/**
+ * Builds expressions while the parser runs, instead of walking a parse tree
+ * afterwards.  Install it with addParseListener on a parser that has
+ * setBuildParseTree(false); rule contexts then never get linked into a tree
+ * and can be collected as soon as their rule has been reduced.
+ *
+ * Rule exits arrive in post-order (left-recursive alternatives included),
+ * so each exit pops its operands off a value stack and pushes its result.
+ * Rules with a variable number of children record the stack height on entry.
+ * Parameter and argument lists are kept on their own stacks, so no
+ * ParamsExpr or ArgsExpr nodes are needed.
+ *
+ * The trees built are the same as those built by ExpressionBuilderVisitor.
+ */
+public class DirectAstBuilder implements ParseTreeListener {
+    private List<Expression> values = new ArrayList<Expression>();
+    private int[] heights = new int[64];
+    private int depth;
+    private List<List<String>> paramLists = new ArrayList<List<String>>();
+    private List<List<Expression>> argLists = new ArrayList<List<Expression>>();
+    private boolean failed;
+
+    /**
+     * Discards any partial state, e.g. after an abandoned SLL parse.
+     */
+    public void reset() {
+        values.clear();
+        depth = 0;
+        paramLists.clear();
+        argLists.clear();
+        failed = false;
+    }
+
+    /**
+     * The program built by the last parse.
+     */
+    public Expression getResult() {
+        if (failed || values.size() != 1) {
+            throw new IllegalStateException("parse did not produce a single program");
+        }
+        return values.get(0);
+    }
+
+    @Override
+    public void enterEveryRule(ParserRuleContext ctx) {
+        if (depth == heights.length) {
+            int[] bigger = new int[depth * 2];
+            System.arraycopy(heights, 0, bigger, 0, depth);
+            heights = bigger;
+        }
+        heights[depth++] = values.size();
+    }
+
+    @Override
+    public void exitEveryRule(ParserRuleContext ctx) {
+        int height = heights[--depth];
+        if (failed || ctx.exception != null) {
+            // After a syntax error the stack no longer lines up with the rules,
+            // so stop building; the caller has to fall back to a parse tree.
+            failed = true;
+            return;
+        }
+        try {
+            reduce(ctx, height);
+        } catch (RuntimeException e) {
+            // Inline error recovery can leave out tokens without marking the context
+            failed = true;
+        }
+    }
+
+    private void reduce(ParserRuleContext ctx, int height) {
+        if (ctx instanceof ProgContext) {
+            List<Expression> stmts = popAbove(height);
+            // Top-level empty statements are dropped, as in visitProg
+            List<Expression> nonEmpty = new ArrayList<Expression>(stmts.size());
+            for (Expression stmt : stmts) {
+                if (stmt != null) nonEmpty.add(stmt);
+            }
+            push(BlockExpr.of(nonEmpty));
+        } else if (ctx instanceof BareExprContext || ctx instanceof ParensContext
+                || ctx instanceof SimpBlockContext) {
+            // The single child's value is already on the stack
+        } else if (ctx instanceof IfThenElseContext) {
+            Expression els = pop();
+            Expression thn = pop();
+            push(new IfExpr(pop(), thn, els));
+        } else if (ctx instanceof IfThenContext) {
+            Expression thn = pop();
+            push(new IfExpr(pop(), thn, null));
+        } else if (ctx instanceof WhileStatContext) {
+            Expression body = pop();
+            push(new WhileExpr(pop(), body));
+        } else if (ctx instanceof PrintStatContext) {
+            push(new PrintExpr(pop()));
+        } else if (ctx instanceof EmptyStatContext) {
+            push(null);
+        } else if (ctx instanceof FunctionDeclContext) {
+            Expression body = BlockExpr.of(popAbove(height));
+            List<String> params = paramLists.remove(paramLists.size() - 1);
+            push(new FunctionDeclExpr(params, body));
+        } else if (ctx instanceof ParametersContext) {
+            List<TerminalNode> ids = ((ParametersContext) ctx).ID();
+            List<String> params = new ArrayList<String>(ids.size());
+            for (TerminalNode id : ids) {
+                params.add(id.getText());
+            }
+            paramLists.add(params);
+        } else if (ctx instanceof FunctionApplContext) {
+            List<Expression> args = argLists.remove(argLists.size() - 1);
+            push(new FunctionAppExpr(pop(), args));
+        } else if (ctx instanceof ArgumentsContext) {
+            argLists.add(popAbove(height));
+        } else if (ctx instanceof MulDivModContext) {
+            binOp(((MulDivModContext) ctx).op.getText());
+        } else if (ctx instanceof AddSubContext) {
+            binOp(((AddSubContext) ctx).op.getText());
+        } else if (ctx instanceof CompareContext) {
+            binOp(((CompareContext) ctx).op.getText());
+        } else if (ctx instanceof IntContext) {
+            int val = Integer.valueOf(((IntContext) ctx).INT().getText());
+            push(new ValueExpr(IntVal.of(val)));
+        } else if (ctx instanceof ConstantContext) {
+            ConstantContext c = (ConstantContext) ctx;
+            if (c.BOOL() != null) {
+                push(new ValueExpr(BoolVal.of(Boolean.parseBoolean(c.BOOL().getText()))));
+            } else if (c.INT() != null) {
+                push(new ValueExpr(IntVal.of(Integer.valueOf(c.INT().getText()))));
+            } else {
+                push(new ValueExpr(NullVal.NULL));
+            }
+        } else if (ctx instanceof VarDeclContext) {
+            VarDeclContext d = (VarDeclContext) ctx;
+            // Without "= expr" there is no initializer on the stack
+            Expression init = d.op != null ? pop() : null;
+            push(new VarDeclExpr(d.ID().getText(), init));
+        } else if (ctx instanceof VarApplContext) {
+            push(new VarExpr(((VarApplContext) ctx).ID().getText()));
+        } else if (ctx instanceof AssignContext) {
+            AssignContext a = (AssignContext) ctx;
+            push(new AssignExpr(a.ID().getText(), pop()));
+        } else if (ctx instanceof FullBlockContext) {
+            push(BlockExpr.of(popAbove(height)));
+        }
+    }
+
+    @Override
+    public void visitTerminal(TerminalNode node) {}
+
+    @Override
+    public void visitErrorNode(ErrorNode node) {
+        failed = true;
+    }
+
+    private void binOp(String opSymbol) {
+        Expression e2 = pop();
+        Expression e1 = pop();
+        push(new BinOpExpr(Op.fromSymbol(opSymbol), e1, e2));
+    }
+
+    private void push(Expression e) {
+        values.add(e);
+    }
+
+    private Expression pop() {
+        if (values.isEmpty()) {
+            failed = true;
+            return null;
+        }
+        return values.remove(values.size() - 1);
+    }
+
+    private List<Expression> popAbove(int height) {
+        if (height > values.size()) {
+            failed = true;
+            return new ArrayList<Expression>();
+        }
+        List<Expression> sub = values.subList(height, values.size());
+        List<Expression> result = new ArrayList<Expression>(sub);
+        sub.clear();
+        return result;
+    }
+}
@@ -4,7 +4,8 @@ import java.util.Map;
 import java.util.HashMap;
 
 public class Environment {
-    private Map<String,Value> env = new HashMap<String,Value>();
+    // Created on first use; frames keep their variables elsewhere
+    private Map<String,Value> env;
     private Environment outerEnv;
 
     /**
@@ -19,6 +20,13 @@ public class Environment {
         this.outerEnv = outerEnv;
     }
 
+    /**
+     * The enclosing scope, or null for the global environment.
+     */
+    Environment getOuter() {
+        return outerEnv;
+    }
+
     /**
      * Handles the logic of resolving a variable.
      * If the variable name is in the current scope, it is returned.
@@ -28,7 +36,7 @@ public class Environment {
      */
     public Value resolveVar(String varName) {
         // YOUR CODE HERE
-        Value res = env.get(varName);       //find value in the current env
+        Value res = env == null ? null : env.get(varName);       //find value in the current env
         if(res == null){
             
             if(outerEnv == null) return null;
@@ -45,10 +53,11 @@ public class Environment {
      */
     public void updateVar(String key, Value v) {
         // YOUR CODE HERE
-        if(env.containsKey(key)) {  //found key in current scope
+        if(env != null && env.containsKey(key)) {  //found key in current scope
             //update val
             env.put(key, v);
         } else if(outerEnv == null) {        //this is currently the global scope
+            if (env == null) env = new HashMap<String,Value>();
             env.put(key, v);
         } else {                            //ask the outerscope
             outerEnv.updateVar(key, v);
@@ -62,6 +71,7 @@ public class Environment {
      */
     public void createVar(String key, Value v) {
         // YOUR CODE HERE
+        if(env == null) env = new HashMap<String,Value>();
         if(env.containsKey(key)){
             throw new RuntimeException("variable name exist already");
         }
@@ -0,0 +1,27 @@
+package edu.sjsu.fwjs;
+
+/**
+ * Ways of evaluating expression trees.
+ */
+public enum EvalMode {
+    /** Each expression evaluates its subexpressions by calling them, on the Java stack. */
+    RECURSIVE,
+    /** HeapEvaluator keeps the pending work on the heap, so deep recursion cannot overflow. */
+    HEAP,
+    /** BytecodeVM runs the tree compiled to Bytecode by BytecodeCompiler. */
+    BYTECODE,
+    /** ClosureCompiler compiles the tree to Java closures, which evaluate it recursively. */
+    CLOSURES;
+
+    /**
+     * Get the mode for a command line name such as "heap".
+     */
+    public static EvalMode fromName(String name) {
+        for (EvalMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(name)) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Unknown evaluator: " + name);
+    }
+}
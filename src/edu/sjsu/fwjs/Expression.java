@@ -1,6 +1,7 @@
 package edu.sjsu.fwjs;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -24,6 +25,9 @@ class ValueExpr implements Expression {
     public ValueExpr(Value v) {
         this.val = v;
     }
+    Value getValue() {
+        return this.val;
+    }
     public Value evaluate(Environment env) {
         return this.val;
     }
@@ -37,10 +41,13 @@ class VarExpr implements Expression {
     public VarExpr(String varName) {
         this.varName = varName;
     }
+    String getName() {
+        return this.varName;
+    }
     public Value evaluate(Environment env) {
         Value var = env.resolveVar(varName);
         if (var == null) {
-            return new NullVal();
+            return NullVal.NULL;
         } else {
             return var;
         }
@@ -55,8 +62,14 @@ class PrintExpr implements Expression {
     public PrintExpr(Expression exp) {
         this.exp = exp;
     }
+    Expression getExpression() {
+        return this.exp;
+    }
     public Value evaluate(Environment env) {
         Value v = exp.evaluate(env);
+        return print(v);
+    }
+    Value print(Value v) {
         System.out.println(v.toString());
         return v;
     }
@@ -69,56 +82,139 @@ class BinOpExpr implements Expression {
     private Op op;
     private Expression e1;
     private Expression e2;
+    // Which version of evaluate runs (see Specializations)
+    private int specialization = Specializations.UNINITIALIZED;
+    /** Switches and counts this node's specializing; null specializes without counting. */
+    private Specializations specializations;
     public BinOpExpr(Op op, Expression e1, Expression e2) {
         this.op = op;
         this.e1 = e1;
         this.e2 = e2;
     }
+    /**
+     * Has the node specialize, or not, as the given settings say, and count
+     * what it does in their profile.
+     */
+    void setSpecializations(Specializations specializations) {
+        this.specializations = specializations;
+    }
+    Op getOp() {
+        return this.op;
+    }
+    Expression getLeft() {
+        return this.e1;
+    }
+    Expression getRight() {
+        return this.e2;
+    }
+    int getSpecialization() {
+        return this.specialization;
+    }
 
-    @SuppressWarnings("incomplete-switch")
     public Value evaluate(Environment env) {
         Value v1 = this.e1.evaluate(env);
         Value v2 = this.e2.evaluate(env);
+        int s = this.specialization;
+        if (s >= Specializations.INT_ADD && s <= Specializations.INT_EQ) {
+            if (v1 instanceof IntVal && v2 instanceof IntVal) {
+                int i1 = ((IntVal) v1).toInt();
+                int i2 = ((IntVal) v2).toInt();
+                switch (s) {
+                case Specializations.INT_ADD:
+                    return IntVal.of(i1 + i2);
+                case Specializations.INT_SUBTRACT:
+                    return IntVal.of(i1 - i2);
+                case Specializations.INT_MULTIPLY:
+                    return IntVal.of(i1 * i2);
+                case Specializations.INT_DIVIDE:
+                    return IntVal.of(i1 / i2);
+                case Specializations.INT_MOD:
+                    return IntVal.of(i1 % i2);
+                case Specializations.INT_GT:
+                    return BoolVal.of(i1 > i2);
+                case Specializations.INT_GE:
+                    return BoolVal.of(i1 >= i2);
+                case Specializations.INT_LT:
+                    return BoolVal.of(i1 < i2);
+                case Specializations.INT_LE:
+                    return BoolVal.of(i1 <= i2);
+                default:
+                    return BoolVal.of(i1 == i2);
+                }
+            }
+        } else if (s == Specializations.BOOL_EQ) {
+            if (v1 instanceof BoolVal && v2 instanceof BoolVal) {
+                return BoolVal.of(((BoolVal) v1).toBoolean() == ((BoolVal) v2).toBoolean());
+            }
+        } else if (s == Specializations.GENERIC) {
+            return apply(v1, v2);
+        }
+        return specialize(v1, v2);
+    }
+
+    /**
+     * On the first evaluation, picks the version for values like these, and
+     * after that, when its guard fails, falls back to the generic one.
+     */
+    Value specialize(Value v1, Value v2) {
+        int s = Specializations.GENERIC;
+        if (specialization == Specializations.UNINITIALIZED && op != null
+                && (specializations == null || specializations.isEnabled())) {
+            if (v1 instanceof IntVal && v2 instanceof IntVal) {
+                s = Specializations.INT_ADD + op.ordinal();
+            } else if (op == Op.EQ && v1 instanceof BoolVal && v2 instanceof BoolVal) {
+                s = Specializations.BOOL_EQ;
+            }
+        }
+        if (specializations != null) specializations.record("BinOp " + op, specialization, s);
+        specialization = s;
+        return apply(v1, v2);
+    }
 
+    /**
+     * Applies the operator to the values of the operands.
+     */
+    @SuppressWarnings("incomplete-switch")
+    Value apply(Value v1, Value v2) {
         // YOUR CODE HERE
         if(this.op == Op.ADD) {
             IntVal iv1 = (IntVal) v1;
             IntVal iv2 = (IntVal) v2;
-            return new IntVal(iv1.toInt() + iv2.toInt());
+            return IntVal.of(iv1.toInt() + iv2.toInt());
         } else if (this.op == op.SUBTRACT) {
             IntVal iv1 = (IntVal) v1;
             IntVal iv2 = (IntVal) v2;
-            return new IntVal(iv1.toInt() - iv2.toInt());
+            return IntVal.of(iv1.toInt() - iv2.toInt());
         } else if (this.op == op.MULTIPLY) {
             IntVal iv1 = (IntVal) v1;
             IntVal iv2 = (IntVal) v2;
-            return new IntVal(iv1.toInt() * iv2.toInt());
+            return IntVal.of(iv1.toInt() * iv2.toInt());
         } else if (this.op == op.DIVIDE) {
             IntVal iv1 = (IntVal) v1;
             IntVal iv2 = (IntVal) v2;
-            return new IntVal(iv1.toInt() / iv2.toInt());
+            return IntVal.of(iv1.toInt() / iv2.toInt());
         } else if (this.op == op.MOD) {
             IntVal iv1 = (IntVal) v1;
             IntVal iv2 = (IntVal) v2;
-            return new IntVal(iv1.toInt() % iv2.toInt());
+            return IntVal.of(iv1.toInt() % iv2.toInt());
         } else if (this.op == op.GT) {
             IntVal iv1 = (IntVal) v1;
             IntVal iv2 = (IntVal) v2;
-            return new BoolVal(iv1.toInt() > iv2.toInt());
+            return BoolVal.of(iv1.toInt() > iv2.toInt());
         } else if (this.op == op.GE) {
             IntVal iv1 = (IntVal) v1;
             IntVal iv2 = (IntVal) v2;
-            return new BoolVal(iv1.toInt() >= iv2.toInt());
+            return BoolVal.of(iv1.toInt() >= iv2.toInt());
         } else if (this.op == op.LT) {
             IntVal iv1 = (IntVal) v1;
             IntVal iv2 = (IntVal) v2;
-            return new BoolVal(iv1.toInt() < iv2.toInt());
+            return BoolVal.of(iv1.toInt() < iv2.toInt());
         } else if (this.op == op.LE) {
             IntVal iv1 = (IntVal) v1;
             IntVal iv2 = (IntVal) v2;
-            return new BoolVal(iv1.toInt() <= iv2.toInt());
+            return BoolVal.of(iv1.toInt() <= iv2.toInt());
         } else if (this.op == op.EQ) {
-            return new BoolVal(v1.equals(v2) && v2.equals(v1));
+            return BoolVal.of(v1.equals(v2) && v2.equals(v1));
         } else {
             return null;
         }
@@ -133,22 +229,76 @@ class IfExpr implements Expression {
     private Expression cond;
     private Expression thn;
     private Expression els;
+    private int specialization = Specializations.UNINITIALIZED;
+    /** Switches and counts this node's specializing; null specializes without counting. */
+    private Specializations specializations;
     public IfExpr(Expression cond, Expression thn, Expression els) {
         this.cond = cond;
         this.thn = thn;
         this.els = els;
     }
+    /**
+     * Has the node specialize, or not, as the given settings say, and count
+     * what it does in their profile.
+     */
+    void setSpecializations(Specializations specializations) {
+        this.specializations = specializations;
+    }
+    Expression getCondition() {
+        return this.cond;
+    }
+    Expression getThen() {
+        return this.thn;
+    }
+    Expression getElse() {
+        return this.els;
+    }
+    int getSpecialization() {
+        return this.specialization;
+    }
     public Value evaluate(Environment env) {
         Value cond = this.cond.evaluate(env);
-        
-        if( cond.equals(new BoolVal(true)) ) {
+        boolean taken;
+        if (specialization == Specializations.BOOL && cond instanceof BoolVal) {
+            taken = ((BoolVal) cond).toBoolean();
+        } else {
+            taken = specialize(cond);
+        }
+
+        if( taken ) {
             return this.thn.evaluate(env);
-        } else if ( cond.equals(new BoolVal(false)) ) {
+        } else {
             if(this.els != null) {
                 Value val = this.els.evaluate(env);
                 return val;
             }
             return null;
+        }
+    }
+    /**
+     * Picks the version of the test for a condition like this one, or
+     * falls back to the generic one, and makes the test.
+     */
+    boolean specialize(Value cond) {
+        if (specialization != Specializations.GENERIC) {
+            int s = specialization == Specializations.UNINITIALIZED && cond instanceof BoolVal
+                    && (specializations == null || specializations.isEnabled())
+                    ? Specializations.BOOL : Specializations.GENERIC;
+            if (specializations != null) specializations.record("If", specialization, s);
+            specialization = s;
+        }
+        return takesThen(cond);
+    }
+    /**
+     * Whether the value of the condition selects the then branch.
+     */
+    boolean takesThen(Value cond) {
+        if (cond == BoolVal.TRUE) return true;
+        if (cond == BoolVal.FALSE) return false;
+        if( cond.equals(BoolVal.TRUE) ) {
+            return true;
+        } else if ( cond.equals(BoolVal.FALSE) ) {
+            return false;
         } else {
             throw new RuntimeException("Only booleans accepted in If statements!");
         }
@@ -157,22 +307,110 @@ class IfExpr implements Expression {
 
 /**
  * While statements (treated as expressions in FWJS, unlike JS).
+ *
+ * A loop with a profile goes on, once it has gone round the profile's
+ * loop threshold times in one run, in code compiled by JvmCompiler: on
+ * stack replacement, which needs nothing but the environment, since that
+ * is where all the variables are.  The loop runs compiled from then on,
+ * until the code deoptimizes.
  */
-class WhileExpr implements Expression {
+class WhileExpr implements Expression, JvmCompiler.Owner {
     private Expression cond;
     private Expression body;
+    private FunctionProfile profile;
+    private int specialization = Specializations.UNINITIALIZED;
+    /** Switches and counts this node's specializing; null specializes without counting. */
+    private Specializations specializations;
+    private volatile JvmCompiler.Compiled osr;
+    private boolean noOsr;
     public WhileExpr(Expression cond, Expression body) {
+        this(cond, body, null);
+    }
+    /**
+     * A loop that counts its iterations in the profile of the function it
+     * is in (see HotFunctions), if that is not null.
+     */
+    public WhileExpr(Expression cond, Expression body, FunctionProfile profile) {
         this.cond = cond;
         this.body = body;
+        this.profile = profile;
+    }
+    /**
+     * Has the node specialize, or not, as the given settings say, and count
+     * what it does in their profile.
+     */
+    void setSpecializations(Specializations specializations) {
+        this.specializations = specializations;
+    }
+    Expression getCondition() {
+        return this.cond;
+    }
+    Expression getBody() {
+        return this.body;
+    }
+    FunctionProfile getProfile() {
+        return this.profile;
+    }
+    int getSpecialization() {
+        return this.specialization;
+    }
+    boolean isCompiled() {
+        return this.osr != null;
     }
     public Value evaluate(Environment env) {
+        JvmCompiler.Compiled c = osr;
+        if (c != null) return c.run(env);
+        int iterations = 0;
         // YOUR CODE HERE
-        while(this.cond.evaluate(env).equals(new BoolVal(true))) {
+        while(test(this.cond.evaluate(env))) {
             this.body.evaluate(env);
+            if (profile != null) {
+                profile.backEdge();
+                if (++iterations == profile.getLoopThreshold() && (c = compile()) != null) {
+                    return c.run(env);
+                }
+            }
         };
         
         return null;
     }
+    private synchronized JvmCompiler.Compiled compile() {
+        if (osr == null && !noOsr) {
+            boolean speculate = profile.speculates();
+            try {
+                osr = JvmCompiler.compileLoop(this, speculate ? this : null);
+                profile.replacedLoop(speculate);
+            } catch (IllegalStateException e) {
+                noOsr = true;
+            }
+        }
+        return osr;
+    }
+    /**
+     * Throws away the compiled loop, unless it has already been replaced.
+     */
+    public synchronized void deoptimize(JvmCompiler.Compiled from, String reason) {
+        if (osr != from) return;
+        osr = null;
+        profile.deoptimized(reason);
+    }
+    /**
+     * Whether the value of the condition continues the loop, specializing
+     * the test as IfExpr does.
+     */
+    boolean test(Value cond) {
+        if (specialization == Specializations.BOOL && cond instanceof BoolVal) {
+            return ((BoolVal) cond).toBoolean();
+        }
+        if (specialization != Specializations.GENERIC) {
+            int s = specialization == Specializations.UNINITIALIZED && cond instanceof BoolVal
+                    && (specializations == null || specializations.isEnabled())
+                    ? Specializations.BOOL : Specializations.GENERIC;
+            if (specializations != null) specializations.record("While", specialization, s);
+            specialization = s;
+        }
+        return cond == BoolVal.TRUE || cond.equals(BoolVal.TRUE);
+    }
 }
 
 /**
@@ -185,6 +423,12 @@ class SeqExpr implements Expression {
         this.e1 = e1;
         this.e2 = e2;
     }
+    Expression getFirst() {
+        return this.e1;
+    }
+    Expression getSecond() {
+        return this.e2;
+    }
     public Value evaluate(Environment env) {
         // YOUR CODE HERE
         e1.evaluate(env);
@@ -193,6 +437,43 @@ class SeqExpr implements Expression {
     }
 }
 
+/**
+ * A block of statements, evaluated in order.  The value is that of the last
+ * statement.  Unlike a chain of SeqExprs, evaluating it does not recurse
+ * once per statement, so long programs cannot overflow the stack.
+ */
+class BlockExpr implements Expression {
+    private Expression[] stmts;
+    public BlockExpr(List<Expression> stmts) {
+        this.stmts = stmts.toArray(new Expression[stmts.size()]);
+    }
+    /**
+     * The statements as one expression: null if there are none, the
+     * statement itself if there is only one, and a block otherwise.
+     */
+    static Expression of(List<Expression> stmts) {
+        if (stmts.isEmpty()) return null;
+        if (stmts.size() == 1) return stmts.get(0);
+        return new BlockExpr(stmts);
+    }
+    List<Expression> getStatements() {
+        return Arrays.asList(this.stmts);
+    }
+    int size() {
+        return this.stmts.length;
+    }
+    Expression statement(int i) {
+        return this.stmts[i];
+    }
+    public Value evaluate(Environment env) {
+        Value v = null;
+        for (Expression stmt : this.stmts) {
+            v = stmt.evaluate(env);
+        }
+        return v;
+    }
+}
+
 /**
  * Declaring a variable in the local scope.
  */
@@ -203,9 +484,18 @@ class VarDeclExpr implements Expression {
         this.varName = varName;
         this.exp = exp;
     }
+    String getName() {
+        return this.varName;
+    }
+    Expression getInitializer() {
+        return this.exp;
+    }
     public Value evaluate(Environment env) {
         // YOUR CODE HERE
         Value v = exp.evaluate(env);
+        return declare(env, v);
+    }
+    Value declare(Environment env, Value v) {
         env.createVar(varName, v);
         return env.resolveVar(varName);
     }
@@ -223,11 +513,20 @@ class AssignExpr implements Expression {
         this.varName = varName;
         this.e = e;
     }
+    String getName() {
+        return this.varName;
+    }
+    Expression getExpression() {
+        return this.e;
+    }
     public Value evaluate(Environment env) {
 //        System.out.println("var name is " + varName);
         Value val = e.evaluate(env);
 //        System.out.println("e is " + val.toString());
 
+        return assign(env, val);
+    }
+    Value assign(Environment env, Value val) {
         env.updateVar(varName,val );
         return env.resolveVar(varName);
     }
@@ -239,38 +538,523 @@ class AssignExpr implements Expression {
 class FunctionDeclExpr implements Expression {
     private List<String> params;
     private Expression body;
+    private FunctionInfo info;
     public FunctionDeclExpr(List<String> params, Expression body) {
+        this(params, body, null);
+    }
+    /**
+     * A function whose body has been resolved against the given frame layout.
+     */
+    FunctionDeclExpr(List<String> params, Expression body, FunctionInfo info) {
         this.params = params;
         this.body = body;
+        this.info = info;
+    }
+    List<String> getParams() {
+        return this.params;
+    }
+    Expression getBody() {
+        return this.body;
+    }
+    FunctionInfo getInfo() {
+        return this.info;
     }
     public Value evaluate(Environment env) {
         // YOUR CODE HERE
+        if (info != null) return info.newClosure(params, body, env);
         ClosureVal closure = new ClosureVal(params, body, env);
         return closure;
     }
 }
 
 /**
- * Function application.
+ * Function application.  Its inline cache binds the arguments of the
+ * functions it has called before (see InlineCache).
  */
 class FunctionAppExpr implements Expression {
     private Expression f;
     private List<Expression> args;
+    private InlineCache cache;
     public FunctionAppExpr(Expression f, List<Expression> args) {
         this.f = f;
         this.args = args;
+        this.cache = new InlineCache(f);
+    }
+    Expression getFunction() {
+        return this.f;
+    }
+    List<Expression> getArgs() {
+        return this.args;
+    }
+    InlineCache getCache() {
+        return this.cache;
     }
     public Value evaluate(Environment env) {
         // YOUR CODE HERE
 
-        ArrayList<Value> evaluatedArgs = new ArrayList<Value>();
+        Value[] evaluatedArgs = new Value[args.size()];
 
-        for (Expression arg : args) {
-            evaluatedArgs.add(arg.evaluate(env));
+        for (int i = 0; i < evaluatedArgs.length; i++) {
+            evaluatedArgs[i] = args.get(i).evaluate(env);
         }
 
         ClosureVal closure = (ClosureVal)f.evaluate(env);
-        return closure.apply(evaluatedArgs);
+        return TailCall.run(closure.getBody(), cache.bind(closure, evaluatedArgs));
+    }
+}
+
+/**
+ * A function application in tail position (see TailCalls).  It evaluates
+ * to a TailCall, which the trampoline of the function it is in will make.
+ */
+class TailCallExpr implements Expression {
+    private Expression f;
+    private List<Expression> args;
+    private InlineCache cache;
+    public TailCallExpr(Expression f, List<Expression> args) {
+        this.f = f;
+        this.args = args;
+        this.cache = new InlineCache(f);
+    }
+    Expression getFunction() {
+        return this.f;
+    }
+    List<Expression> getArgs() {
+        return this.args;
+    }
+    InlineCache getCache() {
+        return this.cache;
+    }
+    public Value evaluate(Environment env) {
+        Value[] evaluatedArgs = new Value[args.size()];
+        for (int i = 0; i < evaluatedArgs.length; i++) {
+            evaluatedArgs[i] = args.get(i).evaluate(env);
+        }
+        ClosureVal closure = (ClosureVal) f.evaluate(env);
+        return new TailCall(closure.getBody(), cache.bind(closure, evaluatedArgs));
+    }
+}
+
+/**
+ * A variable reference resolved to frame slots by ScopeResolver.
+ */
+class ResolvedVarExpr implements Expression {
+    private VarRef ref;
+    public ResolvedVarExpr(VarRef ref) {
+        this.ref = ref;
+    }
+    VarRef getRef() {
+        return this.ref;
+    }
+    public Value evaluate(Environment env) {
+        Value var = ref.get(env);
+        if (var == null) {
+            return NullVal.NULL;
+        } else {
+            return var;
+        }
+    }
+}
+
+/**
+ * An assignment resolved to frame slots by ScopeResolver.
+ */
+class ResolvedAssignExpr implements Expression {
+    private VarRef ref;
+    private Expression e;
+    public ResolvedAssignExpr(VarRef ref, Expression e) {
+        this.ref = ref;
+        this.e = e;
+    }
+    VarRef getRef() {
+        return this.ref;
+    }
+    Expression getExpression() {
+        return this.e;
+    }
+    public Value evaluate(Environment env) {
+        Value val = e.evaluate(env);
+        return assign(env, val);
+    }
+    Value assign(Environment env, Value val) {
+        ref.set(env, val);
+        // A null value does not count as bound, so look again as AssignExpr does
+        return val != null ? val : ref.get(env);
+    }
+}
+
+/**
+ * A declaration of a variable in a slot of the current frame.
+ */
+class ResolvedVarDeclExpr implements Expression {
+    private VarRef ref;
+    private int slot;
+    private Expression exp;
+    public ResolvedVarDeclExpr(VarRef ref, int slot, Expression exp) {
+        this.ref = ref;
+        this.slot = slot;
+        this.exp = exp;
+    }
+    VarRef getRef() {
+        return this.ref;
+    }
+    int getSlot() {
+        return this.slot;
+    }
+    Expression getInitializer() {
+        return this.exp;
+    }
+    public Value evaluate(Environment env) {
+        Value v = exp.evaluate(env);
+        return declare(env, v);
+    }
+    Value declare(Environment env, Value v) {
+        ((FrameEnvironment) env).declare(slot, v);
+        return v != null ? v : ref.get(env);
+    }
+}
+
+/**
+ * A call that ScopeResolver knows goes to a function capturing nothing,
+ * so the arguments go straight into a new frame, without looking up a
+ * closure or building a list of them.
+ */
+class DirectCallExpr implements Expression {
+    private KnownFunction target;
+    private List<Expression> args;
+    private boolean fromGlobal;
+    private boolean tail;
+    /**
+     * fromGlobal says the call is made in the global environment itself
+     * rather than in a function frame.
+     */
+    public DirectCallExpr(KnownFunction target, List<Expression> args, boolean fromGlobal) {
+        this(target, args, fromGlobal, false);
+    }
+    /**
+     * A call in tail position evaluates to a TailCall, for the trampoline
+     * of the function it is in.
+     */
+    public DirectCallExpr(KnownFunction target, List<Expression> args, boolean fromGlobal,
+            boolean tail) {
+        this.target = target;
+        this.args = args;
+        this.fromGlobal = fromGlobal;
+        this.tail = tail;
+    }
+    KnownFunction getTarget() {
+        return this.target;
+    }
+    List<Expression> getArgs() {
+        return this.args;
+    }
+    boolean isFromGlobal() {
+        return this.fromGlobal;
+    }
+    boolean isTail() {
+        return this.tail;
+    }
+    public Value evaluate(Environment env) {
+        FunctionInfo info = target.getInfo();
+        FrameEnvironment frame = newFrame(env);
+        for (int i = 0; i < args.size(); i++) {
+            frame.declare(info.paramSlot(i), args.get(i).evaluate(env));
+        }
+        return enter(frame);
+    }
+    /**
+     * The frame for a call made in env, before the arguments are declared.
+     */
+    FrameEnvironment newFrame(Environment env) {
+        Environment global = fromGlobal ? env : env.getOuter();
+        return new FrameEnvironment(global, target.getInfo(),
+                FrameEnvironment.NO_VALUES, FrameEnvironment.NO_BOXES);
+    }
+    /**
+     * Runs the function in the frame, or for a tail call, returns the call.
+     */
+    Value enter(FrameEnvironment frame) {
+        if (tail) return new TailCall(target.getBody(), frame);
+        return TailCall.run(target.getBody(), frame);
+    }
+}
+
+/**
+ * A call whose function body ScopeResolver has inlined.  The function's
+ * variables have slots of their own in the caller's frame, emptied each
+ * time, as a new frame would be.
+ */
+class InlinedCallExpr implements Expression {
+    private int[] slots;
+    private int[] paramSlots;
+    private List<Expression> args;
+    private Expression body;
+    public InlinedCallExpr(int[] slots, int[] paramSlots, List<Expression> args, Expression body) {
+        this.slots = slots;
+        this.paramSlots = paramSlots;
+        this.args = args;
+        this.body = body;
+    }
+    int[] getSlots() {
+        return this.slots;
+    }
+    int[] getParamSlots() {
+        return this.paramSlots;
+    }
+    List<Expression> getArgs() {
+        return this.args;
+    }
+    Expression getBody() {
+        return this.body;
+    }
+    public Value evaluate(Environment env) {
+        FrameEnvironment frame = (FrameEnvironment) env;
+        clearSlots(frame);
+        for (int i = 0; i < args.size(); i++) {
+            frame.declare(paramSlots[i], args.get(i).evaluate(env));
+        }
+        return body.evaluate(env);
+    }
+    void clearSlots(FrameEnvironment frame) {
+        for (int slot : slots) {
+            frame.slots[slot] = FrameEnvironment.UNDECLARED;
+        }
+    }
+}
+
+/**
+ * The body of a function, which JvmCompiler compiles to a Java method once
+ * its profile says it is hot (see HotFunctions).  Until then, or if it
+ * cannot be compiled, it is evaluated as usual.  Compiled code that finds
+ * a type it did not expect deoptimizes: the rest of that call goes the
+ * generic way, and later calls are evaluated until it is hot again.
+ */
+class CompiledBodyExpr implements Expression, JvmCompiler.Owner {
+    private Expression body;
+    private FunctionProfile profile;
+    private volatile JvmCompiler.Compiled code;
+    public CompiledBodyExpr(Expression body, int threshold) {
+        this(body, new FunctionProfile("function", threshold,
+                FunctionProfile.DEFAULT_LOOP_THRESHOLD, null));
+    }
+    public CompiledBodyExpr(Expression body, FunctionProfile profile) {
+        this.body = body;
+        this.profile = profile;
+    }
+    Expression getBody() {
+        return this.body;
+    }
+    FunctionProfile getProfile() {
+        return this.profile;
+    }
+    boolean isCompiled() {
+        return this.code != null;
+    }
+    public Value evaluate(Environment env) {
+        JvmCompiler.Compiled c = code;
+        if (c == null) {
+            if (!profile.call()) return body.evaluate(env);
+            c = compile();
+            if (c == null) return body.evaluate(env);
+        }
+        return c.run(env);
+    }
+    private synchronized JvmCompiler.Compiled compile() {
+        if (code == null && profile.isHot()) {
+            boolean speculate = profile.speculates();
+            try {
+                code = JvmCompiler.compile(body, speculate ? this : null);
+                profile.compiled(speculate);
+            } catch (IllegalStateException e) {
+                profile.interpretOnly("too large for a method");
+            }
+        }
+        return code;
+    }
+    /**
+     * Throws away the compiled code, unless it has already been replaced.
+     */
+    public synchronized void deoptimize(JvmCompiler.Compiled from, String reason) {
+        if (code != from) return;
+        code = null;
+        profile.deoptimized(reason);
+    }
+}
+
+/**
+ * A node that Superinstructions fused from a common shape of tree, which
+ * does in one evaluate what the original did in several.  Evaluators and
+ * compilers that do not know the fused node use the original instead.
+ */
+interface FusedExpr extends Expression {
+    Expression getOriginal();
+    /**
+     * The subexpressions the fused node evaluates itself.
+     */
+    List<Expression> getOperands();
+}
+
+/**
+ * x = y + k or x = y - k, with k an integer constant: one lookup to read
+ * y and one to update x, without the nodes in between.
+ */
+class IncrementExpr implements FusedExpr {
+    private String readName;
+    private String writeName;
+    private int delta;
+    private Expression original;
+    public IncrementExpr(String readName, String writeName, int delta, Expression original) {
+        this.readName = readName;
+        this.writeName = writeName;
+        this.delta = delta;
+        this.original = original;
+    }
+    public Expression getOriginal() {
+        return this.original;
+    }
+    public List<Expression> getOperands() {
+        return Collections.emptyList();
+    }
+    public Value evaluate(Environment env) {
+        Value v = env.resolveVar(readName);
+        // Fails as BinOpExpr does, on the NullVal VarExpr would give
+        IntVal result = IntVal.of(((IntVal) (v == null ? NullVal.NULL : v)).toInt() + delta);
+        env.updateVar(writeName, result);
+        return result;
+    }
+}
+
+/**
+ * An IncrementExpr whose variables were resolved by ScopeResolver.
+ */
+class ResolvedIncrementExpr implements FusedExpr {
+    private VarRef read;
+    private VarRef write;
+    private int delta;
+    private Expression original;
+    public ResolvedIncrementExpr(VarRef read, VarRef write, int delta, Expression original) {
+        this.read = read;
+        this.write = write;
+        this.delta = delta;
+        this.original = original;
+    }
+    public Expression getOriginal() {
+        return this.original;
+    }
+    public List<Expression> getOperands() {
+        return Collections.emptyList();
+    }
+    public Value evaluate(Environment env) {
+        Value v = read.get(env);
+        IntVal result = IntVal.of(((IntVal) (v == null ? NullVal.NULL : v)).toInt() + delta);
+        write.set(env, result);
+        return result;
+    }
+}
+
+/**
+ * A comparison of variables and constants, such as x < n or lst == null.
+ */
+class CompareExpr implements FusedExpr {
+    private Op op;
+    private Expression left;
+    private Expression right;
+    private Expression original;
+    /**
+     * Left and right are variables or constants, which cannot fail.
+     */
+    public CompareExpr(Op op, Expression left, Expression right, Expression original) {
+        this.op = op;
+        this.left = left;
+        this.right = right;
+        this.original = original;
+    }
+    public Expression getOriginal() {
+        return this.original;
+    }
+    public List<Expression> getOperands() {
+        return Arrays.asList(left, right);
+    }
+    public Value evaluate(Environment env) {
+        Value v1 = left.evaluate(env);
+        Value v2 = right.evaluate(env);
+        boolean b;
+        if (op == Op.EQ) {
+            b = v1.equals(v2) && v2.equals(v1);
+        } else {
+            int i1 = ((IntVal) v1).toInt();
+            int i2 = ((IntVal) v2).toInt();
+            switch (op) {
+            case GT:
+                b = i1 > i2;
+                break;
+            case GE:
+                b = i1 >= i2;
+                break;
+            case LT:
+                b = i1 < i2;
+                break;
+            default:
+                b = i1 <= i2;
+                break;
+            }
+        }
+        return BoolVal.of(b);
+    }
+}
+
+/**
+ * A call of a variable with one or two arguments that are variables or
+ * constants, through the original call's inline cache.
+ */
+class VarCallExpr implements FusedExpr {
+    private Expression f;
+    private Expression arg1;
+    private Expression arg2;
+    private FunctionAppExpr original;
+    /**
+     * arg2 is null for a call with one argument.
+     */
+    public VarCallExpr(Expression f, Expression arg1, Expression arg2, FunctionAppExpr original) {
+        this.f = f;
+        this.arg1 = arg1;
+        this.arg2 = arg2;
+        this.original = original;
+    }
+    public Expression getOriginal() {
+        return this.original;
+    }
+    public List<Expression> getOperands() {
+        return arg2 == null ? Arrays.asList(f, arg1) : Arrays.asList(f, arg1, arg2);
+    }
+    public Value evaluate(Environment env) {
+        Value v1 = arg1.evaluate(env);
+        Value[] args = arg2 == null ? new Value[] { v1 } : new Value[] { v1, arg2.evaluate(env) };
+        ClosureVal closure = (ClosureVal) f.evaluate(env);
+        return TailCall.run(closure.getBody(), original.getCache().bind(closure, args));
+    }
+}
+
+/**
+ * A whole program resolved by ScopeResolver, which runs in a global frame
+ * of its own.  The environment it is given is only consulted for names
+ * the program never mentions.
+ */
+class ProgramExpr implements Expression {
+    private Expression body;
+    private FunctionInfo globals;
+    public ProgramExpr(Expression body, FunctionInfo globals) {
+        this.body = body;
+        this.globals = globals;
+    }
+    Expression getBody() {
+        return this.body;
+    }
+    FunctionInfo getGlobals() {
+        return this.globals;
+    }
+    public Value evaluate(Environment env) {
+        return body.evaluate(new FrameEnvironment(env, globals, true));
     }
 }
 
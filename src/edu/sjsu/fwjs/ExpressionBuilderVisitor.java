@@ -17,7 +17,7 @@ public class ExpressionBuilderVisitor extends FeatherweightJavaScriptBaseVisitor
             Expression exp = visit(ctx.stat(i));
             if (exp != null) stmts.add(exp);
         }
-        return listToSeqExp(stmts);
+        return BlockExpr.of(stmts);
     }
 
     @Override
@@ -77,7 +77,7 @@ public class ExpressionBuilderVisitor extends FeatherweightJavaScriptBaseVisitor
             exprList.add( visit( ctx.stat().get(i) ) ); // get the expressions from the statements within this ctx
         }
         
-        return new FunctionDeclExpr(paramVals.toParams(), listToSeqExp(exprList));
+        return new FunctionDeclExpr(paramVals.toParams(), BlockExpr.of(exprList));
     }
     
     @Override
@@ -114,7 +114,7 @@ public class ExpressionBuilderVisitor extends FeatherweightJavaScriptBaseVisitor
             stmts.add(exp);
         }
         
-        return new BinOpExpr(getOp(ctx.op.getText()), stmts.get(0), stmts.get(1));
+        return new BinOpExpr(Op.fromSymbol(ctx.op.getText()), stmts.get(0), stmts.get(1));
     }
     
     @Override
@@ -135,14 +135,14 @@ public class ExpressionBuilderVisitor extends FeatherweightJavaScriptBaseVisitor
         
         if(ctx.BOOL() != null) {
             boolean bool = Boolean.parseBoolean( ctx.BOOL().getText() );
-            return new ValueExpr(new BoolVal(bool));
+            return new ValueExpr(BoolVal.of(bool));
             
         } else if (ctx.INT() != null) {
             int val = Integer.valueOf( ctx.INT().getText() );
-            return new ValueExpr(new IntVal(val) );
+            return new ValueExpr(IntVal.of(val) );
 
         } else if (ctx.NULL() != null) {
-            return new ValueExpr(new NullVal() );
+            return new ValueExpr(NullVal.NULL );
         } else {
             return null;
         }
@@ -158,7 +158,7 @@ public class ExpressionBuilderVisitor extends FeatherweightJavaScriptBaseVisitor
             Expression exp = visit(ctx.expr(i));
             stmts.add(exp);
         }
-        return new BinOpExpr(getOp( ctx.op.getText() ), stmts.get(0), stmts.get(1));
+        return new BinOpExpr(Op.fromSymbol( ctx.op.getText() ), stmts.get(0), stmts.get(1));
     }
     
     /**
@@ -184,7 +184,7 @@ public class ExpressionBuilderVisitor extends FeatherweightJavaScriptBaseVisitor
             stmts.add(exp);
         }
         
-        return new BinOpExpr(getOp(ctx.op.getText()),stmts.get(0), stmts.get(1));
+        return new BinOpExpr(Op.fromSymbol(ctx.op.getText()),stmts.get(0), stmts.get(1));
     }
     
     @Override
@@ -202,7 +202,7 @@ public class ExpressionBuilderVisitor extends FeatherweightJavaScriptBaseVisitor
     public Expression visitInt(FeatherweightJavaScriptParser.IntContext ctx) {
         // System.out.println(ctx.getClass());
         int val = Integer.valueOf(ctx.INT().getText());
-        return new ValueExpr(new IntVal(val));
+        return new ValueExpr(IntVal.of(val));
     }
     
     @Override
@@ -234,7 +234,7 @@ public class ExpressionBuilderVisitor extends FeatherweightJavaScriptBaseVisitor
             Expression exp = visit(ctx.getChild(i));
             stmts.add(exp);
         }
-        return listToSeqExp(stmts);
+        return BlockExpr.of(stmts);
     }
     
     @Override
@@ -242,46 +242,4 @@ public class ExpressionBuilderVisitor extends FeatherweightJavaScriptBaseVisitor
         // System.out.println(ctx.getClass());
         return visit(ctx.stat());
     }
-    
-    /**
-     * Converts a list of expressions to one sequence expression,
-     * if the list contained more than one expression.
-     */
-    private Expression listToSeqExp(List<Expression> stmts) {
-        if (stmts.isEmpty()) return null;
-        Expression exp = stmts.get(0);
-        for (int i=1; i<stmts.size(); i++) {
-            exp = new SeqExpr(exp, stmts.get(i));
-        }
-        return exp;
-    }
-    
-    /**
-     * Get Op object from input string
-     */
-    private Op getOp(String opSymbol) {
-        if("+".equals(opSymbol)) {
-            return Op.ADD;
-        } else if ("-".equals(opSymbol)) {
-            return Op.SUBTRACT;
-        } else if ("*".equals(opSymbol)) {
-            return Op.MULTIPLY;
-        } else if ("/".equals(opSymbol)) {
-            return Op.DIVIDE;
-        } else if ("%".equals(opSymbol)) {
-            return Op.MOD;
-        } else if (">".equals(opSymbol) ) {
-            return Op.GT;
-        } else if (">=".equals(opSymbol) ) {
-            return Op.GE;
-        } else if ("<".equals(opSymbol) ) {
-            return Op.LT;
-        } else if ("<=".equals(opSymbol) ) {
-            return Op.LE;
-        } else if ("==".equals(opSymbol) ) {
-            return Op.EQ;
-        }  else {
-            return null;
-        }
-    }
 }
\ No newline at end of file
@@ -0,0 +1,184 @@
+package edu.sjsu.fwjs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Base class for passes that rebuild an expression tree.
+ * rewrite dispatches on the class of the node; by default each node's
+ * children are rewritten, and the node itself is only copied if one of
+ * them changed, so untouched subtrees are shared with the input.
+ */
+abstract class ExpressionRewriter {
+
+    Expression rewrite(Expression e) {
+        if (e == null) {
+            return null;
+        } else if (e instanceof ValueExpr) {
+            return rewriteValue((ValueExpr) e);
+        } else if (e instanceof VarExpr) {
+            return rewriteVar((VarExpr) e);
+        } else if (e instanceof PrintExpr) {
+            return rewritePrint((PrintExpr) e);
+        } else if (e instanceof BinOpExpr) {
+            return rewriteBinOp((BinOpExpr) e);
+        } else if (e instanceof IfExpr) {
+            return rewriteIf((IfExpr) e);
+        } else if (e instanceof WhileExpr) {
+            return rewriteWhile((WhileExpr) e);
+        } else if (e instanceof SeqExpr) {
+            return rewriteSeq((SeqExpr) e);
+        } else if (e instanceof BlockExpr) {
+            return rewriteBlock((BlockExpr) e);
+        } else if (e instanceof VarDeclExpr) {
+            return rewriteVarDecl((VarDeclExpr) e);
+        } else if (e instanceof AssignExpr) {
+            return rewriteAssign((AssignExpr) e);
+        } else if (e instanceof FunctionDeclExpr) {
+            return rewriteFunctionDecl((FunctionDeclExpr) e);
+        } else if (e instanceof FunctionAppExpr) {
+            return rewriteFunctionApp((FunctionAppExpr) e);
+        } else if (e instanceof ResolvedAssignExpr) {
+            return rewriteResolvedAssign((ResolvedAssignExpr) e);
+        } else if (e instanceof ResolvedVarDeclExpr) {
+            return rewriteResolvedVarDecl((ResolvedVarDeclExpr) e);
+        } else if (e instanceof DirectCallExpr) {
+            return rewriteDirectCall((DirectCallExpr) e);
+        } else if (e instanceof InlinedCallExpr) {
+            return rewriteInlinedCall((InlinedCallExpr) e);
+        } else if (e instanceof TailCallExpr) {
+            return rewriteTailCall((TailCallExpr) e);
+        } else if (e instanceof ProgramExpr) {
+            return rewriteProgram((ProgramExpr) e);
+        }
+        // Nodes no pass knows about are left alone
+        return e;
+    }
+
+    Expression rewriteValue(ValueExpr e) {
+        return e;
+    }
+
+    Expression rewriteVar(VarExpr e) {
+        return e;
+    }
+
+    Expression rewritePrint(PrintExpr e) {
+        Expression exp = rewrite(e.getExpression());
+        return exp == e.getExpression() ? e : new PrintExpr(exp);
+    }
+
+    Expression rewriteBinOp(BinOpExpr e) {
+        Expression left = rewrite(e.getLeft());
+        Expression right = rewrite(e.getRight());
+        if (left == e.getLeft() && right == e.getRight()) return e;
+        return new BinOpExpr(e.getOp(), left, right);
+    }
+
+    Expression rewriteIf(IfExpr e) {
+        Expression cond = rewrite(e.getCondition());
+        Expression thn = rewrite(e.getThen());
+        Expression els = rewrite(e.getElse());
+        if (cond == e.getCondition() && thn == e.getThen() && els == e.getElse()) return e;
+        return new IfExpr(cond, thn, els);
+    }
+
+    Expression rewriteWhile(WhileExpr e) {
+        Expression cond = rewrite(e.getCondition());
+        Expression body = rewrite(e.getBody());
+        if (cond == e.getCondition() && body == e.getBody()) return e;
+        return new WhileExpr(cond, body, e.getProfile());
+    }
+
+    Expression rewriteSeq(SeqExpr e) {
+        Expression first = rewrite(e.getFirst());
+        Expression second = rewrite(e.getSecond());
+        if (first == e.getFirst() && second == e.getSecond()) return e;
+        return new SeqExpr(first, second);
+    }
+
+    Expression rewriteBlock(BlockExpr e) {
+        List<Expression> stmts = rewriteAll(e.getStatements());
+        return stmts == null ? e : new BlockExpr(stmts);
+    }
+
+    Expression rewriteVarDecl(VarDeclExpr e) {
+        Expression init = rewrite(e.getInitializer());
+        return init == e.getInitializer() ? e : new VarDeclExpr(e.getName(), init);
+    }
+
+    Expression rewriteAssign(AssignExpr e) {
+        Expression exp = rewrite(e.getExpression());
+        return exp == e.getExpression() ? e : new AssignExpr(e.getName(), exp);
+    }
+
+    Expression rewriteFunctionDecl(FunctionDeclExpr e) {
+        Expression body = rewrite(e.getBody());
+        return body == e.getBody() ? e : new FunctionDeclExpr(e.getParams(), body, e.getInfo());
+    }
+
+    Expression rewriteFunctionApp(FunctionAppExpr e) {
+        Expression f = rewrite(e.getFunction());
+        List<Expression> args = rewriteAll(e.getArgs());
+        if (f == e.getFunction() && args == null) return e;
+        return new FunctionAppExpr(f, args == null ? e.getArgs() : args);
+    }
+
+    Expression rewriteResolvedAssign(ResolvedAssignExpr e) {
+        Expression exp = rewrite(e.getExpression());
+        return exp == e.getExpression() ? e : new ResolvedAssignExpr(e.getRef(), exp);
+    }
+
+    Expression rewriteResolvedVarDecl(ResolvedVarDeclExpr e) {
+        Expression init = rewrite(e.getInitializer());
+        if (init == e.getInitializer()) return e;
+        return new ResolvedVarDeclExpr(e.getRef(), e.getSlot(), init);
+    }
+
+    /**
+     * The body of the function called is shared by every call to it, so
+     * it is left to subclasses to decide whether to rewrite it.
+     */
+    Expression rewriteDirectCall(DirectCallExpr e) {
+        List<Expression> args = rewriteAll(e.getArgs());
+        if (args == null) return e;
+        return new DirectCallExpr(e.getTarget(), args, e.isFromGlobal(), e.isTail());
+    }
+
+    Expression rewriteInlinedCall(InlinedCallExpr e) {
+        List<Expression> args = rewriteAll(e.getArgs());
+        Expression body = rewrite(e.getBody());
+        if (args == null && body == e.getBody()) return e;
+        return new InlinedCallExpr(e.getSlots(), e.getParamSlots(),
+                args == null ? e.getArgs() : args, body);
+    }
+
+    Expression rewriteTailCall(TailCallExpr e) {
+        Expression f = rewrite(e.getFunction());
+        List<Expression> args = rewriteAll(e.getArgs());
+        if (f == e.getFunction() && args == null) return e;
+        return new TailCallExpr(f, args == null ? e.getArgs() : args);
+    }
+
+    Expression rewriteProgram(ProgramExpr e) {
+        Expression body = rewrite(e.getBody());
+        return body == e.getBody() ? e : new ProgramExpr(body, e.getGlobals());
+    }
+
+    /**
+     * Rewrites each expression in order.  Returns null if none of them
+     * changed, so that callers can keep the original node.
+     */
+    List<Expression> rewriteAll(List<Expression> exps) {
+        List<Expression> result = null;
+        for (int i = 0; i < exps.size(); i++) {
+            Expression before = exps.get(i);
+            Expression after = rewrite(before);
+            if (after != before && result == null) {
+                result = new ArrayList<Expression>(exps.subList(0, i));
+            }
+            if (result != null) result.add(after);
+        }
+        return result;
+    }
+}
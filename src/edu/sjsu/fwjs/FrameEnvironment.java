@@ -0,0 +1,130 @@
+package edu.sjsu.fwjs;
+
+import java.util.Arrays;
+
+/**
+ * An environment whose variables are known in advance (see FunctionInfo)
+ * and kept in an array, so that resolved code can reach them by index.
+ *
+ * A slot holds UNDECLARED until its variable has been declared.  Until
+ * then lookups pass on to the outer scopes, just as they would if the
+ * variable were missing from a map.  Names with no slot are kept in the
+ * map of the base class.
+ *
+ * A global frame is the outermost scope of a program: assigning to one of
+ * its variables that has not been declared creates it there, as the
+ * global Environment does.  Its outer environment, if any, is only used
+ * for names it has no slot for.
+ *
+ * The frame of a function call does not point at the frame it was
+ * defined in.  Its outer environment is the global one, and the variables
+ * of enclosing functions that it uses were copied into the closure when
+ * it was created: by value if they cannot change afterwards, otherwise as
+ * the Box that the enclosing frame keeps the variable in.  Resolved code
+ * reaches them by index; looking a name up only finds the frame's own
+ * variables and the globals.
+ */
+class FrameEnvironment extends Environment {
+    static final Value UNDECLARED = new Value() {
+        @Override
+        public String toString() {
+            return "undeclared";
+        }
+    };
+
+    static final Value[] NO_VALUES = new Value[0];
+    static final Box[] NO_BOXES = new Box[0];
+
+    /**
+     * A variable shared between a frame and the closures that captured it.
+     */
+    static final class Box {
+        Value value = UNDECLARED;
+    }
+
+    private FunctionInfo info;
+    private boolean global;
+    final Value[] slots;
+    /** The boxes of boxed slots, or null if the frame has none. */
+    final Box[] boxes;
+    final Value[] captured;
+    final Box[] capturedBoxes;
+
+    FrameEnvironment(Environment outer, FunctionInfo info, boolean global) {
+        this(outer, info, global, NO_VALUES, NO_BOXES);
+    }
+
+    FrameEnvironment(Environment outer, FunctionInfo info, Value[] captured, Box[] capturedBoxes) {
+        this(outer, info, false, captured, capturedBoxes);
+    }
+
+    private FrameEnvironment(Environment outer, FunctionInfo info, boolean global,
+            Value[] captured, Box[] capturedBoxes) {
+        super(outer);
+        this.info = info;
+        this.global = global;
+        this.slots = new Value[info.size()];
+        Arrays.fill(slots, UNDECLARED);
+        this.boxes = info.newBoxes();
+        this.captured = captured;
+        this.capturedBoxes = capturedBoxes;
+    }
+
+    boolean isGlobal() {
+        return global;
+    }
+
+    Value get(int slot) {
+        Box b = boxes == null ? null : boxes[slot];
+        return b == null ? slots[slot] : b.value;
+    }
+
+    void set(int slot, Value v) {
+        Box b = boxes == null ? null : boxes[slot];
+        if (b == null) {
+            slots[slot] = v;
+        } else {
+            b.value = v;
+        }
+    }
+
+    /**
+     * Declares the variable in the given slot, as createVar does.
+     */
+    void declare(int slot, Value v) {
+        if (get(slot) != UNDECLARED) {
+            throw new RuntimeException("variable name exist already");
+        }
+        set(slot, v);
+    }
+
+    @Override
+    public Value resolveVar(String varName) {
+        int slot = info.slotOf(varName);
+        if (slot >= 0) {
+            Value v = get(slot);
+            if (v != UNDECLARED && v != null) return v;
+        }
+        return super.resolveVar(varName);
+    }
+
+    @Override
+    public void updateVar(String key, Value v) {
+        int slot = info.slotOf(key);
+        if (slot >= 0 && (global || get(slot) != UNDECLARED)) {
+            set(slot, v);
+        } else {
+            super.updateVar(key, v);
+        }
+    }
+
+    @Override
+    public void createVar(String key, Value v) {
+        int slot = info.slotOf(key);
+        if (slot >= 0) {
+            declare(slot, v);
+        } else {
+            super.createVar(key, v);
+        }
+    }
+}
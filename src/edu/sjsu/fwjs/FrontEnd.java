@@ -0,0 +1,25 @@
+package edu.sjsu.fwjs;
+
+/**
+ * The available parsers.
+ */
+public enum FrontEnd {
+    /** The ANTLR-generated parser, with full error recovery. */
+    ANTLR,
+    /** RecursiveDescentParser, which needs no ANTLR classes at all. */
+    RECURSIVE_DESCENT;
+
+    /**
+     * Get the front end for a command line name: "antlr", or
+     * "recursive-descent" (or just "rd").
+     */
+    public static FrontEnd fromName(String name) {
+        if (name.equalsIgnoreCase("rd")) return RECURSIVE_DESCENT;
+        for (FrontEnd fe : values()) {
+            if (fe.name().replace('_', '-').equalsIgnoreCase(name)) {
+                return fe;
+            }
+        }
+        throw new IllegalArgumentException("Unknown front end: " + name);
+    }
+}
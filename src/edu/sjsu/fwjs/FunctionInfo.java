@@ -0,0 +1,182 @@
+package edu.sjsu.fwjs;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The variables of one function (or of the program), each with a slot
+ * in the function's FrameEnvironment.  A function's variables are its
+ * parameters and the names it declares with var, wherever in its body
+ * (blocks do not have scopes of their own).
+ *
+ * ScopeResolver also records which of the variables live in boxes, and
+ * what a closure over the function captures from the frame creating it.
+ * A capture source is a slot of that frame if it is 0 or more, and
+ * otherwise index -1 - source among that frame's own captures.
+ */
+class FunctionInfo {
+    private String[] names;
+    private Map<String,Integer> slots = new HashMap<String,Integer>();
+    private int[] paramSlots;
+    private int[] boxedSlots = new int[0];
+    private int[] valueSources = new int[0];
+    private int[] boxSources = new int[0];
+    private boolean topLevel = true;
+
+    FunctionInfo(List<String> params, Collection<String> locals) {
+        Set<String> all = new LinkedHashSet<String>(params);
+        all.addAll(locals);
+        names = all.toArray(new String[all.size()]);
+        for (int i = 0; i < names.length; i++) {
+            slots.put(names[i], i);
+        }
+        paramSlots = new int[params.size()];
+        for (int i = 0; i < paramSlots.length; i++) {
+            // A repeated parameter name shares its slot, so binding it twice fails
+            paramSlots[i] = slots.get(params.get(i));
+        }
+    }
+
+    /**
+     * The slot of the variable, or -1 if the function has no such variable.
+     */
+    int slotOf(String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    int paramSlot(int i) {
+        return paramSlots[i];
+    }
+
+    String nameAt(int slot) {
+        return names[slot];
+    }
+
+    int size() {
+        return names.length;
+    }
+
+    /**
+     * Adds a slot, for a variable the source cannot name (such as one of an
+     * inlined function).  Frames created afterwards have room for it.
+     */
+    int addSlot(String name) {
+        int slot = names.length;
+        names = Arrays.copyOf(names, slot + 1);
+        names[slot] = name;
+        slots.put(name, slot);
+        return slot;
+    }
+
+    void setBoxedSlots(int[] boxedSlots) {
+        this.boxedSlots = boxedSlots;
+    }
+
+    boolean isBoxed(int slot) {
+        for (int s : boxedSlots) {
+            if (s == slot) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Fresh boxes for the boxed slots of a new frame, or null if there are none.
+     */
+    FrameEnvironment.Box[] newBoxes() {
+        if (boxedSlots.length == 0) return null;
+        FrameEnvironment.Box[] boxes = new FrameEnvironment.Box[names.length];
+        for (int s : boxedSlots) {
+            boxes[s] = new FrameEnvironment.Box();
+        }
+        return boxes;
+    }
+
+    /**
+     * Sets what closures capture.  A top-level function is created in the
+     * global environment and captures nothing.
+     */
+    void setCaptures(int[] valueSources, int[] boxSources, boolean topLevel) {
+        this.valueSources = valueSources;
+        this.boxSources = boxSources;
+        this.topLevel = topLevel;
+    }
+
+    /**
+     * The slots of the creating frame that closures over this function copy.
+     */
+    int[] copiedSlots() {
+        int n = 0;
+        for (int src : valueSources) {
+            if (src >= 0) n++;
+        }
+        int[] slots = new int[n];
+        n = 0;
+        for (int src : valueSources) {
+            if (src >= 0) slots[n++] = src;
+        }
+        return slots;
+    }
+
+    int capturedValueCount() {
+        return valueSources.length;
+    }
+
+    int capturedBoxCount() {
+        return boxSources.length;
+    }
+
+    /**
+     * Creates a closure over this function in the environment evaluating
+     * its declaration.
+     */
+    ClosureVal newClosure(List<String> params, Expression body, Environment env) {
+        if (topLevel) {
+            return new ClosureVal(params, body, this, env,
+                    FrameEnvironment.NO_VALUES, FrameEnvironment.NO_BOXES);
+        }
+        FrameEnvironment creator = (FrameEnvironment) env;
+        Value[] captured = FrameEnvironment.NO_VALUES;
+        if (valueSources.length > 0) {
+            captured = new Value[valueSources.length];
+            for (int i = 0; i < captured.length; i++) {
+                int src = valueSources[i];
+                captured[i] = src >= 0 ? creator.slots[src] : creator.captured[-1 - src];
+            }
+        }
+        FrameEnvironment.Box[] boxes = FrameEnvironment.NO_BOXES;
+        if (boxSources.length > 0) {
+            boxes = new FrameEnvironment.Box[boxSources.length];
+            for (int i = 0; i < boxes.length; i++) {
+                int src = boxSources[i];
+                boxes[i] = src >= 0 ? creator.boxes[src] : creator.capturedBoxes[-1 - src];
+            }
+        }
+        // Function frames hang off the global environment, not the creator
+        return new ClosureVal(params, body, this, creator.getOuter(), captured, boxes);
+    }
+
+    /**
+     * The names declared with var in a function body, not counting nested functions.
+     */
+    static Set<String> declaredNames(Expression body) {
+        Set<String> names = new LinkedHashSet<String>();
+        collectDeclared(body, names);
+        return names;
+    }
+
+    private static void collectDeclared(Expression e, Set<String> names) {
+        if (e == null || e instanceof FunctionDeclExpr) return;
+        if (e instanceof VarDeclExpr) {
+            names.add(((VarDeclExpr) e).getName());
+        }
+        for (Expression child : AstSerializer.children(e)) {
+            collectDeclared(child, names);
+        }
+    }
+}
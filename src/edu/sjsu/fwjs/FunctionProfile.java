@@ -0,0 +1,118 @@
+package edu.sjsu.fwjs;
+
+import java.io.PrintStream;
+
+/**
+ * How much a function wrapped by HotFunctions has run in the tree walker,
+ * which decides when its CompiledBodyExpr moves it up to compiled code.
+ *
+ * A function is hot once it has been called callThreshold times, or its
+ * loops have gone round loopThreshold times in all; it is compiled on
+ * its next call.  A loop that goes round loopThreshold times in one run
+ * is compiled on the spot and goes on from the iteration it reached (see
+ * WhileExpr), which is how loops at the top level of a script, which
+ * runs once, get compiled.
+ *
+ * The compiled code speculates that the types the tree walker's nodes
+ * specialized on (see Specializations) are the only ones they will see.
+ * When a guard finds otherwise, the rest of that call runs as the tree
+ * walker would, the code is thrown away, and the function starts
+ * counting again in the tree walker.  After MAX_DEOPTIMIZATIONS of those
+ * it is compiled without speculating.
+ */
+class FunctionProfile {
+    /** How many loop iterations make a function hot, unless told otherwise. */
+    static final int DEFAULT_LOOP_THRESHOLD = 10000;
+    static final int MAX_DEOPTIMIZATIONS = 3;
+
+    private String name;
+    private int callThreshold;
+    private int loopThreshold;
+    private PrintStream log;
+    // Counts may be lost if several threads run the function; it only
+    // delays compiling
+    private int calls;
+    private int backEdges;
+    private int deoptimizations;
+    private boolean interpretOnly;
+
+    /**
+     * A profile for the named function, which logs its tier changes to
+     * log unless that is null.
+     */
+    FunctionProfile(String name, int callThreshold, int loopThreshold, PrintStream log) {
+        this.name = name;
+        this.callThreshold = callThreshold;
+        this.loopThreshold = loopThreshold;
+        this.log = log;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Counts a call made in the tree walker, and says whether the
+     * function is hot enough to compile.
+     */
+    boolean call() {
+        if (interpretOnly) return false;
+        if (calls < callThreshold) calls++;
+        return isHot();
+    }
+
+    /**
+     * Counts an iteration of one of the function's loops.
+     */
+    void backEdge() {
+        if (backEdges < loopThreshold) backEdges++;
+    }
+
+    int getLoopThreshold() {
+        return loopThreshold;
+    }
+
+    boolean isHot() {
+        return !interpretOnly && (calls >= callThreshold || backEdges >= loopThreshold);
+    }
+
+    /**
+     * Whether the next compiled code may speculate on types.
+     */
+    boolean speculates() {
+        return deoptimizations < MAX_DEOPTIMIZATIONS;
+    }
+
+    int getDeoptimizations() {
+        return deoptimizations;
+    }
+
+    void compiled(boolean speculated) {
+        log("compiled " + name + (speculated ? "" : " without speculating") + " after "
+                + calls + " calls and " + backEdges + " loop iterations");
+    }
+
+    void replacedLoop(boolean speculated) {
+        log("compiled a loop in " + name + (speculated ? "" : " without speculating")
+                + " after " + loopThreshold + " iterations, on stack");
+    }
+
+    void deoptimized(String reason) {
+        deoptimizations++;
+        calls = 0;
+        backEdges = 0;
+        log("deoptimized " + name + ": " + reason);
+    }
+
+    /**
+     * Leaves the function in the tree walker for good.
+     */
+    void interpretOnly(String reason) {
+        interpretOnly = true;
+        log("left " + name + " interpreted: " + reason);
+    }
+
+    private void log(String event) {
+        if (log != null) log.println("jit: " + event);
+    }
+}
@@ -0,0 +1,315 @@
+package edu.sjsu.fwjs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Evaluates expression trees without recursing in Java, so that how deep
+ * FWJS calls can nest, tail calls or not, is limited only by the heap.
+ *
+ * What the recursive evaluator keeps on the Java stack, the work left to
+ * do once a subexpression has its value, is kept here as a stack of
+ * continuations in arrays that grow as needed.  The machine alternates
+ * between evaluating an expression, which either gives a value at once
+ * or pushes a continuation and moves on to a subexpression, and returning
+ * a value to the continuation on top of the stack.
+ *
+ * A call pushes nothing of its own: the body of the function is simply
+ * evaluated next, in its new frame, and its value returns to whatever was
+ * waiting for the call.  So calls in tail position take no space either.
+ *
+ * Everything is evaluated in the same order, and fails in the same way,
+ * as with Expression.evaluate, which is still used for leaves such as
+ * variables and function declarations.
+ */
+class HeapEvaluator {
+    // What a continuation does with the value returned to it
+    private static final int BINOP_LEFT = 0;
+    private static final int BINOP_RIGHT = 1;
+    private static final int IF = 2;
+    private static final int WHILE_COND = 3;
+    private static final int WHILE_BODY = 4;
+    private static final int SEQ = 5;
+    private static final int BLOCK = 6;
+    private static final int PRINT = 7;
+    private static final int VAR_DECL = 8;
+    private static final int ASSIGN = 9;
+    private static final int RESOLVED_VAR_DECL = 10;
+    private static final int RESOLVED_ASSIGN = 11;
+    private static final int APP_ARG = 12;
+    private static final int APP_FUNCTION = 13;
+    private static final int DIRECT_ARG = 14;
+    private static final int INLINED_ARG = 15;
+
+
+    // The continuation stack, one entry across all the arrays.  index is
+    // the argument or statement being evaluated, and data the values
+    // gathered so far: a left operand, an argument list or a new frame.
+    private int[] kinds = new int[64];
+    private Expression[] exprs = new Expression[64];
+    private Environment[] envs = new Environment[64];
+    private int[] indexes = new int[64];
+    private Object[] data = new Object[64];
+    private int top;
+
+    /**
+     * Evaluates the expression in the environment, as e.evaluate(env).
+     */
+    static Value run(Expression e, Environment env) {
+        return new HeapEvaluator().eval(e, env);
+    }
+
+    private void push(int kind, Expression e, Environment env, int index, Object d) {
+        if (top == kinds.length) {
+            int n = top * 2;
+            kinds = Arrays.copyOf(kinds, n);
+            exprs = Arrays.copyOf(exprs, n);
+            envs = Arrays.copyOf(envs, n);
+            indexes = Arrays.copyOf(indexes, n);
+            data = Arrays.copyOf(data, n);
+        }
+        kinds[top] = kind;
+        exprs[top] = e;
+        envs[top] = env;
+        indexes[top] = index;
+        data[top] = d;
+        top++;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Value eval(Expression e, Environment env) {
+        Value v = null;
+        boolean returning = false;
+        while (true) {
+            if (!returning) {
+                // Evaluate e in env: either it has a value now, or start on
+                // its first subexpression
+                if (e instanceof BinOpExpr) {
+                    push(BINOP_LEFT, e, env, 0, null);
+                    e = ((BinOpExpr) e).getLeft();
+                } else if (e instanceof IfExpr) {
+                    push(IF, e, env, 0, null);
+                    e = ((IfExpr) e).getCondition();
+                } else if (e instanceof WhileExpr) {
+                    push(WHILE_COND, e, env, 0, null);
+                    e = ((WhileExpr) e).getCondition();
+                } else if (e instanceof SeqExpr) {
+                    push(SEQ, e, env, 0, null);
+                    e = ((SeqExpr) e).getFirst();
+                } else if (e instanceof BlockExpr) {
+                    BlockExpr block = (BlockExpr) e;
+                    if (block.size() == 0) {
+                        v = null;
+                        returning = true;
+                    } else {
+                        push(BLOCK, e, env, 0, null);
+                        e = block.statement(0);
+                    }
+                } else if (e instanceof PrintExpr) {
+                    push(PRINT, e, env, 0, null);
+                    e = ((PrintExpr) e).getExpression();
+                } else if (e instanceof VarDeclExpr) {
+                    push(VAR_DECL, e, env, 0, null);
+                    e = ((VarDeclExpr) e).getInitializer();
+                } else if (e instanceof AssignExpr) {
+                    push(ASSIGN, e, env, 0, null);
+                    e = ((AssignExpr) e).getExpression();
+                } else if (e instanceof ResolvedVarDeclExpr) {
+                    push(RESOLVED_VAR_DECL, e, env, 0, null);
+                    e = ((ResolvedVarDeclExpr) e).getInitializer();
+                } else if (e instanceof ResolvedAssignExpr) {
+                    push(RESOLVED_ASSIGN, e, env, 0, null);
+                    e = ((ResolvedAssignExpr) e).getExpression();
+                } else if (e instanceof FunctionAppExpr || e instanceof TailCallExpr) {
+                    List<Expression> args = argsOf(e);
+                    ArrayList<Value> argVals = new ArrayList<Value>();
+                    if (args.isEmpty()) {
+                        push(APP_FUNCTION, e, env, 0, argVals);
+                        e = functionOf(e);
+                    } else {
+                        push(APP_ARG, e, env, 0, argVals);
+                        e = args.get(0);
+                    }
+                } else if (e instanceof DirectCallExpr) {
+                    DirectCallExpr call = (DirectCallExpr) e;
+                    Environment global = call.isFromGlobal() ? env : env.getOuter();
+                    FrameEnvironment frame = new FrameEnvironment(global, call.getTarget().getInfo(),
+                            FrameEnvironment.NO_VALUES, FrameEnvironment.NO_BOXES);
+                    if (call.getArgs().isEmpty()) {
+                        e = call.getTarget().getBody();
+                        env = frame;
+                    } else {
+                        push(DIRECT_ARG, e, env, 0, frame);
+                        e = call.getArgs().get(0);
+                    }
+                } else if (e instanceof InlinedCallExpr) {
+                    InlinedCallExpr call = (InlinedCallExpr) e;
+                    FrameEnvironment frame = (FrameEnvironment) env;
+                    for (int slot : call.getSlots()) {
+                        frame.slots[slot] = FrameEnvironment.UNDECLARED;
+                    }
+                    if (call.getArgs().isEmpty()) {
+                        e = call.getBody();
+                    } else {
+                        push(INLINED_ARG, e, env, 0, null);
+                        e = call.getArgs().get(0);
+                    }
+                } else if (e instanceof ProgramExpr) {
+                    ProgramExpr prog = (ProgramExpr) e;
+                    env = new FrameEnvironment(env, prog.getGlobals(), true);
+                    e = prog.getBody();
+                } else if (e instanceof CompiledBodyExpr) {
+                    // Compiled code would use the Java stack
+                    e = ((CompiledBodyExpr) e).getBody();
+                } else if (e instanceof FusedExpr) {
+                    // A fused call would use the Java stack
+                    e = ((FusedExpr) e).getOriginal();
+                } else {
+                    // A leaf, which does not evaluate anything else; or a
+                    // missing block, which fails here as it would there
+                    v = e.evaluate(env);
+                    returning = true;
+                }
+                continue;
+            }
+
+            // Return v to the continuation on top of the stack
+            if (top == 0) return v;
+            top--;
+            int kind = kinds[top];
+            Expression k = exprs[top];
+            Environment kenv = envs[top];
+            int index = indexes[top];
+            Object d = data[top];
+            exprs[top] = null;
+            envs[top] = null;
+            data[top] = null;
+            returning = false;
+            env = kenv;
+            switch (kind) {
+            case BINOP_LEFT:
+                push(BINOP_RIGHT, k, kenv, 0, v);
+                e = ((BinOpExpr) k).getRight();
+                break;
+            case BINOP_RIGHT:
+                v = ((BinOpExpr) k).apply((Value) d, v);
+                returning = true;
+                break;
+            case IF: {
+                IfExpr i = (IfExpr) k;
+                if (i.takesThen(v)) {
+                    e = i.getThen();
+                } else if (i.getElse() != null) {
+                    e = i.getElse();
+                } else {
+                    v = null;
+                    returning = true;
+                }
+                break;
+            }
+            case WHILE_COND:
+                if (v.equals(BoolVal.TRUE)) {
+                    push(WHILE_BODY, k, kenv, 0, null);
+                    e = ((WhileExpr) k).getBody();
+                } else {
+                    v = null;
+                    returning = true;
+                }
+                break;
+            case WHILE_BODY:
+                push(WHILE_COND, k, kenv, 0, null);
+                e = ((WhileExpr) k).getCondition();
+                break;
+            case SEQ:
+                e = ((SeqExpr) k).getSecond();
+                break;
+            case BLOCK: {
+                BlockExpr block = (BlockExpr) k;
+                if (index + 1 < block.size()) {
+                    push(BLOCK, k, kenv, index + 1, null);
+                    e = block.statement(index + 1);
+                } else {
+                    returning = true;
+                }
+                break;
+            }
+            case PRINT:
+                v = ((PrintExpr) k).print(v);
+                returning = true;
+                break;
+            case VAR_DECL:
+                v = ((VarDeclExpr) k).declare(kenv, v);
+                returning = true;
+                break;
+            case ASSIGN:
+                v = ((AssignExpr) k).assign(kenv, v);
+                returning = true;
+                break;
+            case RESOLVED_VAR_DECL:
+                v = ((ResolvedVarDeclExpr) k).declare(kenv, v);
+                returning = true;
+                break;
+            case RESOLVED_ASSIGN:
+                v = ((ResolvedAssignExpr) k).assign(kenv, v);
+                returning = true;
+                break;
+            case APP_ARG: {
+                ArrayList<Value> argVals = (ArrayList<Value>) d;
+                argVals.add(v);
+                List<Expression> args = argsOf(k);
+                if (index + 1 < args.size()) {
+                    push(APP_ARG, k, kenv, index + 1, argVals);
+                    e = args.get(index + 1);
+                } else {
+                    push(APP_FUNCTION, k, kenv, 0, argVals);
+                    e = functionOf(k);
+                }
+                break;
+            }
+            case APP_FUNCTION: {
+                ClosureVal closure = (ClosureVal) v;
+                env = closure.bind((ArrayList<Value>) d);
+                e = closure.getBody();
+                break;
+            }
+            case DIRECT_ARG: {
+                DirectCallExpr call = (DirectCallExpr) k;
+                FrameEnvironment frame = (FrameEnvironment) d;
+                frame.declare(call.getTarget().getInfo().paramSlot(index), v);
+                if (index + 1 < call.getArgs().size()) {
+                    push(DIRECT_ARG, k, kenv, index + 1, frame);
+                    e = call.getArgs().get(index + 1);
+                } else {
+                    e = call.getTarget().getBody();
+                    env = frame;
+                }
+                break;
+            }
+            case INLINED_ARG: {
+                InlinedCallExpr call = (InlinedCallExpr) k;
+                ((FrameEnvironment) kenv).declare(call.getParamSlots()[index], v);
+                if (index + 1 < call.getArgs().size()) {
+                    push(INLINED_ARG, k, kenv, index + 1, null);
+                    e = call.getArgs().get(index + 1);
+                } else {
+                    e = call.getBody();
+                }
+                break;
+            }
+            default:
+                throw new IllegalStateException("unknown continuation " + kind);
+            }
+        }
+    }
+
+    private static List<Expression> argsOf(Expression call) {
+        if (call instanceof TailCallExpr) return ((TailCallExpr) call).getArgs();
+        return ((FunctionAppExpr) call).getArgs();
+    }
+
+    private static Expression functionOf(Expression call) {
+        if (call instanceof TailCallExpr) return ((TailCallExpr) call).getFunction();
+        return ((FunctionAppExpr) call).getFunction();
+    }
+}
@@ -0,0 +1,120 @@
+package edu.sjsu.fwjs;
+
+import java.io.PrintStream;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Wraps the body of every function in a CompiledBodyExpr, so that the
+ * functions called most are compiled to Java methods by JvmCompiler.
+ * The loops in a body count their iterations in the function's profile,
+ * so that a function that loops a lot is compiled too, and a loop that
+ * goes round long enough is compiled on the spot.  The top level of a
+ * program runs once, so only its loops can be compiled.
+ */
+class HotFunctions extends ExpressionRewriter {
+    /** How many calls make a function hot, unless told otherwise. */
+    static final int DEFAULT_THRESHOLD = 1000;
+
+    private int threshold;
+    private int loopThreshold;
+    private PrintStream log;
+    /** The copy of each known function, with its body wrapped. */
+    private Map<KnownFunction,KnownFunction> wrapped =
+            new IdentityHashMap<KnownFunction,KnownFunction>();
+    /** The profile of the function being rewritten, or of the top level. */
+    private FunctionProfile profile;
+    /** The variable the function being rewritten is declared as, if any. */
+    private String name;
+
+    private HotFunctions(int threshold, int loopThreshold, PrintStream log) {
+        this.threshold = threshold;
+        this.loopThreshold = loopThreshold;
+        this.log = log;
+        this.profile = new FunctionProfile("top level", threshold, loopThreshold, log);
+    }
+
+    /**
+     * Returns the program with its function bodies wrapped.  The input tree
+     * is not modified: known functions are copied, and the calls to them
+     * call the copies.
+     */
+    static Expression wrap(Expression prog, int threshold) {
+        return wrap(prog, threshold, FunctionProfile.DEFAULT_LOOP_THRESHOLD, null);
+    }
+
+    /**
+     * Wraps the function bodies with the given thresholds for calls and
+     * loop iterations, logging changes of tier to log unless it is null.
+     */
+    static Expression wrap(Expression prog, int threshold, int loopThreshold, PrintStream log) {
+        return new HotFunctions(threshold, loopThreshold, log).rewrite(prog);
+    }
+
+    @Override
+    Expression rewriteVarDecl(VarDeclExpr e) {
+        name = e.getInitializer() instanceof FunctionDeclExpr ? e.getName() : null;
+        return super.rewriteVarDecl(e);
+    }
+
+    @Override
+    Expression rewriteResolvedVarDecl(ResolvedVarDeclExpr e) {
+        name = e.getInitializer() instanceof FunctionDeclExpr ? e.getRef().getName() : null;
+        return super.rewriteResolvedVarDecl(e);
+    }
+
+    @Override
+    Expression rewriteWhile(WhileExpr e) {
+        if (e.getProfile() == profile) return super.rewriteWhile(e);
+        return new WhileExpr(rewrite(e.getCondition()), rewrite(e.getBody()), profile);
+    }
+
+    @Override
+    Expression rewriteFunctionDecl(FunctionDeclExpr e) {
+        if (e.getBody() instanceof CompiledBodyExpr) return e;
+        return new FunctionDeclExpr(e.getParams(), wrap(e.getBody(), e.getParams()), e.getInfo());
+    }
+
+    @Override
+    Expression rewriteDirectCall(DirectCallExpr e) {
+        KnownFunction target = wrapped(e.getTarget());
+        List<Expression> args = rewriteAll(e.getArgs());
+        if (target == e.getTarget() && args == null) return e;
+        return new DirectCallExpr(target, args == null ? e.getArgs() : args,
+                e.isFromGlobal(), e.isTail());
+    }
+
+    /**
+     * The copy of f with its body wrapped, made on the first call found,
+     * or f itself if its body already is.
+     */
+    private KnownFunction wrapped(KnownFunction f) {
+        if (f.getBody() == null || f.getBody() instanceof CompiledBodyExpr) return f;
+        KnownFunction copy = wrapped.get(f);
+        if (copy == null) {
+            copy = new KnownFunction(f.getName());
+            // Before the body, whose recursive calls must find the copy
+            wrapped.put(f, copy);
+            name = f.getName();
+            copy.define(f.getParams(), f.getInfo(), wrap(f.getBody(), f.getParams()));
+        }
+        return copy;
+    }
+
+    /**
+     * Wraps the body in a CompiledBodyExpr with a profile of its own, named
+     * after the variable it is declared as, if it was just declared.
+     */
+    private Expression wrap(Expression body, List<String> params) {
+        FunctionProfile outer = profile;
+        String label = name != null ? name : "function(" + String.join(", ", params) + ")";
+        profile = new FunctionProfile(label, threshold, loopThreshold, log);
+        name = null;
+        try {
+            return new CompiledBodyExpr(rewrite(body), profile);
+        } finally {
+            profile = outer;
+        }
+    }
+}
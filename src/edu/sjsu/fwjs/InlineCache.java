@@ -0,0 +1,212 @@
+package edu.sjsu.fwjs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The inline cache of a FunctionAppExpr or TailCallExpr call site: the
+ * last few functions called there, each linked to a way of binding the
+ * arguments that skips the checks and lookups ClosureVal.bind makes.
+ *
+ * A function is known by its body, parameters and frame layout, which all
+ * closures made by one function expression share.  A site that has
+ * called more than MAX_TARGETS functions is megamorphic, and binds every
+ * call the generic way from then on.
+ *
+ * Every site counts its hits and misses.  A ScriptCache gives the sites
+ * of each tree it builds a Sites, which switches linking on or off for
+ * them and, while profiling, lists the ones that run, for its report.
+ * The cache entry keeps the Sites, so they go when the tree is evicted.
+ * The sites of trees built any other way link without being listed.
+ */
+class InlineCache {
+    /** The most functions a site links before it gives up. */
+    static final int MAX_TARGETS = 4;
+
+    private static final Target[] NO_TARGETS = new Target[0];
+
+
+    /**
+     * A function linked at a site.  Only one of slots and names is set,
+     * depending on whether its body was resolved.
+     */
+    private static final class Target {
+        final Expression body;
+        final List<String> params;
+        final FunctionInfo info;
+        final int[] slots;
+        final String[] names;
+
+        Target(ClosureVal closure, int argc) {
+            this.body = closure.getBody();
+            this.params = closure.getParams();
+            this.info = closure.getInfo();
+            if (info != null) {
+                slots = new int[argc];
+                for (int i = 0; i < argc; i++) {
+                    slots[i] = info.paramSlot(i);
+                }
+                names = null;
+            } else {
+                slots = null;
+                names = params.subList(0, argc).toArray(new String[argc]);
+            }
+        }
+
+        boolean matches(ClosureVal closure) {
+            return closure.getBody() == body && closure.getParams() == params
+                    && closure.getInfo() == info;
+        }
+
+        Environment bind(ClosureVal closure, Value[] args) {
+            Environment env = closure.newEnvironment();
+            if (slots != null) {
+                FrameEnvironment frame = (FrameEnvironment) env;
+                for (int i = 0; i < slots.length; i++) {
+                    frame.declare(slots[i], args[i]);
+                }
+            } else {
+                for (int i = 0; i < names.length; i++) {
+                    env.createVar(names[i], args[i]);
+                }
+            }
+            return env;
+        }
+    }
+
+    /**
+     * The switches the call sites of one tree follow, and the sites that
+     * have run, in the order they first ran, if they are being profiled.
+     */
+    static final class Sites {
+        private final boolean enabled;
+        private final boolean profiling;
+        private final List<InlineCache> listed = new ArrayList<InlineCache>();
+
+        /**
+         * Sites that link the functions they call unless enabled is false,
+         * and are listed if profiling is true.
+         */
+        Sites(boolean enabled, boolean profiling) {
+            this.enabled = enabled;
+            this.profiling = profiling;
+        }
+
+        /**
+         * Makes the call sites of the tree, and of the bodies of the
+         * functions it calls directly, follow these switches.
+         */
+        void install(Expression prog) {
+            PassManager.visit(prog, e -> {
+                if (e instanceof FunctionAppExpr) {
+                    ((FunctionAppExpr) e).getCache().sites = this;
+                } else if (e instanceof TailCallExpr) {
+                    ((TailCallExpr) e).getCache().sites = this;
+                }
+            });
+        }
+
+        private synchronized void list(InlineCache site) {
+            if (!site.listed) {
+                site.listed = true;
+                listed.add(site);
+            }
+        }
+
+        /**
+         * Appends a line for each listed site to sb, numbering them on from
+         * number, with how often calls found their function linked.
+         * Returns the number of the last.
+         */
+        synchronized int report(StringBuilder sb, int number) {
+            for (InlineCache site : listed) {
+                long hits = site.hits;
+                long calls = hits + site.misses;
+                if (sb.length() > 0) sb.append(String.format("%n"));
+                sb.append(String.format(
+                        "call site #%-3d %-16s %-12s targets=%d hits=%d misses=%d (%.1f%%)",
+                        ++number, site.name, site.getState(), Math.max(site.getTargetCount(), 0),
+                        hits, site.misses, calls == 0 ? 0.0 : 100.0 * hits / calls));
+            }
+            return number;
+        }
+    }
+
+    private String name;
+    // Set before the tree runs
+    private Sites sites;
+    /** The linked functions, newest last, or null once megamorphic. */
+    private volatile Target[] targets = NO_TARGETS;
+    // Counts may be lost if several threads call through the site
+    private long hits;
+    private long misses;
+    private boolean listed;
+
+    /**
+     * A cache for calls to what f evaluates to.
+     */
+    InlineCache(Expression f) {
+        this.name = describe(f);
+    }
+
+    /**
+     * A new environment for the closure's body, with the arguments bound,
+     * as closure.bind would make.
+     */
+    Environment bind(ClosureVal closure, Value[] args) {
+        Target[] ts = targets;
+        if (ts != null) {
+            for (Target t : ts) {
+                if (t.matches(closure)) {
+                    hits++;
+                    return t.bind(closure, args);
+                }
+            }
+        }
+        Sites s = sites;
+        if (s != null && !s.enabled) return closure.bind(Arrays.asList(args));
+        misses++;
+        if (s != null && s.profiling && !listed) s.list(this);
+        // Too many arguments are left to the generic way to reject
+        if (ts != null && args.length <= closure.getParams().size()) link(ts, closure, args.length);
+        return closure.bind(Arrays.asList(args));
+    }
+
+    private void link(Target[] ts, ClosureVal closure, int argc) {
+        if (ts.length == MAX_TARGETS) {
+            targets = null;
+        } else {
+            Target[] linked = Arrays.copyOf(ts, ts.length + 1);
+            linked[ts.length] = new Target(closure, argc);
+            targets = linked;
+        }
+    }
+
+    long getHits() {
+        return hits;
+    }
+
+    long getMisses() {
+        return misses;
+    }
+
+    /**
+     * How many functions the site has linked, or -1 if it is megamorphic.
+     */
+    int getTargetCount() {
+        Target[] ts = targets;
+        return ts == null ? -1 : ts.length;
+    }
+
+    String getState() {
+        int n = getTargetCount();
+        return n < 0 ? "megamorphic" : n == 0 ? "unlinked" : n == 1 ? "monomorphic" : "polymorphic";
+    }
+
+    private static String describe(Expression f) {
+        if (f instanceof VarExpr) return ((VarExpr) f).getName();
+        if (f instanceof ResolvedVarExpr) return ((ResolvedVarExpr) f).getRef().getName();
+        return "(expression)";
+    }
+}
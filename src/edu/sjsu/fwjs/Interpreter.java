@@ -1,35 +1,319 @@
 package edu.sjsu.fwjs;
 
-import org.antlr.v4.runtime.*;
-import org.antlr.v4.runtime.tree.ParseTree;
-
-import edu.sjsu.fwjs.parser.FeatherweightJavaScriptLexer;
-import edu.sjsu.fwjs.parser.FeatherweightJavaScriptParser;
-
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class Interpreter {
+    private ScriptCache cache;
+    private EvalMode evalMode = EvalMode.RECURSIVE;
+    /** The call sites of the statements run by runStreaming, if it has run. */
+    private InlineCache.Sites streamedSites;
+
+    static final String USAGE = String.join(System.lineSeparator(),
+            "usage: java edu.sjsu.fwjs.Interpreter [options] [script.fwjs | --batch FILE|DIR...]",
+            "options: --parse-mode=two-stage|sll|ll --front-end=antlr|rd --builder=direct|visitor",
+            "         --evaluator=recursive|heap|bytecode|closures --cache-size=N --cache-dir=DIR",
+            "         --stream --stats --no-optimize --passes=NAME,... --inline-report",
+            "         --verify-passes --dump-passes --no-specialize --no-inline-caches",
+            "         --jit --jit-threshold=N --jit-loop-threshold=N --jit-log",
+            "         --batch --compile-only --jobs=N");
+
+    public Interpreter(ParseMode parseMode, int cacheSize) {
+        this.cache = new ScriptCache(parseMode, cacheSize);
+    }
+
+    /**
+     * Runs a script in a fresh global environment.
+     * Scripts that have been run before are not parsed again.
+     */
+    public Value run(String source) {
+        ScriptCache.Entry entry = cache.lookup(source, new SyntaxErrorReporter(null));
+        if (entry == null) return null;
+        return evaluate(entry, new Environment());
+    }
+
+    /**
+     * Runs a program one top-level statement at a time, evaluating each
+     * statement in the same global environment as soon as it is parsed.
+     * Nothing is cached, and memory use does not depend on the program size.
+     */
+    public void runStreaming(InputStream in) {
+        ScriptParser.StatementReader stats = getParser().statements(in);
+        Environment env = new Environment();
+        // Functions declared by one statement may be called by later ones
+        BytecodeVM vm = evalMode == EvalMode.BYTECODE ? new BytecodeVM() : null;
+        streamedSites = cache.newCallSites();
+        Expression stat;
+        while ((stat = stats.next()) != null) {
+            if (cache.isOptimizing()) {
+                stat = cache.getStatementPasses().run(stat);
+            }
+            cache.getSpecializations().install(stat);
+            streamedSites.install(stat);
+            evaluate(stat, env, vm);
+        }
+    }
+
+    /**
+     * Evaluates a cached tree with the evaluator chosen by setEvalMode.  Its
+     * bytecode or compiled closures are kept in the cache entry, so they go
+     * when the tree is evicted.
+     */
+    private Value evaluate(ScriptCache.Entry entry, Environment env) {
+        switch (evalMode) {
+        case BYTECODE:
+            BytecodeVM vm = entry.vm;
+            if (vm == null) entry.vm = vm = new BytecodeVM();
+            return vm.run(entry.prog, env);
+        case CLOSURES:
+            Expression compiled = entry.closures;
+            if (compiled == null) entry.closures = compiled = ClosureCompiler.compile(entry.prog);
+            return compiled.evaluate(env);
+        default:
+            return evaluate(entry.prog, env, null);
+        }
+    }
+
+    /**
+     * Evaluates a tree that will not be run again with the evaluator chosen
+     * by setEvalMode, so there is no point keeping its bytecode or compiled
+     * closures.  vm runs it in BYTECODE mode, or a new one if it is null.
+     */
+    private Value evaluate(Expression prog, Environment env, BytecodeVM vm) {
+        switch (evalMode) {
+        case HEAP:
+            return HeapEvaluator.run(prog, env);
+        case BYTECODE:
+            if (vm == null) vm = new BytecodeVM();
+            return vm.runOnce(prog, env);
+        case CLOSURES:
+            return ClosureCompiler.compile(prog).evaluate(env);
+        default:
+            return prog.evaluate(env);
+        }
+    }
+
+    /**
+     * Sets how programs are evaluated: recursively, with HeapEvaluator for
+     * recursion as deep as the heap allows, compiled for BytecodeVM, or
+     * compiled to Java closures by ClosureCompiler.
+     */
+    public void setEvalMode(EvalMode evalMode) {
+        this.evalMode = evalMode;
+    }
+
+    public ScriptParser getParser() {
+        return cache.getParser();
+    }
+
+    public ScriptCache getCache() {
+        return cache;
+    }
 
     public static void main(String[] args) throws Exception {
         String inputFile = null;
-        if (args.length>0) inputFile = args[0];
+        ParseMode parseMode = ParseMode.TWO_STAGE;
+        int cacheSize = 256;
+        String cacheDir = null;
+        BuildMode buildMode = BuildMode.DIRECT;
+        FrontEnd frontEnd = FrontEnd.ANTLR;
+        EvalMode evalMode = EvalMode.RECURSIVE;
+        boolean showStats = false;
+        boolean stream = false;
+        boolean optimize = true;
+        boolean inlineReport = false;
+        List<String> passes = ScriptCache.STANDARD_PASSES;
+        boolean verifyPasses = false;
+        boolean dumpPasses = false;
+        boolean specialize = true;
+        boolean inlineCaches = true;
+        boolean jit = false;
+        int jitThreshold = HotFunctions.DEFAULT_THRESHOLD;
+        int jitLoopThreshold = FunctionProfile.DEFAULT_LOOP_THRESHOLD;
+        boolean jitLog = false;
+        boolean batch = false;
+        boolean compileOnly = false;
+        int jobs = Runtime.getRuntime().availableProcessors();
+        List<String> inputFiles = new ArrayList<String>();
+        for (String arg : args) {
+            if (arg.startsWith("--parse-mode=")) {
+                parseMode = ParseMode.fromName(arg.substring("--parse-mode=".length()));
+            } else if (arg.startsWith("--front-end=")) {
+                frontEnd = FrontEnd.fromName(arg.substring("--front-end=".length()));
+            } else if (arg.startsWith("--builder=")) {
+                buildMode = BuildMode.fromName(arg.substring("--builder=".length()));
+            } else if (arg.startsWith("--evaluator=")) {
+                evalMode = EvalMode.fromName(arg.substring("--evaluator=".length()));
+            } else if (arg.startsWith("--cache-size=")) {
+                cacheSize = Integer.parseInt(arg.substring("--cache-size=".length()));
+            } else if (arg.startsWith("--cache-dir=")) {
+                cacheDir = arg.substring("--cache-dir=".length());
+            } else if (arg.equals("--stream")) {
+                stream = true;
+            } else if (arg.equals("--stats")) {
+                showStats = true;
+            } else if (arg.equals("--no-optimize")) {
+                optimize = false;
+            } else if (arg.equals("--inline-report")) {
+                inlineReport = true;
+            } else if (arg.startsWith("--passes=")) {
+                String names = arg.substring("--passes=".length());
+                passes = names.isEmpty() ? new ArrayList<String>() : Arrays.asList(names.split(","));
+            } else if (arg.equals("--verify-passes")) {
+                verifyPasses = true;
+            } else if (arg.equals("--dump-passes")) {
+                dumpPasses = true;
+            } else if (arg.equals("--no-specialize")) {
+                specialize = false;
+            } else if (arg.equals("--no-inline-caches")) {
+                inlineCaches = false;
+            } else if (arg.equals("--jit")) {
+                jit = true;
+            } else if (arg.startsWith("--jit-threshold=")) {
+                jit = true;
+                jitThreshold = Integer.parseInt(arg.substring("--jit-threshold=".length()));
+            } else if (arg.startsWith("--jit-loop-threshold=")) {
+                jit = true;
+                jitLoopThreshold = Integer.parseInt(
+                        arg.substring("--jit-loop-threshold=".length()));
+            } else if (arg.equals("--jit-log")) {
+                jit = true;
+                jitLog = true;
+            } else if (arg.equals("--batch")) {
+                batch = true;
+            } else if (arg.equals("--compile-only")) {
+                batch = true;
+                compileOnly = true;
+            } else if (arg.startsWith("--jobs=")) {
+                jobs = Integer.parseInt(arg.substring("--jobs=".length()));
+            } else if (arg.startsWith("--")) {
+                // Rather than taking a mistyped option for a file name
+                System.err.println("Unknown option: " + arg);
+                System.err.println(USAGE);
+                System.exit(2);
+            } else {
+                inputFile = arg;
+                inputFiles.add(arg);
+            }
+        }
+
+        Interpreter interp = new Interpreter(parseMode, cacheSize);
+        interp.cache.setBuildMode(buildMode);
+        interp.cache.setFrontEnd(frontEnd);
+        interp.cache.setOptimize(optimize);
+        interp.cache.setSpecialize(specialize);
+        interp.cache.setInlineCaches(inlineCaches);
+        interp.cache.setInlineCacheProfiling(showStats);
+        interp.setEvalMode(evalMode);
+        if (inlineReport) interp.cache.setInlineReport(System.err);
+        if (jit && !passes.contains("jit")) {
+            passes = new ArrayList<String>(passes);
+            passes.add("jit");
+        }
+        interp.cache.setPasses(passes);
+        interp.cache.setJitThreshold(jitThreshold);
+        interp.cache.setJitLoopThreshold(jitLoopThreshold);
+        if (jitLog) interp.cache.setJitLog(System.err);
+        interp.cache.setVerifyPasses(verifyPasses);
+        if (dumpPasses) interp.cache.setPassDump(System.err);
+        interp.cache.setPassStats(showStats);
+        if (cacheDir != null) {
+            interp.cache.setDiskCache(new AstCache(Paths.get(cacheDir)));
+        }
+        if (batch) {
+            boolean ok = interp.runBatch(BatchCompiler.expand(inputFiles), jobs, !compileOnly);
+            if (showStats) interp.printStats(false, cacheDir != null);
+            if (!ok) System.exit(1);
+            return;
+        }
+
         InputStream is = System.in;
         if (inputFile!=null) is = new FileInputStream(inputFile);
-        
-        ANTLRInputStream input = new ANTLRInputStream(is);
-                
+        try {
+            if (stream) {
+                interp.runStreaming(is);
+            } else {
+                interp.run(readAll(is));
+            }
+        } catch (ParseException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        } finally {
+            if (showStats) interp.printStats(stream, cacheDir != null);
+        }
+    }
 
-        FeatherweightJavaScriptLexer lexer = new FeatherweightJavaScriptLexer(input);
-        CommonTokenStream tokens = new CommonTokenStream(lexer);
-        FeatherweightJavaScriptParser parser = new FeatherweightJavaScriptParser(tokens);
-        
-        ParseTree tree = parser.prog(); // parse
-           
-        ExpressionBuilderVisitor builder = new ExpressionBuilderVisitor();
-        Expression prog = builder.visit(tree);
+    /**
+     * Compiles the files in parallel and reports throughput to stderr, then,
+     * if asked to, runs each compiled script in order in its own environment.
+     * Returns false if any file failed to compile.
+     */
+    boolean runBatch(List<Path> files, int jobs, boolean run) {
+        BatchCompiler compiler = new BatchCompiler(cache, jobs);
+        List<BatchCompiler.Result> results;
+        long start = System.nanoTime();
+        try {
+            results = compiler.compileAll(files);
+        } finally {
+            compiler.shutdown();
+        }
+        BatchCompiler.report(results, System.nanoTime() - start, System.err);
+        boolean ok = true;
+        for (BatchCompiler.Result r : results) {
+            if (r.getError() != null) {
+                ok = false;
+            } else if (run && r.getProgram() != null) {
+                evaluate(r.getProgram(), new Environment(), null);
+            }
+        }
+        return ok;
+    }
+
+    private void printStats(boolean stream, boolean diskCache) {
+        // Don't create a parser just to report that it was never used
+        if (cache.hasParser()) {
+            System.err.println(cache.getParser().statsReport());
+        }
+        if (!stream) System.err.println(cache.statsReport());
+        if (cache.isOptimizing()) {
+            PassManager passes = stream ? cache.getStatementPasses() : cache.getPasses();
+            System.err.println(passes.statsReport());
+        }
+        if (diskCache && !stream) {
+            System.err.println(cache.getDiskCache().statsReport());
+        }
+        String specializations = cache.getSpecializations().report();
+        if (!specializations.isEmpty()) System.err.println(specializations);
+        String fused = Superinstructions.report();
+        if (!fused.isEmpty()) System.err.println(fused);
+        String callSites;
+        if (stream) {
+            StringBuilder sb = new StringBuilder();
+            if (streamedSites != null) streamedSites.report(sb, 0);
+            callSites = sb.toString();
+        } else {
+            callSites = cache.callSiteReport();
+        }
+        if (!callSites.isEmpty()) System.err.println(callSites);
+    }
 
-        prog.evaluate(new Environment());
+    static String readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = is.read(buf)) > 0) {
+            out.write(buf, 0, n);
+        }
+        is.close();
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,800 @@
+package edu.sjsu.fwjs;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Compiles a function body to a Java method, in a hidden class of its own,
+ * so that HotSpot can compile and inline it like any other Java code.
+ *
+ * Integer arithmetic and comparisons compile to the JVM's int instructions,
+ * so an expression such as (a + b) * c only unboxes the variables' values
+ * and boxes the result, and a comparison in a condition is just a branch.
+ *
+ * A resolved function's frame is its own: closures copy or box what they
+ * capture from it, and every call gets a new one.  So a variable that the
+ * body only declares and assigns integers, that no closure copies, and
+ * that nothing reaches through the environment, lives in a JVM int local
+ * (see intSlots).  Other variables stay in their environments, as do all
+ * of them in a loop compiled on the stack, which finds them there.
+ * Anything else is done by calling the same code the tree walker uses:
+ * the nodes of the tree are constants of the compiled code.
+ *
+ * Compiled for an Owner, the code also speculates on the types
+ * the tree walker's nodes have specialized on: an == that has only seen
+ * integers compares ints, and a condition that has only been a boolean
+ * is tested directly.  A guard checks each speculation, and when one
+ * fails the owner deoptimizes, and the node does what the tree walker
+ * would.
+ */
+class JvmCompiler {
+    /**
+     * A compiled function body, which evaluates it in the given environment.
+     */
+    interface Compiled {
+        Value run(Environment env);
+    }
+
+    /**
+     * What compiled code that speculates was compiled for, which throws
+     * the code away when a speculation fails.
+     */
+    interface Owner {
+        void deoptimize(Compiled from, String reason);
+    }
+
+    private static final String PACKAGE = "edu/sjsu/fwjs/";
+    private static final String VALUE = "Ledu/sjsu/fwjs/Value;";
+    private static final String ENVIRONMENT = "Ledu/sjsu/fwjs/Environment;";
+    private static final String COMPILED = "Ledu/sjsu/fwjs/JvmCompiler$Compiled;";
+    private static final String OWNER = "Ledu/sjsu/fwjs/JvmCompiler$Owner;";
+
+    private ClassFileWriter.Code code;
+    private Owner owner;
+    private List<Object> constants = new ArrayList<Object>();
+    private Map<Object,Integer> constantIndex = new IdentityHashMap<Object,Integer>();
+    /** The local holding each int slot's value; the next local says if it is declared. */
+    private Map<Integer,Integer> intLocals = new HashMap<Integer,Integer>();
+
+    /**
+     * The body compiled and loaded, without speculating.  Throws
+     * IllegalStateException if it is too large for a Java method.
+     */
+    static Compiled compile(Expression body) {
+        return compile(body, null);
+    }
+
+    /**
+     * The body compiled and loaded, speculating on types if there is an
+     * owner to deoptimize.
+     */
+    static Compiled compile(Expression body, Owner owner) {
+        return compile(body, owner, true);
+    }
+
+    /**
+     * A loop compiled and loaded to go on from where it is, in the
+     * environment it is running in.
+     */
+    static Compiled compileLoop(WhileExpr loop, Owner owner) {
+        return compile(loop, owner, false);
+    }
+
+    /**
+     * body compiled to run in a new frame if fresh says it will, in which
+     * case it keeps its int slots in locals, or else in one already in use.
+     */
+    private static Compiled compile(Expression body, Owner owner, boolean fresh) {
+        ClassFileWriter cf = new ClassFileWriter(PACKAGE + "JvmCompiledBody",
+                "java/lang/Object", PACKAGE + "JvmCompiler$Compiled");
+        cf.field(ClassFileWriter.ACC_PRIVATE | ClassFileWriter.ACC_FINAL, "k",
+                "[Ljava/lang/Object;");
+
+        ClassFileWriter.Code init = cf.method(ClassFileWriter.ACC_PUBLIC, "<init>",
+                "([Ljava/lang/Object;)V");
+        init.aload(0);
+        init.invoke(ClassFileWriter.INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+        init.aload(0);
+        init.aload(1);
+        init.field(ClassFileWriter.PUTFIELD, PACKAGE + "JvmCompiledBody", "k",
+                "[Ljava/lang/Object;");
+        init.op(ClassFileWriter.RETURN, 0, 0);
+
+        // Locals: this, the environment, and the constants
+        JvmCompiler c = new JvmCompiler();
+        c.owner = owner;
+        c.code = cf.method(ClassFileWriter.ACC_PUBLIC, "run", "(" + ENVIRONMENT + ")" + VALUE);
+        c.code.aload(0);
+        c.code.field(ClassFileWriter.GETFIELD, PACKAGE + "JvmCompiledBody", "k",
+                "[Ljava/lang/Object;");
+        c.code.astore(c.code.newLocal());
+        if (fresh) c.keepIntSlots(body);
+        c.value(body);
+        c.code.op(ClassFileWriter.ARETURN, 1, 0);
+
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup()
+                    .defineHiddenClass(cf.toByteArray(), true);
+            return (Compiled) lookup.findConstructor(lookup.lookupClass(),
+                    MethodType.methodType(void.class, Object[].class))
+                    .invoke(c.constants.toArray());
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Called by compiled code
+
+    static Value missing() {
+        throw new NullPointerException("missing expression");
+    }
+
+    static void alreadyDeclared() {
+        // As FrameEnvironment.declare
+        throw new RuntimeException("variable name exist already");
+    }
+
+    /**
+     * Whether env is a function's frame in which none of the slots has
+     * been declared.
+     */
+    static boolean undeclared(Environment env, int[] slots) {
+        if (!(env instanceof FrameEnvironment)) return false;
+        FrameEnvironment frame = (FrameEnvironment) env;
+        if (frame.isGlobal()) return false;
+        for (int slot : slots) {
+            if (slot >= frame.slots.length || frame.slots[slot] != FrameEnvironment.UNDECLARED) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean isTrue(Value cond) {
+        return cond.equals(BoolVal.TRUE);
+    }
+
+    static Value deoptimize(Compiled from, Owner owner, BinOpExpr node,
+            Value v1, Value v2) {
+        owner.deoptimize(from, "BinOp " + node.getOp() + " on " + kind(v1) + " and " + kind(v2));
+        return node.specialize(v1, v2);
+    }
+
+    static boolean deoptimize(Compiled from, Owner owner, IfExpr node, Value cond) {
+        owner.deoptimize(from, "If on " + kind(cond));
+        return node.specialize(cond);
+    }
+
+    static boolean deoptimize(Compiled from, Owner owner, WhileExpr node, Value cond) {
+        owner.deoptimize(from, "While on " + kind(cond));
+        return node.test(cond);
+    }
+
+    private static String kind(Value v) {
+        return v == null ? "nothing" : v.getClass().getSimpleName();
+    }
+
+    /**
+     * The slots of a function's frame that its compiled body keeps in int
+     * locals: those it declares, and only ever declares and assigns, with
+     * integers, that are not boxed, copied by a closure or emptied for an
+     * inlined call.  There are none if anything in the body is evaluated
+     * with the environment in a way that could reach them.
+     */
+    static Set<Integer> intSlots(Expression body) {
+        Set<Integer> declared = new TreeSet<Integer>();
+        Set<Integer> excluded = new HashSet<Integer>();
+        if (!findIntSlots(body, declared, excluded)) return Collections.emptySet();
+        declared.removeAll(excluded);
+        return declared;
+    }
+
+    /**
+     * Adds the slots that e declares with integers to declared, and those
+     * that cannot be int slots to excluded.  Returns false if e could reach
+     * the frame some other way.
+     */
+    private static boolean findIntSlots(Expression e, Set<Integer> declared,
+            Set<Integer> excluded) {
+        e = unfused(e);
+        if (e instanceof FunctionDeclExpr) {
+            // The body has a frame of its own, and the closure copies from this one
+            FunctionInfo info = ((FunctionDeclExpr) e).getInfo();
+            if (info == null) return false;
+            for (int slot : info.copiedSlots()) {
+                excluded.add(slot);
+            }
+            return true;
+        } else if (e instanceof ResolvedAssignExpr) {
+            ResolvedAssignExpr a = (ResolvedAssignExpr) e;
+            if (!isInt(a.getExpression())) excluded.add(a.getRef().localSlot());
+        } else if (e instanceof ResolvedVarDeclExpr) {
+            ResolvedVarDeclExpr d = (ResolvedVarDeclExpr) e;
+            if (d.getRef().localSlot() == d.getSlot() && isInt(d.getInitializer())) {
+                declared.add(d.getSlot());
+            } else {
+                excluded.add(d.getSlot());
+            }
+        } else if (e instanceof InlinedCallExpr) {
+            for (int slot : ((InlinedCallExpr) e).getSlots()) {
+                excluded.add(slot);
+            }
+        } else if (!(e == null || e instanceof ValueExpr || e instanceof ResolvedVarExpr
+                || e instanceof BinOpExpr || e instanceof IfExpr || e instanceof WhileExpr
+                || e instanceof SeqExpr || e instanceof BlockExpr || e instanceof PrintExpr
+                || e instanceof FunctionAppExpr || e instanceof TailCallExpr
+                || e instanceof DirectCallExpr)) {
+            return false;
+        }
+        if (e == null) return true;
+        for (Expression child : PassManager.children(e)) {
+            if (!findIntSlots(child, declared, excluded)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gives each int slot of the body a local for its value and one for
+     * whether it has been declared.  In a frame that is not new after all,
+     * the body is evaluated as usual instead.
+     */
+    private void keepIntSlots(Expression body) {
+        Set<Integer> slots = intSlots(body);
+        if (slots.isEmpty()) return;
+        int[] array = new int[slots.size()];
+        int i = 0;
+        for (int slot : slots) {
+            array[i++] = slot;
+        }
+        ClassFileWriter.Label fresh = new ClassFileWriter.Label();
+        code.aload(1);
+        load(array);
+        code.type(ClassFileWriter.CHECKCAST, "[I");
+        code.invoke(ClassFileWriter.INVOKESTATIC, PACKAGE + "JvmCompiler", "undeclared",
+                "(" + ENVIRONMENT + "[I)Z");
+        code.jump(ClassFileWriter.IFNE, fresh);
+        constant(body, "Expression");
+        code.aload(1);
+        code.invoke(ClassFileWriter.INVOKEINTERFACE, PACKAGE + "Expression", "evaluate",
+                "(" + ENVIRONMENT + ")" + VALUE);
+        code.op(ClassFileWriter.ARETURN, 1, 0);
+        code.mark(fresh);
+        for (int slot : slots) {
+            int local = code.newLocal();
+            code.newLocal();
+            code.iconst(0);
+            code.istore(local);
+            code.iconst(0);
+            code.istore(local + 1);
+            intLocals.put(slot, local);
+        }
+    }
+
+    /**
+     * The local holding the value of the int slot e reads, assigns or
+     * declares, or null if it is not one.
+     */
+    private Integer intLocal(Expression e) {
+        if (intLocals.isEmpty()) return null;
+        if (e instanceof ResolvedVarExpr) {
+            return intLocals.get(((ResolvedVarExpr) e).getRef().localSlot());
+        } else if (e instanceof ResolvedAssignExpr) {
+            return intLocals.get(((ResolvedAssignExpr) e).getRef().localSlot());
+        } else if (e instanceof ResolvedVarDeclExpr) {
+            return intLocals.get(((ResolvedVarDeclExpr) e).getSlot());
+        }
+        return null;
+    }
+
+    /**
+     * Leaves the value of e on the stack.
+     */
+    private void value(Expression e) {
+        e = unfused(e);
+        if (e == null) {
+            code.invoke(ClassFileWriter.INVOKESTATIC, PACKAGE + "JvmCompiler", "missing",
+                    "()" + VALUE);
+        } else if (e instanceof ValueExpr) {
+            constant(((ValueExpr) e).getValue(), "Value");
+        } else if (e instanceof BinOpExpr && isArithmetic(((BinOpExpr) e).getOp())) {
+            integer(e);
+            box();
+        } else if (intLocal(e) != null) {
+            intSlot(e, intLocal(e), true);
+        } else if (isBranch(e)) {
+            ClassFileWriter.Label no = new ClassFileWriter.Label();
+            ClassFileWriter.Label end = new ClassFileWriter.Label();
+            int depth = code.getDepth();
+            compare((BinOpExpr) e, no);
+            bool(true);
+            code.jump(ClassFileWriter.GOTO, end);
+            code.mark(no);
+            code.setDepth(depth);
+            bool(false);
+            code.mark(end);
+        } else if (e instanceof BinOpExpr) {
+            BinOpExpr b = (BinOpExpr) e;
+            constant(b, "BinOpExpr");
+            value(b.getLeft());
+            value(b.getRight());
+            code.invoke(ClassFileWriter.INVOKEVIRTUAL, PACKAGE + "BinOpExpr", "apply",
+                    "(" + VALUE + VALUE + ")" + VALUE);
+        } else if (e instanceof IfExpr) {
+            IfExpr i = (IfExpr) e;
+            ClassFileWriter.Label els = new ClassFileWriter.Label();
+            ClassFileWriter.Label end = new ClassFileWriter.Label();
+            int depth = code.getDepth();
+            if (isBranch(i.getCondition())) {
+                compare((BinOpExpr) unfused(i.getCondition()), els);
+            } else if (speculatesBool(i.getSpecialization())) {
+                test(i, "IfExpr", els);
+            } else {
+                constant(i, "IfExpr");
+                value(i.getCondition());
+                code.invoke(ClassFileWriter.INVOKEVIRTUAL, PACKAGE + "IfExpr", "takesThen",
+                        "(" + VALUE + ")Z");
+                code.jump(ClassFileWriter.IFEQ, els);
+            }
+            value(i.getThen());
+            code.jump(ClassFileWriter.GOTO, end);
+            code.mark(els);
+            code.setDepth(depth);
+            if (i.getElse() == null) {
+                code.op(ClassFileWriter.ACONST_NULL, 0, 1);
+            } else {
+                value(i.getElse());
+            }
+            code.mark(end);
+        } else if (e instanceof WhileExpr) {
+            WhileExpr w = (WhileExpr) e;
+            ClassFileWriter.Label start = new ClassFileWriter.Label();
+            ClassFileWriter.Label end = new ClassFileWriter.Label();
+            code.mark(start);
+            if (isBranch(w.getCondition())) {
+                compare((BinOpExpr) unfused(w.getCondition()), end);
+            } else if (speculatesBool(w.getSpecialization())) {
+                test(w, "WhileExpr", end);
+            } else {
+                value(w.getCondition());
+                code.invoke(ClassFileWriter.INVOKESTATIC, PACKAGE + "JvmCompiler", "isTrue",
+                        "(" + VALUE + ")Z");
+                code.jump(ClassFileWriter.IFEQ, end);
+            }
+            value(w.getBody());
+            code.op(ClassFileWriter.POP, 1, 0);
+            code.jump(ClassFileWriter.GOTO, start);
+            code.mark(end);
+            code.op(ClassFileWriter.ACONST_NULL, 0, 1);
+        } else if (e instanceof SeqExpr) {
+            value(((SeqExpr) e).getFirst());
+            code.op(ClassFileWriter.POP, 1, 0);
+            value(((SeqExpr) e).getSecond());
+        } else if (e instanceof BlockExpr) {
+            BlockExpr block = (BlockExpr) e;
+            if (block.size() == 0) code.op(ClassFileWriter.ACONST_NULL, 0, 1);
+            for (int i = 0; i < block.size(); i++) {
+                if (i > 0) code.op(ClassFileWriter.POP, 1, 0);
+                value(block.statement(i));
+            }
+        } else if (e instanceof PrintExpr) {
+            constant(e, "PrintExpr");
+            value(((PrintExpr) e).getExpression());
+            code.invoke(ClassFileWriter.INVOKEVIRTUAL, PACKAGE + "PrintExpr", "print",
+                    "(" + VALUE + ")" + VALUE);
+        } else if (e instanceof VarDeclExpr) {
+            update(e, "VarDeclExpr", "declare", ((VarDeclExpr) e).getInitializer());
+        } else if (e instanceof AssignExpr) {
+            update(e, "AssignExpr", "assign", ((AssignExpr) e).getExpression());
+        } else if (e instanceof ResolvedVarDeclExpr) {
+            update(e, "ResolvedVarDeclExpr", "declare",
+                    ((ResolvedVarDeclExpr) e).getInitializer());
+        } else if (e instanceof ResolvedAssignExpr) {
+            update(e, "ResolvedAssignExpr", "assign", ((ResolvedAssignExpr) e).getExpression());
+        } else if (e instanceof FunctionAppExpr) {
+            FunctionAppExpr app = (FunctionAppExpr) e;
+            call(app.getFunction(), app.getArgs(), "apply", VALUE);
+        } else if (e instanceof TailCallExpr) {
+            TailCallExpr app = (TailCallExpr) e;
+            call(app.getFunction(), app.getArgs(), "tailCall", "Ledu/sjsu/fwjs/TailCall;");
+        } else if (e instanceof DirectCallExpr) {
+            DirectCallExpr call = (DirectCallExpr) e;
+            FunctionInfo info = call.getTarget().getInfo();
+            int frame = code.newLocal();
+            constant(call, "DirectCallExpr");
+            code.aload(1);
+            code.invoke(ClassFileWriter.INVOKEVIRTUAL, PACKAGE + "DirectCallExpr", "newFrame",
+                    "(" + ENVIRONMENT + ")Ledu/sjsu/fwjs/FrameEnvironment;");
+            code.astore(frame);
+            for (int i = 0; i < call.getArgs().size(); i++) {
+                code.aload(frame);
+                declare(info.paramSlot(i), call.getArgs().get(i));
+            }
+            constant(call, "DirectCallExpr");
+            code.aload(frame);
+            code.invoke(ClassFileWriter.INVOKEVIRTUAL, PACKAGE + "DirectCallExpr", "enter",
+                    "(Ledu/sjsu/fwjs/FrameEnvironment;)" + VALUE);
+        } else if (e instanceof InlinedCallExpr) {
+            InlinedCallExpr call = (InlinedCallExpr) e;
+            constant(call, "InlinedCallExpr");
+            frame();
+            code.invoke(ClassFileWriter.INVOKEVIRTUAL, PACKAGE + "InlinedCallExpr", "clearSlots",
+                    "(Ledu/sjsu/fwjs/FrameEnvironment;)V");
+            for (int i = 0; i < call.getArgs().size(); i++) {
+                frame();
+                declare(call.getParamSlots()[i], call.getArgs().get(i));
+            }
+            value(call.getBody());
+        } else {
+            // Leaves, such as variables and function declarations, and
+            // anything else this does not know
+            constant(e, "Expression");
+            code.aload(1);
+            code.invoke(ClassFileWriter.INVOKEINTERFACE, PACKAGE + "Expression", "evaluate",
+                    "(" + ENVIRONMENT + ")" + VALUE);
+        }
+    }
+
+    /**
+     * Leaves the value of e on the stack as an int, failing as BinOpExpr
+     * does if it is not an IntVal.
+     */
+    private void integer(Expression e) {
+        e = unfused(e);
+        if (e instanceof ValueExpr && ((ValueExpr) e).getValue() instanceof IntVal) {
+            code.iconst(((IntVal) ((ValueExpr) e).getValue()).toInt());
+        } else if (e instanceof BinOpExpr && isArithmetic(((BinOpExpr) e).getOp())) {
+            BinOpExpr b = (BinOpExpr) e;
+            operands(b);
+            code.op(ARITHMETIC[b.getOp().ordinal()], 2, 1);
+        } else if (e instanceof ResolvedVarExpr && intLocal(e) != null) {
+            intSlot(e, intLocal(e), false);
+        } else {
+            value(e);
+            unbox();
+        }
+    }
+
+    /**
+     * Leaves both operands of b on the stack as ints.  BinOpExpr evaluates
+     * both before casting either, so the left is only unboxed first where
+     * that cannot be told apart.
+     */
+    private void operands(BinOpExpr b) {
+        Expression left = unfused(b.getLeft());
+        Expression right = unfused(b.getRight());
+        if (isInt(left) || isPure(right)) {
+            integer(left);
+            integer(right);
+        } else {
+            int saved = code.newLocal();
+            value(left);
+            code.astore(saved);
+            if (isInt(right)) {
+                integer(right);
+                code.aload(saved);
+                unbox();
+                code.op(ClassFileWriter.SWAP, 2, 2);
+            } else {
+                value(right);
+                code.aload(saved);
+                unbox();
+                code.op(ClassFileWriter.SWAP, 2, 2);
+                unbox();
+            }
+        }
+    }
+
+    /**
+     * Compares the operands of b, jumping to no unless the comparison holds.
+     */
+    private void compare(BinOpExpr b, ClassFileWriter.Label no) {
+        if (b.getOp() == Op.EQ) {
+            equalInts(b, no);
+            return;
+        }
+        operands(b);
+        int jump;
+        switch (b.getOp()) {
+        case GT:
+            jump = ClassFileWriter.IF_ICMPLE;
+            break;
+        case GE:
+            jump = ClassFileWriter.IF_ICMPLT;
+            break;
+        case LT:
+            jump = ClassFileWriter.IF_ICMPGE;
+            break;
+        default:
+            jump = ClassFileWriter.IF_ICMPGT;
+            break;
+        }
+        code.jump(jump, no);
+    }
+
+    /**
+     * Compares the operands of an == that has only seen integers as ints,
+     * jumping to no unless they are equal.  If either is not an IntVal,
+     * the code deoptimizes and the node compares them.
+     */
+    private void equalInts(BinOpExpr b, ClassFileWriter.Label no) {
+        ClassFileWriter.Label slow = new ClassFileWriter.Label();
+        ClassFileWriter.Label yes = new ClassFileWriter.Label();
+        int left = code.newLocal();
+        int right = code.newLocal();
+        value(b.getLeft());
+        code.astore(left);
+        value(b.getRight());
+        code.astore(right);
+        int depth = code.getDepth();
+        code.aload(left);
+        code.type(ClassFileWriter.INSTANCEOF, PACKAGE + "IntVal");
+        code.jump(ClassFileWriter.IFEQ, slow);
+        code.aload(right);
+        code.type(ClassFileWriter.INSTANCEOF, PACKAGE + "IntVal");
+        code.jump(ClassFileWriter.IFEQ, slow);
+        code.aload(left);
+        unbox();
+        code.aload(right);
+        unbox();
+        code.jump(ClassFileWriter.IF_ICMPNE, no);
+        code.jump(ClassFileWriter.GOTO, yes);
+        code.mark(slow);
+        code.setDepth(depth);
+        code.aload(0);
+        constant(owner, "JvmCompiler$Owner");
+        constant(b, "BinOpExpr");
+        code.aload(left);
+        code.aload(right);
+        code.invoke(ClassFileWriter.INVOKESTATIC, PACKAGE + "JvmCompiler", "deoptimize",
+                "(" + COMPILED + OWNER + "Ledu/sjsu/fwjs/BinOpExpr;"
+                + VALUE + VALUE + ")" + VALUE);
+        code.invoke(ClassFileWriter.INVOKESTATIC, PACKAGE + "JvmCompiler", "isTrue",
+                "(" + VALUE + ")Z");
+        code.jump(ClassFileWriter.IFEQ, no);
+        code.mark(yes);
+    }
+
+    /**
+     * Tests the condition of an if or while that has only seen booleans,
+     * jumping to no if it is false.  If it is not a BoolVal, the code
+     * deoptimizes and the node tests it.
+     */
+    private void test(Expression node, String className, ClassFileWriter.Label no) {
+        ClassFileWriter.Label slow = new ClassFileWriter.Label();
+        ClassFileWriter.Label branch = new ClassFileWriter.Label();
+        Expression cond = node instanceof IfExpr
+                ? ((IfExpr) node).getCondition() : ((WhileExpr) node).getCondition();
+        value(cond);
+        int depth = code.getDepth();
+        code.op(ClassFileWriter.DUP, 1, 2);
+        code.type(ClassFileWriter.INSTANCEOF, PACKAGE + "BoolVal");
+        code.jump(ClassFileWriter.IFEQ, slow);
+        code.type(ClassFileWriter.CHECKCAST, PACKAGE + "BoolVal");
+        code.invoke(ClassFileWriter.INVOKEVIRTUAL, PACKAGE + "BoolVal", "toBoolean", "()Z");
+        code.jump(ClassFileWriter.GOTO, branch);
+        code.mark(slow);
+        code.setDepth(depth);
+        int saved = code.newLocal();
+        code.astore(saved);
+        code.aload(0);
+        constant(owner, "JvmCompiler$Owner");
+        constant(node, className);
+        code.aload(saved);
+        code.invoke(ClassFileWriter.INVOKESTATIC, PACKAGE + "JvmCompiler", "deoptimize",
+                "(" + COMPILED + OWNER + "L" + PACKAGE + className + ";"
+                + VALUE + ")Z");
+        code.mark(branch);
+        code.jump(ClassFileWriter.IFEQ, no);
+    }
+
+    /**
+     * Reads, assigns or declares an int slot, in the given local, leaving
+     * its value on the stack, as a Value if boxed says so.  Until the slot
+     * is declared, reads and assignments go on to the variables further
+     * out, as VarRef would.
+     */
+    private void intSlot(Expression e, int local, boolean boxed) {
+        ClassFileWriter.Label slow = new ClassFileWriter.Label();
+        ClassFileWriter.Label end = new ClassFileWriter.Label();
+        if (e instanceof ResolvedVarDeclExpr) {
+            integer(((ResolvedVarDeclExpr) e).getInitializer());
+            code.iload(local + 1);
+            code.jump(ClassFileWriter.IFEQ, end);
+            code.invoke(ClassFileWriter.INVOKESTATIC, PACKAGE + "JvmCompiler",
+                    "alreadyDeclared", "()V");
+            code.mark(end);
+            code.op(ClassFileWriter.DUP, 1, 2);
+            code.istore(local);
+            code.iconst(1);
+            code.istore(local + 1);
+            box();
+            return;
+        }
+        if (e instanceof ResolvedAssignExpr) {
+            integer(((ResolvedAssignExpr) e).getExpression());
+        }
+        int depth = code.getDepth();
+        code.iload(local + 1);
+        code.jump(ClassFileWriter.IFEQ, slow);
+        if (e instanceof ResolvedAssignExpr) {
+            code.op(ClassFileWriter.DUP, 1, 2);
+            code.istore(local);
+        } else {
+            code.iload(local);
+        }
+        if (boxed) box();
+        code.jump(ClassFileWriter.GOTO, end);
+        code.mark(slow);
+        code.setDepth(depth);
+        if (e instanceof ResolvedAssignExpr) {
+            box();
+            int saved = code.newLocal();
+            code.astore(saved);
+            constant(e, "ResolvedAssignExpr");
+            code.aload(1);
+            code.aload(saved);
+            code.invoke(ClassFileWriter.INVOKEVIRTUAL, PACKAGE + "ResolvedAssignExpr", "assign",
+                    "(" + ENVIRONMENT + VALUE + ")" + VALUE);
+        } else {
+            constant(e, "Expression");
+            code.aload(1);
+            code.invoke(ClassFileWriter.INVOKEINTERFACE, PACKAGE + "Expression", "evaluate",
+                    "(" + ENVIRONMENT + ")" + VALUE);
+            if (!boxed) unbox();
+        }
+        code.mark(end);
+    }
+
+    /**
+     * Declares or assigns the value of exp with the node's helper, which
+     * takes the environment and the value.
+     */
+    private void update(Expression node, String className, String method, Expression exp) {
+        constant(node, className);
+        code.aload(1);
+        value(exp);
+        code.invoke(ClassFileWriter.INVOKEVIRTUAL, PACKAGE + className, method,
+                "(" + ENVIRONMENT + VALUE + ")" + VALUE);
+    }
+
+    /**
+     * Calls the closure f evaluates to with the values of the arguments,
+     * evaluated first, as FunctionAppExpr does.
+     */
+    private void call(Expression f, List<Expression> args, String method, String returns) {
+        code.type(ClassFileWriter.NEW, "java/util/ArrayList");
+        code.op(ClassFileWriter.DUP, 1, 2);
+        code.invoke(ClassFileWriter.INVOKESPECIAL, "java/util/ArrayList", "<init>", "()V");
+        for (Expression arg : args) {
+            code.op(ClassFileWriter.DUP, 1, 2);
+            value(arg);
+            code.invoke(ClassFileWriter.INVOKEVIRTUAL, "java/util/ArrayList", "add",
+                    "(Ljava/lang/Object;)Z");
+            code.op(ClassFileWriter.POP, 1, 0);
+        }
+        value(f);
+        code.type(ClassFileWriter.CHECKCAST, PACKAGE + "ClosureVal");
+        code.op(ClassFileWriter.SWAP, 2, 2);
+        code.invoke(ClassFileWriter.INVOKEVIRTUAL, PACKAGE + "ClosureVal", method,
+                "(Ljava/util/List;)" + returns);
+    }
+
+    /**
+     * Declares the value of exp in the slot of the frame on the stack.
+     */
+    private void declare(int slot, Expression exp) {
+        code.iconst(slot);
+        value(exp);
+        code.invoke(ClassFileWriter.INVOKEVIRTUAL, PACKAGE + "FrameEnvironment", "declare",
+                "(I" + VALUE + ")V");
+    }
+
+    private void frame() {
+        code.aload(1);
+        code.type(ClassFileWriter.CHECKCAST, PACKAGE + "FrameEnvironment");
+    }
+
+    private void unbox() {
+        code.type(ClassFileWriter.CHECKCAST, PACKAGE + "IntVal");
+        code.invoke(ClassFileWriter.INVOKEVIRTUAL, PACKAGE + "IntVal", "toInt", "()I");
+    }
+
+    private void box() {
+        code.invoke(ClassFileWriter.INVOKESTATIC, PACKAGE + "IntVal", "of",
+                "(I)L" + PACKAGE + "IntVal;");
+    }
+
+    private void bool(boolean b) {
+        code.iconst(b ? 1 : 0);
+        code.invoke(ClassFileWriter.INVOKESTATIC, PACKAGE + "BoolVal", "of",
+                "(Z)L" + PACKAGE + "BoolVal;");
+    }
+
+    /**
+     * Pushes a constant of the compiled code, cast to the named class.
+     */
+    private void constant(Object c, String className) {
+        load(c);
+        code.type(ClassFileWriter.CHECKCAST, PACKAGE + className);
+    }
+
+    /**
+     * Pushes a constant of the compiled code, as an Object.
+     */
+    private void load(Object c) {
+        Integer k = constantIndex.get(c);
+        if (k == null) {
+            k = constants.size();
+            constants.add(c);
+            constantIndex.put(c, k);
+        }
+        code.aload(2);
+        code.iconst(k);
+        code.op(ClassFileWriter.AALOAD, 2, 1);
+    }
+
+    /**
+     * The tree a fused node was made from, which compiles to better code
+     * than calling the fused node would.
+     */
+    private static Expression unfused(Expression e) {
+        return e instanceof FusedExpr ? ((FusedExpr) e).getOriginal() : e;
+    }
+
+    private static final int[] ARITHMETIC = {
+        ClassFileWriter.IADD, ClassFileWriter.ISUB, ClassFileWriter.IMUL,
+        ClassFileWriter.IDIV, ClassFileWriter.IREM,
+    };
+
+    private static boolean isArithmetic(Op op) {
+        return op != null && op.ordinal() <= Op.MOD.ordinal();
+    }
+
+    private static boolean isComparison(Op op) {
+        return op != null && op != Op.EQ && !isArithmetic(op);
+    }
+
+    /**
+     * Whether e compiles to a branch on ints: an ordering comparison, or,
+     * when speculating, an == that has only seen integers.
+     */
+    private boolean isBranch(Expression e) {
+        e = unfused(e);
+        if (!(e instanceof BinOpExpr)) return false;
+        BinOpExpr b = (BinOpExpr) e;
+        return isComparison(b.getOp())
+                || (owner != null && b.getSpecialization() == Specializations.INT_EQ);
+    }
+
+    private boolean speculatesBool(int specialization) {
+        return owner != null && specialization == Specializations.BOOL;
+    }
+
+    /**
+     * Whether e always evaluates to an IntVal, if it evaluates at all.
+     */
+    private static boolean isInt(Expression e) {
+        e = unfused(e);
+        return (e instanceof BinOpExpr && isArithmetic(((BinOpExpr) e).getOp()))
+                || (e instanceof ValueExpr && ((ValueExpr) e).getValue() instanceof IntVal);
+    }
+
+    /**
+     * Whether evaluating e can neither fail nor change anything.
+     */
+    private static boolean isPure(Expression e) {
+        e = unfused(e);
+        return e instanceof ValueExpr || e instanceof VarExpr || e instanceof ResolvedVarExpr;
+    }
+}
@@ -0,0 +1,45 @@
+package edu.sjsu.fwjs;
+
+import java.util.List;
+
+/**
+ * A resolved function that ScopeResolver has found calls to, which need
+ * no closure: it captures nothing, so all a call needs is a fresh frame.
+ * The body is filled in once it has been resolved, which for a recursive
+ * function is after the calls inside it have been.
+ */
+class KnownFunction {
+    private String name;
+    private List<String> params;
+    private FunctionInfo info;
+    private Expression body;
+
+    /**
+     * A function bound to the named variable, to be defined later.
+     */
+    KnownFunction(String name) {
+        this.name = name;
+    }
+
+    void define(List<String> params, FunctionInfo info, Expression body) {
+        this.params = params;
+        this.info = info;
+        this.body = body;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    List<String> getParams() {
+        return params;
+    }
+
+    FunctionInfo getInfo() {
+        return info;
+    }
+
+    Expression getBody() {
+        return body;
+    }
+}
@@ -4,5 +4,24 @@ package edu.sjsu.fwjs;
  * FWJS binary operators.
  */
 public enum Op {
-    ADD, SUBTRACT, MULTIPLY, DIVIDE, MOD, GT, GE, LT, LE, EQ
+    ADD, SUBTRACT, MULTIPLY, DIVIDE, MOD, GT, GE, LT, LE, EQ;
+
+    /**
+     * The operator written as opSymbol in a script, or null if there is none.
+     */
+    static Op fromSymbol(String opSymbol) {
+        switch (opSymbol) {
+        case "+": return ADD;
+        case "-": return SUBTRACT;
+        case "*": return MULTIPLY;
+        case "/": return DIVIDE;
+        case "%": return MOD;
+        case ">": return GT;
+        case ">=": return GE;
+        case "<": return LT;
+        case "<=": return LE;
+        case "==": return EQ;
+        default: return null;
+        }
+    }
 }
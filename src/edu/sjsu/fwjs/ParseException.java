@@ -0,0 +1,25 @@
+package edu.sjsu.fwjs;
+
+/**
+ * A syntax error found by the hand-written front end.
+ */
+public class ParseException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private int line;
+    private int column;
+
+    public ParseException(int line, int column, String msg) {
+        super("line " + line + ":" + column + " " + msg);
+        this.line = line;
+        this.column = column;
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public int getColumn() {
+        return column;
+    }
+}
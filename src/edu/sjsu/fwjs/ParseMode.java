@@ -0,0 +1,28 @@
+package edu.sjsu.fwjs;
+
+/**
+ * Prediction strategies for the ANTLR parser.
+ */
+public enum ParseMode {
+    /** Full LL prediction with the default error reporting. */
+    LL,
+    /** SLL prediction only.  Faster, but may report spurious errors. */
+    SLL,
+    /**
+     * Try SLL with a bail-out error strategy first, and re-parse with
+     * full LL (and normal error reporting) only if SLL fails.
+     */
+    TWO_STAGE;
+
+    /**
+     * Get the mode for a command line name such as "sll" or "two-stage".
+     */
+    public static ParseMode fromName(String name) {
+        for (ParseMode mode : values()) {
+            if (mode.name().replace('_', '-').equalsIgnoreCase(name)) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Unknown parse mode: " + name);
+    }
+}
@@ -0,0 +1,225 @@
+package edu.sjsu.fwjs;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Runs a pipeline of optimization passes over expression trees, in the
+ * order they were added, keeping the time each pass takes and, if asked,
+ * how many nodes it leaves behind.
+ *
+ * Optionally each pass's output is checked with TreeVerifier, so that a
+ * pass that breaks the tree is caught where it happens rather than when
+ * the program runs, and the tree is printed with TreePrinter before the
+ * first pass and after each one.
+ *
+ * Trees may be run through the same manager from several threads at once.
+ */
+class PassManager {
+    /**
+     * A transformation of a tree.  It may return its input, or a tree that
+     * shares parts with it, but must not modify it.
+     */
+    interface Pass {
+        Expression run(Expression prog);
+    }
+
+    private List<String> names = new ArrayList<String>();
+    private List<Pass> passes = new ArrayList<Pass>();
+    private boolean verify;
+    private PrintStream dump;
+    private boolean countNodes;
+
+    private long trees;
+    private long[] nanos = new long[0];
+    private long nodesIn;
+    private long[] nodesOut = new long[0];
+
+    PassManager add(String name, Pass pass) {
+        names.add(name);
+        passes.add(pass);
+        synchronized (this) {
+            nanos = Arrays.copyOf(nanos, passes.size());
+            nodesOut = Arrays.copyOf(nodesOut, passes.size());
+        }
+        return this;
+    }
+
+    List<String> getNames() {
+        return Collections.unmodifiableList(names);
+    }
+
+    /**
+     * Turns checking the tree after each pass on or off.
+     */
+    void setVerify(boolean verify) {
+        this.verify = verify;
+    }
+
+    /**
+     * Where to print the tree before and after each pass, or null not to.
+     */
+    void setDump(PrintStream dump) {
+        this.dump = dump;
+    }
+
+    /**
+     * Turns counting the nodes each pass leaves on or off.  Counting walks
+     * the whole tree after every pass, so it is off unless statistics are
+     * wanted.
+     */
+    void setCountNodes(boolean countNodes) {
+        this.countNodes = countNodes;
+    }
+
+    /**
+     * Runs the passes over the tree, returning the result of the last.
+     */
+    Expression run(Expression prog) {
+        long[] times = new long[passes.size()];
+        long[] sizes = new long[passes.size()];
+        boolean count = countNodes;
+        long size = count ? size(prog) : 0;
+        dump("input", prog);
+        for (int i = 0; i < passes.size(); i++) {
+            long start = System.nanoTime();
+            prog = passes.get(i).run(prog);
+            times[i] = System.nanoTime() - start;
+            if (count) sizes[i] = size(prog);
+            if (verify) {
+                try {
+                    TreeVerifier.verify(prog);
+                } catch (IllegalStateException e) {
+                    throw new IllegalStateException("after pass " + names.get(i) + ": "
+                            + e.getMessage(), e);
+                }
+            }
+            dump("after " + names.get(i), prog);
+        }
+        synchronized (this) {
+            trees++;
+            nodesIn += size;
+            for (int i = 0; i < times.length; i++) {
+                nanos[i] += times[i];
+                nodesOut[i] += sizes[i];
+            }
+        }
+        return prog;
+    }
+
+    private void dump(String title, Expression prog) {
+        PrintStream out = dump;
+        if (out == null) return;
+        String tree = TreePrinter.print(prog);
+        synchronized (out) {
+            out.println("== " + title);
+            out.print(tree);
+        }
+    }
+
+    /**
+     * One line per pass: the total time it took, and, if nodes are being
+     * counted, the nodes in the trees it was given and returned, summed
+     * over every tree run so far.
+     */
+    synchronized String statsReport() {
+        StringBuilder sb = new StringBuilder();
+        long before = nodesIn;
+        long total = 0;
+        for (int i = 0; i < names.size(); i++) {
+            long after = nodesOut[i];
+            sb.append(String.format("pass %-10s trees=%d time=%.2fms", names.get(i), trees,
+                    nanos[i] / 1e6));
+            if (countNodes) {
+                sb.append(String.format(" nodes=%d->%d (%+d)", before, after, after - before));
+            }
+            sb.append(String.format("%n"));
+            total += nanos[i];
+            before = after;
+        }
+        sb.append(String.format("passes total trees=%d time=%.2fms", trees, total / 1e6));
+        if (countNodes) sb.append(String.format(" nodes=%d->%d", nodesIn, before));
+        return sb.toString();
+    }
+
+    /**
+     * The direct subexpressions of any node, including those made by the
+     * passes.  Missing (null) children are included.
+     */
+    static List<Expression> children(Expression e) {
+        List<Expression> kids = new ArrayList<Expression>();
+        if (e instanceof ResolvedAssignExpr) {
+            kids.add(((ResolvedAssignExpr) e).getExpression());
+        } else if (e instanceof ResolvedVarDeclExpr) {
+            kids.add(((ResolvedVarDeclExpr) e).getInitializer());
+        } else if (e instanceof DirectCallExpr) {
+            kids.addAll(((DirectCallExpr) e).getArgs());
+        } else if (e instanceof InlinedCallExpr) {
+            kids.addAll(((InlinedCallExpr) e).getArgs());
+            kids.add(((InlinedCallExpr) e).getBody());
+        } else if (e instanceof TailCallExpr) {
+            kids.add(((TailCallExpr) e).getFunction());
+            kids.addAll(((TailCallExpr) e).getArgs());
+        } else if (e instanceof ProgramExpr) {
+            kids.add(((ProgramExpr) e).getBody());
+        } else if (e instanceof CompiledBodyExpr) {
+            kids.add(((CompiledBodyExpr) e).getBody());
+        } else if (e instanceof FusedExpr) {
+            kids.add(((FusedExpr) e).getOriginal());
+        } else {
+            kids.addAll(AstSerializer.children(e));
+        }
+        return kids;
+    }
+
+    /**
+     * Calls visitor on every node of the tree, including those made by the
+     * passes, and of the bodies of the functions it calls directly, whose
+     * nodes are visited once however many calls there are.
+     */
+    static void visit(Expression prog, Consumer<Expression> visitor) {
+        visit(prog, visitor, Collections.newSetFromMap(new IdentityHashMap<KnownFunction,Boolean>()));
+    }
+
+    private static void visit(Expression e, Consumer<Expression> visitor, Set<KnownFunction> done) {
+        if (e == null) return;
+        visitor.accept(e);
+        if (e instanceof DirectCallExpr) {
+            KnownFunction f = ((DirectCallExpr) e).getTarget();
+            if (done.add(f)) visit(f.getBody(), visitor, done);
+        }
+        for (Expression child : children(e)) {
+            visit(child, visitor, done);
+        }
+    }
+
+    /**
+     * The number of nodes in the tree, counting the body of each function
+     * called directly once, as lifting can leave it nowhere else.  A fused
+     * node counts as one, with the operands it evaluates, rather than as
+     * the nodes it replaced.
+     */
+    static int size(Expression prog) {
+        return size(prog, Collections.newSetFromMap(new IdentityHashMap<KnownFunction,Boolean>()));
+    }
+
+    private static int size(Expression e, Set<KnownFunction> counted) {
+        if (e == null) return 0;
+        int n = 1;
+        if (e instanceof DirectCallExpr) {
+            KnownFunction f = ((DirectCallExpr) e).getTarget();
+            if (counted.add(f)) n += size(f.getBody(), counted);
+        }
+        List<Expression> kids = e instanceof FusedExpr ? ((FusedExpr) e).getOperands() : children(e);
+        for (Expression child : kids) {
+            n += size(child, counted);
+        }
+        return n;
+    }
+}
@@ -0,0 +1,384 @@
+package edu.sjsu.fwjs;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static edu.sjsu.fwjs.Tokenizer.*;
+
+/**
+ * A hand-written parser for FWJS, as a lightweight alternative to the
+ * ANTLR-generated one.  Statements are parsed by recursive descent and
+ * expressions by precedence climbing, with the same precedence and
+ * associativity as the expr rule in FeatherweightJavaScript.g4:
+ * application binds tightest, then * / %, then + -, then comparisons,
+ * all left-associative.
+ *
+ * It builds the same trees as ExpressionBuilderVisitor.  Unlike the ANTLR
+ * parser it does not recover from errors; the first syntax error throws
+ * a ParseException.
+ *
+ * A dangling else is resolved the way ANTLR's full-context prediction
+ * resolves it: deciding from the outside in, each if takes an else whenever
+ * some valid parse lets it.  So in "if (a) if (b) x; else y;" the else
+ * belongs to the outer if.  Unbraced chains of ifs are rare, so the possible
+ * end positions of a statement are only worked out when one is met.
+ */
+public class RecursiveDescentParser {
+    // Binding powers; a suffix or operator is applied only if its power is at
+    // least the minimum the caller asked for.
+    private static final int CALL = 9;
+    private static final int MUL_DIV_MOD = 8;
+    private static final int ADD_SUB = 7;
+    private static final int COMPARE = 6;
+
+    private Tokenizer tokens;
+    private int p;
+    private Map<Integer,TreeSet<Integer>> statEnds;
+
+    public RecursiveDescentParser(String source) {
+        this.tokens = new Tokenizer(source);
+    }
+
+    /**
+     * Parses a whole program and builds its expression tree.
+     */
+    public static Expression compile(String source) {
+        return new RecursiveDescentParser(source).parseProgram();
+    }
+
+    /**
+     * prog: stat+ ;
+     */
+    public Expression parseProgram() {
+        List<Expression> stmts = new ArrayList<Expression>();
+        do {
+            Expression stmt = parseStat(-1);
+            // Top-level empty statements are dropped, as in visitProg
+            if (stmt != null) stmts.add(stmt);
+        } while (la() != EOF);
+        return BlockExpr.of(stmts);
+    }
+
+    /**
+     * Parses a statement.  If end is not -1 the statement must finish just
+     * before token end, which decides where any dangling elses go.
+     */
+    private Expression parseStat(int end) {
+        switch (la()) {
+        case IF: {
+            int start = p++;
+            Expression cond = parseCondition();
+            int la = la();
+            if (end < 0 && (la == IF || la == WHILE)) {
+                // An unbraced chain that may compete for the elses after it
+                end = statEnds(start).last();
+            }
+            if (end < 0) {
+                Expression thn = parseBlock(-1);
+                if (la() != ELSE) return new IfExpr(cond, thn, null);
+                p++;
+                return new IfExpr(cond, thn, parseBlock(-1));
+            }
+            int split = elseSplit(p, end);
+            if (split < 0) return new IfExpr(cond, parseBlock(end), null);
+            Expression thn = parseBlock(split);
+            match(ELSE);
+            return new IfExpr(cond, thn, parseBlock(end));
+        }
+        case WHILE: {
+            p++;
+            Expression cond = parseCondition();
+            return new WhileExpr(cond, parseBlock(end));
+        }
+        case PRINT: {
+            p++;
+            Expression e = parseCondition();
+            match(SEPARATOR);
+            return new PrintExpr(e);
+        }
+        case SEPARATOR:
+            p++;
+            return null;
+        default: {
+            Expression e = parseExpr(0);
+            match(SEPARATOR);
+            return e;
+        }
+        }
+    }
+
+    /**
+     * '(' expr ')'
+     */
+    private Expression parseCondition() {
+        match(LPAREN);
+        Expression e = parseExpr(0);
+        match(RPAREN);
+        return e;
+    }
+
+    /**
+     * block: '{' stat* '}' | stat ;
+     */
+    private Expression parseBlock(int end) {
+        if (la() != LBRACE) {
+            return parseStat(end);
+        }
+        p++;
+        return BlockExpr.of(parseStatsUntilBrace());
+    }
+
+    /**
+     * stat* '}' -- empty statements are kept, as in the visitor.
+     */
+    private List<Expression> parseStatsUntilBrace() {
+        List<Expression> stmts = new ArrayList<Expression>();
+        while (la() != RBRACE) {
+            if (la() == EOF) error("missing '}' at " + describe(EOF));
+            stmts.add(parseStat(-1));
+        }
+        p++;
+        return stmts;
+    }
+
+    /**
+     * Where the then-block starting at token i should stop so that the if
+     * can take an else and still finish just before token end; the latest
+     * such place, as inner ifs also prefer taking an else.  -1 if the if
+     * cannot take an else.
+     */
+    private int elseSplit(int i, int end) {
+        TreeSet<Integer> thenEnds = blockEnds(i);
+        for (Integer e : thenEnds.descendingSet()) {
+            if (tokens.types[e] == ELSE && blockEnds(e + 1).contains(end)) return e;
+        }
+        return -1;
+    }
+
+    private TreeSet<Integer> blockEnds(int i) {
+        if (tokens.types[i] != LBRACE) return statEnds(i);
+        TreeSet<Integer> ends = new TreeSet<Integer>();
+        int close = skipBalanced(i);
+        if (close >= 0) ends.add(close);
+        return ends;
+    }
+
+    /**
+     * Every token position at which the statement starting at token i could
+     * end, one for each way of handing out the elses that follow it.
+     * Empty if it cannot end anywhere.
+     */
+    private TreeSet<Integer> statEnds(int i) {
+        if (statEnds == null) statEnds = new HashMap<Integer,TreeSet<Integer>>();
+        TreeSet<Integer> ends = statEnds.get(i);
+        if (ends != null) return ends;
+        ends = new TreeSet<Integer>();
+        int t = tokens.types[i];
+        if (t == IF || t == WHILE) {
+            int body = skipBalanced(i + 1);
+            if (body >= 0) {
+                TreeSet<Integer> bodyEnds = blockEnds(body);
+                ends.addAll(bodyEnds);
+                if (t == IF) {
+                    for (int e : bodyEnds) {
+                        if (tokens.types[e] == ELSE) ends.addAll(blockEnds(e + 1));
+                    }
+                }
+            }
+        } else {
+            // Everything else runs to the first ';' outside of brackets
+            int depth = 0;
+            for (int j = i; tokens.types[j] != EOF; j++) {
+                int tj = tokens.types[j];
+                if (tj == LPAREN || tj == LBRACE) depth++;
+                else if (tj == RPAREN || tj == RBRACE) depth--;
+                else if (tj == SEPARATOR && depth == 0) {
+                    ends.add(j + 1);
+                    break;
+                }
+                if (depth < 0) break;
+            }
+        }
+        statEnds.put(i, ends);
+        return ends;
+    }
+
+    /**
+     * The position just after the bracket matching the one at token i,
+     * or -1 if there is none.
+     */
+    private int skipBalanced(int i) {
+        int t = tokens.types[i];
+        if (t != LPAREN && t != LBRACE) return -1;
+        int depth = 0;
+        for (int j = i; tokens.types[j] != EOF; j++) {
+            int tj = tokens.types[j];
+            if (tj == LPAREN || tj == LBRACE) depth++;
+            else if (tj == RPAREN || tj == RBRACE) {
+                if (--depth == 0) return j + 1;
+            }
+        }
+        return -1;
+    }
+
+    private Expression parseExpr(int minPower) {
+        Expression e = parsePrimary();
+        while (true) {
+            int t = la();
+            if (t == LPAREN) {
+                if (CALL < minPower) return e;
+                e = new FunctionAppExpr(e, parseArgs());
+                continue;
+            }
+            int power = binaryPower(t);
+            if (power == 0 || power < minPower) return e;
+            Op op = binaryOp(t);
+            p++;
+            e = new BinOpExpr(op, e, parseExpr(power + 1));
+        }
+    }
+
+    private Expression parsePrimary() {
+        int t = la();
+        switch (t) {
+        case LPAREN: {
+            p++;
+            Expression e = parseExpr(0);
+            match(RPAREN);
+            return e;
+        }
+        case FUNCTION: {
+            p++;
+            List<String> params = parseParams();
+            match(LBRACE);
+            return new FunctionDeclExpr(params,
+                    BlockExpr.of(parseStatsUntilBrace()));
+        }
+        case INT:
+            return new ValueExpr(IntVal.of(Integer.valueOf(tokens.text(p++))));
+        case TRUE:
+            p++;
+            return new ValueExpr(BoolVal.TRUE);
+        case FALSE:
+            p++;
+            return new ValueExpr(BoolVal.FALSE);
+        case NULL:
+            p++;
+            return new ValueExpr(NullVal.NULL);
+        case VAR: {
+            p++;
+            String name = matchId();
+            Expression init = null;
+            if (la() == SET) {
+                p++;
+                init = parseExpr(0);
+            }
+            return new VarDeclExpr(name, init);
+        }
+        case ID: {
+            String name = tokens.text(p++);
+            if (la() == SET) {
+                p++;
+                // The grammar's expr(2) admits every binary operator
+                return new AssignExpr(name, parseExpr(0));
+            }
+            return new VarExpr(name);
+        }
+        default:
+            error("mismatched input " + current() + " expecting an expression");
+            return null;
+        }
+    }
+
+    /**
+     * params: '(' (ID (',' ID)*)? ')' ;
+     */
+    private List<String> parseParams() {
+        match(LPAREN);
+        List<String> params = new ArrayList<String>();
+        if (la() != RPAREN) {
+            params.add(matchId());
+            while (la() == ARGSEP) {
+                p++;
+                params.add(matchId());
+            }
+        }
+        match(RPAREN);
+        return params;
+    }
+
+    /**
+     * args: '(' (expr (',' expr)*)? ')' ;
+     */
+    private List<Expression> parseArgs() {
+        match(LPAREN);
+        List<Expression> args = new ArrayList<Expression>();
+        if (la() != RPAREN) {
+            args.add(parseExpr(0));
+            while (la() == ARGSEP) {
+                p++;
+                args.add(parseExpr(0));
+            }
+        }
+        match(RPAREN);
+        return args;
+    }
+
+    private static int binaryPower(int t) {
+        switch (t) {
+        case MUL: case DIV: case MOD:
+            return MUL_DIV_MOD;
+        case ADD: case SUB:
+            return ADD_SUB;
+        case LT: case LE: case GT: case GE: case EQ:
+            return COMPARE;
+        default:
+            return 0;
+        }
+    }
+
+    private static Op binaryOp(int t) {
+        switch (t) {
+        case MUL: return Op.MULTIPLY;
+        case DIV: return Op.DIVIDE;
+        case MOD: return Op.MOD;
+        case ADD: return Op.ADD;
+        case SUB: return Op.SUBTRACT;
+        case LT: return Op.LT;
+        case LE: return Op.LE;
+        case GT: return Op.GT;
+        case GE: return Op.GE;
+        default: return Op.EQ;
+        }
+    }
+
+    private int la() {
+        return tokens.types[p];
+    }
+
+    private String current() {
+        int t = la();
+        return t == EOF ? describe(EOF) : "'" + tokens.text(p) + "'";
+    }
+
+    private void match(int type) {
+        if (la() != type) {
+            error("mismatched input " + current() + " expecting " + describe(type));
+        }
+        p++;
+    }
+
+    private String matchId() {
+        if (la() != ID) {
+            error("mismatched input " + current() + " expecting ID");
+        }
+        return tokens.text(p++);
+    }
+
+    private void error(String msg) {
+        throw new ParseException(tokens.lines[p], tokens.columns[p], msg);
+    }
+}
@@ -0,0 +1,726 @@
+package edu.sjsu.fwjs;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Resolves variables to slots in FrameEnvironments, so that running a
+ * program indexes into arrays instead of looking names up in a chain of
+ * maps.  Each function gets a FunctionInfo laying out its frame, and
+ * variable uses, assignments and declarations are replaced by nodes that
+ * carry a VarRef.
+ *
+ * Declarations only take effect when they run, so a reference can have
+ * several candidate slots; VarRef tries them in the order the
+ * environment chain would.  The semantics are exactly those of the
+ * unresolved tree.
+ *
+ * Closures are flat: a function's free variables are worked out first,
+ * and a closure captures just those from the functions around it, rather
+ * than keeping their whole frames alive.  A captured variable that can
+ * still change afterwards is kept in a box shared by its frame and the
+ * closures; any other is simply copied.
+ *
+ * Functions that capture nothing are also lifted, where that cannot be
+ * seen.  If a variable is declared once with a function like that, as a
+ * statement of a function (or program) body, and never assigned, a call
+ * through it in a later statement (or in the function itself) is known
+ * to call that function, and becomes a DirectCallExpr.  If the variable
+ * is used for nothing but such calls, the closure is never needed, and
+ * the declaration is dropped.  (Closures are compared by identity, so
+ * one closure could not simply be shared by every evaluation.)
+ *
+ * Known calls to small functions are inlined, unless the function is
+ * recursive or defines functions of its own.  The function's variables
+ * get slots of their own in the caller's frame, so they cannot clash
+ * with the caller's, and the body is resolved as it would be in the
+ * function.  Decisions can be reported, for tuning INLINE_BUDGET.
+ */
+class ScopeResolver extends ExpressionRewriter {
+    private static class Scope {
+        FunctionDeclExpr decl;
+        FunctionInfo info;
+        Scope outer;
+        Set<Integer> paramSlots = new HashSet<Integer>();
+        /** Variables of enclosing functions that closures over this one need. */
+        Set<Key> needs = new LinkedHashSet<Key>();
+        /** Names assigned anywhere in the function, nested functions included. */
+        Set<String> assigned = new HashSet<String>();
+        /** Per slot, the last body statement declaring it, and the first capturing it. */
+        int[] lastDecl;
+        int[] firstCapture;
+        boolean[] boxed;
+        Map<Key,Integer> captureIndex = new HashMap<Key,Integer>();
+
+        Scope(FunctionInfo info, Scope outer, List<String> params) {
+            this.info = info;
+            this.outer = outer;
+            for (String p : params) {
+                paramSlots.add(info.slotOf(p));
+            }
+            lastDecl = new int[info.size()];
+            firstCapture = new int[info.size()];
+            Arrays.fill(lastDecl, -1);
+            Arrays.fill(firstCapture, Integer.MAX_VALUE);
+        }
+
+        /**
+         * A captured variable is copied by value if nothing can change it
+         * once captured: it is never assigned, and it is a parameter that
+         * is not also declared, or every declaration of it is in an earlier
+         * statement of the body than any closure capturing it.
+         */
+        void decideBoxes() {
+            boxed = new boolean[info.size()];
+            for (int slot = 0; slot < boxed.length; slot++) {
+                if (firstCapture[slot] == Integer.MAX_VALUE) continue;
+                boolean changes = paramSlots.contains(slot)
+                        ? lastDecl[slot] >= 0
+                        : lastDecl[slot] >= firstCapture[slot];
+                boxed[slot] = changes || assigned.contains(info.nameAt(slot));
+            }
+        }
+    }
+
+    /**
+     * A variable of a function, identified by the function's scope and slot.
+     */
+    private static class Key {
+        Scope home;
+        int slot;
+
+        Key(Scope home, int slot) {
+            this.home = home;
+            this.slot = slot;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).home == home && ((Key) o).slot == slot;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(home) * 31 + slot;
+        }
+    }
+
+    /**
+     * A variable that is certainly bound to one function once declared.
+     */
+    private static class Binding {
+        String name;
+        FunctionDeclExpr target;
+        Level level;
+        /** Whether the function captures nothing; assumed until shown otherwise. */
+        boolean closed = true;
+        /** Whether the variable is used other than by known calls. */
+        boolean escapes;
+        /** Whether the declaration's value is used, as the last statement. */
+        boolean last;
+        KnownFunction function;
+
+        Binding(String name, FunctionDeclExpr target, Level level, boolean last) {
+            this.name = name;
+            this.function = new KnownFunction(name);
+            this.target = target;
+            this.level = level;
+            this.last = last;
+        }
+
+        boolean lifted() {
+            return closed && !escapes && !last;
+        }
+    }
+
+    /**
+     * A function (or program) body being searched for known calls.
+     */
+    private static class Level {
+        Level outer;
+        Set<String> locals;
+        Map<String,Binding> bindings = new HashMap<String,Binding>();
+        /** The statement declaring each binding. */
+        Map<String,Integer> declStmts = new HashMap<String,Integer>();
+        /** The statement of the body being searched. */
+        int stmt;
+
+        Level(Level outer, Set<String> locals) {
+            this.outer = outer;
+            this.locals = locals;
+        }
+    }
+
+    /** The most nodes a function body can have and still be inlined. */
+    static final int INLINE_BUDGET = 20;
+    /** How deep inlined calls inside inlined bodies can be inlined in turn. */
+    static final int MAX_INLINE_DEPTH = 3;
+
+    /** Stands for a dropped declaration until its block is rebuilt. */
+    private static final Expression LIFTED = env -> null;
+
+    private Map<FunctionDeclExpr,Scope> scopes = new IdentityHashMap<FunctionDeclExpr,Scope>();
+    private Scope scope;
+    private FunctionInfo globals;
+    private boolean lift;
+    private Set<String> assignedNames = new HashSet<String>();
+    private Map<VarExpr,Binding> knownCalls = new IdentityHashMap<VarExpr,Binding>();
+    private Map<VarDeclExpr,Binding> bindingDecls = new IdentityHashMap<VarDeclExpr,Binding>();
+    private Map<FunctionDeclExpr,Binding> bindingTargets = new IdentityHashMap<FunctionDeclExpr,Binding>();
+    private List<FunctionDeclExpr> enclosing = new ArrayList<FunctionDeclExpr>();
+    private boolean inline;
+    private PrintStream report;
+    /** While inlining, the slots in the caller's frame of the function's variables. */
+    private Map<String,Integer> inlined;
+    private List<Binding> inlining = new ArrayList<Binding>();
+    private int inlinedCalls;
+
+    private ScopeResolver(Expression prog, FunctionInfo globals, boolean lift, boolean inline,
+            PrintStream report) {
+        this.globals = globals;
+        this.lift = lift || inline;
+        this.inline = inline;
+        this.report = report;
+        if (this.lift) {
+            collectAssigned(prog);
+            findKnownCalls(prog, null, globals == null ? Collections.<String>emptySet()
+                    : allNames(prog), Collections.<String>emptyList(), globals != null);
+        }
+        // Calls to a function that captures something still go through
+        // its closure, which may in turn make its callers capture it
+        boolean changed = true;
+        while (changed) {
+            scopes.clear();
+            scan(prog, null, 0);
+            changed = false;
+            for (Binding b : bindingDecls.values()) {
+                if (b.closed && !scopes.get(b.target).needs.isEmpty()) {
+                    b.closed = false;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Resolves a whole program.  Its globals get slots as well, in a frame
+     * created when the returned ProgramExpr runs.
+     */
+    static Expression resolve(Expression prog) {
+        return resolve(prog, true, true, null);
+    }
+
+    /**
+     * Resolves a whole program, choosing whether to lift and inline
+     * functions.  Inlining implies lifting.  Inlining decisions are
+     * printed to report, if it is not null.
+     */
+    static Expression resolve(Expression prog, boolean lift, boolean inline, PrintStream report) {
+        if (prog == null) return null;
+        FunctionInfo globals = new FunctionInfo(Collections.<String>emptyList(), allNames(prog));
+        ScopeResolver resolver = new ScopeResolver(prog, globals, lift, inline, report);
+        return new ProgramExpr(resolver.rewrite(prog), globals);
+    }
+
+    /**
+     * Resolves a statement that will run in a shared global Environment,
+     * as when streaming.  Globals are still looked up by name, since later
+     * statements may use names that this one does not.
+     */
+    static Expression resolveStatement(Expression stat) {
+        return resolveStatement(stat, null);
+    }
+
+    static Expression resolveStatement(Expression stat, PrintStream report) {
+        return new ScopeResolver(stat, null, true, true, report).rewrite(stat);
+    }
+
+    private void collectAssigned(Expression e) {
+        if (e instanceof AssignExpr) {
+            assignedNames.add(((AssignExpr) e).getName());
+        }
+        for (Expression child : AstSerializer.children(e)) {
+            if (child != null) collectAssigned(child);
+        }
+    }
+
+    private static List<Expression> statements(Expression body) {
+        if (body instanceof BlockExpr) return ((BlockExpr) body).getStatements();
+        return body == null ? Collections.<Expression>emptyList() : Collections.singletonList(body);
+    }
+
+    /**
+     * Finds the bindings of a body and the calls known to go to them.
+     * Global bindings are only found for a whole program.
+     */
+    private void findKnownCalls(Expression body, Level outer, Set<String> locals,
+            List<String> params, boolean bindable) {
+        Level level = new Level(outer, locals);
+        List<Expression> stmts = statements(body);
+        Map<String,Integer> declCounts = new HashMap<String,Integer>();
+        countDecls(body, declCounts);
+        for (int i = 0; bindable && i < stmts.size(); i++) {
+            VarDeclExpr decl = bindable(stmts.get(i), declCounts, params);
+            if (decl != null && decl.getInitializer() instanceof FunctionDeclExpr) {
+                Binding b = new Binding(decl.getName(), (FunctionDeclExpr) decl.getInitializer(),
+                        level, i == stmts.size() - 1);
+                level.bindings.put(b.name, b);
+                level.declStmts.put(b.name, i);
+                bindingDecls.put(decl, b);
+                bindingTargets.put(b.target, b);
+            }
+        }
+        for (int i = 0; i < stmts.size(); i++) {
+            level.stmt = i;
+            findKnownCalls(stmts.get(i), level);
+            // Another name for a known function, as in var head = fst;
+            VarDeclExpr decl = bindable ? bindable(stmts.get(i), declCounts, params) : null;
+            if (decl != null && decl.getInitializer() instanceof VarExpr) {
+                Binding b = knownBinding(level, ((VarExpr) decl.getInitializer()).getName());
+                if (b != null) {
+                    level.bindings.put(decl.getName(), b);
+                    level.declStmts.put(decl.getName(), i);
+                }
+            }
+        }
+    }
+
+    /**
+     * The statement as a declaration that could bind its variable for
+     * good, or null: it must be the only declaration of the variable in
+     * the body, and the variable never assigned.
+     */
+    private VarDeclExpr bindable(Expression stmt, Map<String,Integer> declCounts, List<String> params) {
+        if (!(stmt instanceof VarDeclExpr)) return null;
+        String name = ((VarDeclExpr) stmt).getName();
+        if (assignedNames.contains(name) || declCounts.get(name) != 1 || params.contains(name)) {
+            return null;
+        }
+        return (VarDeclExpr) stmt;
+    }
+
+    private static void countDecls(Expression e, Map<String,Integer> counts) {
+        if (e == null || e instanceof FunctionDeclExpr) return;
+        if (e instanceof VarDeclExpr) {
+            String name = ((VarDeclExpr) e).getName();
+            counts.put(name, counts.containsKey(name) ? counts.get(name) + 1 : 1);
+        }
+        for (Expression child : AstSerializer.children(e)) {
+            countDecls(child, counts);
+        }
+    }
+
+    private void findKnownCalls(Expression e, Level level) {
+        if (e == null) return;
+        if (e instanceof FunctionDeclExpr) {
+            FunctionDeclExpr f = (FunctionDeclExpr) e;
+            Set<String> locals = new HashSet<String>(f.getParams());
+            locals.addAll(FunctionInfo.declaredNames(f.getBody()));
+            enclosing.add(f);
+            findKnownCalls(f.getBody(), level, locals, f.getParams(), true);
+            enclosing.remove(enclosing.size() - 1);
+            return;
+        }
+        if (e instanceof FunctionAppExpr && ((FunctionAppExpr) e).getFunction() instanceof VarExpr) {
+            FunctionAppExpr app = (FunctionAppExpr) e;
+            VarExpr callee = (VarExpr) app.getFunction();
+            Binding b = knownBinding(level, callee.getName());
+            // Extra arguments must all be evaluated before the call fails
+            if (b != null && app.getArgs().size() <= b.target.getParams().size()) {
+                knownCalls.put(callee, b);
+            } else {
+                escape(level, callee.getName());
+            }
+            for (Expression arg : app.getArgs()) {
+                findKnownCalls(arg, level);
+            }
+            return;
+        }
+        if (e instanceof VarExpr) {
+            escape(level, ((VarExpr) e).getName());
+        } else if (e instanceof VarDeclExpr && !bindingDecls.containsKey(e)) {
+            // Looks further out if it declares a null value
+            escape(level, ((VarDeclExpr) e).getName());
+        }
+        for (Expression child : AstSerializer.children(e)) {
+            findKnownCalls(child, level);
+        }
+    }
+
+    /**
+     * The binding a call through the name certainly goes to, or null.
+     * It must be the innermost variable of that name, and already declared.
+     */
+    private Binding knownBinding(Level level, String name) {
+        for (Level l = level; l != null; l = l.outer) {
+            Binding b = l.bindings.get(name);
+            if (b != null) {
+                // The function's own name, used inside it
+                boolean inside = false;
+                for (FunctionDeclExpr f : enclosing) {
+                    inside |= f == b.target && b.level == l && b.name.equals(name);
+                }
+                return l.stmt > l.declStmts.get(name) || inside ? b : null;
+            }
+            if (l.locals.contains(name)) return null;
+        }
+        return null;
+    }
+
+    /**
+     * Notes that the value of every binding the name might reach is used.
+     */
+    private static void escape(Level level, String name) {
+        for (Level l = level; l != null; l = l.outer) {
+            Binding b = l.bindings.get(name);
+            if (b != null) b.escapes = true;
+        }
+    }
+
+    /**
+     * Works out the layout of a function's frame and what closures over
+     * it must capture, after doing the same for the functions inside it.
+     */
+    private Scope analyze(FunctionDeclExpr f, Scope outer) {
+        FunctionInfo info = new FunctionInfo(f.getParams(), FunctionInfo.declaredNames(f.getBody()));
+        Scope s = new Scope(info, outer, f.getParams());
+        s.decl = f;
+        scopes.put(f, s);
+        Expression body = f.getBody();
+        if (body instanceof BlockExpr) {
+            List<Expression> stmts = ((BlockExpr) body).getStatements();
+            for (int i = 0; i < stmts.size(); i++) {
+                scan(stmts.get(i), s, i);
+            }
+        } else {
+            scan(body, s, 0);
+        }
+        s.decideBoxes();
+        return s;
+    }
+
+    private void scan(Expression e, Scope s, int stmt) {
+        if (e == null) return;
+        if (e instanceof FunctionDeclExpr) {
+            Scope inner = analyze((FunctionDeclExpr) e, s);
+            for (Key k : inner.needs) {
+                if (k.home == s) {
+                    s.firstCapture[k.slot] = Math.min(s.firstCapture[k.slot], stmt);
+                } else {
+                    // Passed on through this function's own closures
+                    s.needs.add(k);
+                }
+            }
+            return;
+        }
+        if (e instanceof VarExpr) {
+            Binding b = knownCalls.get(e);
+            // A direct call to a function capturing nothing needs no closure
+            if (b == null || !b.closed) use(s, ((VarExpr) e).getName());
+        } else if (e instanceof AssignExpr) {
+            String name = ((AssignExpr) e).getName();
+            use(s, name);
+            for (Scope t = s; t != null; t = t.outer) {
+                t.assigned.add(name);
+            }
+        } else if (e instanceof VarDeclExpr && s != null) {
+            String name = ((VarDeclExpr) e).getName();
+            use(s, name);
+            s.lastDecl[s.info.slotOf(name)] = stmt;
+        }
+        for (Expression child : AstSerializer.children(e)) {
+            scan(child, s, stmt);
+        }
+    }
+
+    /**
+     * Notes that a function mentions the name, so it needs every variable
+     * of that name in the functions around it.
+     */
+    private static void use(Scope s, String name) {
+        if (s == null) return;
+        for (Scope e = s.outer; e != null; e = e.outer) {
+            int slot = e.info.slotOf(name);
+            if (slot >= 0) s.needs.add(new Key(e, slot));
+        }
+    }
+
+    /**
+     * Every name the program mentions, in order of first mention.
+     */
+    private static Set<String> allNames(Expression prog) {
+        Set<String> names = new LinkedHashSet<String>();
+        collectNames(prog, names);
+        return names;
+    }
+
+    private static void collectNames(Expression e, Set<String> names) {
+        if (e instanceof VarExpr) {
+            names.add(((VarExpr) e).getName());
+        } else if (e instanceof AssignExpr) {
+            names.add(((AssignExpr) e).getName());
+        } else if (e instanceof VarDeclExpr) {
+            names.add(((VarDeclExpr) e).getName());
+        } else if (e instanceof FunctionDeclExpr) {
+            names.addAll(((FunctionDeclExpr) e).getParams());
+        }
+        for (Expression child : AstSerializer.children(e)) {
+            if (child != null) collectNames(child, names);
+        }
+    }
+
+    /**
+     * A reference to the name from the current scope, or null if it can
+     * only be looked up by name in the current environment.
+     */
+    private VarRef ref(String name) {
+        if (inlined != null) return inlinedRef(name);
+        if (scope == null) {
+            if (globals == null) return null;
+            return new VarRef(name, new int[] {VarRef.GLOBAL},
+                    new int[] {globals.slotOf(name)}, 0, 1);
+        }
+        List<Integer> kinds = new ArrayList<Integer>();
+        List<Integer> indexes = new ArrayList<Integer>();
+        int slot = scope.info.slotOf(name);
+        if (slot >= 0) {
+            kinds.add(scope.boxed[slot] ? VarRef.LOCAL_BOX : VarRef.LOCAL);
+            indexes.add(slot);
+        }
+        for (Scope e = scope.outer; e != null; e = e.outer) {
+            slot = e.info.slotOf(name);
+            if (slot >= 0) {
+                kinds.add(e.boxed[slot] ? VarRef.CAPTURED_BOX : VarRef.CAPTURED);
+                indexes.add(scope.captureIndex.get(new Key(e, slot)));
+            }
+        }
+        if (globals != null) {
+            kinds.add(VarRef.GLOBAL);
+            indexes.add(globals.slotOf(name));
+        }
+        // A function frame's outer environment is the global one, which for
+        // a whole program is a frame in the environment it was run in
+        return new VarRef(name, toArray(kinds), toArray(indexes), 1, globals != null ? 2 : 1);
+    }
+
+    /**
+     * A reference from an inlined body, which resolves as it would in the
+     * function: to the function's own variable, now in the caller's frame,
+     * or else a global.
+     */
+    private VarRef inlinedRef(String name) {
+        List<Integer> kinds = new ArrayList<Integer>();
+        List<Integer> indexes = new ArrayList<Integer>();
+        Integer slot = inlined.get(name);
+        if (slot != null) {
+            kinds.add(VarRef.LOCAL);
+            indexes.add(slot);
+        }
+        if (globals != null) {
+            kinds.add(VarRef.GLOBAL);
+            indexes.add(globals.slotOf(name));
+        }
+        int globalHops = scope == null ? 0 : 1;
+        return new VarRef(name, toArray(kinds), toArray(indexes), globalHops,
+                globals != null ? globalHops + 1 : 1);
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] a = new int[list.size()];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = list.get(i);
+        }
+        return a;
+    }
+
+    @Override
+    Expression rewriteVar(VarExpr e) {
+        VarRef ref = ref(e.getName());
+        return ref == null ? e : new ResolvedVarExpr(ref);
+    }
+
+    @Override
+    Expression rewriteAssign(AssignExpr e) {
+        Expression exp = rewrite(e.getExpression());
+        VarRef ref = ref(e.getName());
+        if (ref == null) {
+            return exp == e.getExpression() ? e : new AssignExpr(e.getName(), exp);
+        }
+        return new ResolvedAssignExpr(ref, exp);
+    }
+
+    @Override
+    Expression rewriteBlock(BlockExpr e) {
+        Expression block = super.rewriteBlock(e);
+        if (block == e) return e;
+        List<Expression> stmts = new ArrayList<Expression>(((BlockExpr) block).getStatements());
+        stmts.removeAll(Collections.singleton(LIFTED));
+        return stmts.size() == 1 ? stmts.get(0) : new BlockExpr(stmts);
+    }
+
+    @Override
+    Expression rewriteFunctionApp(FunctionAppExpr e) {
+        Binding b = knownCalls.get(e.getFunction());
+        if (b == null || !b.closed) return super.rewriteFunctionApp(e);
+        List<Expression> args = rewriteAll(e.getArgs());
+        args = args == null ? e.getArgs() : args;
+        String reason = inline ? whyNotInline(b, args) : "inlining is off";
+        if (report != null && inline) {
+            String caller = callerName();
+            if (reason == null) {
+                report.println("inlined " + b.name + " into " + caller
+                        + " (" + size(b.target.getBody()) + " nodes)");
+            } else {
+                report.println("did not inline " + b.name + " into " + caller + ": " + reason);
+            }
+        }
+        if (reason == null) return inlineCall(b, args);
+        return new DirectCallExpr(b.function, args, scope == null);
+    }
+
+    /**
+     * Why a known call cannot be inlined here, or null if it can.
+     */
+    private String whyNotInline(Binding b, List<Expression> args) {
+        FunctionDeclExpr f = b.target;
+        if (scope == null && globals == null) return "no frame to inline into";
+        if (f.getBody() == null) return "empty body";
+        if (args.size() != f.getParams().size()) return "missing arguments";
+        if (new HashSet<String>(f.getParams()).size() != f.getParams().size()) {
+            return "repeated parameter";
+        }
+        if (inlining.contains(b) || callsBinding(f.getBody(), b)) return "recursive";
+        if (containsFunction(f.getBody())) return "defines functions";
+        int size = size(f.getBody());
+        if (size > INLINE_BUDGET) return "too large (" + size + " nodes)";
+        if (inlining.size() >= MAX_INLINE_DEPTH) return "inlined too deep";
+        return null;
+    }
+
+    private boolean callsBinding(Expression e, Binding b) {
+        if (e == null) return false;
+        if (knownCalls.get(e) == b) return true;
+        for (Expression child : AstSerializer.children(e)) {
+            if (callsBinding(child, b)) return true;
+        }
+        return false;
+    }
+
+    private static boolean containsFunction(Expression e) {
+        if (e == null) return false;
+        if (e instanceof FunctionDeclExpr) return true;
+        for (Expression child : AstSerializer.children(e)) {
+            if (containsFunction(child)) return true;
+        }
+        return false;
+    }
+
+    private static int size(Expression e) {
+        if (e == null) return 0;
+        int n = 1;
+        for (Expression child : AstSerializer.children(e)) {
+            n += size(child);
+        }
+        return n;
+    }
+
+    private String callerName() {
+        if (!inlining.isEmpty()) return inlining.get(inlining.size() - 1).name;
+        if (scope == null) return "the program";
+        Binding b = bindingTargets.get(scope.decl);
+        return b != null ? b.name : "a function";
+    }
+
+    /**
+     * Gives the function's variables slots in the current frame, and
+     * resolves its body against them.
+     */
+    private Expression inlineCall(Binding b, List<Expression> args) {
+        FunctionInfo host = scope != null ? scope.info : globals;
+        FunctionInfo callee = scopes.get(b.target).info;
+        int n = ++inlinedCalls;
+        int[] slots = new int[callee.size()];
+        Map<String,Integer> names = new HashMap<String,Integer>();
+        for (int i = 0; i < slots.length; i++) {
+            // Not a name the source could use
+            slots[i] = host.addSlot(callee.nameAt(i) + "#" + n);
+            names.put(callee.nameAt(i), slots[i]);
+        }
+        int[] paramSlots = new int[args.size()];
+        for (int i = 0; i < paramSlots.length; i++) {
+            paramSlots[i] = slots[callee.paramSlot(i)];
+        }
+        Map<String,Integer> outer = inlined;
+        inlined = names;
+        inlining.add(b);
+        try {
+            return new InlinedCallExpr(slots, paramSlots, args, rewrite(b.target.getBody()));
+        } finally {
+            inlined = outer;
+            inlining.remove(inlining.size() - 1);
+        }
+    }
+
+    @Override
+    Expression rewriteVarDecl(VarDeclExpr e) {
+        Binding b = bindingDecls.get(e);
+        if (b != null && b.lifted()) {
+            rewrite(b.target);
+            return LIFTED;
+        }
+        Expression init = rewrite(e.getInitializer());
+        if (inlined != null) {
+            return new ResolvedVarDeclExpr(ref(e.getName()), inlined.get(e.getName()), init);
+        }
+        FunctionInfo frame = scope != null ? scope.info : globals;
+        if (frame == null) {
+            return init == e.getInitializer() ? e : new VarDeclExpr(e.getName(), init);
+        }
+        return new ResolvedVarDeclExpr(ref(e.getName()), frame.slotOf(e.getName()), init);
+    }
+
+    @Override
+    Expression rewriteFunctionDecl(FunctionDeclExpr e) {
+        Scope s = scopes.get(e);
+        layOutCaptures(s);
+        scope = s;
+        try {
+            Expression body = rewrite(e.getBody());
+            Binding b = bindingTargets.get(e);
+            if (b != null && b.closed) b.function.define(e.getParams(), s.info, body);
+            return new FunctionDeclExpr(e.getParams(), body, s.info);
+        } finally {
+            scope = s.outer;
+        }
+    }
+
+    /**
+     * Numbers the variables a function captures, values and boxes
+     * separately, and says where in the creating frame each comes from.
+     */
+    private static void layOutCaptures(Scope s) {
+        List<Integer> valueSources = new ArrayList<Integer>();
+        List<Integer> boxSources = new ArrayList<Integer>();
+        for (Key k : s.needs) {
+            int src = k.home == s.outer ? k.slot : -1 - s.outer.captureIndex.get(k);
+            List<Integer> sources = k.home.boxed[k.slot] ? boxSources : valueSources;
+            s.captureIndex.put(k, sources.size());
+            sources.add(src);
+        }
+        List<Integer> boxedSlots = new ArrayList<Integer>();
+        for (int slot = 0; slot < s.boxed.length; slot++) {
+            if (s.boxed[slot]) boxedSlots.add(slot);
+        }
+        s.info.setBoxedSlots(toArray(boxedSlots));
+        s.info.setCaptures(toArray(valueSources), toArray(boxSources), s.outer == null);
+    }
+}
@@ -0,0 +1,443 @@
+package edu.sjsu.fwjs;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An in-memory cache of built expression trees, keyed by a hash of the
+ * script source.  On a hit the script can be evaluated against a fresh
+ * environment without running ANTLR at all.
+ * The least recently used entry is evicted once the cache is full.
+ *
+ * Trees are optimized before they are cached in memory, by a PassManager
+ * running the passes chosen with setPasses: ConstantFolder, ScopeResolver,
+ * TailCalls and Superinstructions, and HotFunctions for the jit pass.
+ * The disk cache holds trees as the front end built them, so that turning
+ * optimization on or off never leaves stale trees behind.
+ *
+ * An optional on-disk AstCache is consulted on a miss before parsing.
+ * The ANTLR parser is only created when a script actually has to be
+ * parsed with it, so a run served from the disk cache, or parsed by
+ * RecursiveDescentParser, never loads the ANTLR classes.
+ */
+public class ScriptCache {
+    /** The optimization passes, in the order they run. */
+    public static final List<String> STANDARD_PASSES = Collections.unmodifiableList(
+            Arrays.asList("fold", "resolve", "tail-calls", "fuse"));
+    /** Every pass, in the order they run: the standard ones, then jit. */
+    public static final List<String> ALL_PASSES = Collections.unmodifiableList(
+            Arrays.asList("fold", "resolve", "tail-calls", "fuse", "jit"));
+
+    private ParseMode parseMode;
+    private BuildMode buildMode = BuildMode.DIRECT;
+    private FrontEnd frontEnd = FrontEnd.ANTLR;
+    private boolean optimize = true;
+    private PrintStream inlineReport;
+    private PassManager passes;
+    private PassManager statementPasses;
+    private boolean verifyPasses;
+    private PrintStream passDump;
+    private boolean passStats;
+    private volatile int jitThreshold = HotFunctions.DEFAULT_THRESHOLD;
+    private volatile int jitLoopThreshold = FunctionProfile.DEFAULT_LOOP_THRESHOLD;
+    private volatile PrintStream jitLog;
+    private final Specializations specializations = new Specializations();
+    private volatile boolean inlineCaches = true;
+    private volatile boolean inlineCacheProfiling;
+    private ScriptParser parser;
+    private AstCache diskCache;
+    private int capacity;
+    private Map<String,Entry> entries;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public ScriptCache(ParseMode parseMode, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("cache capacity must be positive");
+        }
+        this.parseMode = parseMode;
+        this.capacity = capacity;
+        setPasses(STANDARD_PASSES);
+        // Access order makes the eldest entry the least recently used one
+        this.entries = new LinkedHashMap<String,Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,Entry> eldest) {
+                if (size() > ScriptCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Chooses how the parser builds expression trees.
+     * Must be called before the first script is parsed.
+     */
+    public void setBuildMode(BuildMode buildMode) {
+        this.buildMode = buildMode;
+    }
+
+    /**
+     * Chooses the parser used on a miss.
+     */
+    public void setFrontEnd(FrontEnd frontEnd) {
+        this.frontEnd = frontEnd;
+    }
+
+    /**
+     * Turns optimization of compiled trees on or off.
+     */
+    public void setOptimize(boolean optimize) {
+        this.optimize = optimize;
+    }
+
+    public boolean isOptimizing() {
+        return optimize;
+    }
+
+    /**
+     * Where to print the inliner's decisions, or null not to.
+     */
+    public void setInlineReport(PrintStream inlineReport) {
+        this.inlineReport = inlineReport;
+    }
+
+    public PrintStream getInlineReport() {
+        return inlineReport;
+    }
+
+    /**
+     * Chooses which of ALL_PASSES optimization runs.  They always run in
+     * the same order.
+     */
+    public void setPasses(List<String> names) {
+        for (String name : names) {
+            if (!ALL_PASSES.contains(name)) {
+                throw new IllegalArgumentException("Unknown pass: " + name);
+            }
+        }
+        passes = buildPasses(names, false);
+        statementPasses = buildPasses(names, true);
+    }
+
+    /**
+     * How many times the jit pass lets a function run before compiling it.
+     */
+    public void setJitThreshold(int jitThreshold) {
+        this.jitThreshold = jitThreshold;
+    }
+
+    /**
+     * How many iterations of its loops make the jit pass compile a
+     * function.
+     */
+    public void setJitLoopThreshold(int jitLoopThreshold) {
+        this.jitLoopThreshold = jitLoopThreshold;
+    }
+
+    /**
+     * Where functions compiled by the jit pass log moving between the tree
+     * walker and compiled code, or null for nowhere.
+     */
+    public void setJitLog(PrintStream jitLog) {
+        this.jitLog = jitLog;
+    }
+
+    /**
+     * Turns the tree walker's specializing (see Specializations) on or off
+     * for the trees built from now on.
+     */
+    public void setSpecialize(boolean specialize) {
+        specializations.setEnabled(specialize);
+    }
+
+    /**
+     * The specialization settings, and profile, of this cache's trees.
+     */
+    Specializations getSpecializations() {
+        return specializations;
+    }
+
+    /**
+     * Turns the tree walker's inline caches (see InlineCache) on or off
+     * for the trees built from now on.
+     */
+    public void setInlineCaches(boolean inlineCaches) {
+        this.inlineCaches = inlineCaches;
+    }
+
+    /**
+     * Turns listing the call sites that run, for callSiteReport, on or off
+     * for the trees built from now on.
+     */
+    public void setInlineCacheProfiling(boolean inlineCacheProfiling) {
+        this.inlineCacheProfiling = inlineCacheProfiling;
+    }
+
+    /**
+     * Call sites following this cache's switches, for a tree to install
+     * them in.
+     */
+    InlineCache.Sites newCallSites() {
+        return new InlineCache.Sites(inlineCaches, inlineCacheProfiling);
+    }
+
+    /**
+     * Turns checking the tree after each pass with TreeVerifier on or off.
+     */
+    public void setVerifyPasses(boolean verifyPasses) {
+        this.verifyPasses = verifyPasses;
+        passes.setVerify(verifyPasses);
+        statementPasses.setVerify(verifyPasses);
+    }
+
+    /**
+     * Where to print the tree before and after each pass, or null not to.
+     */
+    public void setPassDump(PrintStream passDump) {
+        this.passDump = passDump;
+        passes.setDump(passDump);
+        statementPasses.setDump(passDump);
+    }
+
+    /**
+     * Turns counting the nodes each pass leaves, for the passes' statistics,
+     * on or off.
+     */
+    public void setPassStats(boolean passStats) {
+        this.passStats = passStats;
+        passes.setCountNodes(passStats);
+        statementPasses.setCountNodes(passStats);
+    }
+
+    /**
+     * The passes that optimize whole scripts.
+     */
+    PassManager getPasses() {
+        return passes;
+    }
+
+    /**
+     * The passes that optimize a streamed script statement by statement.
+     * Each statement is optimized on its own, which is safe as constants
+     * are only propagated within a function body, and globals stay in the
+     * ordinary global environment.
+     */
+    PassManager getStatementPasses() {
+        return statementPasses;
+    }
+
+    private PassManager buildPasses(List<String> names, final boolean statements) {
+        PassManager pm = new PassManager();
+        pm.setVerify(verifyPasses);
+        pm.setDump(passDump);
+        pm.setCountNodes(passStats);
+        if (names.contains("fold")) {
+            pm.add("fold", ConstantFolder::fold);
+        }
+        if (names.contains("resolve")) {
+            pm.add("resolve", prog -> statements
+                    ? ScopeResolver.resolveStatement(prog, inlineReport)
+                    : ScopeResolver.resolve(prog, true, true, inlineReport));
+        }
+        if (names.contains("tail-calls")) {
+            pm.add("tail-calls", TailCalls::mark);
+        }
+        if (names.contains("fuse")) {
+            pm.add("fuse", Superinstructions::fuse);
+        }
+        if (names.contains("jit")) {
+            pm.add("jit", prog -> HotFunctions.wrap(prog, jitThreshold, jitLoopThreshold, jitLog));
+        }
+        return pm;
+    }
+
+    public void setDiskCache(AstCache diskCache) {
+        this.diskCache = diskCache;
+    }
+
+    public AstCache getDiskCache() {
+        return diskCache;
+    }
+
+    /**
+     * The parser used on a miss, created on first use.
+     */
+    public synchronized ScriptParser getParser() {
+        if (parser == null) {
+            parser = new ScriptParser(parseMode, buildMode);
+        }
+        return parser;
+    }
+
+    /**
+     * True if the parser has been needed so far.
+     */
+    public synchronized boolean hasParser() {
+        return parser != null;
+    }
+
+    /**
+     * A cached tree, along with what the evaluators have compiled from it,
+     * so that both are dropped together when the tree is evicted.
+     */
+    static final class Entry {
+        final Expression prog;
+        /** The tree compiled by ClosureCompiler, once it has been run that way. */
+        volatile Expression closures;
+        /** The VM holding the tree's bytecode, once it has been run that way. */
+        volatile BytecodeVM vm;
+        /** The tree's call sites, as listed for callSiteReport. */
+        final InlineCache.Sites sites;
+
+        Entry(Expression prog, InlineCache.Sites sites) {
+            this.prog = prog;
+            this.sites = sites;
+        }
+    }
+
+    /**
+     * Returns the expression tree for the source, parsing and building it
+     * only if it is not already cached.
+     */
+    public Expression compile(String source) {
+        return compile(source, new SyntaxErrorReporter(null));
+    }
+
+    /**
+     * As compile(source), reporting syntax errors to the given reporter.
+     * Safe to call from several threads at once.
+     */
+    Expression compile(String source, SyntaxErrorReporter errors) {
+        Entry entry = lookup(source, errors);
+        return entry == null ? null : entry.prog;
+    }
+
+    /**
+     * As compile(source), but returns the cache entry for the tree, or null
+     * if there is no tree.  A tree with syntax errors gets an entry of its
+     * own that is not cached.
+     */
+    Entry lookup(String source, SyntaxErrorReporter errors) {
+        String key = hash(source);
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hits++;
+                return entry;
+            }
+            misses++;
+        }
+        // Load or parse outside of the lock; at worst two threads build the same script.
+        Expression prog = null;
+        if (diskCache != null) {
+            prog = diskCache.load(key);
+        }
+        if (prog == null && frontEnd == FrontEnd.RECURSIVE_DESCENT) {
+            // Syntax errors are thrown, so whatever comes back can be cached
+            prog = RecursiveDescentParser.compile(source);
+            store(key, prog);
+        } else if (prog == null) {
+            prog = getParser().compile(source, errors);
+            if (errors.getCount() > 0) {
+                // Keep reporting the errors on every run rather than caching a broken tree
+                if (prog == null) return null;
+                return newEntry(prog);
+            }
+            store(key, prog);
+        }
+        if (prog == null) return null;
+        if (optimize) {
+            prog = passes.run(prog);
+        }
+        Entry entry = newEntry(prog);
+        synchronized (this) {
+            entries.put(key, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * An entry for the tree, with this cache's settings installed in it.
+     */
+    private Entry newEntry(Expression prog) {
+        specializations.install(prog);
+        InlineCache.Sites sites = newCallSites();
+        sites.install(prog);
+        return new Entry(prog, sites);
+    }
+
+    private void store(String key, Expression prog) {
+        if (prog != null && diskCache != null) {
+            try {
+                diskCache.store(key, prog);
+            } catch (IOException e) {
+                System.err.println("Could not write compiled script: " + e);
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized String statsReport() {
+        return String.format("script-cache size=%d/%d hits=%d misses=%d evictions=%d",
+                entries.size(), capacity, hits, misses, evictions);
+    }
+
+    /**
+     * One line per call site that has run in a cached tree, if profiling
+     * was on when the tree was built; see InlineCache.
+     */
+    public synchronized String callSiteReport() {
+        StringBuilder sb = new StringBuilder();
+        int number = 0;
+        for (Entry entry : entries.values()) {
+            number = entry.sites.report(sb, number);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The SHA-256 of the source text, as a hex string.
+     */
+    public static String hash(String source) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] digest = md.digest(source.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM is required to support SHA-256
+            throw new RuntimeException(e);
+        }
+    }
+}
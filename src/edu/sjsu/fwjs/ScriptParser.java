@@ -0,0 +1,297 @@
+package edu.sjsu.fwjs;
+
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import edu.sjsu.fwjs.parser.FeatherweightJavaScriptParser.StatContext;
+
+import edu.sjsu.fwjs.parser.FeatherweightJavaScriptLexer;
+import edu.sjsu.fwjs.parser.FeatherweightJavaScriptParser;
+
+/**
+ * Runs the ANTLR front end in one of the supported parse modes,
+ * and keeps statistics on how the parses went.
+ * By default, expressions are built directly during the parse (see
+ * DirectAstBuilder) rather than from a parse tree.
+ */
+public class ScriptParser {
+    private ParseMode mode;
+    private BuildMode buildMode;
+
+    private AtomicLong parses = new AtomicLong();
+    private AtomicLong sllSuccesses = new AtomicLong();
+    private AtomicLong llFallbacks = new AtomicLong();
+    private AtomicLong syntaxErrors = new AtomicLong();
+    private AtomicLong sllNanos = new AtomicLong();
+    private AtomicLong llNanos = new AtomicLong();
+
+    public ScriptParser(ParseMode mode) {
+        this(mode, BuildMode.DIRECT);
+    }
+
+    public ScriptParser(ParseMode mode, BuildMode buildMode) {
+        this.mode = mode;
+        this.buildMode = buildMode;
+    }
+
+    public ParseMode getMode() {
+        return mode;
+    }
+
+    public BuildMode getBuildMode() {
+        return buildMode;
+    }
+
+    /**
+     * Parses a whole program and builds its expression tree.
+     */
+    public Expression compile(String source) {
+        return compile(source, ConsoleErrorListener.INSTANCE);
+    }
+
+    /**
+     * Parses a whole program and builds its expression tree, reporting
+     * syntax errors to the given reporter.
+     */
+    Expression compile(String source, final SyntaxErrorReporter errors) {
+        return compile(source, new BaseErrorListener() {
+            @Override
+            public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol,
+                    int line, int charPositionInLine, String msg, RecognitionException e) {
+                errors.syntaxError(line, charPositionInLine, msg);
+            }
+        });
+    }
+
+    /**
+     * Parses a whole program and builds its expression tree, reporting
+     * syntax errors to the given listener instead of the console.
+     * Parsers are not shared between calls, so compiles may run concurrently.
+     */
+    public Expression compile(String source, ANTLRErrorListener errors) {
+        if (buildMode == BuildMode.VISITOR) {
+            ParseTree tree = parse(newParser(new ANTLRInputStream(source), errors), null, errors);
+            return new ExpressionBuilderVisitor().visit(tree);
+        }
+
+        DirectAstBuilder builder = new DirectAstBuilder();
+        FeatherweightJavaScriptParser parser = newParser(new ANTLRInputStream(source), errors);
+        parser.setBuildParseTree(false);
+        parser.addParseListener(builder);
+        parse(parser, builder, errors);
+        if (parser.getNumberOfSyntaxErrors() == 0) {
+            return builder.getResult();
+        }
+
+        // Error recovery can leave the builder's stack in any state.  The errors
+        // have been reported already, so quietly build the recovered tree instead.
+        parser = newParser(new ANTLRInputStream(source), errors);
+        parser.removeErrorListeners();
+        return new ExpressionBuilderVisitor().visit(parser.prog());
+    }
+
+    /**
+     * Parses a whole program, returning the tree for the prog rule.
+     */
+    public ParseTree parse(CharStream input) {
+        return parse(newParser(input, ConsoleErrorListener.INSTANCE), null,
+                ConsoleErrorListener.INSTANCE);
+    }
+
+    private FeatherweightJavaScriptParser newParser(CharStream input, ANTLRErrorListener errors) {
+        FeatherweightJavaScriptLexer lexer = new FeatherweightJavaScriptLexer(input);
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(errors);
+        CommonTokenStream tokens = new CommonTokenStream(lexer);
+        FeatherweightJavaScriptParser parser = new FeatherweightJavaScriptParser(tokens);
+        parser.removeErrorListeners();
+        parser.addErrorListener(errors);
+        return parser;
+    }
+
+    /**
+     * Runs the prog rule in the configured mode.  If a builder is listening,
+     * it is reset when SLL fails and the input is parsed again.
+     */
+    private ParseTree parse(FeatherweightJavaScriptParser parser, DirectAstBuilder builder,
+            ANTLRErrorListener errors) {
+        parses.incrementAndGet();
+
+        if (mode == ParseMode.LL) {
+            return parseLL(parser);
+        } else if (mode == ParseMode.SLL) {
+            long start = System.nanoTime();
+            parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+            ParseTree tree = parser.prog();
+            sllNanos.addAndGet(System.nanoTime() - start);
+            syntaxErrors.addAndGet(parser.getNumberOfSyntaxErrors());
+            if (parser.getNumberOfSyntaxErrors() == 0) sllSuccesses.incrementAndGet();
+            return tree;
+        }
+
+        // Two-stage parsing: SLL first, silently bailing out on the first error
+        long start = System.nanoTime();
+        parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+        parser.removeErrorListeners();
+        parser.setErrorHandler(new BailErrorStrategy());
+        try {
+            ParseTree tree = parser.prog();
+            sllNanos.addAndGet(System.nanoTime() - start);
+            sllSuccesses.incrementAndGet();
+            return tree;
+        } catch (ParseCancellationException e) {
+            sllNanos.addAndGet(System.nanoTime() - start);
+        }
+
+        // SLL failed, so either the input has a real syntax error or it needs
+        // full LL.  Rewind and try again with normal error reporting.
+        llFallbacks.incrementAndGet();
+        parser.reset();
+        if (builder != null) builder.reset();
+        parser.addErrorListener(errors);
+        parser.setErrorHandler(new DefaultErrorStrategy());
+        return parseLL(parser);
+    }
+
+    /**
+     * Starts parsing a program one top-level statement at a time.
+     * Only the current statement is buffered, so memory use does not
+     * grow with the size of the input.
+     */
+    public StatementReader statements(InputStream in) {
+        return new StatementReader(in);
+    }
+
+    /**
+     * Reads top-level statements from unbuffered character and token streams.
+     * Each statement counts as one parse in the statistics.
+     */
+    public class StatementReader {
+        private UnbufferedTokenStream<Token> tokens;
+        private FeatherweightJavaScriptParser parser;
+        private ExpressionBuilderVisitor builder = new ExpressionBuilderVisitor();
+
+        private StatementReader(InputStream in) {
+            FeatherweightJavaScriptLexer lexer =
+                    new FeatherweightJavaScriptLexer(new UnbufferedCharStream(in));
+            // Tokens must keep their own text, since the characters are discarded
+            lexer.setTokenFactory(new CommonTokenFactory(true));
+            tokens = new UnbufferedTokenStream<Token>(lexer);
+            parser = new FeatherweightJavaScriptParser(tokens);
+        }
+
+        /**
+         * Parses and builds the next statement, or returns null at the end of input.
+         * Empty statements are skipped.
+         */
+        public Expression next() {
+            while (tokens.LA(1) != Token.EOF) {
+                int start = tokens.index();
+                // Hold a mark so that the statement's tokens stay buffered,
+                // both for SLL bail-out and for error messages.
+                int marker = tokens.mark();
+                StatContext stat;
+                try {
+                    stat = parseStat(start);
+                } finally {
+                    tokens.release(marker);
+                }
+                if (tokens.index() == start) {
+                    // Error recovery consumed nothing; skip a token to make progress.
+                    tokens.consume();
+                }
+                Expression exp = builder.visit(stat);
+                if (exp != null) return exp;
+            }
+            return null;
+        }
+
+        private StatContext parseStat(int start) {
+            parses.incrementAndGet();
+            if (mode == ParseMode.LL) {
+                return parseStatLL();
+            }
+            long begin = System.nanoTime();
+            parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+            if (mode == ParseMode.SLL) {
+                int errors = parser.getNumberOfSyntaxErrors();
+                StatContext stat = parser.stat();
+                sllNanos.addAndGet(System.nanoTime() - begin);
+                errors = parser.getNumberOfSyntaxErrors() - errors;
+                syntaxErrors.addAndGet(errors);
+                if (errors == 0) sllSuccesses.incrementAndGet();
+                return stat;
+            }
+
+            parser.removeErrorListeners();
+            parser.setErrorHandler(new BailErrorStrategy());
+            try {
+                StatContext stat = parser.stat();
+                sllNanos.addAndGet(System.nanoTime() - begin);
+                sllSuccesses.incrementAndGet();
+                return stat;
+            } catch (ParseCancellationException e) {
+                sllNanos.addAndGet(System.nanoTime() - begin);
+            } finally {
+                parser.addErrorListener(ConsoleErrorListener.INSTANCE);
+                parser.setErrorHandler(new DefaultErrorStrategy());
+            }
+            llFallbacks.incrementAndGet();
+            // Parser.reset would rewind to the start of the input, which an
+            // unbuffered stream can't do; only rewinding this statement is needed.
+            tokens.seek(start);
+            return parseStatLL();
+        }
+
+        private StatContext parseStatLL() {
+            long begin = System.nanoTime();
+            int errors = parser.getNumberOfSyntaxErrors();
+            parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+            StatContext stat = parser.stat();
+            llNanos.addAndGet(System.nanoTime() - begin);
+            syntaxErrors.addAndGet(parser.getNumberOfSyntaxErrors() - errors);
+            return stat;
+        }
+    }
+
+    private ParseTree parseLL(FeatherweightJavaScriptParser parser) {
+        long start = System.nanoTime();
+        parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+        ParseTree tree = parser.prog();
+        llNanos.addAndGet(System.nanoTime() - start);
+        syntaxErrors.addAndGet(parser.getNumberOfSyntaxErrors());
+        return tree;
+    }
+
+    public long getParseCount() {
+        return parses.get();
+    }
+
+    public long getSllSuccessCount() {
+        return sllSuccesses.get();
+    }
+
+    public long getLlFallbackCount() {
+        return llFallbacks.get();
+    }
+
+    public long getSyntaxErrorCount() {
+        return syntaxErrors.get();
+    }
+
+    /**
+     * A one-line summary of the parse statistics, suitable for stderr.
+     */
+    public String statsReport() {
+        return String.format("parse-mode=%s parses=%d sll-ok=%d ll-fallbacks=%d"
+                + " syntax-errors=%d sll-time=%.3fms ll-time=%.3fms",
+                mode.name().toLowerCase().replace('_', '-'),
+                parses.get(), sllSuccesses.get(), llFallbacks.get(), syntaxErrors.get(),
+                sllNanos.get() / 1e6, llNanos.get() / 1e6);
+    }
+}
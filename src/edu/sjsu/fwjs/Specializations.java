@@ -0,0 +1,105 @@
+package edu.sjsu.fwjs;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The specialized versions that BinOpExpr, IfExpr and WhileExpr nodes
+ * rewrite themselves to as the tree walker evaluates them, and a profile
+ * of which ones fired.
+ *
+ * The first time such a node is evaluated, it picks the version that fits
+ * the values it sees: integer arithmetic or comparison with the operator
+ * fixed, equality of booleans, or a branch on a boolean.  Each version is
+ * guarded by a type check, and when the guard fails the node falls back
+ * for good to the generic code, which handles (or rejects) any values.
+ *
+ * The profile counts nodes rather than evaluations, so keeping it costs
+ * nothing once the nodes have settled.
+ *
+ * Each ScriptCache has its own settings, which it installs in the trees
+ * it builds; nodes built any other way specialize without counting.
+ */
+class Specializations {
+    static final int UNINITIALIZED = 0;
+    static final int GENERIC = 1;
+    /** Integer operators, in the order of Op; INT_ADD + op.ordinal() is op's. */
+    static final int INT_ADD = 2;
+    static final int INT_SUBTRACT = 3;
+    static final int INT_MULTIPLY = 4;
+    static final int INT_DIVIDE = 5;
+    static final int INT_MOD = 6;
+    static final int INT_GT = 7;
+    static final int INT_GE = 8;
+    static final int INT_LT = 9;
+    static final int INT_LE = 10;
+    static final int INT_EQ = 11;
+    static final int BOOL_EQ = 12;
+    /** A condition that is a BoolVal. */
+    static final int BOOL = 13;
+
+    private static final String[] NAMES = {
+        "uninitialized", "generic", "int-add", "int-subtract", "int-multiply", "int-divide",
+        "int-mod", "int-gt", "int-ge", "int-lt", "int-le", "int-eq", "bool-eq", "bool",
+    };
+
+    private volatile boolean enabled = true;
+    private Map<String,Long> profile = new TreeMap<String,Long>();
+
+    /**
+     * Turns specializing on or off.  Nodes that have already specialized
+     * stay as they are; others go straight to the generic code.
+     */
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Makes the BinOpExpr, IfExpr and WhileExpr nodes of the tree, and of
+     * the bodies of the functions it calls directly, use these settings.
+     */
+    void install(Expression prog) {
+        PassManager.visit(prog, e -> {
+            if (e instanceof BinOpExpr) {
+                ((BinOpExpr) e).setSpecializations(this);
+            } else if (e instanceof IfExpr) {
+                ((IfExpr) e).setSpecializations(this);
+            } else if (e instanceof WhileExpr) {
+                ((WhileExpr) e).setSpecializations(this);
+            }
+        });
+    }
+
+    /**
+     * Notes that a node of the given kind went from one version to another,
+     * unless specializing is off.
+     */
+    synchronized void record(String node, int from, int to) {
+        if (!enabled) return;
+        String key = from == UNINITIALIZED ? node + " " + NAMES[to]
+                : node + " " + NAMES[from] + " -> " + NAMES[to];
+        Long n = profile.get(key);
+        profile.put(key, n == null ? 1 : n + 1);
+    }
+
+    /**
+     * One line per specialization, and per fallback, with the number of
+     * nodes it happened to.
+     */
+    synchronized String report() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String,Long> e : profile.entrySet()) {
+            if (sb.length() > 0) sb.append(String.format("%n"));
+            sb.append(String.format("specialized %-30s nodes=%d", e.getKey(), e.getValue()));
+        }
+        return sb.toString();
+    }
+
+    synchronized void reset() {
+        profile.clear();
+    }
+}
@@ -0,0 +1,149 @@
+package edu.sjsu.fwjs;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Fuses the shapes of tree that scripts are full of into single nodes
+ * (see FusedExpr), each of which does the whole job in one evaluate:
+ *
+ *   x = y + k and x = y - k, with k an integer (IncrementExpr),
+ *   a comparison of variables and constants, such as i < n in a while
+ *   condition or lst == null in an if (CompareExpr),
+ *   a call of a variable with one or two variables or constants as
+ *   arguments (VarCallExpr).
+ *
+ * It runs after the other standard passes, whose nodes it fuses too.
+ * How many nodes of each kind it has made is kept for report().
+ */
+class Superinstructions extends ExpressionRewriter {
+    private static Map<String,Long> profile = new TreeMap<String,Long>();
+
+    private Set<KnownFunction> fused =
+            Collections.newSetFromMap(new IdentityHashMap<KnownFunction,Boolean>());
+
+    private Superinstructions() {
+    }
+
+    /**
+     * Returns the program with the shapes fused.  The input tree is not
+     * modified, but the bodies of known functions are.
+     */
+    static Expression fuse(Expression prog) {
+        return new Superinstructions().rewrite(prog);
+    }
+
+    @Override
+    Expression rewriteAssign(AssignExpr e) {
+        Expression exp = e.getExpression();
+        if (isIncrement(exp) && ((BinOpExpr) exp).getLeft() instanceof VarExpr) {
+            BinOpExpr b = (BinOpExpr) exp;
+            record("increment");
+            return new IncrementExpr(((VarExpr) b.getLeft()).getName(), e.getName(), delta(b), e);
+        }
+        return super.rewriteAssign(e);
+    }
+
+    @Override
+    Expression rewriteResolvedAssign(ResolvedAssignExpr e) {
+        Expression exp = e.getExpression();
+        if (isIncrement(exp) && ((BinOpExpr) exp).getLeft() instanceof ResolvedVarExpr) {
+            BinOpExpr b = (BinOpExpr) exp;
+            record("increment");
+            return new ResolvedIncrementExpr(((ResolvedVarExpr) b.getLeft()).getRef(), e.getRef(),
+                    delta(b), e);
+        }
+        return super.rewriteResolvedAssign(e);
+    }
+
+    @Override
+    Expression rewriteBinOp(BinOpExpr e) {
+        Op op = e.getOp();
+        if (op != null && op.ordinal() >= Op.GT.ordinal() && isLeaf(e.getLeft())
+                && isLeaf(e.getRight())
+                && (isVariable(e.getLeft()) || isVariable(e.getRight()))) {
+            record("compare");
+            return new CompareExpr(op, e.getLeft(), e.getRight(), e);
+        }
+        return super.rewriteBinOp(e);
+    }
+
+    @Override
+    Expression rewriteFunctionApp(FunctionAppExpr e) {
+        List<Expression> args = e.getArgs();
+        if (isVariable(e.getFunction()) && (args.size() == 1 || args.size() == 2)
+                && isLeaf(args.get(0)) && isLeaf(args.get(args.size() - 1))) {
+            record("call");
+            return new VarCallExpr(e.getFunction(), args.get(0),
+                    args.size() == 2 ? args.get(1) : null, e);
+        }
+        return super.rewriteFunctionApp(e);
+    }
+
+    /**
+     * The bodies of functions called directly are fused once, wherever
+     * they are first called.
+     */
+    @Override
+    Expression rewriteDirectCall(DirectCallExpr e) {
+        KnownFunction f = e.getTarget();
+        if (fused.add(f) && f.getBody() != null) {
+            f.define(f.getParams(), f.getInfo(), rewrite(f.getBody()));
+        }
+        return super.rewriteDirectCall(e);
+    }
+
+    /**
+     * Whether e is y + k or y - k, with y a variable and k an integer.
+     */
+    private static boolean isIncrement(Expression e) {
+        if (!(e instanceof BinOpExpr)) return false;
+        BinOpExpr b = (BinOpExpr) e;
+        return (b.getOp() == Op.ADD || b.getOp() == Op.SUBTRACT)
+                && isVariable(b.getLeft())
+                && b.getRight() instanceof ValueExpr
+                && ((ValueExpr) b.getRight()).getValue() instanceof IntVal;
+    }
+
+    private static int delta(BinOpExpr b) {
+        int k = ((IntVal) ((ValueExpr) b.getRight()).getValue()).toInt();
+        // Wraps around just as subtracting does
+        return b.getOp() == Op.ADD ? k : -k;
+    }
+
+    private static boolean isVariable(Expression e) {
+        return e instanceof VarExpr || e instanceof ResolvedVarExpr;
+    }
+
+    /**
+     * Whether evaluating e can neither fail nor evaluate anything else.
+     */
+    private static boolean isLeaf(Expression e) {
+        return isVariable(e) || (e instanceof ValueExpr && ((ValueExpr) e).getValue() != null);
+    }
+
+    private static synchronized void record(String kind) {
+        Long n = profile.get(kind);
+        profile.put(kind, n == null ? 1 : n + 1);
+    }
+
+    /**
+     * One line per kind of fused node, with how many have been made.
+     */
+    static synchronized String report() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String,Long> e : profile.entrySet()) {
+            if (sb.length() > 0) sb.append(String.format("%n"));
+            sb.append(String.format("fused %-10s nodes=%d", e.getKey(), e.getValue()));
+        }
+        return sb.toString();
+    }
+
+    static synchronized void reset() {
+        profile.clear();
+    }
+}
@@ -0,0 +1,29 @@
+package edu.sjsu.fwjs;
+
+/**
+ * Prints syntax errors to stderr in the same form as ANTLR's console
+ * listener, optionally prefixed with the name of the script, and counts
+ * them.  One is used per compile, so the count is that script's alone
+ * even when several scripts are parsed at once.
+ *
+ * It is not an ANTLR listener itself (ScriptParser adapts it), so that
+ * making one does not load the ANTLR classes when no parse is needed.
+ */
+class SyntaxErrorReporter {
+    private String sourceName;
+    private int count;
+
+    SyntaxErrorReporter(String sourceName) {
+        this.sourceName = sourceName;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    void syntaxError(int line, int charPositionInLine, String msg) {
+        count++;
+        String prefix = sourceName == null ? "" : sourceName + ": ";
+        System.err.println(prefix + "line " + line + ":" + charPositionInLine + " " + msg);
+    }
+}
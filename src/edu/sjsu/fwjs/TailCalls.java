@@ -0,0 +1,84 @@
+package edu.sjsu.fwjs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Marks the calls in tail position of every function body, so that they
+ * run in constant Java stack: a function ending in a call returns the
+ * call, as a TailCall, and whoever called the function makes it.
+ *
+ * A call is in tail position if its value is the value of the function:
+ * it is the last statement of the body, the second half of a sequence
+ * in tail position, a branch of an if in tail position, or in tail
+ * position in the body of an inlined call that is itself in tail
+ * position.  Calls at the top level of a program are left alone, as
+ * there is no function to return to.
+ */
+class TailCalls extends ExpressionRewriter {
+    private Set<KnownFunction> marked =
+            Collections.newSetFromMap(new IdentityHashMap<KnownFunction,Boolean>());
+
+    /**
+     * Returns the program with its tail calls marked.  The input tree is
+     * not modified, but the bodies of known functions are.
+     */
+    static Expression mark(Expression prog) {
+        return new TailCalls().rewrite(prog);
+    }
+
+    @Override
+    Expression rewriteFunctionDecl(FunctionDeclExpr e) {
+        Expression body = tail(rewrite(e.getBody()));
+        return body == e.getBody() ? e : new FunctionDeclExpr(e.getParams(), body, e.getInfo());
+    }
+
+    @Override
+    Expression rewriteDirectCall(DirectCallExpr e) {
+        KnownFunction f = e.getTarget();
+        if (marked.add(f) && f.getBody() != null) {
+            f.define(f.getParams(), f.getInfo(), tail(rewrite(f.getBody())));
+        }
+        return super.rewriteDirectCall(e);
+    }
+
+    /**
+     * The expression, in tail position, with its tail calls marked.
+     */
+    private Expression tail(Expression e) {
+        if (e instanceof FunctionAppExpr) {
+            FunctionAppExpr app = (FunctionAppExpr) e;
+            return new TailCallExpr(app.getFunction(), app.getArgs());
+        } else if (e instanceof DirectCallExpr) {
+            DirectCallExpr call = (DirectCallExpr) e;
+            return new DirectCallExpr(call.getTarget(), call.getArgs(), call.isFromGlobal(), true);
+        } else if (e instanceof BlockExpr) {
+            List<Expression> stmts = ((BlockExpr) e).getStatements();
+            Expression last = stmts.get(stmts.size() - 1);
+            Expression marked = tail(last);
+            if (marked == last) return e;
+            List<Expression> copy = new ArrayList<Expression>(stmts);
+            copy.set(copy.size() - 1, marked);
+            return new BlockExpr(copy);
+        } else if (e instanceof SeqExpr) {
+            SeqExpr seq = (SeqExpr) e;
+            Expression second = tail(seq.getSecond());
+            return second == seq.getSecond() ? e : new SeqExpr(seq.getFirst(), second);
+        } else if (e instanceof IfExpr) {
+            IfExpr i = (IfExpr) e;
+            Expression thn = tail(i.getThen());
+            Expression els = tail(i.getElse());
+            if (thn == i.getThen() && els == i.getElse()) return e;
+            return new IfExpr(i.getCondition(), thn, els);
+        } else if (e instanceof InlinedCallExpr) {
+            InlinedCallExpr call = (InlinedCallExpr) e;
+            Expression body = tail(call.getBody());
+            if (body == call.getBody()) return e;
+            return new InlinedCallExpr(call.getSlots(), call.getParamSlots(), call.getArgs(), body);
+        }
+        return e;
+    }
+}
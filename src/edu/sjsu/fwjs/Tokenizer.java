@@ -0,0 +1,216 @@
+package edu.sjsu.fwjs;
+
+/**
+ * A hand-written lexer for FWJS, following the lexer rules in
+ * FeatherweightJavaScript.g4 (including their quirks, such as '|' being
+ * allowed in identifiers and "0123" lexing as 0 followed by 123).
+ *
+ * The whole input is tokenized up front into parallel arrays, which gives
+ * the parser unlimited lookahead without allocating a token object apiece.
+ */
+class Tokenizer {
+    // Token types
+    static final int EOF = 0;
+    static final int IF = 1;
+    static final int ELSE = 2;
+    static final int WHILE = 3;
+    static final int FUNCTION = 4;
+    static final int VAR = 5;
+    static final int PRINT = 6;
+    static final int INT = 7;
+    static final int TRUE = 8;
+    static final int FALSE = 9;
+    static final int NULL = 10;
+    static final int ID = 11;
+    static final int MUL = 12;
+    static final int DIV = 13;
+    static final int MOD = 14;
+    static final int ADD = 15;
+    static final int SUB = 16;
+    static final int LT = 17;
+    static final int LE = 18;
+    static final int GT = 19;
+    static final int GE = 20;
+    static final int EQ = 21;
+    static final int SET = 22;
+    static final int SEPARATOR = 23;
+    static final int ARGSEP = 24;
+    static final int LPAREN = 25;
+    static final int RPAREN = 26;
+    static final int LBRACE = 27;
+    static final int RBRACE = 28;
+
+    private static final String[] NAMES = {
+        "<EOF>", "'if'", "'else'", "'while'", "'function'", "'var'", "'print'",
+        "INT", "'true'", "'false'", "'null'", "ID", "'*'", "'/'", "'%'", "'+'", "'-'",
+        "'<'", "'<='", "'>'", "'>='", "'=='", "'='", "';'", "','", "'('", "')'", "'{'", "'}'"
+    };
+
+    private String src;
+    private int pos;
+    private int line = 1;
+    private int lineStart;
+
+    int count;
+    int[] types = new int[64];
+    int[] starts = new int[64];
+    int[] ends = new int[64];
+    int[] lines = new int[64];
+    int[] columns = new int[64];
+
+    Tokenizer(String src) {
+        this.src = src;
+        tokenize();
+    }
+
+    static String describe(int type) {
+        return NAMES[type];
+    }
+
+    String text(int i) {
+        return src.substring(starts[i], ends[i]);
+    }
+
+    private void tokenize() {
+        int n = src.length();
+        while (true) {
+            skipWhitespaceAndComments();
+            if (pos >= n) {
+                add(EOF, pos, pos);
+                return;
+            }
+            int start = pos;
+            char c = src.charAt(pos);
+            if (isIdStart(c)) {
+                pos++;
+                while (pos < n && isIdPart(src.charAt(pos))) pos++;
+                add(keyword(start, pos), start, pos);
+            } else if (c == '0') {
+                pos++;
+                add(INT, start, pos);
+            } else if (c >= '1' && c <= '9') {
+                pos++;
+                while (pos < n && src.charAt(pos) >= '0' && src.charAt(pos) <= '9') pos++;
+                add(INT, start, pos);
+            } else {
+                pos++;
+                char next = pos < n ? src.charAt(pos) : 0;
+                switch (c) {
+                case '*': add(MUL, start, pos); break;
+                case '/': add(DIV, start, pos); break;
+                case '%': add(MOD, start, pos); break;
+                case '+': add(ADD, start, pos); break;
+                case '-': add(SUB, start, pos); break;
+                case ';': add(SEPARATOR, start, pos); break;
+                case ',': add(ARGSEP, start, pos); break;
+                case '(': add(LPAREN, start, pos); break;
+                case ')': add(RPAREN, start, pos); break;
+                case '{': add(LBRACE, start, pos); break;
+                case '}': add(RBRACE, start, pos); break;
+                case '<':
+                    if (next == '=') add(LE, start, ++pos);
+                    else add(LT, start, pos);
+                    break;
+                case '>':
+                    if (next == '=') add(GE, start, ++pos);
+                    else add(GT, start, pos);
+                    break;
+                case '=':
+                    if (next == '=') add(EQ, start, ++pos);
+                    else add(SET, start, pos);
+                    break;
+                default:
+                    throw new ParseException(line, start - lineStart,
+                            "token recognition error at: '" + c + "'");
+                }
+            }
+        }
+    }
+
+    private void skipWhitespaceAndComments() {
+        int n = src.length();
+        while (pos < n) {
+            char c = src.charAt(pos);
+            if (c == ' ' || c == '\t') {
+                pos++;
+            } else if (c == '\n') {
+                newLine(++pos);
+            } else if (c == '\r' && pos + 1 < n && src.charAt(pos + 1) == '\n') {
+                pos += 2;
+                newLine(pos);
+            } else if (c == '/' && pos + 1 < n && src.charAt(pos + 1) == '/') {
+                while (pos < n && src.charAt(pos) != '\n' && src.charAt(pos) != '\r') pos++;
+            } else if (c == '/' && pos + 1 < n && src.charAt(pos + 1) == '*') {
+                int close = src.indexOf("*/", pos + 2);
+                if (close < 0) return; // not a comment after all; lexes as '/' '*'
+                for (int i = pos; i < close; i++) {
+                    if (src.charAt(i) == '\n') newLine(i + 1);
+                }
+                pos = close + 2;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void newLine(int start) {
+        line++;
+        lineStart = start;
+    }
+
+    private static boolean isIdStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == '|';
+    }
+
+    private static boolean isIdPart(char c) {
+        return isIdStart(c) || (c >= '0' && c <= '9');
+    }
+
+    private int keyword(int start, int end) {
+        switch (end - start) {
+        case 2:
+            if (src.startsWith("if", start)) return IF;
+            break;
+        case 3:
+            if (src.startsWith("var", start)) return VAR;
+            break;
+        case 4:
+            if (src.startsWith("else", start)) return ELSE;
+            if (src.startsWith("true", start)) return TRUE;
+            if (src.startsWith("null", start)) return NULL;
+            break;
+        case 5:
+            if (src.startsWith("while", start)) return WHILE;
+            if (src.startsWith("print", start)) return PRINT;
+            if (src.startsWith("false", start)) return FALSE;
+            break;
+        case 8:
+            if (src.startsWith("function", start)) return FUNCTION;
+            break;
+        }
+        return ID;
+    }
+
+    private void add(int type, int start, int end) {
+        if (count == types.length) {
+            int size = count * 2;
+            types = grow(types, size);
+            starts = grow(starts, size);
+            ends = grow(ends, size);
+            lines = grow(lines, size);
+            columns = grow(columns, size);
+        }
+        types[count] = type;
+        starts[count] = start;
+        ends[count] = end;
+        lines[count] = line;
+        columns[count] = start - lineStart;
+        count++;
+    }
+
+    private static int[] grow(int[] a, int size) {
+        int[] bigger = new int[size];
+        System.arraycopy(a, 0, bigger, 0, a.length);
+        return bigger;
+    }
+}
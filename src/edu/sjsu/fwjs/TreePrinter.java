@@ -0,0 +1,98 @@
+package edu.sjsu.fwjs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prints expression trees one node per line, children indented under
+ * their parent, for looking at what the optimization passes did.
+ *
+ * Functions that are called directly are numbered, and their bodies are
+ * printed after the tree, since lifting may have removed them from it.
+ */
+class TreePrinter {
+    private StringBuilder out = new StringBuilder();
+    private Map<KnownFunction,Integer> known = new IdentityHashMap<KnownFunction,Integer>();
+    private List<KnownFunction> order = new ArrayList<KnownFunction>();
+
+    static String print(Expression prog) {
+        TreePrinter p = new TreePrinter();
+        p.print(prog, 0);
+        // Printing a body can number more functions
+        for (int i = 0; i < p.order.size(); i++) {
+            KnownFunction f = p.order.get(i);
+            p.out.append("known #").append(i + 1).append(' ').append(f.getParams());
+            if (f.getInfo() != null) p.out.append(" frame=").append(frame(f.getInfo()));
+            p.out.append('\n');
+            p.print(f.getBody(), 1);
+        }
+        return p.out.toString();
+    }
+
+    private void print(Expression e, int depth) {
+        for (int i = 0; i < depth; i++) {
+            out.append("  ");
+        }
+        out.append(label(e)).append('\n');
+        if (e == null) return;
+        for (Expression child : PassManager.children(e)) {
+            print(child, depth + 1);
+        }
+    }
+
+    private String label(Expression e) {
+        if (e == null) {
+            return "-";
+        } else if (e instanceof ValueExpr) {
+            return "Value " + ((ValueExpr) e).getValue();
+        } else if (e instanceof VarExpr) {
+            return "Var " + ((VarExpr) e).getName();
+        } else if (e instanceof BinOpExpr) {
+            return "BinOp " + ((BinOpExpr) e).getOp();
+        } else if (e instanceof VarDeclExpr) {
+            return "VarDecl " + ((VarDeclExpr) e).getName();
+        } else if (e instanceof AssignExpr) {
+            return "Assign " + ((AssignExpr) e).getName();
+        } else if (e instanceof FunctionDeclExpr) {
+            FunctionDeclExpr f = (FunctionDeclExpr) e;
+            String s = "FunctionDecl " + f.getParams();
+            return f.getInfo() == null ? s : s + " frame=" + frame(f.getInfo());
+        } else if (e instanceof ResolvedVarExpr) {
+            return "ResolvedVar " + ((ResolvedVarExpr) e).getRef().getName();
+        } else if (e instanceof ResolvedAssignExpr) {
+            return "ResolvedAssign " + ((ResolvedAssignExpr) e).getRef().getName();
+        } else if (e instanceof ResolvedVarDeclExpr) {
+            ResolvedVarDeclExpr d = (ResolvedVarDeclExpr) e;
+            return "ResolvedVarDecl " + d.getRef().getName() + " slot=" + d.getSlot();
+        } else if (e instanceof DirectCallExpr) {
+            DirectCallExpr call = (DirectCallExpr) e;
+            Integer n = known.get(call.getTarget());
+            if (n == null) {
+                order.add(call.getTarget());
+                n = order.size();
+                known.put(call.getTarget(), n);
+            }
+            return "DirectCall #" + n + (call.isFromGlobal() ? " from-global" : "")
+                    + (call.isTail() ? " tail" : "");
+        } else if (e instanceof InlinedCallExpr) {
+            InlinedCallExpr call = (InlinedCallExpr) e;
+            return "InlinedCall slots=" + Arrays.toString(call.getSlots())
+                    + " params=" + Arrays.toString(call.getParamSlots());
+        } else if (e instanceof ProgramExpr) {
+            return "Program globals=" + frame(((ProgramExpr) e).getGlobals());
+        }
+        String name = e.getClass().getSimpleName();
+        return name.endsWith("Expr") ? name.substring(0, name.length() - 4) : name;
+    }
+
+    private static String frame(FunctionInfo info) {
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < info.size(); i++) {
+            names.add(info.nameAt(i));
+        }
+        return names.toString();
+    }
+}
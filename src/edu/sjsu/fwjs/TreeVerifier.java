@@ -0,0 +1,147 @@
+package edu.sjsu.fwjs;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Checks that a tree, as some pass left it, is one the evaluator can run.
+ *
+ * Nodes must have the subexpressions they always evaluate.  Nodes that
+ * use frame slots must be inside a resolved program or function, with
+ * slots that frame has.  Direct calls must say correctly whether they are
+ * made from a function frame, and go to a defined function with no more
+ * arguments than it has parameters.  Tail calls may only be in tail
+ * position of a function body (see TailCalls).  A ProgramExpr may only be
+ * at the root.
+ */
+class TreeVerifier {
+    private Set<KnownFunction> checked =
+            Collections.newSetFromMap(new IdentityHashMap<KnownFunction,Boolean>());
+
+    /**
+     * Throws an IllegalStateException describing the first problem found.
+     */
+    static void verify(Expression prog) {
+        TreeVerifier v = new TreeVerifier();
+        if (prog instanceof ProgramExpr) {
+            ProgramExpr p = (ProgramExpr) prog;
+            v.check(p.getBody(), p.getGlobals(), false, false);
+        } else {
+            v.check(prog, null, false, false);
+        }
+    }
+
+    /**
+     * frame is the layout of the frame e runs in, or null if it runs in a
+     * plain Environment; inFunction says whether that is a function's frame.
+     */
+    private void check(Expression e, FunctionInfo frame, boolean inFunction, boolean tail) {
+        if (e == null) return;
+        if (e instanceof PrintExpr) {
+            required(e, ((PrintExpr) e).getExpression(), "expression");
+        } else if (e instanceof BinOpExpr) {
+            required(e, ((BinOpExpr) e).getLeft(), "left operand");
+            required(e, ((BinOpExpr) e).getRight(), "right operand");
+        } else if (e instanceof IfExpr) {
+            IfExpr i = (IfExpr) e;
+            required(e, i.getCondition(), "condition");
+            check(i.getCondition(), frame, inFunction, false);
+            check(i.getThen(), frame, inFunction, tail);
+            check(i.getElse(), frame, inFunction, tail);
+            return;
+        } else if (e instanceof WhileExpr) {
+            required(e, ((WhileExpr) e).getCondition(), "condition");
+        } else if (e instanceof SeqExpr) {
+            SeqExpr seq = (SeqExpr) e;
+            check(seq.getFirst(), frame, inFunction, false);
+            check(seq.getSecond(), frame, inFunction, tail);
+            return;
+        } else if (e instanceof BlockExpr) {
+            BlockExpr block = (BlockExpr) e;
+            for (int i = 0; i < block.size(); i++) {
+                check(block.statement(i), frame, inFunction, tail && i == block.size() - 1);
+            }
+            return;
+        } else if (e instanceof AssignExpr) {
+            required(e, ((AssignExpr) e).getExpression(), "value");
+        } else if (e instanceof FunctionDeclExpr) {
+            FunctionDeclExpr f = (FunctionDeclExpr) e;
+            if (f.getInfo() == null) {
+                check(f.getBody(), null, true, true);
+            } else {
+                check(f.getBody(), f.getInfo(), true, true);
+            }
+            return;
+        } else if (e instanceof FunctionAppExpr) {
+            required(e, ((FunctionAppExpr) e).getFunction(), "function");
+        } else if (e instanceof TailCallExpr) {
+            required(e, ((TailCallExpr) e).getFunction(), "function");
+            if (!tail || !inFunction) fail(e, "tail call not in tail position of a function");
+        } else if (e instanceof ResolvedVarExpr || e instanceof ResolvedAssignExpr) {
+            if (frame == null) fail(e, "outside of a resolved frame");
+        } else if (e instanceof ResolvedVarDeclExpr) {
+            int slot = ((ResolvedVarDeclExpr) e).getSlot();
+            if (frame == null) fail(e, "outside of a resolved frame");
+            if (slot < 0 || slot >= frame.size()) fail(e, "no slot " + slot);
+        } else if (e instanceof DirectCallExpr) {
+            checkDirectCall((DirectCallExpr) e, frame, inFunction, tail);
+        } else if (e instanceof InlinedCallExpr) {
+            InlinedCallExpr call = (InlinedCallExpr) e;
+            if (frame == null) fail(e, "outside of a resolved frame");
+            for (int slot : call.getSlots()) {
+                if (slot < 0 || slot >= frame.size()) fail(e, "no slot " + slot);
+            }
+            if (call.getParamSlots().length != call.getArgs().size()) {
+                fail(e, call.getArgs().size() + " arguments for "
+                        + call.getParamSlots().length + " parameters");
+            }
+            for (Expression arg : call.getArgs()) {
+                required(e, arg, "argument");
+                check(arg, frame, inFunction, false);
+            }
+            check(call.getBody(), frame, inFunction, tail);
+            return;
+        } else if (e instanceof CompiledBodyExpr) {
+            required(e, ((CompiledBodyExpr) e).getBody(), "body");
+            check(((CompiledBodyExpr) e).getBody(), frame, inFunction, tail);
+            return;
+        } else if (e instanceof FusedExpr) {
+            check(((FusedExpr) e).getOriginal(), frame, inFunction, tail);
+            return;
+        } else if (e instanceof ProgramExpr) {
+            fail(e, "not at the root of the tree");
+        }
+        for (Expression child : PassManager.children(e)) {
+            check(child, frame, inFunction, false);
+        }
+    }
+
+    private void checkDirectCall(DirectCallExpr call, FunctionInfo frame, boolean inFunction,
+            boolean tail) {
+        KnownFunction f = call.getTarget();
+        if (f.getInfo() == null) fail(call, "call to an undefined function");
+        if (call.isFromGlobal() == inFunction) {
+            fail(call, inFunction ? "marked as made from the global environment"
+                    : "marked as made from a function frame");
+        }
+        if (call.isTail() && (!tail || !inFunction)) {
+            fail(call, "tail call not in tail position of a function");
+        }
+        if (call.getArgs().size() > f.getParams().size()) {
+            fail(call, call.getArgs().size() + " arguments for "
+                    + f.getParams().size() + " parameters");
+        }
+        if (checked.add(f)) {
+            check(f.getBody(), f.getInfo(), true, true);
+        }
+    }
+
+    private static void required(Expression e, Expression child, String what) {
+        if (child == null) fail(e, "missing " + what);
+    }
+
+    private static void fail(Expression e, String problem) {
+        throw new IllegalStateException(e.getClass().getSimpleName() + ": " + problem);
+    }
+}
@@ -12,14 +12,24 @@ public interface Value {}
 //can be included in the same file.
 
 /**
- * Boolean values.
+ * Boolean values.  Evaluating gives only TRUE and FALSE, so most tests
+ * of a boolean are identity checks; other BoolVals still compare equal.
  */
 class BoolVal implements Value {
+    static final BoolVal TRUE = new BoolVal(true);
+    static final BoolVal FALSE = new BoolVal(false);
     private boolean boolVal;
     public BoolVal(boolean b) { this.boolVal = b; }
+    /**
+     * TRUE or FALSE.
+     */
+    static BoolVal of(boolean b) {
+        return b ? TRUE : FALSE;
+    }
     public boolean toBoolean() { return this.boolVal; }
     @Override
     public boolean equals(Object that) {
+        if (this == that) return true;
         if (!(that instanceof BoolVal)) return false;
         return this.boolVal == ((BoolVal) that).boolVal;
     }
@@ -61,11 +71,28 @@ class ArgsVal implements Value {
  * Numbers.  Only integers are supported.
  */
 class IntVal implements Value {
+    /** The range of integers that of() shares one IntVal for. */
+    static final int CACHE_LOW = -128;
+    static final int CACHE_HIGH = 1023;
+    private static final IntVal[] CACHE = new IntVal[CACHE_HIGH - CACHE_LOW + 1];
+    static {
+        for (int i = 0; i < CACHE.length; i++) {
+            CACHE[i] = new IntVal(CACHE_LOW + i);
+        }
+    }
     private int i;
     public IntVal(int i) { this.i = i; }
+    /**
+     * An IntVal for i, which is shared if i is small.
+     */
+    static IntVal of(int i) {
+        if (i >= CACHE_LOW && i <= CACHE_HIGH) return CACHE[i - CACHE_LOW];
+        return new IntVal(i);
+    }
     public int toInt() { return this.i; }
     @Override
     public boolean equals(Object that) {
+        if (this == that) return true;
         if (!(that instanceof IntVal)) return false;
         return this.i == ((IntVal) that).i;
     }
@@ -76,6 +103,8 @@ class IntVal implements Value {
 }
 
 class NullVal implements Value {
+    /** The null that evaluating gives; other NullVals still compare equal. */
+    static final NullVal NULL = new NullVal();
     @Override
     public boolean equals(Object that) {
         return (that instanceof NullVal);
@@ -96,6 +125,9 @@ class ClosureVal implements Value {
     private List<String> params;
     private Expression body;
     private Environment outerEnv;
+    private FunctionInfo info;
+    private Value[] captured;
+    private FrameEnvironment.Box[] capturedBoxes;
     /**
      * The environment is the environment where the function was created.
      * This design is what makes this expression a closure.
@@ -105,6 +137,20 @@ class ClosureVal implements Value {
         this.body = body;
         this.outerEnv = env;
     }
+    /**
+     * A closure over a resolved body, which runs in a FrameEnvironment
+     * laid out by info.  Rather than the environment it was created in, it
+     * keeps only the global environment and the variables it captured.
+     */
+    ClosureVal(List<String> params, Expression body, FunctionInfo info, Environment global,
+            Value[] captured, FrameEnvironment.Box[] capturedBoxes) {
+        this.params = params;
+        this.body = body;
+        this.outerEnv = global;
+        this.info = info;
+        this.captured = captured;
+        this.capturedBoxes = capturedBoxes;
+    }
     public String toString() {
         String s = "function(";
         String sep = "";
@@ -121,13 +167,86 @@ class ClosureVal implements Value {
      * be bound to its matching argument and added to the new local environment.
      */
     public Value apply(List<Value> argVals) {
+        return TailCall.run(body, bind(argVals));
+    }
+    /**
+     * Binds the arguments as apply does, but leaves running the body to
+     * the caller's trampoline.
+     */
+    TailCall tailCall(List<Value> argVals) {
+        return new TailCall(body, bind(argVals));
+    }
+    Expression getBody() {
+        return body;
+    }
+    List<String> getParams() {
+        return params;
+    }
+    /**
+     * The layout of the frames the body runs in, or null if it was not
+     * resolved.
+     */
+    FunctionInfo getInfo() {
+        return info;
+    }
+    /**
+     * A new local environment with the arguments bound, in which to
+     * evaluate the body.
+     */
+    Environment bind(List<Value> argVals) {
+        if (info != null) {
+            FrameEnvironment frame = (FrameEnvironment) newEnvironment();
+            for (int i = 0; i < argVals.size(); i++) {
+                if (i >= params.size()) {
+                    // As params.get(i) fails below
+                    throw new IndexOutOfBoundsException(
+                            "Index " + i + " out of bounds for length " + params.size());
+                }
+                frame.declare(info.paramSlot(i), argVals.get(i));
+            }
+            return frame;
+        }
+
         // YOUR CODE HERE
-        Environment localEnv = new Environment(outerEnv);
+        Environment localEnv = newEnvironment();
 
         for (int i = 0; i < argVals.size(); i++) {
             localEnv.createVar(params.get(i), argVals.get(i));
         }
 
-        return body.evaluate(localEnv);
+        return localEnv;
+    }
+    /**
+     * A new local environment for the body, with nothing bound yet.
+     */
+    Environment newEnvironment() {
+        if (info != null) return new FrameEnvironment(outerEnv, info, captured, capturedBoxes);
+        return new Environment(outerEnv);
+    }
+}
+
+/**
+ * A call in tail position that has yet to be made: the body of the
+ * function called, and the frame it will run in.  A function body can
+ * evaluate to one of these (see TailCalls), but it never goes further
+ * than the trampoline in run, so calls in tail position take no stack.
+ */
+class TailCall implements Value {
+    private Expression body;
+    private Environment frame;
+    public TailCall(Expression body, Environment frame) {
+        this.body = body;
+        this.frame = frame;
+    }
+    /**
+     * Runs a function body, and then any calls it ends with.
+     */
+    static Value run(Expression body, Environment frame) {
+        Value v = body.evaluate(frame);
+        while (v instanceof TailCall) {
+            TailCall call = (TailCall) v;
+            v = call.body.evaluate(call.frame);
+        }
+        return v;
     }
 }
@@ -0,0 +1,131 @@
+package edu.sjsu.fwjs;
+
+/**
+ * A variable reference whose possible bindings were worked out by
+ * ScopeResolver.
+ *
+ * A name can be bound in several enclosing scopes, and which one a lookup
+ * finds depends on which declarations have run, so the reference keeps
+ * every candidate, innermost first.  A candidate is a slot of the current
+ * frame (perhaps boxed), a variable the current closure captured (by
+ * value or boxed), or a slot of the global frame, globalHops out.  If
+ * none of them is bound, the name is looked up in the ordinary way in the
+ * environment fallbackHops out.
+ *
+ * Assigning to the global candidate always stops there, even if the
+ * variable is undeclared, since that is where it would be created.
+ */
+class VarRef {
+    static final int LOCAL = 0;
+    static final int LOCAL_BOX = 1;
+    static final int CAPTURED = 2;
+    static final int CAPTURED_BOX = 3;
+    static final int GLOBAL = 4;
+
+    private String name;
+    private int[] kinds;
+    private int[] indexes;
+    private int globalHops;
+    private int fallbackHops;
+
+    VarRef(String name, int[] kinds, int[] indexes, int globalHops, int fallbackHops) {
+        this.name = name;
+        this.kinds = kinds;
+        this.indexes = indexes;
+        this.globalHops = globalHops;
+        this.fallbackHops = fallbackHops;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * The slot of the current frame that is the first candidate, if it is
+     * one that is not boxed, or -1.
+     */
+    int localSlot() {
+        return kinds.length > 0 && kinds[0] == LOCAL ? indexes[0] : -1;
+    }
+
+    /**
+     * The value of the variable, or null if it is undefined; as
+     * Environment.resolveVar.
+     */
+    Value get(Environment env) {
+        for (int i = 0; i < kinds.length; i++) {
+            Value v;
+            int index = indexes[i];
+            switch (kinds[i]) {
+            case LOCAL:
+                v = ((FrameEnvironment) env).slots[index];
+                break;
+            case LOCAL_BOX:
+                v = ((FrameEnvironment) env).boxes[index].value;
+                break;
+            case CAPTURED:
+                v = ((FrameEnvironment) env).captured[index];
+                break;
+            case CAPTURED_BOX:
+                v = ((FrameEnvironment) env).capturedBoxes[index].value;
+                break;
+            default:
+                v = ((FrameEnvironment) out(env, globalHops)).slots[index];
+            }
+            if (v != FrameEnvironment.UNDECLARED && v != null) return v;
+        }
+        return out(env, fallbackHops).resolveVar(name);
+    }
+
+    /**
+     * Assigns the variable, as Environment.updateVar.
+     */
+    void set(Environment env, Value v) {
+        for (int i = 0; i < kinds.length; i++) {
+            int index = indexes[i];
+            switch (kinds[i]) {
+            case LOCAL: {
+                Value[] slots = ((FrameEnvironment) env).slots;
+                if (slots[index] != FrameEnvironment.UNDECLARED) {
+                    slots[index] = v;
+                    return;
+                }
+                break;
+            }
+            case LOCAL_BOX: {
+                FrameEnvironment.Box b = ((FrameEnvironment) env).boxes[index];
+                if (b.value != FrameEnvironment.UNDECLARED) {
+                    b.value = v;
+                    return;
+                }
+                break;
+            }
+            case CAPTURED:
+                if (((FrameEnvironment) env).captured[index] != FrameEnvironment.UNDECLARED) {
+                    // Only variables that are never assigned are captured by value
+                    throw new IllegalStateException("assignment to " + name + ", captured by value");
+                }
+                break;
+            case CAPTURED_BOX: {
+                FrameEnvironment.Box b = ((FrameEnvironment) env).capturedBoxes[index];
+                if (b.value != FrameEnvironment.UNDECLARED) {
+                    b.value = v;
+                    return;
+                }
+                break;
+            }
+            default:
+                ((FrameEnvironment) out(env, globalHops)).slots[index] = v;
+                return;
+            }
+        }
+        out(env, fallbackHops).updateVar(name, v);
+    }
+
+    private static Environment out(Environment env, int hops) {
+        for (int i = 0; i < hops; i++) {
+            env = env.getOuter();
+        }
+        return env;
+    }
+}
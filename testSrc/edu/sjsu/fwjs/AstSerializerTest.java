@@ -0,0 +1,132 @@
+package edu.sjsu.fwjs;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class AstSerializerTest {
+
+    private ScriptParser parser = new ScriptParser(ParseMode.TWO_STAGE);
+
+    @Test
+    // Reading and writing again must give back exactly the same bytes.
+    public void testRoundTripSampleScripts() throws Exception {
+        for (File f : new File("fwjsScripts").listFiles()) {
+            if (!f.getName().endsWith(".fwjs") || f.getName().equals("objects.fwjs")) continue;
+            String src = new String(Files.readAllBytes(f.toPath()), "UTF-8");
+            byte[] bytes = AstSerializer.write(parser.compile(src));
+            byte[] again = AstSerializer.write(AstSerializer.read(bytes));
+            assertArrayEquals(f.getName(), bytes, again);
+        }
+    }
+
+    @Test
+    public void testEvaluateAfterRoundTrip() {
+        List<String> params = new ArrayList<String>();
+        params.add("x");
+        List<Expression> args = new ArrayList<Expression>();
+        args.add(new ValueExpr(new IntVal(-300000)));
+        Expression prog = new FunctionAppExpr(
+                new FunctionDeclExpr(params, new BinOpExpr(Op.SUBTRACT,
+                        new VarExpr("x"), new ValueExpr(new IntVal(1)))),
+                args);
+        Expression copy = AstSerializer.read(AstSerializer.write(prog));
+        assertEquals(new IntVal(-300001), copy.evaluate(new Environment()));
+    }
+
+    @Test
+    public void testRejectsGarbage() {
+        try {
+            AstSerializer.read(new byte[] { 1, 2, 3, 4, 5 });
+            fail();
+        } catch (AstSerializer.FormatException e) {}
+        byte[] bytes = AstSerializer.write(new VarExpr("x"));
+        byte[] truncated = new byte[bytes.length - 1];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        try {
+            AstSerializer.read(truncated);
+            fail();
+        } catch (AstSerializer.FormatException e) {}
+    }
+
+    @Test
+    // Changing any one byte of a compiled script, or naming an identifier
+    // that is not in the table, must be caught rather than give another tree.
+    public void testRejectsChangedBytes() throws Exception {
+        String src = new String(Files.readAllBytes(new File("fwjsScripts/while.fwjs").toPath()), "UTF-8");
+        byte[] bytes = AstSerializer.write(parser.compile(src));
+        for (int i = 0; i < bytes.length; i++) {
+            for (int bit = 0; bit < 8; bit++) {
+                byte[] changed = bytes.clone();
+                changed[i] ^= 1 << bit;
+                try {
+                    AstSerializer.read(changed);
+                    fail("byte " + i + " bit " + bit);
+                } catch (AstSerializer.FormatException e) {}
+            }
+        }
+
+        Path dir = Files.createTempDirectory("fwjsc");
+        AstCache cache = new AstCache(dir);
+        cache.store("h", parser.compile(src));
+        byte[] stored = Files.readAllBytes(cache.pathFor("h"));
+        stored[stored.length - 1] ^= 0x40;
+        Files.write(cache.pathFor("h"), stored);
+        assertNull(cache.load("h"));
+        assertEquals(1, cache.getMisses());
+        Files.delete(cache.pathFor("h"));
+        Files.delete(dir);
+    }
+
+    @Test
+    // A tree too deeply nested to read back is a cache miss, not an error.
+    public void testTooDeepIsMiss() throws Exception {
+        Path dir = Files.createTempDirectory("fwjsc");
+        AstCache cache = new AstCache(dir);
+        Thread writer = new Thread(null, () -> {
+            Expression deep = new ValueExpr(new IntVal(1));
+            for (int i = 0; i < 200000; i++) {
+                deep = new BinOpExpr(Op.ADD, new ValueExpr(new IntVal(1)), deep);
+            }
+            try {
+                cache.store("h", deep);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }, "writer", 1L << 30);
+        writer.start();
+        writer.join();
+        assertTrue(Files.isRegularFile(cache.pathFor("h")));
+        Expression[] loaded = { new ValueExpr(null) };
+        Thread reader = new Thread(null, () -> loaded[0] = cache.load("h"), "reader", 1L << 18);
+        reader.start();
+        reader.join();
+        assertNull(loaded[0]);
+        assertEquals(1, cache.getMisses());
+        Files.delete(cache.pathFor("h"));
+        Files.delete(dir);
+    }
+
+    @Test
+    // The direct builder must build exactly the trees the visitor builds.
+    public void testDirectBuilderMatchesVisitor() throws Exception {
+        ScriptParser visitor = new ScriptParser(ParseMode.TWO_STAGE, BuildMode.VISITOR);
+        ScriptParser direct = new ScriptParser(ParseMode.TWO_STAGE, BuildMode.DIRECT);
+        for (File f : new File("fwjsScripts").listFiles()) {
+            if (!f.getName().endsWith(".fwjs") || f.getName().equals("objects.fwjs")) continue;
+            String src = new String(Files.readAllBytes(f.toPath()), "UTF-8");
+            assertArrayEquals(f.getName(),
+                    AstSerializer.write(visitor.compile(src)),
+                    AstSerializer.write(direct.compile(src)));
+        }
+        String nested = "f(1)(2, g(3)); if (a) { ; b; } else c; var h = function() { ; };";
+        assertArrayEquals(AstSerializer.write(visitor.compile(nested)),
+                AstSerializer.write(direct.compile(nested)));
+    }
+}
@@ -0,0 +1,58 @@
+package edu.sjsu.fwjs;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BatchCompilerTest {
+
+    @Test
+    // Compiling in parallel builds the same trees as compiling one at a time.
+    public void testMatchesSerialCompile() throws Exception {
+        List<Path> files = BatchCompiler.expand(Arrays.asList("fwjsScripts"));
+        ScriptCache cache = new ScriptCache(ParseMode.TWO_STAGE, 64);
+        cache.setOptimize(false);
+        BatchCompiler compiler = new BatchCompiler(cache, 4);
+        List<BatchCompiler.Result> results;
+        try {
+            results = compiler.compileAll(files);
+        } finally {
+            compiler.shutdown();
+        }
+        assertEquals(files.size(), results.size());
+        ScriptParser serial = new ScriptParser(ParseMode.TWO_STAGE);
+        for (int i = 0; i < files.size(); i++) {
+            BatchCompiler.Result r = results.get(i);
+            assertEquals(files.get(i), r.getPath());
+            if (r.getPath().getFileName().toString().equals("objects.fwjs")) {
+                // Uses object literals, which the grammar does not have
+                assertNotNull(r.getError());
+                continue;
+            }
+            assertNull(r.getError());
+            String src = new String(Files.readAllBytes(r.getPath()), "UTF-8");
+            assertArrayEquals(r.getPath().toString(),
+                    AstSerializer.write(serial.compile(src)),
+                    AstSerializer.write(r.getProgram()));
+        }
+    }
+
+    @Test
+    public void testMissingFileIsReported() {
+        BatchCompiler compiler = new BatchCompiler(new ScriptCache(ParseMode.TWO_STAGE, 4), 2);
+        try {
+            List<BatchCompiler.Result> results = compiler.compileAll(
+                    BatchCompiler.expand(Arrays.asList("no/such/script.fwjs")));
+            assertEquals(1, results.size());
+            assertNull(results.get(0).getProgram());
+            assertTrue(results.get(0).getError().startsWith("could not read"));
+        } finally {
+            compiler.shutdown();
+        }
+    }
+}
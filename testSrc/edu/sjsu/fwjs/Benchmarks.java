@@ -0,0 +1,837 @@
+package edu.sjsu.fwjs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Simple wall-clock benchmarks for the interpreter.
+ * Run with the names of the benchmarks to run, or with no arguments to run all of them.
+ */
+public class Benchmarks {
+    interface Benchmark {
+        void run() throws Exception;
+    }
+
+    interface Measurement {
+        double measure() throws Exception;
+    }
+
+    private static Map<String,Benchmark> benchmarks() {
+        Map<String,Benchmark> all = new LinkedHashMap<String,Benchmark>();
+        all.put("ast-cache", Benchmarks::astCache);
+        all.put("direct-build", Benchmarks::directBuild);
+        all.put("front-end", Benchmarks::frontEnd);
+        all.put("batch", Benchmarks::batch);
+        all.put("constant-fold", Benchmarks::constantFold);
+        all.put("scope-resolve", Benchmarks::scopeResolve);
+        all.put("closures", Benchmarks::closures);
+        all.put("lift", Benchmarks::lift);
+        all.put("inline", Benchmarks::inline);
+        all.put("tail-calls", Benchmarks::tailCalls);
+        all.put("heap-eval", Benchmarks::heapEval);
+        all.put("passes", Benchmarks::passes);
+        all.put("bytecode", Benchmarks::bytecode);
+        all.put("jit", Benchmarks::jit);
+        all.put("tiering", Benchmarks::tiering);
+        all.put("osr", Benchmarks::osr);
+        all.put("closure-compile", Benchmarks::closureCompile);
+        all.put("specialize", Benchmarks::specialize);
+        all.put("inline-caches", Benchmarks::inlineCaches);
+        all.put("fuse", Benchmarks::fuse);
+        all.put("values", Benchmarks::values);
+        return all;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String,Benchmark> all = benchmarks();
+        List<String> names = new ArrayList<String>();
+        for (String arg : args) names.add(arg);
+        if (names.isEmpty()) names.addAll(all.keySet());
+        for (String name : names) {
+            Benchmark b = all.get(name);
+            if (b == null) {
+                System.err.println("Unknown benchmark " + name + "; choose from " + all.keySet());
+                System.exit(1);
+            }
+            System.out.println("== " + name);
+            b.run();
+        }
+    }
+
+    /**
+     * Average time per call in microseconds, after a warm-up.
+     */
+    static double timeMicros(int iterations, Benchmark b) throws Exception {
+        for (int i = 0; i < iterations / 5 + 1; i++) b.run();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) b.run();
+        return (System.nanoTime() - start) / 1e3 / iterations;
+    }
+
+    /**
+     * Takes a measurement with whatever the scripts print thrown away.
+     */
+    static double withoutOutput(Measurement m) throws Exception {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            return m.measure();
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    /**
+     * Average bytes allocated by the current thread per call, after a warm-up.
+     */
+    static double allocatedBytes(int iterations, Benchmark b) throws Exception {
+        com.sun.management.ThreadMXBean mx =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+        for (int i = 0; i < iterations / 5 + 1; i++) b.run();
+        long before = mx.getThreadAllocatedBytes(tid);
+        for (int i = 0; i < iterations; i++) b.run();
+        return (double) (mx.getThreadAllocatedBytes(tid) - before) / iterations;
+    }
+
+    /**
+     * Wall-clock time of a fresh JVM running the interpreter, in milliseconds.
+     */
+    static double timeJvmMillis(List<String> interpArgs) throws Exception {
+        List<String> cmd = new ArrayList<String>();
+        cmd.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add(Interpreter.class.getName());
+        cmd.addAll(interpArgs);
+        long start = System.nanoTime();
+        Process p = new ProcessBuilder(cmd)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        if (p.waitFor() != 0) throw new RuntimeException("interpreter failed: " + cmd);
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    /**
+     * Loading a precompiled .fwjsc file against parsing and building from source,
+     * both warm in-process and as a cold JVM start.
+     */
+    static void astCache() throws Exception {
+        Path dir = Files.createTempDirectory("fwjsc");
+        AstCache disk = new AstCache(dir);
+        System.out.printf("%-20s %10s %10s %10s %8s%n",
+                "script", "parse(us)", "load(us)", "decode(us)", "speedup");
+        for (Map.Entry<String,String> e : TestSupport.sampleScripts().entrySet()) {
+            final String src = e.getValue();
+            final String hash = ScriptCache.hash(src);
+            Expression prog = new ScriptParser(ParseMode.TWO_STAGE).compile(src);
+            disk.store(hash, prog);
+            final byte[] bytes = AstSerializer.write(prog);
+            double parse = timeMicros(2000, () -> new ScriptParser(ParseMode.TWO_STAGE).compile(src));
+            double load = timeMicros(2000, () -> disk.load(hash));
+            double decode = timeMicros(2000, () -> AstSerializer.read(bytes));
+            System.out.printf("%-20s %10.2f %10.2f %10.2f %7.1fx%n",
+                    e.getKey(), parse, load, decode, parse / load);
+        }
+
+        String script = TestSupport.SCRIPT_DIR + File.separator + "lists.fwjs";
+        List<String> plain = new ArrayList<String>();
+        plain.add(script);
+        List<String> cached = new ArrayList<String>();
+        cached.add("--cache-dir=" + dir);
+        cached.add(script);
+        timeJvmMillis(cached); // make sure the script is on disk
+        int runs = 10;
+        double plainMs = 0, cachedMs = 0;
+        for (int i = 0; i < runs; i++) {
+            plainMs += timeJvmMillis(plain);
+            cachedMs += timeJvmMillis(cached);
+        }
+        System.out.printf("cold JVM, lists.fwjs: parse %.1fms, .fwjsc %.1fms (avg of %d)%n",
+                plainMs / runs, cachedMs / runs, runs);
+    }
+
+    /**
+     * Parse+build time and allocation, building from a parse tree with
+     * ExpressionBuilderVisitor against building directly during the parse.
+     */
+    static void directBuild() throws Exception {
+        Map<String,String> scripts = TestSupport.sampleScripts();
+        StringBuilder big = new StringBuilder();
+        for (String src : scripts.values()) big.append(src).append('\n');
+        scripts.put("(all, concatenated)", big.toString());
+
+        final ScriptParser visitor = new ScriptParser(ParseMode.TWO_STAGE, BuildMode.VISITOR);
+        final ScriptParser direct = new ScriptParser(ParseMode.TWO_STAGE, BuildMode.DIRECT);
+        System.out.printf("%-20s %10s %10s %10s %10s%n",
+                "script", "visit(us)", "direct(us)", "visit(KB)", "direct(KB)");
+        for (Map.Entry<String,String> e : scripts.entrySet()) {
+            final String src = e.getValue();
+            double tv = timeMicros(2000, () -> visitor.compile(src));
+            double td = timeMicros(2000, () -> direct.compile(src));
+            double av = allocatedBytes(500, () -> visitor.compile(src));
+            double ad = allocatedBytes(500, () -> direct.compile(src));
+            System.out.printf("%-20s %10.2f %10.2f %10.1f %10.1f%n",
+                    e.getKey(), tv, td, av / 1024, ad / 1024);
+        }
+    }
+
+    /**
+     * Parse+build time of the ANTLR parser (building directly) against the
+     * recursive-descent one, warm in-process and as a cold JVM start.
+     */
+    static void frontEnd() throws Exception {
+        Map<String,String> scripts = TestSupport.sampleScripts();
+        StringBuilder big = new StringBuilder();
+        for (String src : scripts.values()) big.append(src).append('\n');
+        scripts.put("(all, concatenated)", big.toString());
+
+        final ScriptParser antlr = new ScriptParser(ParseMode.TWO_STAGE, BuildMode.DIRECT);
+        System.out.printf("%-20s %10s %10s %8s%n", "script", "antlr(us)", "rd(us)", "speedup");
+        for (Map.Entry<String,String> e : scripts.entrySet()) {
+            final String src = e.getValue();
+            double ta = timeMicros(2000, () -> antlr.compile(src));
+            double tr = timeMicros(2000, () -> RecursiveDescentParser.compile(src));
+            System.out.printf("%-20s %10.2f %10.2f %7.1fx%n", e.getKey(), ta, tr, ta / tr);
+        }
+
+        String script = TestSupport.SCRIPT_DIR + File.separator + "lists.fwjs";
+        List<String> viaAntlr = new ArrayList<String>();
+        viaAntlr.add(script);
+        List<String> viaRd = new ArrayList<String>();
+        viaRd.add("--front-end=rd");
+        viaRd.add(script);
+        int runs = 10;
+        double antlrMs = 0, rdMs = 0;
+        for (int i = 0; i < runs; i++) {
+            antlrMs += timeJvmMillis(viaAntlr);
+            rdMs += timeJvmMillis(viaRd);
+        }
+        System.out.printf("cold JVM, lists.fwjs: antlr %.1fms, rd %.1fms (avg of %d)%n",
+                antlrMs / runs, rdMs / runs, runs);
+    }
+
+    /**
+     * Batch compilation of a directory of scripts with one worker against
+     * one per processor.  Each copy of a sample script gets its own comment,
+     * so no two files hash the same.
+     */
+    static void batch() throws Exception {
+        Path dir = Files.createTempDirectory("fwjs-batch");
+        List<String> sources = new ArrayList<String>(TestSupport.sampleScripts().values());
+        int copies = 400;
+        for (int i = 0; i < copies; i++) {
+            String src = "// copy " + i + "\n" + sources.get(i % sources.size());
+            Files.write(dir.resolve("script" + i + ".fwjs"), src.getBytes("UTF-8"));
+        }
+        List<Path> files = BatchCompiler.expand(Arrays.asList(dir.toString()));
+        int cpus = Runtime.getRuntime().availableProcessors();
+        for (int jobs : cpus > 1 ? new int[] { 1, cpus } : new int[] { 1 }) {
+            // Warm up with a throwaway cache, then time a cold one
+            compileBatch(files, jobs);
+            long nanos = compileBatch(files, jobs);
+            System.out.printf("%d files, jobs=%d: %.1fms, %.0f files/s%n",
+                    files.size(), jobs, nanos / 1e6, files.size() / (nanos / 1e9));
+        }
+    }
+
+    private static long compileBatch(List<Path> files, int jobs) {
+        BatchCompiler compiler = new BatchCompiler(new ScriptCache(ParseMode.TWO_STAGE, files.size()), jobs);
+        try {
+            long start = System.nanoTime();
+            compiler.compileAll(files);
+            return System.nanoTime() - start;
+        } finally {
+            compiler.shutdown();
+        }
+    }
+
+    /**
+     * Evaluation time of a loop full of constant arithmetic, the way
+     * templated scripts tend to look, with and without folding.
+     */
+    static void constantFold() throws Exception {
+        String src = "var secondsPerDay = 60 * 60 * 24;\n"
+                + "var limit = 10 * 100;\n"
+                + "var debug = 1 == 2;\n"
+                + "var i = 0;\n"
+                + "var total = 0;\n"
+                + "while (i < limit) {\n"
+                + "  if (debug) { print(i); }\n"
+                + "  total = total + secondsPerDay / (2 * 3) + (4 + 5) * 7 % 3;\n"
+                + "  i = i + 1;\n"
+                + "}\n";
+        final Expression plain = RecursiveDescentParser.compile(src);
+        final Expression folded = ConstantFolder.fold(plain);
+        double tp = timeMicros(2000, () -> plain.evaluate(new Environment()));
+        double tf = timeMicros(2000, () -> folded.evaluate(new Environment()));
+        System.out.printf("1000-iteration loop: plain %.1fus, folded %.1fus (%.1fx)%n",
+                tp, tf, tp / tf);
+    }
+
+    /**
+     * Variable-heavy workloads shaped like factorial.fwjs (locals of a
+     * function, several scopes deep) and while.fwjs (a global loop), with
+     * name lookups against slot-resolved frames.
+     */
+    static void scopeResolve() throws Exception {
+        Map<String,String> workloads = new LinkedHashMap<String,String>();
+        workloads.put("factorial-style",
+                "var factorial = function (num) {\n"
+                + "  var tmp = num;\n"
+                + "  while (num > 2) { num = num - 1; tmp = tmp * num; }\n"
+                + "  tmp;\n"
+                + "};\n"
+                + "var i = 0;\n"
+                + "while (i < 200) { factorial(12); i = i + 1; }\n");
+        workloads.put("while-style",
+                "var i = 0;\n"
+                + "var total = 0;\n"
+                + "while (i < 2000) { total = total + i; i = i + 1; }\n");
+        for (Map.Entry<String,String> e : workloads.entrySet()) {
+            final Expression plain = RecursiveDescentParser.compile(e.getValue());
+            final Expression resolved = ScopeResolver.resolve(plain);
+            double tp = timeMicros(1000, () -> plain.evaluate(new Environment()));
+            double tr = timeMicros(1000, () -> resolved.evaluate(new Environment()));
+            System.out.printf("%-16s names %8.1fus, slots %8.1fus (%.1fx)%n",
+                    e.getKey(), tp, tr, tp / tr);
+        }
+    }
+
+    /**
+     * A long list of lists.fwjs-style cons cells, each a closure.  Shows
+     * the heap the list retains and the GC time spent building it, with
+     * closures that hold their defining environments and with flat ones.
+     */
+    static void closures() throws Exception {
+        String src = "var pair = function(x, y) { function(f) { f(x, y); }; };\n"
+                + "var build = function(n) {\n"
+                + "  var lst = null;\n"
+                + "  var i = 0;\n"
+                + "  while (i < n) { lst = pair(i, lst); i = i + 1; }\n"
+                + "  lst;\n"
+                + "};\n"
+                + "var nums = build(50000);\n";
+        Map<String,Expression> variants = new LinkedHashMap<String,Expression>();
+        variants.put("environments", RecursiveDescentParser.compile(src));
+        variants.put("flat", ScopeResolver.resolve(RecursiveDescentParser.compile(src)));
+        for (Map.Entry<String,Expression> e : variants.entrySet()) {
+            final Expression prog = e.getValue();
+            long before = usedHeapAfterGc();
+            // The program's value is the list
+            Value nums = prog.evaluate(new Environment());
+            long retained = usedHeapAfterGc() - before;
+            Reference.reachabilityFence(nums);
+
+            long gcBefore = gcMillis();
+            double t = timeMicros(20, () -> prog.evaluate(new Environment()));
+            long gc = gcMillis() - gcBefore;
+            System.out.printf("%-12s retained %6.2f MB (%3d B/cell), build %7.2fms, gc %4dms%n",
+                    e.getKey(), retained / 1e6, retained / 50000, t / 1e3, gc);
+        }
+    }
+
+    /**
+     * Bytes allocated and time per run, with and without lifting, for a
+     * lists.fwjs-style walk over a list (calls to global functions) and a
+     * function with local helpers, called in a loop.
+     */
+    static void lift() throws Exception {
+        Map<String,String> workloads = new LinkedHashMap<String,String>();
+        workloads.put("list-walk",
+                "var pair = function(x, y) { function(f) { f(x, y); }; };\n"
+                + "var fst = function(p) { p(function(x, y) { x; }); };\n"
+                + "var snd = function(p) { p(function(x, y) { y; }); };\n"
+                + "var sumList = function(lst) { if (lst == null) 0; else fst(lst) + sumList(snd(lst)); };\n"
+                + "var build = function(n) { if (n == 0) null; else pair(n, build(n - 1)); };\n"
+                + "var nums = build(200);\n"
+                + "var i = 0;\n"
+                + "while (i < 20) { sumList(nums); i = i + 1; }\n");
+        workloads.put("local-helpers",
+                "var norm = function(a, b) {\n"
+                + "  var sq = function(x) { x * x; };\n"
+                + "  var abs = function(x) { if (x < 0) 0 - x; else x; };\n"
+                + "  sq(abs(a)) + sq(abs(b));\n"
+                + "};\n"
+                + "var i = 0;\n"
+                + "var total = 0;\n"
+                + "while (i < 2000) { total = total + norm(i, 0 - i); i = i + 1; }\n");
+        for (Map.Entry<String,String> e : workloads.entrySet()) {
+            Expression prog = RecursiveDescentParser.compile(e.getValue());
+            final Expression closures = ScopeResolver.resolve(prog, false, false, null);
+            final Expression lifted = ScopeResolver.resolve(prog, true, false, null);
+            double bc = allocatedBytes(200, () -> closures.evaluate(new Environment()));
+            double bl = allocatedBytes(200, () -> lifted.evaluate(new Environment()));
+            double tc = timeMicros(200, () -> closures.evaluate(new Environment()));
+            double tl = timeMicros(200, () -> lifted.evaluate(new Environment()));
+            System.out.printf("%-14s closures %8.1f KB %8.1fus, lifted %8.1f KB %8.1fus (%.0f%% less allocated)%n",
+                    e.getKey(), bc / 1024, tc, bl / 1024, tl, 100 * (1 - bl / bc));
+        }
+    }
+
+    /**
+     * lists.fwjs's sumList over a longer list, with its helpers called
+     * through the closures or inlined.
+     */
+    static void inline() throws Exception {
+        String src = "var tru = function(x, y) { x; };\n"
+                + "var fls = function(x, y) { y; };\n"
+                + "var pair = function(x, y) { function(f) { f(x, y); }; };\n"
+                + "var fst = function(p) { p(tru); };\n"
+                + "var snd = function(p) { p(fls); };\n"
+                + "var cons = pair;\n"
+                + "var head = fst;\n"
+                + "var tail = snd;\n"
+                + "var isEmpty = function(lst) { lst == null; };\n"
+                + "var build = function(n) { if (n == 0) null; else cons(n, build(n - 1)); };\n"
+                + "var sumList = function(lst) { if (isEmpty(lst)) 0; else head(lst) + sumList(tail(lst)); };\n"
+                + "var nums = build(200);\n"
+                + "var i = 0;\n"
+                + "while (i < 20) { sumList(nums); i = i + 1; }\n";
+        Expression prog = RecursiveDescentParser.compile(src);
+        final Expression direct = ScopeResolver.resolve(prog, true, false, null);
+        ByteArrayOutputStream decisions = new ByteArrayOutputStream();
+        final Expression inlined = ScopeResolver.resolve(prog, true, true, new PrintStream(decisions));
+        double bd = allocatedBytes(200, () -> direct.evaluate(new Environment()));
+        double bi = allocatedBytes(200, () -> inlined.evaluate(new Environment()));
+        double td = timeMicros(200, () -> direct.evaluate(new Environment()));
+        double ti = timeMicros(200, () -> inlined.evaluate(new Environment()));
+        System.out.print(decisions);
+        System.out.printf("calls %8.1f KB %8.1fus, inlined %8.1f KB %8.1fus (%.1fx)%n",
+                bd / 1024, td, bi / 1024, ti, td / ti);
+    }
+
+    /**
+     * A loop written as tail recursion: how deep it gets without tail
+     * calls before the stack overflows, and the time per iteration and
+     * heap in use after 10^7 iterations with them.
+     */
+    static void tailCalls() throws Exception {
+        String loop = "var loop = function(n, acc) { if (n == 0) acc; else loop(n - 1, acc + 1); };\n";
+        int depth = 1000;
+        try {
+            for (; depth < 100000000; depth *= 2) {
+                ScopeResolver.resolve(RecursiveDescentParser.compile(loop + "loop(" + depth + ", 0);"))
+                        .evaluate(new Environment());
+            }
+        } catch (StackOverflowError e) {
+            System.out.printf("without tail calls: stack overflow at %d iterations or fewer%n", depth);
+        }
+        int n = 10000000;
+        final Expression prog = TailCalls.mark(ScopeResolver.resolve(
+                RecursiveDescentParser.compile(loop + "loop(" + n + ", 0);")));
+        double t = timeMicros(3, () -> prog.evaluate(new Environment()));
+        System.out.printf("with tail calls: %d iterations, %.1fns each, %.1f MB in use after%n",
+                n, t * 1e3 / n, usedHeapAfterGc() / 1e6);
+    }
+
+    /**
+     * factorial.fwjs and lists.fwjs, optimized as by default, run by the
+     * recursive evaluator and by HeapEvaluator, with their output thrown
+     * away; then how deep a non-tail recursion over a list each can go.
+     */
+    static void heapEval() throws Exception {
+        Map<String,String> scripts = TestSupport.sampleScripts();
+        for (String name : new String[] { "factorial.fwjs", "lists.fwjs" }) {
+            final Expression prog = TailCalls.mark(ScopeResolver.resolve(ConstantFolder.fold(
+                    RecursiveDescentParser.compile(scripts.get(name)))));
+            double tr = withoutOutput(() -> timeMicros(100000, () -> prog.evaluate(new Environment())));
+            double th = withoutOutput(
+                    () -> timeMicros(100000, () -> HeapEvaluator.run(prog, new Environment())));
+            System.out.printf("%-16s recursive %6.2fus, heap %6.2fus (%.2fx)%n",
+                    name, tr, th, tr / th);
+        }
+        String sum = "var sum = function(n) { if (n == 0) 0; else 1 + sum(n - 1); };\n";
+        int depth = 1000;
+        try {
+            for (; depth < 100000000; depth *= 2) {
+                TailCalls.mark(ScopeResolver.resolve(RecursiveDescentParser.compile(
+                        sum + "sum(" + depth + ");"))).evaluate(new Environment());
+            }
+        } catch (StackOverflowError e) {
+            System.out.printf("recursive: stack overflow at depth %d or less%n", depth);
+        }
+        int n = 1000000;
+        final Expression deep = TailCalls.mark(ScopeResolver.resolve(RecursiveDescentParser.compile(
+                sum + "sum(" + n + ");")));
+        double t = timeMicros(3, () -> HeapEvaluator.run(deep, new Environment()));
+        System.out.printf("heap: depth %d in %.0fms%n", n, t / 1e3);
+    }
+
+    /**
+     * Where optimization time goes, pass by pass, over the sample scripts;
+     * and what each pass buys at run time, running them with more and more
+     * of the standard passes turned on.
+     */
+    static void passes() throws Exception {
+        List<Expression> progs = new ArrayList<Expression>();
+        for (String src : TestSupport.sampleScripts().values()) {
+            progs.add(RecursiveDescentParser.compile(src));
+        }
+        ScriptCache cache = new ScriptCache(ParseMode.TWO_STAGE, 1);
+        cache.setPassStats(true);
+        for (int i = 0; i < 200; i++) {
+            for (Expression prog : progs) cache.getPasses().run(prog);
+        }
+        System.out.println(cache.getPasses().statsReport());
+
+        List<String> standard = ScriptCache.STANDARD_PASSES;
+        for (int n = 0; n <= standard.size(); n++) {
+            cache.setPasses(standard.subList(0, n));
+            final List<Expression> optimized = new ArrayList<Expression>();
+            for (Expression prog : progs) optimized.add(cache.getPasses().run(prog));
+            double t = withoutOutput(() -> timeMicros(5000, () -> {
+                for (Expression prog : optimized) prog.evaluate(new Environment());
+            }));
+            System.out.printf("run with %-28s %7.2fus%n", standard.subList(0, n), t);
+        }
+    }
+
+    /**
+     * A loop of arithmetic on globals, a function called in a loop, and
+     * lists.fwjs-style recursion over a list of closures, for comparing
+     * evaluators.
+     */
+    static Map<String,String> evaluatorWorkloads() {
+        Map<String,String> workloads = new LinkedHashMap<String,String>();
+        workloads.put("while-loop",
+                "var i = 0;\n"
+                + "var total = 0;\n"
+                + "while (i < 2000) { total = total + i * 2 % 7; i = i + 1; }\n");
+        workloads.put("calls",
+                "var factorial = function (num) {\n"
+                + "  var tmp = num;\n"
+                + "  while (num > 2) { num = num - 1; tmp = tmp * num; }\n"
+                + "  tmp;\n"
+                + "};\n"
+                + "var i = 0;\n"
+                + "while (i < 200) { factorial(12); i = i + 1; }\n");
+        workloads.put("list-walk",
+                "var pair = function(x, y) { function(f) { f(x, y); }; };\n"
+                + "var sumList = function(lst) {\n"
+                + "  if (lst == null) 0; else lst(function(x, y) { x; }) + sumList(lst(function(x, y) { y; }));\n"
+                + "};\n"
+                + "var build = function(n) { if (n == 0) null; else pair(n, build(n - 1)); };\n"
+                + "var nums = build(200);\n"
+                + "var i = 0;\n"
+                + "while (i < 20) { sumList(nums); i = i + 1; }\n");
+        return workloads;
+    }
+
+    /**
+     * The evaluatorWorkloads run by the tree walker and by BytecodeVM,
+     * without and with the optimization passes.
+     */
+    static void bytecode() throws Exception {
+        ScriptCache cache = new ScriptCache(ParseMode.TWO_STAGE, 1);
+        final BytecodeVM vm = new BytecodeVM();
+        for (Map.Entry<String,String> e : evaluatorWorkloads().entrySet()) {
+            Expression plain = RecursiveDescentParser.compile(e.getValue());
+            for (final Expression prog : Arrays.asList(plain, cache.getPasses().run(plain))) {
+                double tt = timeMicros(1000, () -> prog.evaluate(new Environment()));
+                double tb = timeMicros(1000, () -> vm.run(prog, new Environment()));
+                System.out.printf("%-11s %-9s tree %8.1fus, bytecode %8.1fus (%.2fx)%n",
+                        e.getKey(), prog == plain ? "plain" : "optimized", tt, tb, tt / tb);
+            }
+        }
+    }
+
+    /**
+     * The evaluatorWorkloads, a function doing arithmetic called in a loop,
+     * and one looping over variables of its own, run by the tree walker with and without the jit pass, without
+     * and with the other passes.  Functions are compiled once hot, during
+     * the warm-up.
+     */
+    static void jit() throws Exception {
+        Map<String,String> workloads = evaluatorWorkloads();
+        workloads.put("arithmetic",
+                "var poly = function(x) { (x * x + 3 * x + 7) % 1000 - x / 3; };\n"
+                + "var i = 0;\n"
+                + "var total = 0;\n"
+                + "while (i < 2000) { total = total + poly(i); i = i + 1; }\n");
+        workloads.put("local-loop",
+                "var sum = function(n) {\n"
+                + "  var i = 0; var s = 0;\n"
+                + "  while (i < n) { s = s + i * 2 % 7; i = i + 1; } s; };\n"
+                + "var j = 0;\n"
+                + "while (j < 20) { sum(100); j = j + 1; }\n");
+        ScriptCache cache = new ScriptCache(ParseMode.TWO_STAGE, 1);
+        for (Map.Entry<String,String> e : workloads.entrySet()) {
+            Expression plain = RecursiveDescentParser.compile(e.getValue());
+            for (final Expression prog : Arrays.asList(plain, cache.getPasses().run(plain))) {
+                final Expression hot = HotFunctions.wrap(prog, HotFunctions.DEFAULT_THRESHOLD);
+                double tt = timeMicros(1000, () -> prog.evaluate(new Environment()));
+                double tj = timeMicros(1000, () -> hot.evaluate(new Environment()));
+                System.out.printf("%-11s %-9s tree %8.1fus, jit %8.1fus (%.2fx)%n",
+                        e.getKey(), prog == plain ? "plain" : "optimized", tt, tj, tt / tj);
+            }
+        }
+    }
+
+    /**
+     * Workloads run by the tree walker, and tiered by the jit pass.  In
+     * cold no function gets hot, so tiering only counts; the others get
+     * hot through calls or loops, and test == and booleans.  In
+     * changing-types the function's == sees booleans halfway through each
+     * run, so the tiered run deoptimizes and recompiles it the first time.
+     */
+    static void tiering() throws Exception {
+        Map<String,String> workloads = new LinkedHashMap<String,String>();
+        workloads.put("cold",
+                "var sum = function(n) { var s = 0; while (n > 0) { s = s + n % 7; n = n - 1; } s; };\n"
+                + "var i = 0; while (i < 50) { sum(20); i = i + 1; }\n");
+        workloads.put("one-loop",
+                "var sum = function(n) { var s = 0; while (n > 0) { s = s + n % 7; n = n - 1; } s; };\n"
+                + "sum(20000);\n");
+        workloads.put("equality",
+                "var count = function(x, n) {\n"
+                + "  var c = 0; var i = 0;\n"
+                + "  while (i < n) { if (i % 10 == x) c = c + 1; i = i + 1; } c; };\n"
+                + "var j = 0;\n"
+                + "while (j < 100) { count(j % 10, 100); j = j + 1; }\n");
+        workloads.put("changing-types",
+                "var eq = function(a, b) { if (a == b) 1; else 0; };\n"
+                + "var i = 0; var t = 0;\n"
+                + "while (i < 3000) { t = t + eq(i % 3, 1); i = i + 1; }\n"
+                + "i = 0;\n"
+                + "while (i < 3000) { t = t + eq(i % 3 == 1, true); i = i + 1; }\n");
+        for (Map.Entry<String,String> e : workloads.entrySet()) {
+            final Expression tree = RecursiveDescentParser.compile(e.getValue());
+            final Expression tiered = HotFunctions.wrap(RecursiveDescentParser.compile(e.getValue()),
+                    HotFunctions.DEFAULT_THRESHOLD, FunctionProfile.DEFAULT_LOOP_THRESHOLD, null);
+            double tt = timeMicros(500, () -> tree.evaluate(new Environment()));
+            double tj = timeMicros(500, () -> tiered.evaluate(new Environment()));
+            System.out.printf("%-14s tree %8.1fus, tiered %8.1fus (%.2fx)%n",
+                    e.getKey(), tt, tj, tt / tj);
+        }
+    }
+
+    /**
+     * The loop of while.fwjs, summing instead of printing, run once to
+     * 10^7 (or -Dosr.iterations=n) by the tree walker and with the jit
+     * pass, which compiles it on stack; without and with the other passes.
+     */
+    static void osr() throws Exception {
+        int n = Integer.getInteger("osr.iterations", 10000000);
+        String src = "var i = 0;\n"
+                + "var total = 0;\n"
+                + "while (i<" + n + ") {\n"
+                + "  total = total + i % 7;\n"
+                + "  i = i + 1;\n"
+                + "}\n";
+        ScriptCache cache = new ScriptCache(ParseMode.TWO_STAGE, 1);
+        for (boolean optimize : new boolean[] { false, true }) {
+            double[] millis = new double[2];
+            for (int i = 0; i < 2; i++) {
+                Expression prog = RecursiveDescentParser.compile(src);
+                if (optimize) prog = cache.getPasses().run(prog);
+                if (i == 1) prog = HotFunctions.wrap(prog, HotFunctions.DEFAULT_THRESHOLD,
+                        FunctionProfile.DEFAULT_LOOP_THRESHOLD, null);
+                long start = System.nanoTime();
+                prog.evaluate(new Environment());
+                millis[i] = (System.nanoTime() - start) / 1e6;
+            }
+            System.out.printf("%-9s %d iterations: tree %8.1fms, osr %8.1fms (%.2fx)%n",
+                    optimize ? "optimized" : "plain", n, millis[0], millis[1],
+                    millis[0] / millis[1]);
+        }
+    }
+
+    /**
+     * The evaluatorWorkloads compiled by ClosureCompiler and run, against the
+     * tree walker: the time to compile, and to run once in a fresh JVM and
+     * when warmed up.
+     */
+    static void closureCompile() throws Exception {
+        ScriptCache cache = new ScriptCache(ParseMode.TWO_STAGE, 1);
+        for (Map.Entry<String,String> e : evaluatorWorkloads().entrySet()) {
+            Expression plain = RecursiveDescentParser.compile(e.getValue());
+            for (final Expression prog : Arrays.asList(plain, cache.getPasses().run(plain))) {
+                String name = String.format("%-11s %-9s", e.getKey(),
+                        prog == plain ? "plain" : "optimized");
+                long start = System.nanoTime();
+                prog.evaluate(new Environment());
+                double firstTree = (System.nanoTime() - start) / 1e3;
+                start = System.nanoTime();
+                final Expression compiled = ClosureCompiler.compile(prog);
+                double compile = (System.nanoTime() - start) / 1e3;
+                compiled.evaluate(new Environment());
+                double firstCompiled = (System.nanoTime() - start) / 1e3;
+                double tt = timeMicros(1000, () -> prog.evaluate(new Environment()));
+                double tc = timeMicros(1000, () -> compiled.evaluate(new Environment()));
+                System.out.printf("%s compile %6.1fus; first run tree %8.1fus, "
+                        + "closures %8.1fus; warm tree %8.1fus, closures %8.1fus (%.2fx)%n",
+                        name, compile, firstTree, firstCompiled, tt, tc, tt / tc);
+            }
+        }
+    }
+
+    /**
+     * The evaluatorWorkloads run by the tree walker with its nodes
+     * specializing themselves and with them left generic, without and with
+     * the optimization passes.  Each tree is parsed afresh, as nodes keep
+     * their specialization.
+     */
+    static void specialize() throws Exception {
+        ScriptCache[] caches = new ScriptCache[2];
+        for (int i = 0; i < 2; i++) {
+            caches[i] = new ScriptCache(ParseMode.TWO_STAGE, 1);
+            caches[i].setSpecialize(i == 0);
+        }
+        for (Map.Entry<String,String> e : evaluatorWorkloads().entrySet()) {
+            for (boolean optimize : new boolean[] { false, true }) {
+                double[] times = new double[2];
+                for (int i = 0; i < 2; i++) {
+                    Expression prog = RecursiveDescentParser.compile(e.getValue());
+                    final Expression tree = optimize ? caches[i].getPasses().run(prog) : prog;
+                    caches[i].getSpecializations().install(tree);
+                    times[i] = timeMicros(1000, () -> tree.evaluate(new Environment()));
+                }
+                System.out.printf("%-11s %-9s generic %8.1fus, specialized %8.1fus (%.2fx)%n",
+                        e.getKey(), optimize ? "optimized" : "plain", times[1], times[0],
+                        times[1] / times[0]);
+            }
+        }
+        System.out.println(caches[0].getSpecializations().report());
+    }
+
+    /**
+     * The evaluatorWorkloads, and calls through one site to two and to six
+     * functions, run by the tree walker with its call sites linking the
+     * functions they call and with every call bound the generic way,
+     * without and with the optimization passes.  Each tree is parsed
+     * afresh, as call sites keep what they linked.  The sites of the
+     * linking runs are listed at the end.
+     */
+    static void inlineCaches() throws Exception {
+        Map<String,String> workloads = evaluatorWorkloads();
+        String apply = "var apply = function(f, x) { f(x); };\n"
+                + "var a = function(x) { x + 1; };\n"
+                + "var b = function(x) { x * 2; };\n";
+        workloads.put("polymorphic", apply
+                + "var i = 0;\n"
+                + "var total = 0;\n"
+                + "while (i < 1000) { total = total + apply(a, i) + apply(b, i); i = i + 1; }\n");
+        workloads.put("megamorphic", apply
+                + "var c = function(x) { x - 3; };\n"
+                + "var d = function(x) { x % 5; };\n"
+                + "var e = function(x) { x / 2; };\n"
+                + "var g = function(x) { 0 - x; };\n"
+                + "var i = 0;\n"
+                + "var total = 0;\n"
+                + "while (i < 300) {\n"
+                + "  total = total + apply(a, i) + apply(b, i) + apply(c, i) + apply(d, i)\n"
+                + "      + apply(e, i) + apply(g, i);\n"
+                + "  i = i + 1;\n"
+                + "}\n");
+        ScriptCache[] caches = new ScriptCache[2];
+        for (int i = 0; i < 2; i++) {
+            caches[i] = new ScriptCache(ParseMode.TWO_STAGE, 1);
+            caches[i].setInlineCaches(i == 0);
+            caches[i].setInlineCacheProfiling(i == 0);
+        }
+        // The linking runs' sites, all listed together
+        InlineCache.Sites listed = caches[0].newCallSites();
+        for (Map.Entry<String,String> e : workloads.entrySet()) {
+            for (boolean optimize : new boolean[] { false, true }) {
+                double[] times = new double[2];
+                for (int i = 0; i < 2; i++) {
+                    Expression prog = RecursiveDescentParser.compile(e.getValue());
+                    final Expression tree = optimize ? caches[i].getPasses().run(prog) : prog;
+                    (i == 0 ? listed : caches[i].newCallSites()).install(tree);
+                    times[i] = timeMicros(1000, () -> tree.evaluate(new Environment()));
+                }
+                System.out.printf("%-11s %-9s generic %8.1fus, cached %8.1fus (%.2fx)%n",
+                        e.getKey(), optimize ? "optimized" : "plain", times[1], times[0],
+                        times[1] / times[0]);
+            }
+        }
+        StringBuilder report = new StringBuilder();
+        listed.report(report, 0);
+        System.out.println(report);
+    }
+
+    /**
+     * How many nodes of each kind the fuse pass makes in each sample
+     * script; then the evaluatorWorkloads run by the tree walker without
+     * and with fusing, on plain trees and after the other standard passes.
+     */
+    static void fuse() throws Exception {
+        ScriptCache cache = new ScriptCache(ParseMode.TWO_STAGE, 1);
+        for (Map.Entry<String,String> e : TestSupport.sampleScripts().entrySet()) {
+            Superinstructions.reset();
+            cache.getPasses().run(RecursiveDescentParser.compile(e.getValue()));
+            String report = Superinstructions.report().replace(String.format("%n"), ", ");
+            System.out.printf("%-20s %s%n", e.getKey(), report.isEmpty() ? "-" : report);
+        }
+        List<String> unfused = new ArrayList<String>(ScriptCache.STANDARD_PASSES);
+        unfused.remove("fuse");
+        for (Map.Entry<String,String> e : evaluatorWorkloads().entrySet()) {
+            for (boolean optimize : new boolean[] { false, true }) {
+                Expression prog = RecursiveDescentParser.compile(e.getValue());
+                cache.setPasses(unfused);
+                final Expression plain = optimize ? cache.getPasses().run(prog) : prog;
+                cache.setPasses(ScriptCache.STANDARD_PASSES);
+                final Expression fused = optimize ? cache.getPasses().run(prog)
+                        : Superinstructions.fuse(prog);
+                double tp = timeMicros(1000, () -> plain.evaluate(new Environment()));
+                double tf = timeMicros(1000, () -> fused.evaluate(new Environment()));
+                System.out.printf("%-11s %-9s unfused %8.1fus, fused %8.1fus (%.2fx)%n",
+                        e.getKey(), optimize ? "optimized" : "plain", tp, tf, tp / tf);
+            }
+        }
+    }
+
+    /**
+     * Bytes allocated and time taken per run by the tree walker, on
+     * while.fwjs and factorial.fwjs (with their output thrown away) and
+     * the evaluatorWorkloads, as parsed and after the standard passes.
+     * Run against a tree without shared values to see what they save.
+     */
+    static void values() throws Exception {
+        Map<String,String> scripts = new LinkedHashMap<String,String>();
+        Map<String,String> samples = TestSupport.sampleScripts();
+        scripts.put("while.fwjs", samples.get("while.fwjs"));
+        scripts.put("factorial.fwjs", samples.get("factorial.fwjs"));
+        scripts.putAll(evaluatorWorkloads());
+        ScriptCache cache = new ScriptCache(ParseMode.TWO_STAGE, 1);
+        for (Map.Entry<String,String> e : scripts.entrySet()) {
+            for (boolean optimize : new boolean[] { false, true }) {
+                Expression parsed = RecursiveDescentParser.compile(e.getValue());
+                final Expression prog = optimize ? cache.getPasses().run(parsed) : parsed;
+                double bytes = withoutOutput(
+                        () -> allocatedBytes(2000, () -> prog.evaluate(new Environment())));
+                double t = withoutOutput(() -> timeMicros(2000, () -> prog.evaluate(new Environment())));
+                System.out.printf("%-15s %-9s %10.0f bytes/run %9.1fus/run%n",
+                        e.getKey(), optimize ? "optimized" : "plain", bytes, t);
+            }
+        }
+    }
+
+    private static long usedHeapAfterGc() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+}
@@ -0,0 +1,11 @@
+package edu.sjsu.fwjs;
+
+/**
+ * Every test of ExpressionTest, with the trees compiled for BytecodeVM.
+ */
+public class BytecodeVMExpressionTest extends ExpressionTest {
+    @Override
+    protected Value evaluate(Expression e, Environment env) {
+        return new BytecodeVM().run(e, env);
+    }
+}
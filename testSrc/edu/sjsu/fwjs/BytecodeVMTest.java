@@ -0,0 +1,54 @@
+package edu.sjsu.fwjs;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class BytecodeVMTest {
+
+    private static String output(boolean bytecode, Expression prog) {
+        return TestSupport.output(bytecode ? p -> new BytecodeVM().run(p, new Environment())
+                : TestSupport.RECURSIVE, prog);
+    }
+
+    @Test
+    // Compiled to bytecode, including tail calls and resolved slots.
+    public void testSampleScripts() throws Exception {
+        TestSupport.assertSampleScriptsRunAlike(prog -> new BytecodeVM().run(prog, new Environment()));
+    }
+
+    @Test
+    // Far deeper than the Java stack would allow, and not in tail position.
+    public void testDeepRecursion() {
+        Expression prog = RecursiveDescentParser.compile(
+                "var sum = function(n) { if (n == 0) 0; else 1 + sum(n - 1); }; sum(200000);");
+        assertEquals(new IntVal(200000), new BytecodeVM().run(prog, new Environment()));
+        Expression resolved = TailCalls.mark(ScopeResolver.resolve(prog));
+        assertEquals(new IntVal(200000), new BytecodeVM().run(resolved, new Environment()));
+    }
+
+    @Test
+    public void testErrors() {
+        String[] progs = {
+            "if (1) 2;",
+            "var x = 1; var x = 2;",
+            "var f = function(a) { a; }; f(1, 2);",
+            "if (true) {} else 1;",
+            "var f = 1; f(2);",
+        };
+        for (String src : progs) {
+            Expression prog = RecursiveDescentParser.compile(src);
+            assertEquals(src, output(false, prog), output(true, prog));
+        }
+    }
+
+    @Test
+    public void testCode() {
+        Bytecode code = BytecodeCompiler.compile(RecursiveDescentParser.compile(
+                "while (i < 3) i = i + 1;"));
+        assertEquals("0 var 0\n2 const 1\n4 lt\n5 while-false 17\n"
+                + "7 var 0\n9 const 2\n11 add\n12 assign 3\n14 pop\n15 jump 0\n17 null\n18 return\n",
+                code.disassemble());
+        assertEquals(2, code.maxStack);
+    }
+}
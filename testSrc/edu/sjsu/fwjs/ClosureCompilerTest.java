@@ -0,0 +1,50 @@
+package edu.sjsu.fwjs;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+public class ClosureCompilerTest {
+
+    private static String output(boolean compiled, Expression prog) {
+        return TestSupport.output(compiled ? p -> ClosureCompiler.compile(p).evaluate(new Environment())
+                : TestSupport.RECURSIVE, prog);
+    }
+
+    @Test
+    public void testSampleScripts() throws Exception {
+        TestSupport.assertSampleScriptsRunAlike(prog -> ClosureCompiler.compile(prog).evaluate(new Environment()));
+    }
+
+    @Test
+    public void testErrors() {
+        String[] progs = {
+            "if (1) 2;",
+            "var x = 1; var x = 2;",
+            "var f = function(a) { a; }; f(1, 2);",
+            "if (true) {} else 1;",
+            "var f = 1; f(2);",
+            "var p = function(x) { print(x); x; }; true + p(1);",
+            "1 / 0;",
+            "while (3) 1;",
+        };
+        for (String src : progs) {
+            Expression prog = RecursiveDescentParser.compile(src);
+            assertEquals(src, output(false, prog), output(true, prog));
+        }
+    }
+
+    @Test
+    // Closures made by compiled code call compiled code.
+    public void testCompiledClosures() {
+        Expression prog = ClosureCompiler.compile(RecursiveDescentParser.compile(
+                "var f = function(x) { x + 1; }; f;"));
+        ClosureVal f = (ClosureVal) prog.evaluate(new Environment());
+        assertFalse(f.getBody() instanceof BinOpExpr);
+        ArrayList<Value> args = new ArrayList<Value>();
+        args.add(new IntVal(41));
+        assertEquals(new IntVal(42), f.apply(args));
+    }
+}
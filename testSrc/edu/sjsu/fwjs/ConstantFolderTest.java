@@ -0,0 +1,114 @@
+package edu.sjsu.fwjs;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ConstantFolderTest {
+
+    private Expression fold(String src) {
+        return ConstantFolder.fold(RecursiveDescentParser.compile(src));
+    }
+
+    private List<Expression> foldStatements(String src) {
+        return ((BlockExpr) fold(src)).getStatements();
+    }
+
+    private Value constant(Expression e) {
+        assertTrue("not folded: " + e, e instanceof ValueExpr);
+        return ((ValueExpr) e).getValue();
+    }
+
+    @Test
+    public void testArithmetic() {
+        assertEquals(new IntVal(7), constant(fold("1 + 2 * 3;")));
+        assertEquals(new BoolVal(true), constant(fold("(10 % 4) * 2 >= 4;")));
+        assertEquals(new BoolVal(false), constant(fold("1 == true;")));
+    }
+
+    @Test
+    // Operations that fail are left to fail when they are reached.
+    public void testErrorsKept() {
+        Expression prog = fold("10 / (5 - 5);");
+        assertTrue(prog instanceof BinOpExpr);
+        try {
+            prog.evaluate(new Environment());
+            fail("expected a division by zero");
+        } catch (ArithmeticException e) {
+            // as without folding
+        }
+        assertTrue(fold("true + 1;") instanceof BinOpExpr);
+        assertTrue(fold("if (false) 1 / 0;") instanceof IfExpr);
+    }
+
+    @Test
+    // Folding applies operators without specializing any node.
+    public void testNotSpecialized() {
+        Specializations specializations = new Specializations();
+        BinOpExpr prog = (BinOpExpr) RecursiveDescentParser.compile("1 + 2 * 3;");
+        specializations.install(prog);
+        constant(ConstantFolder.fold(prog));
+        assertEquals(Specializations.UNINITIALIZED, prog.getSpecialization());
+        BinOpExpr kept = (BinOpExpr) fold("10 / (5 - 5);");
+        assertEquals(Specializations.UNINITIALIZED, kept.getSpecialization());
+        assertEquals("", specializations.report());
+    }
+
+    @Test
+    public void testIfCollapsed() {
+        assertEquals(new IntVal(3), constant(fold("if (1 < 2) { 3; } else { 4; }")));
+        assertEquals(new IntVal(4), constant(fold("if (1 > 2) { 3; } else { 4; }")));
+        assertTrue(fold("if (1) 2; else 3;") instanceof IfExpr);
+    }
+
+    @Test
+    public void testPropagation() {
+        List<Expression> stmts = foldStatements("var a = 2; var b = a * 3; print(b);");
+        assertEquals(new IntVal(6), constant(((VarDeclExpr) stmts.get(1)).getInitializer()));
+        assertEquals(new IntVal(6), constant(((PrintExpr) stmts.get(2)).getExpression()));
+    }
+
+    @Test
+    public void testAssignedNotPropagated() {
+        List<Expression> stmts = foldStatements("var a = 2; var f = function() { a = 3; }; a;");
+        assertTrue(stmts.get(2) instanceof VarExpr);
+    }
+
+    @Test
+    // Only uses that certainly run after the declaration are replaced.
+    public void testUsesBeforeDeclaration() {
+        List<Expression> stmts = foldStatements(
+                "var f = function() { a; }; var a = 1; if (c) { var b = 2; } a; b;");
+        FunctionDeclExpr f = (FunctionDeclExpr) ((VarDeclExpr) stmts.get(0)).getInitializer();
+        assertTrue(f.getBody() instanceof VarExpr);
+        assertEquals(new IntVal(1), constant(stmts.get(3)));
+        assertTrue(stmts.get(4) instanceof VarExpr);
+    }
+
+    @Test
+    public void testShadowing() {
+        List<Expression> stmts = foldStatements(
+                "var a = 1; var f = function(a) { a; }; var g = function() { a; var a = 2; a; };"
+                + " var h = function() { a; };");
+        FunctionDeclExpr f = (FunctionDeclExpr) ((VarDeclExpr) stmts.get(1)).getInitializer();
+        assertTrue(f.getBody() instanceof VarExpr);
+        FunctionDeclExpr g = (FunctionDeclExpr) ((VarDeclExpr) stmts.get(2)).getInitializer();
+        List<Expression> gBody = ((BlockExpr) g.getBody()).getStatements();
+        assertTrue(gBody.get(0) instanceof VarExpr);
+        assertEquals(new IntVal(2), constant(gBody.get(2)));
+        FunctionDeclExpr h = (FunctionDeclExpr) ((VarDeclExpr) stmts.get(3)).getInitializer();
+        assertEquals(new IntVal(1), constant(h.getBody()));
+    }
+
+    @Test
+    public void testSampleScriptsUnchanged() throws Exception {
+        for (Map.Entry<String,String> e : TestSupport.sampleScripts().entrySet()) {
+            Expression prog = RecursiveDescentParser.compile(e.getValue());
+            assertEquals(e.getKey(), TestSupport.output(TestSupport.RECURSIVE, prog),
+                    TestSupport.output(TestSupport.RECURSIVE, ConstantFolder.fold(prog)));
+        }
+    }
+}
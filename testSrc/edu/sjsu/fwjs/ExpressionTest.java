@@ -9,11 +9,18 @@ import org.junit.Test;
 
 public class ExpressionTest {
 
+    /**
+     * Evaluates e in env.  Subclasses run the same tests with other evaluators.
+     */
+    protected Value evaluate(Expression e, Environment env) {
+        return e.evaluate(env);
+    }
+
     @Test
     public void testValueExpr() {
         Environment env = new Environment();
         ValueExpr ve = new ValueExpr(new IntVal(3));
-        IntVal i = (IntVal) ve.evaluate(env);
+        IntVal i = (IntVal) evaluate(ve, env);
         assertEquals(i.toInt(), 3);
     }
     
@@ -23,7 +30,7 @@ public class ExpressionTest {
         Value v = new IntVal(3);
         env.updateVar("x", v);
         Expression e = new VarExpr("x");
-        assertEquals(e.evaluate(env), v);
+        assertEquals(evaluate(e, env), v);
     }
     
     @Test
@@ -32,7 +39,7 @@ public class ExpressionTest {
         Value v = new IntVal(3);
         env.updateVar("x", v);
         Expression e = new VarExpr("y");
-        assertEquals(e.evaluate(env), new NullVal());
+        assertEquals(evaluate(e, env), new NullVal());
     }
     
     @Test
@@ -41,7 +48,7 @@ public class ExpressionTest {
         IfExpr ife = new IfExpr(new ValueExpr(new BoolVal(true)),
                 new ValueExpr(new IntVal(1)),
                 new ValueExpr(new IntVal(2)));
-        IntVal iv = (IntVal) ife.evaluate(env);
+        IntVal iv = (IntVal) evaluate(ife, env);
         assertEquals(iv.toInt(), 1);
     }
     
@@ -51,7 +58,7 @@ public class ExpressionTest {
         IfExpr ife = new IfExpr(new ValueExpr(new BoolVal(false)),
                 new ValueExpr(new IntVal(1)),
                 new ValueExpr(new IntVal(2)));
-        IntVal iv = (IntVal) ife.evaluate(env);
+        IntVal iv = (IntVal) evaluate(ife, env);
         assertEquals(iv.toInt(), 2);
     }
     
@@ -62,7 +69,7 @@ public class ExpressionTest {
                 new ValueExpr(new IntVal(1)),
                 new ValueExpr(new IntVal(2)));
         try {
-            ife.evaluate(env);
+            evaluate(ife, env);
             fail();
         } catch (Exception e) {}
     }
@@ -72,7 +79,7 @@ public class ExpressionTest {
         Environment env = new Environment();
         IntVal inVal = new IntVal(42);
         AssignExpr ae = new AssignExpr("x", new ValueExpr(inVal));
-        IntVal iv = (IntVal) ae.evaluate(env);
+        IntVal iv = (IntVal) evaluate(ae, env);
         assertEquals(iv, inVal);
         assertEquals(env.resolveVar("x"), inVal);
     }
@@ -83,7 +90,7 @@ public class ExpressionTest {
         BinOpExpr boe = new BinOpExpr(Op.ADD,
                 new ValueExpr(new IntVal(1)),
                 new ValueExpr(new IntVal(2)));
-        IntVal iv = (IntVal) boe.evaluate(env);
+        IntVal iv = (IntVal) evaluate(boe, env);
         assertEquals(iv, new IntVal(3));
     }
     
@@ -94,7 +101,22 @@ public class ExpressionTest {
                 new BinOpExpr(Op.MULTIPLY,
                         new VarExpr("x"),
                         new ValueExpr(new IntVal(3))));
-        assertEquals(se.evaluate(env), new IntVal(6));
+        assertEquals(evaluate(se, env), new IntVal(6));
+    }
+
+    @Test
+    public void testBlockExpr() {
+        Environment env = new Environment();
+        List<Expression> stmts = new ArrayList<Expression>();
+        stmts.add(new AssignExpr("x", new ValueExpr(new IntVal(2))));
+        stmts.add(new AssignExpr("x", new BinOpExpr(Op.ADD,
+                new VarExpr("x"),
+                new ValueExpr(new IntVal(1)))));
+        stmts.add(new BinOpExpr(Op.MULTIPLY,
+                new VarExpr("x"),
+                new ValueExpr(new IntVal(3))));
+        BlockExpr block = new BlockExpr(stmts);
+        assertEquals(evaluate(block, env), new IntVal(9));
     }
     
     @Test
@@ -108,7 +130,7 @@ public class ExpressionTest {
                         new BinOpExpr(Op.SUBTRACT,
                                 new VarExpr("x"),
                                 new ValueExpr(new IntVal(1)))));
-        we.evaluate(env);
+        evaluate(we, env);
         assertEquals(new IntVal(0), env.resolveVar("x"));
     }
     
@@ -122,7 +144,7 @@ public class ExpressionTest {
         List<Expression> args = new ArrayList<Expression>();
         args.add(new ValueExpr(new IntVal(321)));
         FunctionAppExpr app = new FunctionAppExpr(f,args);
-        assertEquals(new IntVal(321), app.evaluate(env));
+        assertEquals(new IntVal(321), evaluate(app, env));
     }
     
     @Test
@@ -140,7 +162,7 @@ public class ExpressionTest {
         args.add(new ValueExpr(new IntVal(8)));
         args.add(new ValueExpr(new IntVal(2)));
         FunctionAppExpr app = new FunctionAppExpr(f,args);
-        assertEquals(new IntVal(4), app.evaluate(env));
+        assertEquals(new IntVal(4), evaluate(app, env));
     }
     
     @Test
@@ -151,7 +173,7 @@ public class ExpressionTest {
         FunctionDeclExpr f = new FunctionDeclExpr(new ArrayList<String>(),
                 new VarExpr("x"));
         SeqExpr seq = new SeqExpr(newVar, new FunctionAppExpr(f, new ArrayList<Expression>()));
-        Value v = seq.evaluate(env);
+        Value v = evaluate(seq, env);
         assertEquals(new IntVal(112358), v);
     }
     
@@ -164,7 +186,7 @@ public class ExpressionTest {
                 new SeqExpr(new VarDeclExpr("x", new ValueExpr(new IntVal(42))),
                         new VarExpr("x")));
         SeqExpr seq = new SeqExpr(newVar, new FunctionAppExpr(f, new ArrayList<Expression>()));
-        Value v = seq.evaluate(env);
+        Value v = evaluate(seq, env);
         assertEquals(new IntVal(42), v);
     }
     
@@ -179,7 +201,7 @@ public class ExpressionTest {
         SeqExpr seq = new SeqExpr(new SeqExpr(newVar,
                 new FunctionAppExpr(f, new ArrayList<Expression>())),
                 new VarExpr("x"));
-        Value v = seq.evaluate(env);
+        Value v = evaluate(seq, env);
         assertEquals(new IntVal(112358), v);
     }
     
@@ -194,7 +216,7 @@ public class ExpressionTest {
         SeqExpr seq = new SeqExpr(new SeqExpr(newVar,
                 new FunctionAppExpr(f, new ArrayList<Expression>())),
                 new VarExpr("x"));
-        Value v = seq.evaluate(env);
+        Value v = evaluate(seq, env);
         assertEquals(new IntVal(42), v);
     }
     
@@ -204,9 +226,27 @@ public class ExpressionTest {
         Environment env = new Environment();
         VarDeclExpr newVar = new VarDeclExpr("x", new ValueExpr(new IntVal(99)));
         try {
-            (new SeqExpr(newVar, newVar)).evaluate(env);
+            evaluate(new SeqExpr(newVar, newVar), env);
             fail();
         } catch (Exception e) {}
     }
-}
 
+    @Test
+    // Evaluating gives the shared booleans, null and small integers, but
+    // values made some other way still behave the same.
+    public void testCanonicalValues() {
+        Environment env = new Environment();
+        assertSame(BoolVal.TRUE, evaluate(new BinOpExpr(Op.LT, new ValueExpr(new IntVal(1)),
+                new ValueExpr(new IntVal(2))), env));
+        assertSame(BoolVal.FALSE, evaluate(new BinOpExpr(Op.EQ, new ValueExpr(new IntVal(1)),
+                new ValueExpr(new BoolVal(true))), env));
+        assertSame(NullVal.NULL, evaluate(new VarExpr("undefined"), env));
+        assertSame(IntVal.of(7), evaluate(new BinOpExpr(Op.ADD, new ValueExpr(new IntVal(3)),
+                new ValueExpr(new IntVal(4))), env));
+        assertEquals(new IntVal(100000), IntVal.of(100000));
+        assertEquals(BoolVal.TRUE, evaluate(new BinOpExpr(Op.EQ, new ValueExpr(new IntVal(100000)),
+                new ValueExpr(new IntVal(100000))), env));
+        assertEquals(new IntVal(1), evaluate(new IfExpr(new ValueExpr(new BoolVal(true)),
+                new ValueExpr(new IntVal(1)), new ValueExpr(new IntVal(2))), env));
+    }
+}
@@ -0,0 +1,122 @@
+package edu.sjsu.fwjs;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Differential tests: the hand-written front end must build exactly the
+ * same trees as the ANTLR one.  Trees are compared through their
+ * serialized form.
+ */
+public class FrontEndTest {
+
+    private ScriptParser antlr = new ScriptParser(ParseMode.LL, BuildMode.VISITOR);
+
+    private void assertSameTree(String name, String src) {
+        assertArrayEquals(name,
+                AstSerializer.write(antlr.compile(src)),
+                AstSerializer.write(RecursiveDescentParser.compile(src)));
+    }
+
+    @Test
+    public void testSampleScripts() throws Exception {
+        int checked = 0;
+        for (File f : new File("fwjsScripts").listFiles()) {
+            if (!f.getName().endsWith(".fwjs") || f.getName().equals("objects.fwjs")) continue;
+            assertSameTree(f.getName(), new String(Files.readAllBytes(f.toPath()), "UTF-8"));
+            checked++;
+        }
+        assertTrue(checked >= 10);
+    }
+
+    @Test
+    public void testPrecedenceAndAssociativity() {
+        assertSameTree("arith", "1 - 2 - 3 * 4 / 5 % 6 + 7;");
+        assertSameTree("compare", "1 < 2 == 3 >= 4 + 5;");
+        assertSameTree("calls", "f(1)(2, 3) * g() + function(x) { x; }(4);");
+        assertSameTree("assign", "x = y = 1 + 2 < 3; var z = w = 4 * 5;");
+        assertSameTree("assign in operand", "1 + x = 2 + 3;");
+        assertSameTree("parens", "(1 + 2) * (3 - (4));");
+    }
+
+    @Test
+    public void testStatements() {
+        assertSameTree("dangling else", "if (a) if (b) x; else y;");
+        assertSameTree("two elses", "if (a) if (b) if (c) x; else y; else z;");
+        assertSameTree("else if", "if (a) if (b) x; else if (c) y; else z;");
+        assertSameTree("else through while", "if (a) while (b) if (c) x; else y; z;");
+        assertSameTree("braced then", "if (a) { if (b) x; } else y;");
+        assertSameTree("blocks", "if (a) { ; b; } else { } while (c) ; ;");
+        assertSameTree("functions", "var f = function() { ; }; var g = function(a, b) { a; b; };");
+        assertSameTree("print", "print(1 + 2); print(f(x));");
+    }
+
+    @Test
+    public void testLexerQuirks() {
+        assertSameTree("keywords as prefixes", "iffy = truex + nullable + variable + whiley;");
+        assertSameTree("pipes in identifiers", "a|b = c|d;");
+        assertSameTree("leading zero", "print(0); x = 10 - 0;");
+        assertSameTree("comments", "/* a\n b */ x = 1; // y = 2;\r\n z = 3;");
+    }
+
+    @Test
+    public void testSyntaxError() {
+        try {
+            RecursiveDescentParser.compile("var x = ;");
+            fail();
+        } catch (ParseException e) {
+            assertEquals(1, e.getLine());
+            assertEquals(8, e.getColumn());
+        }
+    }
+
+    /**
+     * What a fresh JVM running the interpreter prints, with ANTLR left off
+     * the class path.
+     */
+    private static String runWithoutAntlr(String... args) throws Exception {
+        List<String> cp = new ArrayList<String>();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            if (!entry.toLowerCase().contains("antlr")) cp.add(entry);
+        }
+        List<String> cmd = new ArrayList<String>();
+        cmd.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        cmd.add("-cp");
+        cmd.add(String.join(File.pathSeparator, cp));
+        cmd.add(Interpreter.class.getName());
+        for (String arg : args) cmd.add(arg);
+        Process p = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+        String out = new String(p.getInputStream().readAllBytes(), "UTF-8").trim();
+        p.waitFor();
+        return out;
+    }
+
+    @Test
+    // A mistyped option is not taken for a script file.
+    public void testUnknownOption() throws Exception {
+        String out = runWithoutAntlr("--no-optimise", "fwjsScripts/factorial.fwjs");
+        assertTrue(out, out.startsWith("Unknown option: --no-optimise"));
+        assertTrue(out, out.contains(Interpreter.USAGE.split(System.lineSeparator())[0]));
+    }
+
+    @Test
+    // The rd front end, and a script found in the disk cache, need no ANTLR.
+    public void testRunsWithoutAntlr() throws Exception {
+        assertEquals("40320", runWithoutAntlr("--front-end=rd", "fwjsScripts/factorial.fwjs"));
+
+        Path dir = Files.createTempDirectory("fwjsc");
+        String src = new String(Files.readAllBytes(new File("fwjsScripts/factorial.fwjs").toPath()), "UTF-8");
+        AstCache cache = new AstCache(dir);
+        cache.store(ScriptCache.hash(src), RecursiveDescentParser.compile(src));
+        assertEquals("40320", runWithoutAntlr("--cache-dir=" + dir, "fwjsScripts/factorial.fwjs"));
+        Files.delete(cache.pathFor(ScriptCache.hash(src)));
+        Files.delete(dir);
+    }
+}
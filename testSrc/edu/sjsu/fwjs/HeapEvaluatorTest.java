@@ -0,0 +1,51 @@
+package edu.sjsu.fwjs;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class HeapEvaluatorTest {
+
+    private static final String SUM_LIST =
+            "var pair = function(x, y) { function(f) { f(x, y); }; };"
+            + " var build = function(n) { var lst = null; var i = 0;"
+            + "   while (i < n) { i = i + 1; lst = pair(i, lst); } lst; };"
+            + " var sumList = function(lst) {"
+            + "   if (lst == null) 0; else lst(function(x, y) { x; }) + sumList(lst(function(x, y) { y; })); };"
+            + " sumList(build(100000));";
+
+    private static String output(EvalMode mode, Expression prog) {
+        return TestSupport.output(mode == EvalMode.HEAP
+                ? p -> HeapEvaluator.run(p, new Environment()) : TestSupport.RECURSIVE, prog);
+    }
+
+    @Test
+    // Plain, resolved and tail-marked trees all print the same as they do recursively.
+    public void testSampleScripts() throws Exception {
+        TestSupport.assertSampleScriptsRunAlike(prog -> HeapEvaluator.run(prog, new Environment()));
+    }
+
+    @Test
+    // Far deeper than the Java stack would allow, and not in tail position.
+    public void testDeepRecursion() {
+        Expression prog = RecursiveDescentParser.compile(SUM_LIST);
+        assertEquals(new IntVal(705082704), HeapEvaluator.run(prog, new Environment()));
+        Expression resolved = TailCalls.mark(ScopeResolver.resolve(prog));
+        assertEquals(new IntVal(705082704), HeapEvaluator.run(resolved, new Environment()));
+    }
+
+    @Test
+    public void testErrors() {
+        String[] progs = {
+            "if (1) 2;",
+            "var x = 1; var x = 2;",
+            "var f = function(a) { a; }; f(1, 2);",
+            "if (true) {} else 1;",
+        };
+        for (String src : progs) {
+            Expression prog = RecursiveDescentParser.compile(src);
+            assertEquals(src, output(EvalMode.RECURSIVE, prog), output(EvalMode.HEAP, prog));
+            assertFalse(src, output(EvalMode.HEAP, prog).isEmpty());
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package edu.sjsu.fwjs;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class InlineCacheTest {
+
+    private static final String APPLY = "var apply = function(f, x) { f(x); }; "
+            + "var a = function(x) { x + 1; }; var b = function(x) { x * 2; }; "
+            + "var c = function(x) { x - 3; }; var d = function(x) { x % 5; }; "
+            + "var e = function(x) { x / 2; }; ";
+
+    /** The site in apply's body, after running the calls through it. */
+    private static InlineCache site(Expression prog) {
+        prog.evaluate(new Environment());
+        FunctionDeclExpr apply = (FunctionDeclExpr) declared(prog, "apply");
+        return ((FunctionAppExpr) apply.getBody()).getCache();
+    }
+
+    private static Expression declared(Expression e, String name) {
+        if (e instanceof VarDeclExpr && ((VarDeclExpr) e).getName().equals(name)) {
+            return ((VarDeclExpr) e).getInitializer();
+        }
+        for (Expression child : PassManager.children(e)) {
+            Expression found = declared(child, name);
+            if (found != null) return found;
+        }
+        return null;
+    }
+
+    @Test
+    public void testStates() {
+        InlineCache site = site(RecursiveDescentParser.compile(
+                APPLY + "apply(a, 1); apply(a, 2); apply(a, 3);"));
+        assertEquals("monomorphic", site.getState());
+        assertEquals(2, site.getHits());
+        assertEquals(1, site.getMisses());
+
+        site = site(RecursiveDescentParser.compile(
+                APPLY + "apply(a, 1); apply(b, 2); apply(c, 3); apply(d, 4); apply(a, 5);"));
+        assertEquals("polymorphic", site.getState());
+        assertEquals(4, site.getTargetCount());
+        assertEquals(1, site.getHits());
+
+        site = site(RecursiveDescentParser.compile(
+                APPLY + "apply(a, 1); apply(b, 2); apply(c, 3); apply(d, 4); apply(e, 5); apply(a, 6);"));
+        assertEquals("megamorphic", site.getState());
+        assertEquals(6, site.getMisses());
+    }
+
+    @Test
+    // Closures made by one function expression share its linked binding.
+    public void testClosuresShareTarget() {
+        Expression prog = RecursiveDescentParser.compile(
+                "var make = function(n) { function(x) { x + n; }; }; "
+                + "var apply = function(f, x) { f(x); }; "
+                + "apply(make(1), 1); apply(make(2), 1); apply(make(3), 1);");
+        InlineCache site = site(prog);
+        assertEquals("monomorphic", site.getState());
+        assertEquals(2, site.getHits());
+    }
+
+    @Test
+    // Linked calls fail as generic ones do, resolved or not.
+    public void testErrors() {
+        String[] progs = {
+            "var f = function(a) { a; }; var g = function(x) { f(x, x); }; g(1); g(2);",
+            "var f = function(a, a) { a; }; var g = function(x) { f(x); }; g(1); g(2); f(1, 2);",
+            "var g = function(x) { x(1); }; g(function(y) { y; }); g(2);",
+            "var f = function(a, b) { b; }; var g = function(x) { f(x); }; g(1); g(2);",
+        };
+        for (String src : progs) {
+            Expression plain = RecursiveDescentParser.compile(src);
+            for (Expression prog : new Expression[] { plain, ScopeResolver.resolve(plain) }) {
+                Expression generic = RecursiveDescentParser.compile(src);
+                new InlineCache.Sites(false, false).install(generic);
+                String expected = outcome(generic, prog != plain);
+                String actual = outcome(prog, false);
+                assertEquals(src, expected, actual);
+            }
+        }
+    }
+
+    @Test
+    // Each cache has its own switches, and lists its sites with its trees.
+    public void testPerCache() {
+        String src = APPLY + "apply(a, 1); apply(a, 2);";
+        ScriptCache linking = new ScriptCache(ParseMode.TWO_STAGE, 1);
+        ScriptCache generic = new ScriptCache(ParseMode.TWO_STAGE, 1);
+        generic.setInlineCaches(false);
+        for (ScriptCache cache : new ScriptCache[] { linking, generic }) {
+            cache.setFrontEnd(FrontEnd.RECURSIVE_DESCENT);
+            cache.setOptimize(false);
+            cache.setInlineCacheProfiling(true);
+        }
+        assertEquals("monomorphic", site(linking.compile(src)).getState());
+        assertEquals("unlinked", site(generic.compile(src)).getState());
+        assertTrue(linking.callSiteReport(), linking.callSiteReport().contains("monomorphic"));
+        assertEquals("", generic.callSiteReport());
+
+        // Evicting the tree drops its sites
+        linking.compile("1;");
+        assertEquals("", linking.callSiteReport());
+    }
+
+    private static String outcome(Expression prog, boolean resolve) {
+        if (resolve) prog = ScopeResolver.resolve(prog);
+        try {
+            return String.valueOf(prog.evaluate(new Environment()));
+        } catch (RuntimeException e) {
+            return e.getClass().getName();
+        }
+    }
+}
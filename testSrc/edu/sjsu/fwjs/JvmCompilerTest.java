@@ -0,0 +1,196 @@
+package edu.sjsu.fwjs;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class JvmCompilerTest {
+
+    private static String output(boolean jit, Expression prog) {
+        return TestSupport.output(jit ? p -> HotFunctions.wrap(p, 0).evaluate(new Environment())
+                : TestSupport.RECURSIVE, prog);
+    }
+
+    @Test
+    // Every function compiled on its first call.
+    public void testSampleScripts() throws Exception {
+        TestSupport.assertSampleScriptsRunAlike(prog -> HotFunctions.wrap(prog, 0).evaluate(new Environment()));
+    }
+
+    @Test
+    // Unboxed arithmetic fails where, and as, BinOpExpr does.
+    public void testErrors() {
+        String p = "var p = function(x) { print(x); x; }; ";
+        String[] progs = {
+            "var f = function(a, b) { a + b; }; f(true, 1);",
+            "var f = function(a, b) { a + b; }; f(1, true);",
+            "var f = function(a, b) { a / b; }; f(1, 0);",
+            p + "var f = function(a) { a + p(2); }; f(true);",
+            p + "var f = function(a) { (a + 1) * p(false); }; f(1);",
+            "var f = function(a) { a + 1 / 0; }; f(true);",
+            p + "var f = function(a) { a < p(2); }; f(null);",
+            "var f = function(a) { if (a) 1; else 2; }; f(3);",
+            "var f = function(a) { if (a < 1) {} else 2; }; f(0);",
+            "var f = function(a) { while (a) a = false; }; f(3);",
+            "var f = function(a) { var a = 1; }; f(2);",
+            "var f = function(a) { a(1); }; f(2);",
+            "var f = function() { x = 1; var x = 2; x = x + 1; x; }; f(); x;",
+            "var x = 5; var f = function() { var y = x + 1; var x = 2; x + y; }; f();",
+            "var f = function() { var i = 0; while (i < 3) { var j = i; i = i + 1; } }; f();",
+            "var f = function(a) { if (a) { var i = 1; } i + 1; }; f(true); f(false);",
+        };
+        for (String src : progs) {
+            Expression prog = RecursiveDescentParser.compile(src);
+            assertEquals(src, output(false, prog), output(true, prog));
+            Expression resolved = ScopeResolver.resolve(prog);
+            assertEquals(src, output(false, resolved), output(true, resolved));
+        }
+    }
+
+    private static FunctionDeclExpr function(Expression e) {
+        if (e instanceof FunctionDeclExpr) return (FunctionDeclExpr) e;
+        for (Expression child : PassManager.children(e)) {
+            FunctionDeclExpr f = function(child);
+            if (f != null) return f;
+        }
+        return null;
+    }
+
+    private static Set<Integer> intSlots(String src) {
+        FunctionDeclExpr f = function(ScopeResolver.resolve(RecursiveDescentParser.compile(src)));
+        return JvmCompiler.intSlots(f.getBody());
+    }
+
+    @Test
+    // Only variables nothing else can see, holding only integers, go in int locals.
+    public void testIntSlots() {
+        assertEquals(new HashSet<Integer>(Arrays.asList(1, 2)), intSlots(
+                "var f = function(n) { var i = 0; var s = 0; "
+                + "while (i < n) { s = s + i; i = i + 1; } s; }; f;"));
+        assertEquals(new HashSet<Integer>(Arrays.asList(1)), intSlots(
+                "var f = function(n) { var i = 0; var s = n; i = i + 1; s; }; f;"));
+        assertEquals(new HashSet<Integer>(), intSlots(
+                "var f = function() { var i = 1; var g = function() { i; }; g; }; f;"));
+        assertEquals(new HashSet<Integer>(), intSlots(
+                "var f = function(a) { var i = 0; i = a; i; }; f;"));
+        assertEquals(new HashSet<Integer>(), intSlots(
+                "var f = function(a) { if (a) { var i = 0; } else { var i = true; } i; }; f;"));
+    }
+
+    @Test
+    public void testCompiledWhenHot() {
+        Expression body = RecursiveDescentParser.compile(
+                "var i = 0; var s = 0; while (i < 10) { s = s + i * i; i = i + 1; } s;");
+        CompiledBodyExpr hot = new CompiledBodyExpr(body, 3);
+        for (int i = 0; i < 3; i++) {
+            assertFalse(hot.isCompiled());
+            assertEquals(new IntVal(285), hot.evaluate(new Environment()));
+        }
+        assertTrue(hot.isCompiled());
+        assertEquals(new IntVal(285), hot.evaluate(new Environment()));
+    }
+
+    @Test
+    // Speculating that == sees ints, then seeing booleans, deoptimizes.
+    public void testDeoptimize() {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        Expression prog = HotFunctions.wrap(RecursiveDescentParser.compile(
+                "var eq = function(a, b) { if (a == b) 1; else 0; }; "
+                + "var t = 0; var i = 0; while (i < 20) { t = t + eq(i, 3); i = i + 1; } "
+                + "t = t + eq(true, true) + eq(null, null) + eq(false, 3);"
+                + "i = 0; while (i < 20) { t = t + eq(i, i); i = i + 1; } t;"), 5, 1000,
+                new PrintStream(log));
+        assertEquals(new IntVal(23), prog.evaluate(new Environment()));
+        assertEquals("jit: compiled eq after 5 calls and 0 loop iterations\n"
+                + "jit: deoptimized eq: BinOp EQ on BoolVal and BoolVal\n"
+                + "jit: compiled eq after 5 calls and 0 loop iterations\n",
+                log.toString().replace(System.lineSeparator(), "\n"));
+    }
+
+    @Test
+    // Known functions are copied, not wrapped in place, so the input can be
+    // wrapped again; the log names them after their variables.
+    public void testInputUnchanged() {
+        Expression prog = ScopeResolver.resolve(RecursiveDescentParser.compile(
+                "var fact = function(n) { if (n == 0) 1; else n * fact(n - 1); }; fact(5);"));
+        String before = TreePrinter.print(prog);
+        assertTrue(before, before.contains("DirectCall"));
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream log = new ByteArrayOutputStream();
+            Expression hot = HotFunctions.wrap(prog, 2, 1000, new PrintStream(log));
+            assertEquals(new IntVal(120), hot.evaluate(new Environment()));
+            assertTrue(TreePrinter.print(hot).contains("CompiledBody"));
+            assertEquals(before, TreePrinter.print(prog));
+            assertTrue(log.toString(), log.toString().startsWith("jit: compiled fact after"));
+        }
+    }
+
+    @Test
+    // A condition that stops being a boolean fails as the tree walker's does.
+    public void testDeoptimizeErrors() {
+        Expression prog = HotFunctions.wrap(RecursiveDescentParser.compile(
+                "var f = function(a) { if (a) 1; else 2; }; "
+                + "var i = 0; while (i < 10) { f(i < 5); i = i + 1; } f(3);"), 2, 1000, null);
+        try {
+            prog.evaluate(new Environment());
+            fail();
+        } catch (RuntimeException e) {
+            assertEquals("Only booleans accepted in If statements!", e.getMessage());
+        }
+    }
+
+    @Test
+    // A function called once, but looping a lot, is compiled on its next call.
+    public void testHotLoops() {
+        Expression body = RecursiveDescentParser.compile(
+                "var s = 0; while (n > 0) { s = s + n; n = n - 1; } s;");
+        CompiledBodyExpr hot = (CompiledBodyExpr) ((FunctionDeclExpr) HotFunctions.wrap(
+                new FunctionDeclExpr(Arrays.asList("n"), body), 1000, 50, null))
+                .getBody();
+        Environment env = new Environment();
+        env.createVar("n", new IntVal(100));
+        assertEquals(new IntVal(5050), hot.evaluate(env));
+        assertFalse(hot.isCompiled());
+        assertTrue(hot.getProfile().isHot());
+        env = new Environment();
+        env.createVar("n", new IntVal(3));
+        assertEquals(new IntVal(6), hot.evaluate(env));
+        assertTrue(hot.isCompiled());
+    }
+
+    @Test
+    // A long loop moves into compiled code mid-run, and deoptimizes there.
+    public void testOnStackReplacement() {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        Expression prog = HotFunctions.wrap(RecursiveDescentParser.compile(
+                "var c = true; var n = 0; var s = 0; "
+                + "while (c) { n = n + 1; s = s + n; if (n == 20) c = 1; } s;"), 1000, 10,
+                new PrintStream(log));
+        assertEquals(new IntVal(210), prog.evaluate(new Environment()));
+        assertEquals("jit: compiled a loop in top level after 10 iterations, on stack\n"
+                + "jit: deoptimized top level: While on IntVal\n",
+                log.toString().replace(System.lineSeparator(), "\n"));
+        int loops = 0;
+        for (Expression e : PassManager.children(prog)) {
+            if (e instanceof WhileExpr) {
+                assertFalse(((WhileExpr) e).isCompiled());
+                loops++;
+            }
+        }
+        assertEquals(1, loops);
+    }
+
+    @Test
+    public void testTailCalls() {
+        Expression prog = RecursiveDescentParser.compile(
+                "var count = function(n) { if (n == 0) 0; else count(n - 1); }; count(100000);");
+        Expression resolved = HotFunctions.wrap(TailCalls.mark(ScopeResolver.resolve(prog)), 0);
+        assertEquals(new IntVal(0), resolved.evaluate(new Environment()));
+    }
+}
@@ -0,0 +1,101 @@
+package edu.sjsu.fwjs;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class PassManagerTest {
+
+    @Test
+    // The standard passes leave every sample script in a state the verifier accepts.
+    public void testStandardPassesVerify() throws Exception {
+        ScriptCache cache = new ScriptCache(ParseMode.TWO_STAGE, 16);
+        cache.setVerifyPasses(true);
+        for (Map.Entry<String,String> e : TestSupport.sampleScripts().entrySet()) {
+            Expression prog = RecursiveDescentParser.compile(e.getValue());
+            TreeVerifier.verify(cache.getPasses().run(prog));
+            for (Expression stat : ((BlockExpr) prog).getStatements()) {
+                cache.getStatementPasses().run(stat);
+            }
+        }
+    }
+
+    @Test
+    public void testStats() {
+        PassManager pm = new PassManager()
+                .add("fold", ConstantFolder::fold)
+                .add("nothing", prog -> prog);
+        pm.setCountNodes(true);
+        Expression prog = RecursiveDescentParser.compile("print(1 + 2 * 3);");
+        assertEquals(6, PassManager.size(prog));
+        pm.run(prog);
+        pm.run(prog);
+        String report = pm.statsReport();
+        assertTrue(report, report.contains("pass fold       trees=2 "));
+        assertTrue(report, report.contains("nodes=12->4 (-8)"));
+        assertTrue(report, report.contains("pass nothing    trees=2 "));
+        assertTrue(report, report.contains("nodes=4->4 (+0)"));
+
+        // Nodes are only counted when asked for
+        pm = new PassManager().add("fold", ConstantFolder::fold);
+        pm.run(prog);
+        report = pm.statsReport();
+        assertTrue(report, report.startsWith("pass fold       trees=1 "));
+        assertFalse(report, report.contains("nodes="));
+    }
+
+    @Test
+    public void testVerifyNamesBrokenPass() {
+        PassManager pm = new PassManager()
+                .add("fold", ConstantFolder::fold)
+                .add("bad-tail", prog -> new TailCallExpr(prog, Arrays.<Expression>asList()));
+        Expression prog = RecursiveDescentParser.compile("var f = function() { 1; };");
+        pm.run(prog);
+        pm.setVerify(true);
+        try {
+            pm.run(prog);
+            fail("expected the verifier to reject the tree");
+        } catch (IllegalStateException e) {
+            assertEquals("after pass bad-tail: TailCallExpr: tail call not in tail position of a function",
+                    e.getMessage());
+        }
+    }
+
+    @Test
+    public void testVerifier() {
+        String[] bad = {
+            "ResolvedVarDeclExpr: outside of a resolved frame",
+            "ProgramExpr: not at the root of the tree",
+            "BinOpExpr: missing right operand",
+        };
+        Expression[] trees = {
+            new ResolvedVarDeclExpr(null, 0, new ValueExpr(new IntVal(1))),
+            new BlockExpr(Arrays.<Expression>asList(
+                    ScopeResolver.resolve(RecursiveDescentParser.compile("1;")))),
+            new BinOpExpr(Op.ADD, new ValueExpr(new IntVal(1)), null),
+        };
+        for (int i = 0; i < bad.length; i++) {
+            try {
+                TreeVerifier.verify(trees[i]);
+                fail("expected " + bad[i]);
+            } catch (IllegalStateException e) {
+                assertEquals(bad[i], e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testDump() {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        PassManager pm = new PassManager().add("fold", ConstantFolder::fold);
+        pm.setDump(new PrintStream(buf, true));
+        pm.run(RecursiveDescentParser.compile("print(1 + 2);"));
+        assertEquals("== input\nPrint\n  BinOp ADD\n    Value 1\n    Value 2\n"
+                + "== after fold\nPrint\n  Value 3\n", buf.toString().replace("\r\n", "\n"));
+    }
+}
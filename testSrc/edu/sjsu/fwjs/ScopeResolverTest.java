@@ -0,0 +1,187 @@
+package edu.sjsu.fwjs;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ScopeResolverTest {
+
+    /**
+     * What running the program prints, followed by the exception it
+     * ended with, if any.
+     */
+    private String run(Expression prog, Environment env) {
+        return TestSupport.output(() -> prog.evaluate(env));
+    }
+
+    private void assertSameBehavior(String expected, String src) {
+        Expression prog = RecursiveDescentParser.compile(src);
+        assertEquals(src, expected, run(prog, new Environment()));
+        assertEquals(src, expected, run(ScopeResolver.resolve(prog), new Environment()));
+
+        // One statement at a time in a shared global environment, as when streaming
+        Environment global = new Environment();
+        StringBuilder out = new StringBuilder();
+        List<Expression> stmts = prog instanceof BlockExpr
+                ? ((BlockExpr) prog).getStatements() : Collections.singletonList(prog);
+        for (Expression stmt : stmts) {
+            String s = run(ScopeResolver.resolveStatement(stmt), global);
+            out.append(s);
+            if (s.endsWith("Exception\n")) break;
+        }
+        assertEquals(src, expected, out.toString());
+    }
+
+    @Test
+    public void testClosuresAndRecursion() {
+        assertSameBehavior("2\n", "var mk = function() { var n = 0; function() { n = n + 1; }; };"
+                + " var c = mk(); c(); print(c());");
+        assertSameBehavior("120\n", "var fact = function(n) { if (n < 2) 1; else n * fact(n - 1); };"
+                + " print(fact(5));");
+    }
+
+    @Test
+    // Until its declaration has run, a name refers to the outer variable.
+    public void testUseBeforeDeclaration() {
+        assertSameBehavior("3\n", "var x = 1; var f = function() { var a = x; var x = 2; a + x; };"
+                + " print(f());");
+        assertSameBehavior("3\n2\n", "var f = function() { x = 2; var x = 3; x; }; var x = 1;"
+                + " print(f()); print(x);");
+    }
+
+    @Test
+    public void testUnboundParameter() {
+        assertSameBehavior("5\n", "var x = 5; var f = function(x) { x; }; print(f());");
+    }
+
+    @Test
+    public void testAssignmentCreatesGlobal() {
+        assertSameBehavior("7\nnull\n", "var f = function() { g = 7; }; f(); print(g); print(h);");
+    }
+
+    @Test
+    // A variable holding no value at all is skipped, as the map-based lookup skips it.
+    public void testNullValue() {
+        assertSameBehavior("3\n", "var f = function() { while (false) 1; }; var x = 3;"
+                + " var g = function() { var x = f(); x; }; print(g());");
+    }
+
+    @Test
+    public void testErrors() {
+        assertSameBehavior("RuntimeException\n", "var a = 1; var a = 2;");
+        assertSameBehavior("RuntimeException\n", "var f = function(a, a) { a; }; f(1, 2);");
+        assertSameBehavior("IndexOutOfBoundsException\n", "var f = function(a) { a; }; f(1, 2);");
+    }
+
+    @Test
+    public void testCapturedVariables() {
+        // Shared with the closure, since it is assigned after being captured
+        assertSameBehavior("1\n2\n", "var mk = function() { var n = 0; var inc = function() { n = n + 1; };"
+                + " inc(); print(n); inc(); n; }; print(mk());");
+        // Declared after being captured, as a recursive local function is
+        assertSameBehavior("6\n", "var f = function() { var g = function(n) { if (n < 1) 0; else n + g(n - 1); };"
+                + " g(3); }; print(f());");
+        // Passed through a function that does not use it
+        assertSameBehavior("3\n", "var f = function(a) { function() { function() { a; }; }; }; print(f(3)()());");
+        // The closure's own variable shadows the captured one once declared
+        assertSameBehavior("1\n2\n", "var f = function(x) { function() { print(x); var x = 2; x; }; };"
+                + " print(f(1)());");
+    }
+
+    @Test
+    // Closures keep only what they need, and copy what cannot change.
+    public void testCaptureLayout() {
+        Expression prog = ScopeResolver.resolve(RecursiveDescentParser.compile(
+                "var pair = function(x, y) { var big = 1; function(f) { f(x, y); }; };"));
+        FunctionDeclExpr pair = (FunctionDeclExpr) ((ResolvedVarDeclExpr) ((ProgramExpr) prog).getBody())
+                .getInitializer();
+        FunctionDeclExpr cell = (FunctionDeclExpr) ((BlockExpr) pair.getBody()).getStatements().get(1);
+        assertEquals(2, cell.getInfo().capturedValueCount());
+        assertEquals(0, cell.getInfo().capturedBoxCount());
+        assertFalse(pair.getInfo().isBoxed(pair.getInfo().slotOf("x")));
+    }
+
+    @Test
+    public void testKnownCalls() {
+        // Local helpers, one recursive, one calling the other
+        assertSameBehavior("12\n", "var f = function(n) { var sq = function(x) { x * x; };"
+                + " var sum = function(i) { if (i < 1) 0; else sq(i) + sum(i - 1); }; sum(n); };"
+                + " print(f(3) - 2);");
+        // Called before its declaration, the name still means the outer function
+        assertSameBehavior("1\n2\n", "var g = function() { 1; }; var f = function() { print(g());"
+                + " var g = function() { 2; }; g(); }; print(f());");
+        // Each evaluation still makes a distinct closure
+        assertSameBehavior("false\n", "var mk = function() { var id = function(x) { x; }; id; };"
+                + " print(mk() == mk());");
+        assertSameBehavior("IndexOutOfBoundsException\n", "var f = function() { var g = function(a) { a; };"
+                + " g(1, 2); 0; }; f();");
+    }
+
+    @Test
+    // A helper used only for calls is not allocated; one used as a value still is.
+    public void testLifting() {
+        Expression prog = ScopeResolver.resolve(RecursiveDescentParser.compile(
+                "var f = function(n) { var sq = function(x) { x * x; }; var id = function(x) { x; };"
+                + " id(sq(n)); id; };"), true, false, null);
+        FunctionDeclExpr f = (FunctionDeclExpr) ((ResolvedVarDeclExpr) ((ProgramExpr) prog).getBody())
+                .getInitializer();
+        List<Expression> stmts = ((BlockExpr) f.getBody()).getStatements();
+        assertEquals(3, stmts.size());
+        assertTrue(stmts.get(0) instanceof ResolvedVarDeclExpr);
+        assertTrue(stmts.get(1) instanceof DirectCallExpr);
+    }
+
+    @Test
+    public void testInlining() {
+        // The inlined function's variables do not clash with the caller's
+        assertSameBehavior("7\n3\n", "var x = 3; var f = function(x) { var y = x + 1; y; };"
+                + " var g = function(y) { var r = f(y); print(r + 2); x; }; print(g(4));");
+        // A name the function does not declare means the global, not the caller's variable
+        assertSameBehavior("10\n", "var n = 10; var get = function() { n; };"
+                + " var h = function(n) { get(); }; print(h(1));");
+        // A null argument leaves the parameter looking outward, as in a call
+        assertSameBehavior("5\n", "var v = 5; var nothing = function() { while (false) 1; };"
+                + " var id = function(v) { v; }; var h = function() { id(nothing()); }; print(h());");
+        // Through another name, which is only known once declared
+        assertSameBehavior("2\n3\n", "var f = function(p) { p + 1; }; var g = function() { h(1); };"
+                + " var h = f; print(g()); print(h(2));");
+        assertSameBehavior("3\n3\n", "var inc = function(a) { a + 1; }; var i = 0;"
+                + " while (i < 3) { i = inc(i); } print(i); print(inc(inc(1)));");
+    }
+
+    @Test
+    public void testInliningReport() {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        Expression prog = ScopeResolver.resolve(RecursiveDescentParser.compile(
+                "var head = function(p) { p(1); };"
+                + " var len = function(l) { if (l == null) 0; else 1 + len(head(l)); }; len(null);"),
+                true, true, new PrintStream(buf));
+        assertEquals("0", prog.evaluate(new Environment()).toString());
+        String report = buf.toString();
+        assertTrue(report, report.contains("inlined head into len (3 nodes)"));
+        assertTrue(report, report.contains("did not inline len into len: recursive"));
+    }
+
+    @Test
+    public void testUsesSlots() {
+        Expression prog = ScopeResolver.resolve(RecursiveDescentParser.compile("var i = 0; i = i + 1;"));
+        List<Expression> stmts = ((BlockExpr) ((ProgramExpr) prog).getBody()).getStatements();
+        assertTrue(stmts.get(0) instanceof ResolvedVarDeclExpr);
+        assertTrue(stmts.get(1) instanceof ResolvedAssignExpr);
+    }
+
+    @Test
+    public void testSampleScripts() throws Exception {
+        for (Map.Entry<String,String> e : TestSupport.sampleScripts().entrySet()) {
+            Expression prog = RecursiveDescentParser.compile(e.getValue());
+            assertEquals(e.getKey(), run(prog, new Environment()),
+                    run(ScopeResolver.resolve(prog), new Environment()));
+        }
+    }
+}
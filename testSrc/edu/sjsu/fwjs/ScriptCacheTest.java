@@ -0,0 +1,69 @@
+package edu.sjsu.fwjs;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class ScriptCacheTest {
+
+    private ScriptCache newCache(int capacity) {
+        return new ScriptCache(ParseMode.TWO_STAGE, capacity);
+    }
+
+    @Test
+    public void testHitReturnsSameTree() {
+        ScriptCache cache = newCache(4);
+        Expression first = cache.compile("var x = 6; x * 7;");
+        Expression second = cache.compile("var x = 6; x * 7;");
+        assertSame(first, second);
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    // The same tree can be run many times, each against a fresh environment.
+    public void testCachedTreeIsReusable() {
+        ScriptCache cache = newCache(4);
+        for (int i = 0; i < 3; i++) {
+            Expression prog = cache.compile("var x = 6; x * 7;");
+            assertEquals(new IntVal(42), prog.evaluate(new Environment()));
+        }
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        ScriptCache cache = newCache(2);
+        cache.compile("1;");
+        cache.compile("2;");
+        cache.compile("1;");   // hit; "2;" is now the eldest
+        cache.compile("3;");   // evicts "2;"
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2, cache.size());
+        cache.compile("1;");
+        assertEquals(2, cache.getHits());
+        cache.compile("2;");
+        assertEquals(4, cache.getMisses());
+    }
+
+    @Test
+    // Bytecode and compiled closures are kept with the tree, and evicted with it.
+    public void testCompiledFormsAreEvictedWithTree() {
+        for (EvalMode mode : new EvalMode[] { EvalMode.BYTECODE, EvalMode.CLOSURES }) {
+            Interpreter interp = new Interpreter(ParseMode.TWO_STAGE, 1);
+            interp.setEvalMode(mode);
+            assertEquals(new IntVal(42), interp.run("6 * 7;"));
+            ScriptCache.Entry entry = interp.getCache().lookup("6 * 7;", new SyntaxErrorReporter(null));
+            assertTrue(mode.toString(), entry.vm != null || entry.closures != null);
+            interp.run("1;");   // evicts "6 * 7;"
+            entry = interp.getCache().lookup("6 * 7;", new SyntaxErrorReporter(null));
+            assertNull(entry.vm);
+            assertNull(entry.closures);
+        }
+    }
+
+    @Test
+    public void testHashIsContentBased() {
+        assertEquals(ScriptCache.hash("x;"), ScriptCache.hash("x;"));
+        assertNotEquals(ScriptCache.hash("x;"), ScriptCache.hash("y;"));
+    }
+}
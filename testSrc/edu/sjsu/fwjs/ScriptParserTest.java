@@ -0,0 +1,89 @@
+package edu.sjsu.fwjs;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.junit.Test;
+
+public class ScriptParserTest {
+
+    private static final String SCRIPT =
+            "var f = function(x, y) { x * y + 1; };\n"
+            + "var i = 0;\n"
+            + "while (i < 3) { i = i + 1; }\n"
+            + "if (i == 3) f(i, 2); else 0;\n";
+
+    private Value run(ParseMode mode, String src) {
+        ScriptParser parser = new ScriptParser(mode);
+        ParseTree tree = parser.parse(new ANTLRInputStream(src));
+        Expression prog = new ExpressionBuilderVisitor().visit(tree);
+        return prog.evaluate(new Environment());
+    }
+
+    @Test
+    public void testModesAgree() {
+        assertEquals(new IntVal(7), run(ParseMode.LL, SCRIPT));
+        assertEquals(new IntVal(7), run(ParseMode.SLL, SCRIPT));
+        assertEquals(new IntVal(7), run(ParseMode.TWO_STAGE, SCRIPT));
+    }
+
+    @Test
+    public void testTwoStageNeedsNoFallback() {
+        ScriptParser parser = new ScriptParser(ParseMode.TWO_STAGE);
+        parser.parse(new ANTLRInputStream(SCRIPT));
+        assertEquals(1, parser.getParseCount());
+        assertEquals(1, parser.getSllSuccessCount());
+        assertEquals(0, parser.getLlFallbackCount());
+    }
+
+    @Test
+    // A syntax error makes SLL bail out, so the LL stage reports it.
+    public void testTwoStageFallsBackOnError() {
+        ScriptParser parser = new ScriptParser(ParseMode.TWO_STAGE);
+        parser.parse(new ANTLRInputStream("var x = ;"));
+        assertEquals(0, parser.getSllSuccessCount());
+        assertEquals(1, parser.getLlFallbackCount());
+        assertTrue(parser.getSyntaxErrorCount() > 0);
+    }
+
+    @Test
+    // Long programs are one flat block, so running them does not recurse per statement.
+    public void testLongProgram() {
+        StringBuilder src = new StringBuilder("var x = 0;\n");
+        for (int i = 0; i < 100000; i++) {
+            src.append("x = x + 1;\n");
+        }
+        Expression prog = new ScriptParser(ParseMode.TWO_STAGE).compile(src.toString());
+        assertTrue(prog instanceof BlockExpr);
+        assertEquals(new IntVal(100000), prog.evaluate(new Environment()));
+    }
+
+    @Test
+    public void testParseModeNames() {
+        assertEquals(ParseMode.TWO_STAGE, ParseMode.fromName("two-stage"));
+        assertEquals(ParseMode.SLL, ParseMode.fromName("sll"));
+        assertEquals(ParseMode.LL, ParseMode.fromName("LL"));
+    }
+
+    @Test
+    // Each statement is built on its own, and later ones see earlier definitions.
+    public void testStatementStream() {
+        ScriptParser parser = new ScriptParser(ParseMode.TWO_STAGE);
+        ScriptParser.StatementReader stats =
+                parser.statements(new ByteArrayInputStream(SCRIPT.getBytes()));
+        Environment env = new Environment();
+        Value last = null;
+        int count = 0;
+        Expression stat;
+        while ((stat = stats.next()) != null) {
+            last = stat.evaluate(env);
+            count++;
+        }
+        assertEquals(4, count);
+        assertEquals(new IntVal(7), last);
+        assertEquals(4, parser.getParseCount());
+    }
+}
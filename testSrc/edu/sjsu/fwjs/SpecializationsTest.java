@@ -0,0 +1,85 @@
+package edu.sjsu.fwjs;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class SpecializationsTest {
+
+    private static Value run(String src) {
+        return run(new Specializations(), src);
+    }
+
+    private static Value run(Specializations specializations, String src) {
+        Expression prog = RecursiveDescentParser.compile(src);
+        specializations.install(prog);
+        return prog.evaluate(new Environment());
+    }
+
+    @Test
+    public void testSpecializeOnFirstUse() {
+        Specializations specializations = new Specializations();
+        assertEquals(new IntVal(45), run(specializations,
+                "var i = 0; var t = 0; while (i < 10) { if (i > 0) t = t + i; i = i + 1; } t;"));
+        String report = specializations.report();
+        assertTrue(report, report.contains("BinOp ADD int-add"));
+        assertTrue(report, report.contains("BinOp LT int-lt"));
+        assertTrue(report, report.contains("If bool"));
+        assertTrue(report, report.contains("While bool"));
+        assertFalse(report, report.contains("generic"));
+    }
+
+    @Test
+    // When a guard fails, the node goes generic and still gets the answer right.
+    public void testFallBack() {
+        Specializations specializations = new Specializations();
+        assertEquals(new BoolVal(true), run(specializations,
+                "var eq = function(a, b) { a == b; }; eq(1, 1); eq(true, false); eq(null, null);"));
+        String report = specializations.report();
+        assertTrue(report, report.contains("BinOp EQ int-eq -> generic"));
+    }
+
+    @Test
+    // Each cache has its own switch and profile.
+    public void testPerCache() {
+        ScriptCache on = new ScriptCache(ParseMode.TWO_STAGE, 1);
+        ScriptCache off = new ScriptCache(ParseMode.TWO_STAGE, 1);
+        off.setSpecialize(false);
+        for (ScriptCache cache : new ScriptCache[] { on, off }) {
+            cache.setFrontEnd(FrontEnd.RECURSIVE_DESCENT);
+            cache.setOptimize(false);
+        }
+        BinOpExpr generic = (BinOpExpr) off.compile("1 + 2;");
+        assertEquals(new IntVal(3), generic.evaluate(new Environment()));
+        assertEquals(Specializations.GENERIC, generic.getSpecialization());
+        assertEquals("", off.getSpecializations().report());
+
+        BinOpExpr specialized = (BinOpExpr) on.compile("1 + 2;");
+        assertEquals(new IntVal(3), specialized.evaluate(new Environment()));
+        assertEquals(Specializations.INT_ADD, specialized.getSpecialization());
+        assertTrue(on.getSpecializations().report().contains("BinOp ADD int-add"));
+    }
+
+    @Test
+    // Errors are those of the generic code, specialized or not.
+    public void testErrors() {
+        try {
+            run("var f = function(a, b) { a + b; }; f(1, 2); f(true, 2);");
+            fail();
+        } catch (ClassCastException e) {
+            // as BinOpExpr.apply fails
+        }
+        try {
+            run("var f = function(a) { if (a) 1; }; f(true); f(1);");
+            fail();
+        } catch (RuntimeException e) {
+            assertEquals("Only booleans accepted in If statements!", e.getMessage());
+        }
+        try {
+            run("var f = function(a, b) { a / b; }; f(4, 2); f(1, 0);");
+            fail();
+        } catch (ArithmeticException e) {
+            // as dividing by zero does
+        }
+    }
+}
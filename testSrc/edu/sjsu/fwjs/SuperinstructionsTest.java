@@ -0,0 +1,86 @@
+package edu.sjsu.fwjs;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class SuperinstructionsTest {
+
+    private static final String PROGRAM = "var count = function(n) { var i = 0; var s = 0; "
+            + "while (i < n) { s = s + i; i = i + 1; } s; }; "
+            + "var add = function(x, y) { x + y; }; "
+            + "var lst = null; if (lst == null) { add(count(10), 3); } else { 0; }";
+
+    private static int count(Expression e, Class<?> type) {
+        int n = type.isInstance(e) ? 1 : 0;
+        for (Expression child : PassManager.children(e)) {
+            n += count(child, type);
+        }
+        return n;
+    }
+
+    /** What evaluating the program gives, or the class of what it throws. */
+    private static Object result(Expression prog) {
+        try {
+            return prog.evaluate(new Environment());
+        } catch (RuntimeException e) {
+            return e.getClass();
+        }
+    }
+
+    @Test
+    public void testShapesFuse() {
+        Superinstructions.reset();
+        Expression prog = RecursiveDescentParser.compile(PROGRAM);
+        Expression fused = Superinstructions.fuse(prog);
+        assertEquals(new IntVal(48), fused.evaluate(new Environment()));
+        String report = Superinstructions.report();
+        assertTrue(report, report.contains("fused call       nodes=1"));
+        assertTrue(report, report.contains("fused compare    nodes=2"));
+        assertTrue(report, report.contains("fused increment  nodes=1"));
+        // The input tree is left as it was
+        assertEquals(0, count(prog, FusedExpr.class));
+
+        // A fused node counts once, with its operands
+        assertEquals(1, PassManager.size(Superinstructions.fuse(
+                RecursiveDescentParser.compile("i = i + 1;"))));
+        assertEquals(3, PassManager.size(Superinstructions.fuse(
+                RecursiveDescentParser.compile("i < n;"))));
+    }
+
+    @Test
+    // Fused nodes give the same values, and fail the same way, as the
+    // nodes they replace.
+    public void testSameResults() {
+        String[] programs = {
+            PROGRAM,
+            "x = x + 1;",
+            "var x = true; x = x - 1;",
+            "var x = 2147483647; x = x + 1;",
+            "var x = 3; x < y;",
+            "var f = function(a, b) { a; }; f(1, 2, 3);",
+            "var f = function(a, b) { b; }; f(1);",
+            "var f = 1; f(2);",
+            "var x = true; x == true;",
+            "var x = 1; x == true;",
+        };
+        for (String source : programs) {
+            Object expected = result(RecursiveDescentParser.compile(source));
+            Object fused = result(Superinstructions.fuse(RecursiveDescentParser.compile(source)));
+            assertEquals(source, expected, fused);
+        }
+    }
+
+    @Test
+    public void testResolved() {
+        ScriptCache cache = new ScriptCache(ParseMode.TWO_STAGE, 1);
+        cache.setPasses(Arrays.asList("fold", "resolve", "tail-calls"));
+        Expression unfused = cache.getPasses().run(RecursiveDescentParser.compile(PROGRAM));
+        cache.setPasses(ScriptCache.STANDARD_PASSES);
+        Expression fused = cache.getPasses().run(RecursiveDescentParser.compile(PROGRAM));
+        assertEquals(result(unfused), result(fused));
+        TreeVerifier.verify(fused);
+    }
+}
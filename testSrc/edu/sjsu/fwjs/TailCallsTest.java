@@ -0,0 +1,53 @@
+package edu.sjsu.fwjs;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class TailCallsTest {
+
+    private static final String COUNT_DOWN =
+            "var loop = function(n, acc) { if (n == 0) acc; else loop(n - 1, acc + 1); };"
+            + " loop(1000000, 0);";
+
+    @Test
+    // Far deeper than the Java stack would allow one frame per call.
+    public void testDeepTailRecursion() {
+        Expression prog = RecursiveDescentParser.compile(COUNT_DOWN);
+        assertEquals(new IntVal(1000000), TailCalls.mark(prog).evaluate(new Environment()));
+        Expression resolved = TailCalls.mark(ScopeResolver.resolve(prog));
+        assertEquals(new IntVal(1000000), resolved.evaluate(new Environment()));
+    }
+
+    @Test
+    public void testMutualAndIndirectTailCalls() {
+        Expression prog = TailCalls.mark(ScopeResolver.resolve(RecursiveDescentParser.compile(
+                "var even = function(n) { if (n == 0) true; else odd(n - 1); };"
+                + " var odd = function(n) { if (n == 0) false; else even(n - 1); };"
+                + " var apply = function(f, n) { f(n); }; apply(even, 1000001);")));
+        assertEquals(new BoolVal(false), prog.evaluate(new Environment()));
+    }
+
+    @Test
+    public void testOnlyTailPositionsMarked() {
+        Expression prog = TailCalls.mark(RecursiveDescentParser.compile(
+                "var f = function(n) { g(n); var x = g(n); if (n) 1 + g(n); else g(n); };"));
+        FunctionDeclExpr f = (FunctionDeclExpr) ((VarDeclExpr) prog).getInitializer();
+        List<Expression> stmts = ((BlockExpr) f.getBody()).getStatements();
+        assertTrue(stmts.get(0) instanceof FunctionAppExpr);
+        assertTrue(((VarDeclExpr) stmts.get(1)).getInitializer() instanceof FunctionAppExpr);
+        IfExpr last = (IfExpr) stmts.get(2);
+        assertTrue(last.getThen() instanceof BinOpExpr);
+        assertTrue(last.getElse() instanceof TailCallExpr);
+    }
+
+    @Test
+    // The top level of a program has no function to return a call to.
+    public void testTopLevelNotMarked() {
+        Expression prog = TailCalls.mark(RecursiveDescentParser.compile(
+                "var f = function() { 1; }; f();"));
+        assertTrue(((BlockExpr) prog).getStatements().get(1) instanceof FunctionAppExpr);
+    }
+}
@@ -0,0 +1,83 @@
+package edu.sjsu.fwjs;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Fixtures and helpers shared by the tests and Benchmarks.
+ */
+class TestSupport {
+    static final String SCRIPT_DIR = "fwjsScripts";
+    /** The tree walker. */
+    static final Evaluator RECURSIVE = prog -> prog.evaluate(new Environment());
+
+    /**
+     * A way of running a whole program, such as one of the evaluators.
+     */
+    interface Evaluator {
+        Value evaluate(Expression prog);
+    }
+
+    /**
+     * The sample scripts that parse cleanly, keyed by file name.
+     */
+    static Map<String,String> sampleScripts() throws IOException {
+        Map<String,String> scripts = new LinkedHashMap<String,String>();
+        File[] files = new File(SCRIPT_DIR).listFiles();
+        Arrays.sort(files);
+        for (File f : files) {
+            if (!f.getName().endsWith(".fwjs") || f.getName().equals("objects.fwjs")) continue;
+            scripts.put(f.getName(), new String(Files.readAllBytes(f.toPath()), "UTF-8"));
+        }
+        return scripts;
+    }
+
+    /**
+     * What running r prints, followed by the simple name of the exception
+     * it ended with, if any.
+     */
+    static String output(Runnable r) {
+        PrintStream out = System.out;
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(buf));
+        try {
+            r.run();
+        } catch (RuntimeException e) {
+            System.out.println(e.getClass().getSimpleName());
+        } finally {
+            System.setOut(out);
+        }
+        return buf.toString();
+    }
+
+    /**
+     * What evaluating prog prints, followed by "=> " and its value, or by
+     * the exception it ended with.
+     */
+    static String output(Evaluator evaluator, Expression prog) {
+        return output(() -> System.out.println("=> " + evaluator.evaluate(prog)));
+    }
+
+    /**
+     * Asserts that every sample script, both as parsed and after folding,
+     * resolving and marking tail calls, prints the same and ends the same
+     * way through evaluator as through the tree walker.
+     */
+    static void assertSampleScriptsRunAlike(Evaluator evaluator) throws IOException {
+        for (Map.Entry<String,String> e : sampleScripts().entrySet()) {
+            Expression plain = RecursiveDescentParser.compile(e.getValue());
+            Expression optimized = TailCalls.mark(ScopeResolver.resolve(ConstantFolder.fold(plain)));
+            for (Expression prog : new Expression[] { plain, optimized }) {
+                assertEquals(e.getKey(), output(RECURSIVE, prog), output(evaluator, prog));
+            }
+        }
+    }
+}